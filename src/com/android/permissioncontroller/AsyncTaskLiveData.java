@@ -18,21 +18,71 @@ package com.android.permissioncontroller;
 
 import android.os.AsyncTask;
 
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 import androidx.lifecycle.LiveData;
 
+import java.util.concurrent.Executor;
+
 /**
  * {@link LiveData} that uses {@link AsyncTask} to load value on a background thread.
+ * <p>
+ * A load is skipped, or its result discarded, if another load has been requested after it.
  *
  * @param <T> type of the value
  */
 public abstract class AsyncTaskLiveData<T> extends LiveData<T> {
 
+    @NonNull
+    private final Executor mExecutor;
+
+    @NonNull
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private int mLoadGeneration;
+
+    public AsyncTaskLiveData() {
+        this(AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    /**
+     * Create a new instance of this class.
+     *
+     * @param executor the {@code Executor} to load the value on
+     */
+    public AsyncTaskLiveData(@NonNull Executor executor) {
+        mExecutor = executor;
+    }
+
     /**
      * Load the value on a background thread. The value will be reloaded even if already loaded.
      */
     public void loadValue() {
-        AsyncTask.execute(() -> postValue(loadValueInBackground()));
+        int generation;
+        synchronized (mLock) {
+            generation = ++mLoadGeneration;
+        }
+        mExecutor.execute(() -> {
+            if (isLoadOutdated(generation)) {
+                return;
+            }
+            T value = loadValueInBackground();
+            synchronized (mLock) {
+                // Post under the lock so that an outdated value can never be posted after a newer
+                // one.
+                if (generation == mLoadGeneration) {
+                    postValue(value);
+                }
+            }
+        });
+    }
+
+    private boolean isLoadOutdated(int generation) {
+        synchronized (mLock) {
+            return generation != mLoadGeneration;
+        }
     }
 
     @WorkerThread
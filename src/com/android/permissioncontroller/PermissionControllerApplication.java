@@ -37,7 +37,12 @@ public final class PermissionControllerApplication extends Application {
         sInstance = this;
 
         PackageItemInfo.forceSafeLabels();
-        updateSpecialAppAccessListActivityEnabledState();
+        // This parses roles, which shouldn't be on the main thread during cold process start. Any
+        // role binder call arriving meanwhile simply waits for the same parse to finish. Use a
+        // dedicated thread, so that the parse doesn't wait behind, or delay, other AsyncTasks. The
+        // enabled state is persisted, hence only differs meanwhile if the roles changed.
+        new Thread(this::updateSpecialAppAccessListActivityEnabledState,
+                "SpecialAppAccessUpdater").start();
     }
 
     /**
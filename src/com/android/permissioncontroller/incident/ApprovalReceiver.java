@@ -48,7 +48,8 @@ public class ApprovalReceiver extends BroadcastReceiver {
                 incidentManager.denyReport(uri);
             }
         }
-        PendingList.getInstance().updateState(context, PendingList.FLAG_FROM_NOTIFICATION);
+        PendingList.getInstance().updateState(context, PendingList.FLAG_FROM_NOTIFICATION,
+                goAsync());
     }
 }
 
@@ -22,8 +22,9 @@ import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.content.DialogInterface.OnDismissListener;
 import android.content.res.Resources;
-import android.graphics.drawable.Drawable;
+import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.IncidentManager;
 import android.provider.Settings;
@@ -32,8 +33,10 @@ import android.text.SpannableString;
 import android.text.style.BulletSpan;
 import android.util.Log;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.view.WindowManager;
+import android.widget.HorizontalScrollView;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
@@ -58,6 +61,21 @@ public class ConfirmationActivity extends Activity implements OnClickListener, O
      */
     private static Uri sCurrentUri;
 
+    private String mAppLabel;
+    private AlertDialog mDialog;
+    private ReportDetails mDetails;
+    private HorizontalScrollView mImageScrollView;
+    private LinearLayout mImageList;
+    private boolean[] mImagesLoading;
+    private int mNumImagesBound;
+    private int mImageWidth;
+    private int mImageHeight;
+
+    private final ViewTreeObserver.OnScrollChangedListener mOnScrollChangedListener =
+            this::bindVisibleImages;
+    private final ViewTreeObserver.OnGlobalLayoutListener mOnGlobalLayoutListener =
+            this::bindVisibleImages;
+
     /**
      * If this activity is running in the current process, call finish() on it.
      */
@@ -94,6 +112,7 @@ public class ConfirmationActivity extends Activity implements OnClickListener, O
 
         final IncidentManager.PendingReport pending = new IncidentManager.PendingReport(uri);
         final String appLabel = formatting.getAppLabel(pending.getRequestingPackage());
+        mAppLabel = appLabel;
 
         final Resources res = getResources();
 
@@ -105,21 +124,7 @@ public class ConfirmationActivity extends Activity implements OnClickListener, O
             // If there was an error in the input we will just summarily reject the upload,
             // since we can't get proper approval. (Zero-length images or reasons means that
             // we will proceed with the imageless consent dialog).
-            final IncidentManager incidentManager = getSystemService(IncidentManager.class);
-            incidentManager.denyReport(getIntent().getData());
-
-            // Show a message to the user saying... nevermind.
-            new AlertDialog.Builder(this)
-                .setTitle(R.string.incident_report_dialog_title)
-                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
-                            @Override
-                            public void onClick(DialogInterface dialog, int which) {
-                                finish();
-                            }
-                        })
-                .setMessage(getString(R.string.incident_report_error_dialog_text, appLabel))
-                .setOnDismissListener(this)
-                .show();
+            rejectReport();
             return;
 
         }
@@ -168,24 +173,31 @@ public class ConfirmationActivity extends Activity implements OnClickListener, O
                     appLabel);
         ((TextView) content.findViewById(R.id.message)).setText(message);
 
-        final ArrayList<Drawable> images = details.getImages();
-        final int imagesSize = images.size();
+        final int imagesSize = details.getImageCount();
         if (imagesSize > 0) {
-            content.findViewById(R.id.imageScrollView).setVisibility(View.VISIBLE);
+            mDetails = details;
+            mImagesLoading = new boolean[imagesSize];
+            mImageScrollView = (HorizontalScrollView) content.findViewById(R.id.imageScrollView);
+            mImageScrollView.setVisibility(View.VISIBLE);
 
-            final LinearLayout imageList = (LinearLayout) content.findViewById(R.id.imageList);
+            mImageList = (LinearLayout) content.findViewById(R.id.imageList);
 
-            final int width = res.getDimensionPixelSize(R.dimen.incident_image_width);
-            final int height = res.getDimensionPixelSize(R.dimen.incident_image_height);
+            mImageWidth = res.getDimensionPixelSize(R.dimen.incident_image_width);
+            mImageHeight = res.getDimensionPixelSize(R.dimen.incident_image_height);
 
             for (int i = 0; i < imagesSize; i++) {
-                final Drawable drawable = images.get(i);
                 final ImageView imageView = new ImageView(this);
-                imageView.setImageDrawable(images.get(i));
                 imageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
 
-                imageList.addView(imageView, new LinearLayout.LayoutParams(width, height));
+                mImageList.addView(imageView,
+                        new LinearLayout.LayoutParams(mImageWidth, mImageHeight));
             }
+
+            // Images are only decoded once they are about to be scrolled into view.
+            mImageScrollView.getViewTreeObserver().addOnScrollChangedListener(
+                    mOnScrollChangedListener);
+            mImageScrollView.getViewTreeObserver().addOnGlobalLayoutListener(
+                    mOnGlobalLayoutListener);
         }
 
         final AlertDialog dialog = new AlertDialog.Builder(this)
@@ -199,7 +211,112 @@ public class ConfirmationActivity extends Activity implements OnClickListener, O
             final Window w = dialog.getWindow();
             w.setType(WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY);
         }
+        mDialog = dialog;
         dialog.show();
+
+        if (details.getImageCount() > 0) {
+            // The user can only approve the report once they have seen all images
+            dialog.getButton(DialogInterface.BUTTON_POSITIVE).setEnabled(false);
+        }
+    }
+
+    /**
+     * Deny the report, as it can't be shown to the user properly, and tell the user.
+     */
+    private void rejectReport() {
+        final IncidentManager incidentManager = getSystemService(IncidentManager.class);
+        incidentManager.denyReport(getIntent().getData());
+
+        if (mDialog != null) {
+            // Replace the confirmation dialog without finishing the activity
+            mDialog.setOnDismissListener(null);
+            mDialog.dismiss();
+            mDialog = null;
+        }
+
+        // Show a message to the user saying... nevermind.
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.incident_report_dialog_title)
+            .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            finish();
+                        }
+                    })
+            .setMessage(getString(R.string.incident_report_error_dialog_text, mAppLabel))
+            .setOnDismissListener(this)
+            .show();
+    }
+
+    /**
+     * Show the images which are within one screen of the visible part of the image list. Images
+     * are decoded when they are first about to be shown, and kept once bound.
+     */
+    private void bindVisibleImages() {
+        if (mDialog == null) {
+            return;
+        }
+
+        final int scrollWidth = mImageScrollView.getWidth();
+        final int visibleLeft = mImageScrollView.getScrollX() - scrollWidth;
+        final int visibleRight = mImageScrollView.getScrollX() + 2 * scrollWidth;
+
+        final int imagesSize = mImageList.getChildCount();
+        for (int i = 0; i < imagesSize; i++) {
+            final ImageView imageView = (ImageView) mImageList.getChildAt(i);
+            if (imageView.getDrawable() != null || mImagesLoading[i]) {
+                continue;
+            }
+            if (imageView.getRight() < visibleLeft || imageView.getLeft() > visibleRight) {
+                continue;
+            }
+            if (mDetails.hasImageFailed(i)) {
+                rejectReport();
+                return;
+            }
+
+            final Bitmap cachedImage = mDetails.getCachedImage(i);
+            if (cachedImage != null) {
+                bindImage(imageView, cachedImage);
+                continue;
+            }
+
+            final int index = i;
+            mImagesLoading[index] = true;
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+                final Bitmap image = mDetails.decodeImage(this, index, mImageWidth, mImageHeight);
+                imageView.post(() -> {
+                    mImagesLoading[index] = false;
+                    if (isDestroyed() || mDialog == null) {
+                        return;
+                    }
+
+                    if (image == null) {
+                        // Never let the user approve an image they could not see
+                        rejectReport();
+                    } else {
+                        bindImage(imageView, image);
+                    }
+                });
+            });
+        }
+    }
+
+    /**
+     * Show a decoded image. Once all images are shown, the report can be approved and the
+     * images no longer need to be bound.
+     */
+    private void bindImage(ImageView imageView, Bitmap image) {
+        imageView.setImageBitmap(image);
+        mNumImagesBound++;
+
+        if (mNumImagesBound == mImageList.getChildCount()) {
+            mDialog.getButton(DialogInterface.BUTTON_POSITIVE).setEnabled(true);
+
+            final ViewTreeObserver observer = mImageScrollView.getViewTreeObserver();
+            observer.removeOnScrollChangedListener(mOnScrollChangedListener);
+            observer.removeOnGlobalLayoutListener(mOnGlobalLayoutListener);
+        }
     }
 
     /**
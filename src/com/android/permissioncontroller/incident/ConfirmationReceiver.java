@@ -27,7 +27,7 @@ import android.content.Intent;
 public class ConfirmationReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
-        PendingList.getInstance().updateState(context, 0);
+        PendingList.getInstance().updateState(context, 0, goAsync());
     }
 }
 
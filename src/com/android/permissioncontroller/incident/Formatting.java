@@ -17,8 +17,8 @@
 package com.android.permissioncontroller.incident;
 
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.util.ArrayMap;
 
 import com.android.permissioncontroller.permission.utils.Utils;
 
@@ -33,6 +33,7 @@ public class Formatting {
     private final PackageManager mPm;
     private final DateFormat mDateFormat;
     private final DateFormat mTimeFormat;
+    private final ArrayMap<String, String> mAppLabels = new ArrayMap<>();
 
     /**
      * Constructor.  This object keeps the context.
@@ -46,16 +47,21 @@ public class Formatting {
 
     /**
      * Get the name to show the user for an application, given the package name.
-     * If the application can't be found, returns null.
+     * If the application can't be found, returns null. Found labels are cached for the
+     * lifetime of this object.
      */
     String getAppLabel(String pkg) {
-        ApplicationInfo app;
+        String label = mAppLabels.get(pkg);
+        if (label != null) {
+            return label;
+        }
         try {
-            app = mPm.getApplicationInfo(pkg, 0);
+            label = Utils.getAppLabel(mPm.getApplicationInfo(pkg, 0), mContext);
         } catch (PackageManager.NameNotFoundException ex) {
             return null;
         }
-        return Utils.getAppLabel(app, mContext);
+        mAppLabels.put(pkg, label);
+        return label;
     }
 
     /**
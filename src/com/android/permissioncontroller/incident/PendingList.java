@@ -20,13 +20,20 @@ import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.Handler;
 import android.os.IncidentManager;
+import android.os.Looper;
+import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
 
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
 import com.android.permissioncontroller.Constants;
 import com.android.permissioncontroller.R;
 
@@ -35,6 +42,8 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -60,6 +69,12 @@ class PendingList {
      */
     private static final String SHARED_PREFS_KEY_NOTIFICATIONS = "notifications";
 
+    /**
+     * How long to wait for further calls to {@link #updateState} before updating, so that a burst
+     * of requests results in a single update.
+     */
+    private static final long UPDATE_DELAY_MILLIS = 100;
+
     /**
      * Singleton instance.
      */
@@ -78,9 +93,10 @@ class PendingList {
         /**
          * Constructor.
          */
-        Rec(IncidentManager.PendingReport r, String l) {
+        Rec(IncidentManager.PendingReport r, String l, Locale loc) {
             this.report = r;
             this.label = l;
+            this.locale = loc;
         }
 
         /**
@@ -92,6 +108,24 @@ class PendingList {
          * The user-visible name of the entry.
          */
         public final String label;
+
+        /**
+         * The locale the notification for this record is shown in.
+         */
+        public final Locale locale;
+
+        /**
+         * Whether a notification posted for {@code shown} also shows this record.
+         */
+        boolean isShownAs(Rec shown) {
+            return shown != null
+                    && report.getTimestamp() == shown.report.getTimestamp()
+                    && report.getFlags() == shown.report.getFlags()
+                    && Objects.equals(report.getRequestingPackage(),
+                            shown.report.getRequestingPackage())
+                    && label.equals(shown.label)
+                    && locale.equals(shown.locale);
+        }
     }
 
     /**
@@ -103,47 +137,59 @@ class PendingList {
         private final int mFlags;
         private final NotificationManager mNm;
         private final Formatting mFormatting;
+        private final Locale mLocale;
         private Collator mCollator;
 
         /**
          * Constructor.
          */
-        Updater(Context context, int flags) {
+        Updater(Context context, int flags, Formatting formatting, Locale locale) {
             mContext = context;
             mFlags = flags;
             mNm = context.getSystemService(NotificationManager.class);
-            mFormatting = new Formatting(context);
-            mCollator = Collator.getInstance(
-                context.getResources().getConfiguration().getLocales().get(0));
+            mFormatting = formatting;
+            mLocale = locale;
+            mCollator = Collator.getInstance(locale);
         }
 
         /**
-         * Perform the update.
+         * Load the notifications that were showing when the process last updated them. Their
+         * state is unknown, so they are represented by {@code null} records.
          */
-        void updateState() {
-            final IncidentManager incidentManager =
-                    mContext.getSystemService(IncidentManager.class);
-            final List<IncidentManager.PendingReport> reports = incidentManager.getPendingReports();
-
-            // Load whatever we previously displayed.  This may result in some spurious
-            // cancel calls across reboots... but that's not an actual problem.
+        ArrayMap<String, Rec> loadShownNotifications() {
             final SharedPreferences prefs = mContext.getSharedPreferences(SHARED_PREFS_NAME,
                     Context.MODE_PRIVATE);
             final Set<String> prevNotifications =
                     prefs.getStringSet(SHARED_PREFS_KEY_NOTIFICATIONS, null);
-            final ArraySet<String> remainingNotifications = new ArraySet<String>();
+            final ArrayMap<String, Rec> shown = new ArrayMap<>();
             if (prevNotifications != null) {
                 for (final String s: prevNotifications) {
-                    remainingNotifications.add(s);
+                    shown.put(s, null);
                 }
             }
-            final ArraySet<String> currentNotifications = new ArraySet<String>();
+            return shown;
+        }
 
-            // Load everything we will need for display
-            final List<Rec> recs = new ArrayList();
+        /**
+         * Perform the update. Only posts the notifications that are new or changed since the
+         * last update, and cancels the ones that are no longer pending.
+         *
+         * @param shown The currently showing notifications, keyed by report uri. Updated to the
+         * notifications showing after this update.
+         */
+        void updateState(ArrayMap<String, Rec> shown) {
+            final IncidentManager incidentManager =
+                    mContext.getSystemService(IncidentManager.class);
+            final List<IncidentManager.PendingReport> reports = incidentManager.getPendingReports();
+
+            // Load everything we will need for display. Labels are cached by the formatting for
+            // this update.
+            final ArrayMap<String, Rec> currentNotifications = new ArrayMap<>();
+            Rec firstDialog = null;
             final int recCount = reports.size();
             for (int i = 0; i < recCount; i++) {
                 final IncidentManager.PendingReport report = reports.get(i);
+                final String uri = report.getUri().toString();
                 final String label = mFormatting.getAppLabel(report.getRequestingPackage());
                 if (label == null) {
                     Log.w(TAG, "Application (or its label) could not be found. Summarily "
@@ -152,34 +198,30 @@ class PendingList {
                     continue;
                 }
 
-                recs.add(new Rec(report, label));
-            }
-
-            // Sort by timestamp, then by label name (for a stable ordering, with the assumption
-            // that apps only post one at a time).
-            recs.sort((a, b) -> {
-                long val = a.report.getTimestamp() - b.report.getTimestamp();
-                if (val == 0) {
-                    return mCollator.compare(a.label, b.label);
-                } else {
-                    return val < 0 ? -1 : 1;
+                final Rec rec = new Rec(report, label, mLocale);
+                currentNotifications.put(uri, rec);
+                if ((report.getFlags() & IncidentManager.FLAG_CONFIRMATION_DIALOG) != 0) {
+                    if (firstDialog == null || compare(rec, firstDialog) < 0) {
+                        firstDialog = rec;
+                    }
                 }
-            });
+            }
 
-            // Collect what we are going to do.
-            Rec firstDialog = null;
+            // Collect what we are going to do. The notifications are ordered by their sort key,
+            // so only the changed ones need to be posted.
             final List<Rec> notificationRecs = new ArrayList();
-            final int notificationCount = recs.size();
+            final int notificationCount = currentNotifications.size();
             for (int i = 0; i < notificationCount; i++) {
-                final Rec rec = recs.get(i);
-                notificationRecs.add(rec);
-                final String uri = rec.report.getUri().toString();
-                remainingNotifications.remove(uri);
-                currentNotifications.add(uri);
-                if ((rec.report.getFlags() & IncidentManager.FLAG_CONFIRMATION_DIALOG) != 0) {
-                    if (firstDialog == null) {
-                        firstDialog = rec;
-                    }
+                final Rec rec = currentNotifications.valueAt(i);
+                if (!rec.isShownAs(shown.get(currentNotifications.keyAt(i)))) {
+                    notificationRecs.add(rec);
+                }
+            }
+            final ArraySet<String> remainingNotifications = new ArraySet<String>();
+            final int shownCount = shown.size();
+            for (int i = 0; i < shownCount; i++) {
+                if (!currentNotifications.containsKey(shown.keyAt(i))) {
+                    remainingNotifications.add(shown.keyAt(i));
                 }
             }
 
@@ -198,8 +240,10 @@ class PendingList {
                 Log.d(TAG, "}");
             }
 
-            // Show the notifications
-            showNotifications(notificationRecs);
+            // Show the new and changed notifications
+            if (!notificationRecs.isEmpty()) {
+                showNotifications(notificationRecs);
+            }
 
             // Cancel any previously remaining notifications
             final int remainingCount = remainingNotifications.size();
@@ -226,14 +270,34 @@ class PendingList {
                 ConfirmationActivity.finishCurrent();
             }
 
-            // Save this list, so we know what we did for next time.
-            final SharedPreferences.Editor editor = prefs.edit();
-            editor.putStringSet(SHARED_PREFS_KEY_NOTIFICATIONS, currentNotifications);
-            editor.apply();
+            // Save this list if it changed, so we know what we did for next time.
+            if (!shown.keySet().equals(currentNotifications.keySet())) {
+                final SharedPreferences.Editor editor = mContext.getSharedPreferences(
+                        SHARED_PREFS_NAME, Context.MODE_PRIVATE).edit();
+                editor.putStringSet(SHARED_PREFS_KEY_NOTIFICATIONS,
+                        new ArraySet<>(currentNotifications.keySet()));
+                editor.apply();
+            }
+
+            shown.clear();
+            shown.putAll(currentNotifications);
         }
 
         /**
-         * Show the list of notifications and cancel any unneeded ones.
+         * Order by timestamp, then by label name (for a stable ordering, with the assumption
+         * that apps only post one at a time).
+         */
+        private int compare(Rec a, Rec b) {
+            long val = a.report.getTimestamp() - b.report.getTimestamp();
+            if (val == 0) {
+                return mCollator.compare(a.label, b.label);
+            } else {
+                return val < 0 ? -1 : 1;
+            }
+        }
+
+        /**
+         * Post the notifications for a list of records.
          */
         private void showNotifications(List<Rec> recs) {
             createNotificationChannel();
@@ -329,9 +393,87 @@ class PendingList {
     }
 
     /**
-     * Update the notifications and dialog to reflect the current state of affairs.
+     * Handler for the main thread, on which all updates happen.
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The currently showing notifications, keyed by report uri, or null if not loaded yet.
+     */
+    private ArrayMap<String, Rec> mShownNotifications;
+
+    /**
+     * The context for the scheduled update, or null if no update is scheduled.
+     */
+    private Context mPendingContext;
+
+    /**
+     * The flags for the scheduled update.
+     */
+    private int mPendingFlags;
+
+    /**
+     * The results of the broadcasts waiting for the scheduled update, finished once it is done.
+     */
+    private final ArrayList<BroadcastReceiver.PendingResult> mPendingResults = new ArrayList<>();
+
+    /**
+     * Update the notifications and dialog to reflect the current state of affairs. The update
+     * happens shortly after, and is merged with any other update requested in the meantime.
      */
+    @MainThread
     public void updateState(Context context, int flags) {
-        (new Updater(context, flags)).updateState();
+        updateState(context, flags, null);
+    }
+
+    /**
+     * Update the notifications and dialog to reflect the current state of affairs, from a
+     * broadcast receiver. The update happens shortly after, and is merged with any other update
+     * requested in the meantime.
+     *
+     * @param pendingResult the result of the broadcast, as returned by
+     * {@link BroadcastReceiver#goAsync}. Finished once the update is done, so that the process is
+     * kept alive until then.
+     */
+    @MainThread
+    public void updateState(Context context, int flags,
+            @Nullable BroadcastReceiver.PendingResult pendingResult) {
+        if (pendingResult != null) {
+            mPendingResults.add(pendingResult);
+        }
+        if (mPendingContext == null) {
+            mPendingFlags = flags;
+            mHandler.postDelayed(this::performUpdate, UPDATE_DELAY_MILLIS);
+        } else {
+            // The dialog may be shown if any of the merged updates would have shown it
+            mPendingFlags &= flags;
+        }
+        // The context passed in may be an activity that is about to finish
+        mPendingContext = context.getApplicationContext();
+    }
+
+    /**
+     * Perform the scheduled update.
+     */
+    private void performUpdate() {
+        try {
+            final Locale locale =
+                    mPendingContext.getResources().getConfiguration().getLocales().get(0);
+            // Labels are only kept for one update, as apps might be updated or removed in between
+            final Updater updater = new Updater(mPendingContext, mPendingFlags,
+                    new Formatting(mPendingContext), locale);
+
+            if (mShownNotifications == null) {
+                mShownNotifications = updater.loadShownNotifications();
+            }
+            updater.updateState(mShownNotifications);
+        } finally {
+            mPendingContext = null;
+            final int resultCount = mPendingResults.size();
+            for (int i = 0; i < resultCount; i++) {
+                mPendingResults.get(i).finish();
+            }
+            mPendingResults.clear();
+        }
     }
 }
@@ -17,26 +17,60 @@
 package com.android.permissioncontroller.incident;
 
 import android.content.Context;
-import android.content.res.Resources;
-import android.graphics.drawable.Drawable;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.IncidentManager;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.LruCache;
 
-import com.google.protobuf.ByteString;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.WireFormat;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 
 /**
  * The pieces of an incident report that should be confirmed by the user.
+ * <p>
+ * Images are not kept in memory. Parsing only records where each image is in the report, and
+ * images are then decoded on demand, downsampled to the size they are displayed at.
  */
 public class ReportDetails {
     private static final String TAG = "ReportDetails";
 
+    /**
+     * Hard cap on the number of images, as a guardrail.
+     */
+    private static final int TOTAL_IMAGE_COUNT_LIMIT = 200;
+
+    /**
+     * The maximum number of bytes held by decoded images.
+     */
+    private static final int MAX_DECODED_IMAGE_BYTES = (int) Math.min(
+            Runtime.getRuntime().maxMemory() / 16, 8 * 1024 * 1024);
+
+    private final @Nullable Uri mUri;
     private ArrayList<String> mReasons = new ArrayList<String>();
-    private ArrayList<Drawable> mImages = new ArrayList<Drawable>();
+    private ArrayList<ImageRange> mImageRanges = new ArrayList<ImageRange>();
+
+    private final LruCache<Integer, Bitmap> mDecodedImages =
+            new LruCache<Integer, Bitmap>(MAX_DECODED_IMAGE_BYTES) {
+                @Override
+                protected int sizeOf(Integer key, Bitmap value) {
+                    return value.getAllocationByteCount();
+                }
+            };
+
+    /** The indexes of the images that could not be decoded, so that they are not tried again */
+    private final ArraySet<Integer> mFailedImages = new ArraySet<>();
 
     /**
      * Thrown when there is an error parsing the incident report.  Incident reports
@@ -53,20 +87,34 @@ public class ReportDetails {
         }
     }
 
-    private ReportDetails() {
+    /**
+     * Where an image is in the incident report.
+     */
+    private static class ImageRange {
+        final long mOffset;
+        final int mLength;
+
+        ImageRange(long offset, int length) {
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+
+    private ReportDetails(@Nullable Uri uri) {
+        mUri = uri;
     }
 
     /**
      * Parse an incident report into a ReportDetails object.  This function drops most
-     * of the fields in an incident report
+     * of the fields in an incident report, and skips over the image data without reading it
+     * into memory.
      */
     public static ReportDetails parseIncidentReport(final Context context, final Uri uri)
             throws ParseException {
-        final ReportDetails details = new ReportDetails();
+        final ReportDetails details = new ReportDetails(uri);
         try {
-            final IncidentManager incidentManager = context.getSystemService(IncidentManager.class);
-            final IncidentManager.IncidentReport report = incidentManager.getIncidentReport(uri);
-            if (report == null) {
+            final InputStream stream = openReport(context, uri);
+            if (stream == null) {
                 // There is no incident report, so nothing to show, so return empty object.
                 // Other errors below are invalid images, which we reject, because they're there
                 // but we can't let the user confirm it, but nothing to show is okay.  This is
@@ -74,96 +122,142 @@ public class ReportDetails {
                 return details;
             }
 
-            final InputStream stream = report.getInputStream();
-            if (stream != null) {
-                final IncidentMinimal incident = IncidentMinimal.parseFrom(stream);
-                if (incident != null) {
-                    parseImages(details.mImages, incident, context.getResources());
-                    parseReasons(details.mReasons, incident);
+            try {
+                final CodedInputStream input = CodedInputStream.newInstance(stream);
+                while (true) {
+                    final int tag = input.readTag();
+                    if (tag == 0) {
+                        break;
+                    }
+                    if (!isLengthDelimited(tag)) {
+                        input.skipField(tag);
+                        continue;
+                    }
+                    switch (WireFormat.getTagFieldNumber(tag)) {
+                        case IncidentMinimal.HEADER_FIELD_NUMBER:
+                            final IncidentHeaderProto.Builder header =
+                                    IncidentHeaderProto.newBuilder();
+                            input.readMessage(header, ExtensionRegistryLite.getEmptyRegistry());
+                            parseReason(details.mReasons, header.build());
+                            break;
+                        case IncidentMinimal.RESTRICTED_IMAGES_SECTION_FIELD_NUMBER:
+                            final int limit = input.pushLimit(input.readRawVarint32());
+                            parseImagesSection(details.mImageRanges, input);
+                            input.popLimit(limit);
+                            break;
+                        default:
+                            input.skipField(tag);
+                            break;
+                    }
                 }
+            } finally {
+                stream.close();
             }
         } catch (IOException ex) {
             throw new ParseException("Error while reading stream.", ex);
-        } catch (OutOfMemoryError ex) {
-            throw new ParseException("Out of memory while loading incident report.", ex);
         }
         return details;
     }
 
     /**
-     * Reads the reasons from the incident headers.  Does not throw any exceptions
+     * Whether a field is of a wire type which is read as length and bytes, i.e. a string, bytes or
+     * a message. Fields of other wire types can't be one of the fields of these types we read, so
+     * they are skipped.
+     */
+    private static boolean isLengthDelimited(int tag) {
+        return WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    }
+
+    @Nullable
+    private static InputStream openReport(@NonNull Context context, @Nullable Uri uri) {
+        final IncidentManager incidentManager = context.getSystemService(IncidentManager.class);
+        final IncidentManager.IncidentReport report = incidentManager.getIncidentReport(uri);
+        return report != null ? report.getInputStream() : null;
+    }
+
+    /**
+     * Reads the reason from an incident header.  Does not throw any exceptions
      * about validity, because the headers are optional.
      */
-    private static void parseReasons(ArrayList<String> result, IncidentMinimal incident) {
-        final int headerSize = incident.getHeaderCount();
-        for (int i = 0; i < headerSize; i++) {
-            final IncidentHeaderProto header = incident.getHeader(i);
-            if (header.hasReason()) {
-                final String reason = header.getReason();
-                if (reason != null && reason.length() > 0) {
-                    result.add(reason);
-                }
+    private static void parseReason(ArrayList<String> result, IncidentHeaderProto header) {
+        if (header.hasReason()) {
+            final String reason = header.getReason();
+            if (reason != null && reason.length() > 0) {
+                result.add(reason);
             }
         }
     }
 
     /**
-     * Read images from the IncidentMinimal.
+     * Record where the images of the restricted images section are, without reading them.
      *
      * @throw ParseException if there was an error reading them.
      */
-    private static void parseImages(ArrayList<Drawable> result, IncidentMinimal incident,
-            Resources res) throws ParseException {
-        final int totalImageCountLimit = 200;
-        int totalImageCount = 0;
-
-        if (incident.hasRestrictedImagesSection()) {
-            final RestrictedImagesDumpProto section = incident.getRestrictedImagesSection();
-            final int setsCount = section.getSetsCount();
-            for (int i = 0; i < setsCount; i++) {
-                final RestrictedImageSetProto set = section.getSets(i);
-                if (set == null) {
+    private static void parseImagesSection(ArrayList<ImageRange> result, CodedInputStream input)
+            throws IOException, ParseException {
+        while (!input.isAtEnd()) {
+            final int tag = input.readTag();
+            if (WireFormat.getTagFieldNumber(tag) != RestrictedImagesDumpProto.SETS_FIELD_NUMBER
+                    || !isLengthDelimited(tag)) {
+                input.skipField(tag);
+                continue;
+            }
+            final int setLimit = input.pushLimit(input.readRawVarint32());
+            while (!input.isAtEnd()) {
+                final int setTag = input.readTag();
+                if (WireFormat.getTagFieldNumber(setTag)
+                        != RestrictedImageSetProto.IMAGES_FIELD_NUMBER
+                        || !isLengthDelimited(setTag)) {
+                    input.skipField(setTag);
                     continue;
                 }
-                final int imageCount = set.getImagesCount();
-                for (int j = 0; j < imageCount; j++) {
-                    // Hard cap on number of images, as a guardrail.
-                    totalImageCount++;
-                    if (totalImageCount > totalImageCountLimit) {
-                        throw new ParseException("Image count is greater than the limit of "
-                                + totalImageCountLimit);
-                    }
+                if (result.size() >= TOTAL_IMAGE_COUNT_LIMIT) {
+                    throw new ParseException("Image count is greater than the limit of "
+                            + TOTAL_IMAGE_COUNT_LIMIT);
+                }
+                final int imageLimit = input.pushLimit(input.readRawVarint32());
+                final ImageRange image = parseImage(input);
+                if (image != null) {
+                    result.add(image);
+                }
+                input.popLimit(imageLimit);
+            }
+            input.popLimit(setLimit);
+        }
+    }
 
-                    final RestrictedImageProto image = set.getImages(j);
-                    if (image == null) {
-                        continue;
-                    }
-                    final String mimeType = image.getMimeType();
-                    if (!("image/jpeg".equals(mimeType)
-                            || "image/png".equals(mimeType))) {
-                        throw new ParseException("Unsupported image type " + mimeType);
-                    }
-                    final ByteString bytes = image.getImageData();
-                    if (bytes == null) {
-                        continue;
-                    }
-                    final byte[] buf = bytes.toByteArray();
-                    if (buf.length == 0) {
-                        continue;
+    @Nullable
+    private static ImageRange parseImage(CodedInputStream input)
+            throws IOException, ParseException {
+        String mimeType = "";
+        ImageRange image = null;
+        while (!input.isAtEnd()) {
+            final int tag = input.readTag();
+            if (!isLengthDelimited(tag)) {
+                input.skipField(tag);
+                continue;
+            }
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case RestrictedImageProto.MIME_TYPE_FIELD_NUMBER:
+                    mimeType = input.readString();
+                    break;
+                case RestrictedImageProto.IMAGE_DATA_FIELD_NUMBER:
+                    final int length = input.readRawVarint32();
+                    if (length > 0) {
+                        image = new ImageRange(input.getTotalBytesRead(), length);
                     }
-
-                    // This will attempt to uncompress the image. If it's gigantic,
-                    // this could fail with OutOfMemoryError, which will be caught
-                    // by the caller, and turned into a report rejection.
-                    final Drawable drawable = new android.graphics.drawable.BitmapDrawable(
-                            res, new ByteArrayInputStream(buf));
-
-                    // TODO: Scale bitmap to correct thumbnail size to save memory.
-
-                    result.add(drawable);
-                }
+                    input.skipRawBytes(length);
+                    break;
+                default:
+                    input.skipField(tag);
+                    break;
             }
         }
+        if (!("image/jpeg".equals(mimeType)
+                || "image/png".equals(mimeType))) {
+            throw new ParseException("Unsupported image type " + mimeType);
+        }
+        return image;
     }
 
     /**
@@ -175,9 +269,127 @@ public class ReportDetails {
     }
 
     /**
-     * Images that must be approved by the user.
+     * The number of images that must be approved by the user.
+     */
+    public int getImageCount() {
+        return mImageRanges.size();
+    }
+
+    /**
+     * Get an image that must be approved by the user, if it has been decoded recently.
+     *
+     * @param index the index of the image
+     *
+     * @return the decoded image, or {@code null} if it needs to be decoded
+     */
+    public @Nullable Bitmap getCachedImage(int index) {
+        return mDecodedImages.get(index);
+    }
+
+    /**
+     * Whether an image that must be approved by the user could not be decoded.
+     *
+     * @param index the index of the image
      */
-    public ArrayList<Drawable> getImages() {
-        return mImages;
+    public boolean hasImageFailed(int index) {
+        synchronized (mFailedImages) {
+            return mFailedImages.contains(index);
+        }
+    }
+
+    /**
+     * Decode an image that must be approved by the user, downsampled so that it is no smaller
+     * than the requested size. An image that could not be decoded once is not tried again.
+     *
+     * @param context the context to read the incident report with
+     * @param index the index of the image
+     * @param width the width the image is displayed at
+     * @param height the height the image is displayed at
+     *
+     * @return the decoded image, or {@code null} if it couldn't be decoded
+     */
+    @WorkerThread
+    public @Nullable Bitmap decodeImage(@NonNull Context context, int index, int width,
+            int height) {
+        final Bitmap cachedImage = mDecodedImages.get(index);
+        if (cachedImage != null || hasImageFailed(index)) {
+            return cachedImage;
+        }
+
+        final Bitmap image = decodeImageUncached(context, index, width, height);
+        if (image != null) {
+            mDecodedImages.put(index, image);
+        } else {
+            synchronized (mFailedImages) {
+                mFailedImages.add(index);
+            }
+        }
+        return image;
+    }
+
+    @WorkerThread
+    private @Nullable Bitmap decodeImageUncached(@NonNull Context context, int index, int width,
+            int height) {
+        final ImageRange range = mImageRanges.get(index);
+        try {
+            // Only the encoded image is read into memory, and the report is only read up to its
+            // end once.
+            final byte[] encodedImage = readImage(context, range);
+            if (encodedImage == null) {
+                return null;
+            }
+
+            // Read the bounds first, so that only the pixels needed are decoded.
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(encodedImage, 0, encodedImage.length, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = 1;
+            while (options.outWidth / (options.inSampleSize * 2) >= width
+                    && options.outHeight / (options.inSampleSize * 2) >= height) {
+                options.inSampleSize *= 2;
+            }
+            return BitmapFactory.decodeByteArray(encodedImage, 0, encodedImage.length, options);
+        } catch (IOException | OutOfMemoryError ex) {
+            Log.w(TAG, "Error while decoding image " + index, ex);
+            return null;
+        }
+    }
+
+    @Nullable
+    private byte[] readImage(@NonNull Context context, @NonNull ImageRange range)
+            throws IOException {
+        try (InputStream stream = openReport(context, mUri)) {
+            if (stream == null) {
+                return null;
+            }
+            long remaining = range.mOffset;
+            while (remaining > 0) {
+                final long skipped = stream.skip(remaining);
+                if (skipped <= 0) {
+                    if (stream.read() == -1) {
+                        throw new IOException("Incident report ended before image");
+                    }
+                    remaining--;
+                } else {
+                    remaining -= skipped;
+                }
+            }
+
+            final byte[] image = new byte[range.mLength];
+            int read = 0;
+            while (read < image.length) {
+                final int result = stream.read(image, read, image.length - read);
+                if (result == -1) {
+                    throw new IOException("Incident report ended within image");
+                }
+                read += result;
+            }
+            return image;
+        }
     }
 }
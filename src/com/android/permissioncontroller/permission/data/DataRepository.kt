@@ -165,11 +165,23 @@ abstract class DataRepositoryForPackage<K, V : DataRepository.InactiveTimekeeper
      * @param packageName The package to be invalidated
      */
     fun invalidateAllForPackage(packageName: String) {
+        invalidateAllForPackages(setOf(packageName))
+    }
+
+    /**
+     * Invalidates every value with any of the packageNames in the key, in a single pass.
+     *
+     * @param packageNames The packages to be invalidated
+     */
+    fun invalidateAllForPackages(packageNames: Set<String>) {
         synchronized(lock) {
-            for (key in data.keys.toSet()) {
-                if (key is Pair<*, *> || key is Triple<*, *, *> && key.first == packageName) {
-                    data.remove(key)
+            data.keys.removeAll { key ->
+                val packageName = when (key) {
+                    is Pair<*, *> -> key.first
+                    is Triple<*, *, *> -> key.first
+                    else -> null
                 }
+                packageName is String && packageName in packageNames
             }
         }
     }
@@ -66,7 +66,7 @@ object FullStoragePermissionAppsLiveData :
         for ((user, packageInfoList) in AllPackageInfosLiveData.value ?: emptyMap()) {
             val userPackages = packageInfoList.filter {
                 storagePackages.contains(it.packageName to user) ||
-                    it.requestedPermissions.contains(MANAGE_EXTERNAL_STORAGE)
+                    it.requestsPermission(MANAGE_EXTERNAL_STORAGE)
             }
 
             for (packageInfo in userPackages) {
@@ -82,12 +82,12 @@ object FullStoragePermissionAppsLiveData :
                         isLegacy = true, isGranted = true))
                     continue
                 }
-                if (MANAGE_EXTERNAL_STORAGE in packageInfo.requestedPermissions) {
+                if (packageInfo.requestsPermission(MANAGE_EXTERNAL_STORAGE)) {
                     val mode = appOpsManager.unsafeCheckOpNoThrow(OPSTR_MANAGE_EXTERNAL_STORAGE,
                         packageInfo.uid, packageInfo.packageName)
                     val granted = mode == MODE_ALLOWED || mode == MODE_FOREGROUND ||
                         (mode == MODE_DEFAULT &&
-                            MANAGE_EXTERNAL_STORAGE in packageInfo.grantedPermissions)
+                            packageInfo.isPermissionGranted(MANAGE_EXTERNAL_STORAGE))
                     fullStoragePackages.add(FullStoragePackageState(packageInfo.packageName, user,
                         isLegacy = false, isGranted = granted))
                 }
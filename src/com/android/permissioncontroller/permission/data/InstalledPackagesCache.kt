@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.data
+
+import android.content.ComponentCallbacks2
+import android.content.pm.PackageInfo
+import android.content.pm.PackageManager
+import android.content.res.Configuration
+import android.os.Parcel
+import android.os.UserHandle
+import android.util.LruCache
+import android.util.SparseIntArray
+import androidx.annotation.GuardedBy
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.PermissionControllerProto.CacheStatsProto
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A process-wide, per-user snapshot of the packages installed on the device, shared by the legacy
+ * models and the LiveData layer so that they don't each scan all packages.
+ *
+ * <p>A user's snapshots are dropped upon any package broadcast or permission change for that user,
+ * as the package infos contain the permission state. Snapshots are bounded by the total number of
+ * package infos they hold, and dropped upon memory pressure.
+ *
+ * <p>Snapshots are kept unmodifiable, and every caller gets its own copies of the package infos, as
+ * they are mutable and some callers change them. Callers that need the packages of a user several
+ * times, e.g. once per permission group, should share one copy.
+ */
+object InstalledPackagesCache : ComponentCallbacks2, PackageBroadcastReceiver.PackageCache {
+
+    /** Maximum number of package infos held across all snapshots */
+    private const val MAX_PACKAGE_INFOS = 4000
+
+    private data class Key(val userId: Int, val flags: Int)
+
+    private val app = PermissionControllerApplication.get()
+
+    private val lock = Any()
+
+    @GuardedBy("lock")
+    private val snapshots = object : LruCache<Key, List<PackageInfo>>(MAX_PACKAGE_INFOS) {
+        override fun sizeOf(key: Key, value: List<PackageInfo>): Int {
+            return value.size.coerceAtLeast(1)
+        }
+    }
+
+    /**
+     * Map from user ID to the number of times the snapshots of that user have been invalidated, so
+     * that a load started before an invalidation doesn't store an outdated snapshot.
+     */
+    @GuardedBy("lock")
+    private val userGenerations = SparseIntArray()
+
+    /** The number of times the snapshots of all users have been invalidated */
+    @GuardedBy("lock")
+    private var allUsersGeneration = 0
+
+    @GuardedBy("lock")
+    private var listenersRegistered = false
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    private val permissionsChangedListener = PackageManager.OnPermissionsChangedListener { uid ->
+        invalidateUser(UserHandle.getUserHandleForUid(uid))
+    }
+
+    /**
+     * Get all packages installed for a user.
+     *
+     * @param user The user whose packages are desired
+     * @param flags The flags to pass to [PackageManager.getInstalledPackagesAsUser]
+     *
+     * @return Copies of the installed packages
+     */
+    fun getInstalledPackages(user: UserHandle, flags: Int): List<PackageInfo> {
+        val key = Key(user.identifier, flags)
+        val (snapshot, generation) = synchronized(lock) {
+            ensureListenersRegisteredLocked()
+            snapshots.get(key) to getGenerationLocked(key.userId)
+        }
+        if (snapshot != null) {
+            hits.incrementAndGet()
+            // Copy outside of the lock, as parceling all packages is not cheap
+            return copyOf(snapshot)
+        }
+        misses.incrementAndGet()
+
+        val packageInfos = Collections.unmodifiableList(
+            app.packageManager.getInstalledPackagesAsUser(flags, user.identifier))
+
+        synchronized(lock) {
+            if (getGenerationLocked(key.userId) == generation) {
+                snapshots.put(key, packageInfos)
+            }
+        }
+        return copyOf(packageInfos)
+    }
+
+    /**
+     * Copy package infos by parceling them, which is still much cheaper than querying them again.
+     */
+    private fun copyOf(packageInfos: List<PackageInfo>): List<PackageInfo> {
+        val parcel = Parcel.obtain()
+        try {
+            parcel.writeTypedList(packageInfos)
+            parcel.setDataPosition(0)
+            return parcel.createTypedArrayList(PackageInfo.CREATOR)!!
+        } finally {
+            parcel.recycle()
+        }
+    }
+
+    /**
+     * Drop all snapshots of a user.
+     *
+     * @param user The user whose snapshots should be dropped
+     */
+    fun invalidateUser(user: UserHandle) {
+        val userId = user.identifier
+        synchronized(lock) {
+            userGenerations.put(userId, userGenerations.get(userId) + 1)
+            for (key in snapshots.snapshot().keys) {
+                if (key.userId == userId) {
+                    snapshots.remove(key)
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop all snapshots of all users.
+     */
+    fun invalidateAll() {
+        synchronized(lock) {
+            allUsersGeneration++
+            snapshots.evictAll()
+        }
+    }
+
+    override fun onPackageBroadcast(packageName: String, action: String?, uid: Int) {
+        if (uid != -1) {
+            invalidateUser(UserHandle.getUserHandleForUid(uid))
+        } else {
+            invalidateAll()
+        }
+    }
+
+    override fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            invalidateAll()
+        }
+    }
+
+    override fun onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {
+        // Do nothing, but required to override by interface
+    }
+
+    @GuardedBy("lock")
+    private fun getGenerationLocked(userId: Int): Int {
+        return allUsersGeneration + userGenerations.get(userId)
+    }
+
+    @GuardedBy("lock")
+    private fun ensureListenersRegisteredLocked() {
+        if (listenersRegistered) {
+            return
+        }
+        PackageBroadcastReceiver.addCache(this)
+        app.packageManager.addOnPermissionsChangeListener(permissionsChangedListener)
+        app.registerComponentCallbacks(this)
+        listenersRegistered = true
+    }
+
+    /**
+     * Dump the usage statistics of this cache.
+     *
+     * @return The usage statistics as a proto
+     */
+    fun dump(): CacheStatsProto {
+        return CacheStatsProto.newBuilder()
+            .setName(InstalledPackagesCache::class.java.simpleName)
+            .setHits(hits.get())
+            .setMisses(misses.get())
+            .build()
+    }
+}
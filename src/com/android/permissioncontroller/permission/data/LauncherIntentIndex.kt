@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.data
+
+import android.content.ComponentCallbacks2
+import android.content.Intent
+import android.content.pm.PackageManager
+import android.content.pm.PackageManager.MATCH_DIRECT_BOOT_AWARE
+import android.content.pm.PackageManager.MATCH_DIRECT_BOOT_UNAWARE
+import android.content.res.Configuration
+import android.os.UserHandle
+import android.util.ArrayMap
+import android.util.SparseArray
+import androidx.annotation.GuardedBy
+import androidx.annotation.WorkerThread
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.PermissionControllerProto.CacheStatsProto
+import com.android.permissioncontroller.permission.utils.Utils
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A process-wide, per-user index of which packages have launcher or info activities.
+ *
+ * <p>The index of a user is built with one full query per category on first use. Afterwards a
+ * package update only marks the package as dirty, and the next lookup re-resolves just that
+ * package, instead of querying the activities of all packages again.
+ */
+object LauncherIntentIndex : ComponentCallbacks2, PackageBroadcastReceiver.PackageCache {
+
+    private const val FLAG_HAS_LAUNCHER_ACTIVITY = 1
+    private const val FLAG_HAS_INFO_ACTIVITY = 1 shl 1
+
+    private const val QUERY_FLAGS = MATCH_DIRECT_BOOT_AWARE or MATCH_DIRECT_BOOT_UNAWARE
+
+    /**
+     * The index of a user. Built at most once, while holding the monitor of the index itself.
+     */
+    private class UserIndex(val user: UserHandle) {
+        /** Map<package name, activity flags>, only for packages with any flag set */
+        @GuardedBy("lock")
+        val packageFlags = ArrayMap<String, Int>()
+        /** Map<package name, generation at which it was marked dirty> */
+        @GuardedBy("lock")
+        val dirtyPackages = ArrayMap<String, Long>()
+        @Volatile
+        var isBuilt = false
+    }
+
+    private val app = PermissionControllerApplication.get()
+
+    private val lock = Any()
+    @GuardedBy("lock")
+    private val userIndices = SparseArray<UserIndex>()
+    @GuardedBy("lock")
+    private var generation = 0L
+
+    /** Only set while holding [lock] */
+    @Volatile
+    private var listenersRegistered = false
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    /**
+     * Whether a package has a launch intent, i.e. an activity in the
+     * [Intent.CATEGORY_INFO] or [Intent.CATEGORY_LAUNCHER] category.
+     *
+     * @param user The user of the package
+     * @param packageName The name of the package
+     *
+     * @return {@code true} iff the package has a launch intent
+     */
+    @WorkerThread
+    fun hasLaunchIntent(user: UserHandle, packageName: String): Boolean {
+        return getFlags(getIndex(user), packageName) != 0
+    }
+
+    /**
+     * Get all packages which have an activity in the [Intent.CATEGORY_LAUNCHER] category.
+     *
+     * @param user The user of the packages
+     *
+     * @return The names of the packages
+     */
+    @WorkerThread
+    fun getLauncherPackages(user: UserHandle): Set<String> {
+        val index = getIndex(user)
+        val dirtyPackages = synchronized(lock) { index.dirtyPackages.keys.toList() }
+        for (packageName in dirtyPackages) {
+            getFlags(index, packageName)
+        }
+
+        val launcherPackages = mutableSetOf<String>()
+        synchronized(lock) {
+            for (i in 0 until index.packageFlags.size) {
+                if (index.packageFlags.valueAt(i) and FLAG_HAS_LAUNCHER_ACTIVITY != 0) {
+                    launcherPackages.add(index.packageFlags.keyAt(i))
+                }
+            }
+        }
+        return launcherPackages
+    }
+
+    private fun getFlags(index: UserIndex, packageName: String): Int {
+        val dirtyGeneration = synchronized(lock) {
+            val dirtyGeneration = index.dirtyPackages[packageName]
+            if (dirtyGeneration == null) {
+                hits.incrementAndGet()
+                return index.packageFlags[packageName] ?: 0
+            }
+            dirtyGeneration
+        }
+        misses.incrementAndGet()
+
+        val pm = getPackageManager(index.user)
+        var flags = 0
+        if (pm.queryIntentActivities(getIntent(Intent.CATEGORY_LAUNCHER, packageName),
+                QUERY_FLAGS).isNotEmpty()) {
+            flags = flags or FLAG_HAS_LAUNCHER_ACTIVITY
+        }
+        if (pm.queryIntentActivities(getIntent(Intent.CATEGORY_INFO, packageName),
+                QUERY_FLAGS).isNotEmpty()) {
+            flags = flags or FLAG_HAS_INFO_ACTIVITY
+        }
+
+        synchronized(lock) {
+            // Keep the package dirty if it was updated again while resolving it
+            if (index.dirtyPackages[packageName] == dirtyGeneration) {
+                index.dirtyPackages.remove(packageName)
+                setFlagsLocked(index, packageName, flags)
+            }
+        }
+        return flags
+    }
+
+    @GuardedBy("lock")
+    private fun setFlagsLocked(index: UserIndex, packageName: String, flags: Int) {
+        if (flags == 0) {
+            index.packageFlags.remove(packageName)
+        } else {
+            index.packageFlags[packageName] = flags
+        }
+    }
+
+    private fun getIndex(user: UserHandle): UserIndex {
+        registerListenersIfNeeded()
+
+        val index = synchronized(lock) {
+            userIndices[user.identifier] ?: UserIndex(user).also {
+                userIndices.put(user.identifier, it)
+            }
+        }
+        if (index.isBuilt) {
+            return index
+        }
+
+        synchronized(index) {
+            if (index.isBuilt) {
+                return index
+            }
+            misses.incrementAndGet()
+
+            val pm = getPackageManager(user)
+            val launcherActivities = pm.queryIntentActivities(
+                getIntent(Intent.CATEGORY_LAUNCHER, null), QUERY_FLAGS)
+            val infoActivities = pm.queryIntentActivities(
+                getIntent(Intent.CATEGORY_INFO, null), QUERY_FLAGS)
+
+            synchronized(lock) {
+                // Packages updated while querying stay dirty, hence their flags are not used
+                for (info in launcherActivities) {
+                    val packageName = info.activityInfo.packageName
+                    index.packageFlags[packageName] = (index.packageFlags[packageName] ?: 0) or
+                        FLAG_HAS_LAUNCHER_ACTIVITY
+                }
+                for (info in infoActivities) {
+                    val packageName = info.activityInfo.packageName
+                    index.packageFlags[packageName] = (index.packageFlags[packageName] ?: 0) or
+                        FLAG_HAS_INFO_ACTIVITY
+                }
+            }
+            index.isBuilt = true
+        }
+        return index
+    }
+
+    private fun getIntent(category: String, packageName: String?): Intent {
+        return Intent(Intent.ACTION_MAIN).addCategory(category).setPackage(packageName)
+    }
+
+    private fun getPackageManager(user: UserHandle): PackageManager {
+        return try {
+            Utils.getUserContext(app, user).packageManager
+        } catch (cannotHappen: PackageManager.NameNotFoundException) {
+            throw IllegalStateException(cannotHappen)
+        }
+    }
+
+    /**
+     * Mark a package as dirty, so that its activities are resolved again on the next lookup.
+     *
+     * @param packageName The name of the package which was updated
+     * @param user The user the package was updated for, or {@code null} if unknown
+     */
+    fun onPackageUpdate(packageName: String, user: UserHandle?) {
+        synchronized(lock) {
+            generation++
+            for (i in 0 until userIndices.size()) {
+                val index = userIndices.valueAt(i)
+                if (user == null || index.user == user) {
+                    index.dirtyPackages[packageName] = generation
+                }
+            }
+        }
+    }
+
+    override fun onPackageBroadcast(packageName: String, action: String?, uid: Int) {
+        onPackageUpdate(packageName, if (uid != -1) UserHandle.getUserHandleForUid(uid) else null)
+    }
+
+    override fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            synchronized(lock) {
+                userIndices.clear()
+            }
+        }
+    }
+
+    override fun onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {
+        // Do nothing, but required to override by interface
+    }
+
+    private fun registerListenersIfNeeded() {
+        if (listenersRegistered) {
+            return
+        }
+        synchronized(lock) {
+            if (!listenersRegistered) {
+                PackageBroadcastReceiver.addCache(this)
+                app.registerComponentCallbacks(this)
+                listenersRegistered = true
+            }
+        }
+    }
+
+    /**
+     * Dump the usage statistics of this index.
+     *
+     * @return The usage statistics as a proto
+     */
+    fun dump(): CacheStatsProto {
+        return CacheStatsProto.newBuilder()
+            .setName(LauncherIntentIndex::class.java.simpleName)
+            .setHits(hits.get())
+            .setMisses(misses.get())
+            .build()
+    }
+}
@@ -16,38 +16,34 @@
 
 package com.android.permissioncontroller.permission.data
 
-import android.content.Intent
-import android.content.pm.PackageManager.MATCH_DIRECT_BOOT_AWARE
-import android.content.pm.PackageManager.MATCH_DIRECT_BOOT_UNAWARE
+import android.os.Process
 import android.util.Log
-import com.android.permissioncontroller.PermissionControllerApplication
 import kotlinx.coroutines.Job
 
 /**
  * A livedata which stores a list of package names of packages which have launcher icons.
+ *
+ * <p>Read from the [LauncherIntentIndex], so an update only re-resolves the changed packages.
  */
 object LauncherPackagesLiveData : SmartAsyncMediatorLiveData<Set<String>>(),
     PackageBroadcastReceiver.PackageBroadcastListener {
 
-    private val LAUNCHER_INTENT = Intent(Intent.ACTION_MAIN, null)
-        .addCategory(Intent.CATEGORY_LAUNCHER)
-
     override suspend fun loadDataAndPostValue(job: Job) {
         // TODO ntmyren: remove once b/154796729 is fixed
         Log.i("LancherPackagesLiveData", "updating LauncherPackageLiveData")
-        val launcherPkgs = mutableSetOf<String>()
-        for (info in PermissionControllerApplication.get().packageManager.queryIntentActivities(
-            LAUNCHER_INTENT, MATCH_DIRECT_BOOT_AWARE or MATCH_DIRECT_BOOT_UNAWARE)) {
-            launcherPkgs.add(info.activityInfo.packageName)
-        }
-
-        postValue(launcherPkgs)
+        postValue(LauncherIntentIndex.getLauncherPackages(Process.myUserHandle()))
     }
 
     override fun onPackageUpdate(packageName: String) {
         updateIfActive()
     }
 
+    override fun onPackagesUpdate(packageNames: Set<String>) {
+        updateIfActive()
+    }
+
+    override val handlesBatches = true
+
     override fun onActive() {
         super.onActive()
         updateIfActive()
@@ -17,7 +17,6 @@
 package com.android.permissioncontroller.permission.data
 
 import android.app.Application
-import android.content.pm.PackageManager
 import android.content.pm.PermissionInfo
 import android.os.Build
 import android.os.UserHandle
@@ -147,10 +146,9 @@ class LightAppPermGroupLiveData private constructor(
         for (spi in permissionManager.splitPermissions) {
             val splitPerm = spi.splitPermission
 
-            val pi = try {
-                app.packageManager.getPermissionInfo(splitPerm, 0)
-            } catch (e: PackageManager.NameNotFoundException) {
-                Log.w(LOG_TAG, "No such permission: $splitPerm", e)
+            val pi = PackageLookupCache.getPermissionInfo(splitPerm)
+            if (pi == null) {
+                Log.w(LOG_TAG, "No such permission: $splitPerm")
                 continue
             }
 
@@ -24,7 +24,6 @@ import androidx.annotation.MainThread
 import androidx.lifecycle.Observer
 import com.android.permissioncontroller.PermissionControllerApplication
 import com.android.permissioncontroller.permission.model.livedatatypes.LightPackageInfo
-import com.android.permissioncontroller.permission.utils.Utils
 import kotlinx.coroutines.Job
 
 /**
@@ -45,7 +44,6 @@ class LightPackageInfoLiveData private constructor(
     private val LOG_TAG = LightPackageInfoLiveData::class.java.simpleName
     private val userPackagesLiveData = UserPackageInfosLiveData[user]
 
-    private var context = Utils.getUserContext(app, user)
     private var uid: Int? = null
     /**
      * The currently registered UID on which this LiveData is listening for permission changes.
@@ -93,10 +91,11 @@ class LightPackageInfoLiveData private constructor(
         if (job.isCancelled) {
             return
         }
-        postValue(try {
-            LightPackageInfo(context.packageManager.getPackageInfo(packageName,
-                PackageManager.GET_PERMISSIONS))
-        } catch (e: PackageManager.NameNotFoundException) {
+        val packageInfo = PackageLookupCache.getPackageInfo(packageName,
+            PackageManager.GET_PERMISSIONS, user)
+        postValue(if (packageInfo != null) {
+            LightPackageInfo(packageInfo)
+        } else {
             Log.w(LOG_TAG, "Package \"$packageName\" not found")
             invalidateSingle(packageName to user)
             null
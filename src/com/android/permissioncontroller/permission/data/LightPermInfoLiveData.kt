@@ -17,7 +17,6 @@
 package com.android.permissioncontroller.permission.data
 
 import android.app.Application
-import android.content.pm.PackageManager
 import android.util.Log
 import com.android.permissioncontroller.PermissionControllerApplication
 import com.android.permissioncontroller.permission.model.livedatatypes.LightPermInfo
@@ -51,6 +50,12 @@ class LightPermInfoLiveData private constructor(
         updateAsync()
     }
 
+    override fun onPackagesUpdate(packageNames: Set<String>) {
+        updateAsync()
+    }
+
+    override val handlesBatches = true
+
     override fun updateAsync() {
         // No need to update if the value can never change
         if (value != null && isImmutable()) {
@@ -65,9 +70,10 @@ class LightPermInfoLiveData private constructor(
             return
         }
 
-        val newValue = try {
-            LightPermInfo(app.packageManager.getPermissionInfo(permissionName, 0))
-        } catch (e: PackageManager.NameNotFoundException) {
+        val permInfo = PackageLookupCache.getPermissionInfo(permissionName)
+        val newValue = if (permInfo != null) {
+            LightPermInfo(permInfo)
+        } else {
             Log.w(LOG_TAG, "Permission \"$permissionName\" not found")
             invalidateSingle(permissionName)
             null
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.data
+
+import android.app.AppOpsManager
+import android.app.AppOpsManager.OP_FLAGS_ALL_TRUSTED
+import android.os.SystemClock
+import android.os.UserHandle
+import androidx.annotation.GuardedBy
+import androidx.annotation.WorkerThread
+import com.android.permissioncontroller.PermissionControllerApplication
+import java.util.concurrent.TimeUnit
+
+/**
+ * A process-wide, incrementally maintained map of the running and recent accesses of app ops.
+ *
+ * <p>Once an op is tracked, its accesses are updated from active-op callbacks, so they stay up to
+ * date even while nothing observes them. A full scan of all packages is only used to seed an op,
+ * and to reconcile it once its last scan is older than [RECONCILE_INTERVAL_MILLIS], as not every
+ * access goes through an active-op callback.
+ */
+object OpAccessTracker : AppOpsManager.OnOpActiveChangedListener {
+
+    /** How long the last full scan of an op can be used without reconciling it */
+    private val RECONCILE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1)
+
+    /**
+     * Listener for changes to the tracked accesses.
+     */
+    interface OpAccessListener {
+        /**
+         * Called on the main thread when an access of an app op changed.
+         *
+         * @param opName The name of the app op
+         */
+        fun onOpAccessChanged(opName: String)
+    }
+
+    private data class Key(val opName: String, val uid: Int, val packageName: String)
+
+    private class Access(
+        var isRunning: Boolean,
+        var lastAccessTime: Long,
+        var lastAccessEndTime: Long,
+        /** The elapsed realtime at which this access was last updated by a callback */
+        var lastEventElapsedRealtime: Long
+    )
+
+    private val app = PermissionControllerApplication.get()
+    private val appOpsManager = app.getSystemService(AppOpsManager::class.java)!!
+
+    private val lock = Any()
+    @GuardedBy("lock")
+    private val accesses = mutableMapOf<Key, Access>()
+    /** Map from op name to the elapsed realtime of its last full scan */
+    @GuardedBy("lock")
+    private val reconciledElapsedRealtimes = mutableMapOf<String, Long>()
+    @GuardedBy("lock")
+    private val watchedOpNames = mutableSetOf<String>()
+
+    /** Only accessed on the main thread */
+    private val listeners = mutableSetOf<OpAccessListener>()
+
+    fun addListener(listener: OpAccessListener) {
+        listeners.add(listener)
+    }
+
+    fun removeListener(listener: OpAccessListener) {
+        listeners.remove(listener)
+    }
+
+    /**
+     * Get the running accesses, and the accesses which ended within a duration, of app ops.
+     * Scans all packages only if the ops aren't tracked yet, or haven't been reconciled recently.
+     *
+     * @param opNames The names of the app ops
+     * @param usageDurationMs How long ago an access can have ended to be included
+     *
+     * @return A map from op name to the accesses of that op
+     */
+    @WorkerThread
+    fun getAccesses(opNames: List<String>, usageDurationMs: Long): Map<String, List<OpAccess>> {
+        startWatching(opNames)
+        val nowElapsed = SystemClock.elapsedRealtime()
+        val staleOpNames = synchronized(lock) {
+            opNames.filter { opName ->
+                val reconciled = reconciledElapsedRealtimes[opName]
+                reconciled == null || nowElapsed - reconciled > RECONCILE_INTERVAL_MILLIS
+            }
+        }
+        if (staleOpNames.isNotEmpty()) {
+            reconcile(staleOpNames)
+        }
+
+        val now = System.currentTimeMillis()
+        val opMap = mutableMapOf<String, MutableList<OpAccess>>()
+        synchronized(lock) {
+            for ((key, access) in accesses) {
+                if (key.opName !in opNames) {
+                    continue
+                }
+                if (access.isRunning || access.lastAccessEndTime > now - usageDurationMs) {
+                    val accessTime = if (access.isRunning) {
+                        OpAccess.IS_RUNNING
+                    } else {
+                        access.lastAccessTime
+                    }
+                    opMap.getOrPut(key.opName) { mutableListOf() }.add(OpAccess(key.packageName,
+                        UserHandle.getUserHandleForUid(key.uid), accessTime))
+                }
+            }
+        }
+        return opMap
+    }
+
+    private fun startWatching(opNames: List<String>) {
+        val newOpNames = synchronized(lock) {
+            opNames.filter { watchedOpNames.add(it) }
+        }
+        if (newOpNames.isNotEmpty()) {
+            appOpsManager.startWatchingActive(newOpNames.toTypedArray(), app.mainExecutor, this)
+        }
+    }
+
+    /**
+     * Replace the accesses of app ops with a full scan of all packages, unless an access was
+     * updated by a callback while scanning.
+     */
+    private fun reconcile(opNames: List<String>) {
+        val scanElapsed = SystemClock.elapsedRealtime()
+        val scanned = mutableMapOf<Key, Access>()
+        for (packageOp in appOpsManager.getPackagesForOps(opNames.toTypedArray()) ?: emptyList()) {
+            for (opEntry in packageOp.ops) {
+                val lastAccessTime = opEntry.getLastAccessTime(OP_FLAGS_ALL_TRUSTED)
+                if (lastAccessTime == -1L) {
+                    // There was no access, so skip
+                    continue
+                }
+
+                // Some accesses have no duration
+                val lastAccessDuration = opEntry.getLastDuration(OP_FLAGS_ALL_TRUSTED)
+                    .coerceAtLeast(0)
+                scanned[Key(opEntry.opStr, packageOp.uid, packageOp.packageName)] = Access(
+                    opEntry.isRunning, lastAccessTime, lastAccessTime + lastAccessDuration, 0)
+            }
+        }
+
+        synchronized(lock) {
+            accesses.keys.removeAll { key ->
+                key.opName in opNames && key !in scanned &&
+                    accesses[key]!!.lastEventElapsedRealtime < scanElapsed
+            }
+            for ((key, access) in scanned) {
+                val existingAccess = accesses[key]
+                if (existingAccess == null ||
+                    existingAccess.lastEventElapsedRealtime < scanElapsed) {
+                    accesses[key] = access
+                }
+            }
+            for (opName in opNames) {
+                reconciledElapsedRealtimes[opName] = scanElapsed
+            }
+        }
+    }
+
+    override fun onOpActiveChanged(op: String, uid: Int, packageName: String, active: Boolean) {
+        val now = System.currentTimeMillis()
+        val nowElapsed = SystemClock.elapsedRealtime()
+        synchronized(lock) {
+            val access = accesses.getOrPut(Key(op, uid, packageName)) {
+                Access(active, now, now, nowElapsed)
+            }
+            if (active) {
+                access.lastAccessTime = now
+            }
+            access.isRunning = active
+            access.lastAccessEndTime = now
+            access.lastEventElapsedRealtime = nowElapsed
+        }
+
+        for (listener in listeners.toList()) {
+            listener.onOpAccessChanged(op)
+        }
+    }
+}
@@ -16,11 +16,8 @@
 
 package com.android.permissioncontroller.permission.data
 
-import android.app.AppOpsManager
-import android.app.AppOpsManager.OP_FLAGS_ALL_TRUSTED
 import android.app.Application
 import android.os.UserHandle
-import android.util.Log
 import com.android.permissioncontroller.PermissionControllerApplication
 import kotlinx.coroutines.Job
 
@@ -29,70 +26,44 @@ import kotlinx.coroutines.Job
  *
  * <p>For app-ops with duration the end of the access is considered.
  *
+ * <p>Accesses are kept up to date by the [OpAccessTracker], so loading this LiveData usually
+ * doesn't need any IPC.
+ *
  * @param app The current application
  * @param opNames The names of the app ops we wish to search for
  * @param usageDurationMs how much ago can an access have happened to be considered
  */
-// TODO: listen for updates
 class OpUsageLiveData(
     private val app: Application,
     private val opNames: List<String>,
     private val usageDurationMs: Long
-) : SmartAsyncMediatorLiveData<@JvmSuppressWildcards Map<String, List<OpAccess>>>() {
-    val appOpsManager = app.getSystemService(AppOpsManager::class.java)!!
+) : SmartAsyncMediatorLiveData<@JvmSuppressWildcards Map<String, List<OpAccess>>>(),
+    OpAccessTracker.OpAccessListener {
 
     override suspend fun loadDataAndPostValue(job: Job) {
-        val now = System.currentTimeMillis()
-        val opMap = mutableMapOf<String, MutableList<OpAccess>>()
-
-        val packageOps = appOpsManager.getPackagesForOps(opNames.toTypedArray())
-        for (packageOp in packageOps) {
-            for (opEntry in packageOp.ops) {
-                val user = UserHandle.getUserHandleForUid(packageOp.uid)
-                val lastAccessTime: Long = opEntry.getLastAccessTime(OP_FLAGS_ALL_TRUSTED)
-
-                if (lastAccessTime == -1L) {
-                    // There was no access, so skip
-                    continue
-                }
-
-                var lastAccessDuration = opEntry.getLastDuration(OP_FLAGS_ALL_TRUSTED)
-
-                // Some accesses have no duration
-                if (lastAccessDuration == -1L) {
-                    lastAccessDuration = 0
-                }
-
-                if (opEntry.isRunning ||
-                        lastAccessTime + lastAccessDuration > (now - usageDurationMs)) {
-                    val accessList = opMap.getOrPut(opEntry.opStr) { mutableListOf() }
-                    val accessTime = if (opEntry.isRunning) {
-                        -1
-                    } else {
-                        lastAccessTime
-                    }
-                    accessList.add(OpAccess(packageOp.packageName, user, accessTime))
-                    // TODO ntmyren: remove logs once b/160724034 is fixed
-                    Log.i("OpUsageLiveData", "adding ${opEntry.opStr} for " +
-                        "${packageOp.packageName}, access time of $lastAccessTime, isRunning: " +
-                        "${opEntry.isRunning} current time $now, duration $lastAccessDuration")
-                } else {
-                    // TODO ntmyren: remove logs once b/160724034 is fixed
-                    Log.i("OpUsageLiveData", "NOT adding ${opEntry.opStr} for " +
-                        "${packageOp.packageName}, access time of $lastAccessTime, isRunning: " +
-                        "${opEntry.isRunning} current time $now, duration $lastAccessDuration")
-                }
-            }
+        if (job.isCancelled) {
+            return
         }
+        postValue(OpAccessTracker.getAccesses(opNames, usageDurationMs))
+    }
 
-        postValue(opMap)
+    override fun onOpAccessChanged(opName: String) {
+        if (opName in opNames) {
+            updateAsync()
+        }
     }
 
     override fun onActive() {
         super.onActive()
+        OpAccessTracker.addListener(this)
         updateAsync()
     }
 
+    override fun onInactive() {
+        super.onInactive()
+        OpAccessTracker.removeListener(this)
+    }
+
     companion object : DataRepository<Pair<List<String>, Long>, OpUsageLiveData>() {
         override fun newValue(key: Pair<List<String>, Long>): OpUsageLiveData {
             return OpUsageLiveData(PermissionControllerApplication.get(), key.first, key.second)
@@ -21,17 +21,41 @@ import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
 import android.content.IntentFilter
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.ArrayMap
+import androidx.annotation.MainThread
 import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.PermissionControllerProto.PackageBroadcastStatsProto
 import kotlinx.coroutines.Dispatchers.Main
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.launch
+import java.util.Collections
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * Listens for package additions, replacements, and removals, and notifies listeners.
+ *
+ * <p>Broadcasts are collected for [BATCH_DELAY_MILLIS] and then dispatched as one batch, with one
+ * update per package, so that bulk installs and updates don't cause a reload of every listener per
+ * package.
+ *
+ * <p>Process-wide caches are the exception: they are invalidated right away upon every broadcast,
+ * see [addCache].
  */
 object PackageBroadcastReceiver : BroadcastReceiver() {
 
+    /** How long to collect broadcasts before notifying listeners */
+    private const val BATCH_DELAY_MILLIS = 100L
+
+    private const val ACTION_FLAG_ADDED = 1
+    private const val ACTION_FLAG_REMOVED = 1 shl 1
+    private const val ACTION_FLAG_OTHER = 1 shl 2
+
     private val app: Application = PermissionControllerApplication.get()
+    private val handler = Handler(Looper.getMainLooper())
     private val intentFilter = IntentFilter(Intent.ACTION_PACKAGE_ADDED).apply {
         addAction(Intent.ACTION_PACKAGE_REMOVED)
         addAction(Intent.ACTION_PACKAGE_REPLACED)
@@ -48,18 +72,63 @@ object PackageBroadcastReceiver : BroadcastReceiver() {
      */
     private val allCallbacks = mutableSetOf<PackageBroadcastListener>()
 
+    /**
+     * Map<packageName, flags of the actions received> of the broadcasts not yet dispatched. Only
+     * accessed on the main thread.
+     */
+    private var pendingUpdates = ArrayMap<String, Int>()
+    /** The number of broadcasts in [pendingUpdates], including coalesced ones */
+    private var numPendingBroadcasts = 0
+
+    /**
+     * The process-wide caches invalidated upon every broadcast. Caches are never removed, hence the
+     * broadcasts are received from the first use of any cache on, even without listeners.
+     */
+    private val caches = CopyOnWriteArrayList<PackageCache>()
+
+    /**
+     * Held while deciding whether to register or unregister, as caches are added from any thread
+     */
+    private val registrationLock = Any()
+
+    private val broadcasts = AtomicLong()
+    private val coalesced = AtomicLong()
+    private val batches = AtomicLong()
+    private val maxBatchSize = AtomicLong()
+    private val listenerCallsSaved = AtomicLong()
+    private val dispatchMillis = AtomicLong()
+
+    /**
+     * Add a process-wide cache which is invalidated upon every package broadcast, before any
+     * listener is notified, so that no listener reloads outdated data. From now on the broadcasts
+     * are received even while there are no listeners. Adding the same cache again has no effect.
+     *
+     * @param cache the cache to be added
+     */
+    fun addCache(cache: PackageCache) {
+        synchronized(registrationLock) {
+            val wasEmpty = hasNoListeners()
+
+            if (caches.addIfAbsent(cache) && wasEmpty) {
+                app.applicationContext.registerReceiverForAllUsers(this, intentFilter, null, null)
+            }
+        }
+    }
+
     /**
      * Add a callback which will be notified when the specified packaged is changed or removed.
      */
     fun addChangeCallback(packageName: String, listener: PackageBroadcastListener) {
         GlobalScope.launch(Main.immediate) {
-            val wasEmpty = hasNoListeners()
+            synchronized(registrationLock) {
+                val wasEmpty = hasNoListeners()
 
-            changeCallbacks.getOrPut(packageName, { mutableSetOf() }).add(listener)
+                changeCallbacks.getOrPut(packageName, { mutableSetOf() }).add(listener)
 
-            if (wasEmpty) {
-                app.applicationContext.registerReceiverForAllUsers(this@PackageBroadcastReceiver,
-                        intentFilter, null, null)
+                if (wasEmpty) {
+                    app.applicationContext.registerReceiverForAllUsers(
+                            this@PackageBroadcastReceiver, intentFilter, null, null)
+                }
             }
         }
     }
@@ -72,13 +141,15 @@ object PackageBroadcastReceiver : BroadcastReceiver() {
      */
     fun addAllCallback(listener: PackageBroadcastListener) {
         GlobalScope.launch(Main.immediate) {
-            val wasEmpty = hasNoListeners()
+            synchronized(registrationLock) {
+                val wasEmpty = hasNoListeners()
 
-            allCallbacks.add(listener)
+                allCallbacks.add(listener)
 
-            if (wasEmpty) {
-                app.applicationContext.registerReceiverForAllUsers(this@PackageBroadcastReceiver,
-                        intentFilter, null, null)
+                if (wasEmpty) {
+                    app.applicationContext.registerReceiverForAllUsers(
+                            this@PackageBroadcastReceiver, intentFilter, null, null)
+                }
             }
         }
     }
@@ -90,10 +161,12 @@ object PackageBroadcastReceiver : BroadcastReceiver() {
      */
     fun removeAllCallback(listener: PackageBroadcastListener) {
         GlobalScope.launch(Main.immediate) {
-            val wasEmpty = hasNoListeners()
+            synchronized(registrationLock) {
+                val wasEmpty = hasNoListeners()
 
-            if (allCallbacks.remove(listener) && hasNoListeners() && !wasEmpty) {
-                app.applicationContext.unregisterReceiver(this@PackageBroadcastReceiver)
+                if (allCallbacks.remove(listener) && hasNoListeners() && !wasEmpty) {
+                    app.applicationContext.unregisterReceiver(this@PackageBroadcastReceiver)
+                }
             }
         }
     }
@@ -106,15 +179,17 @@ object PackageBroadcastReceiver : BroadcastReceiver() {
      */
     fun removeChangeCallback(packageName: String?, listener: PackageBroadcastListener) {
         GlobalScope.launch(Main.immediate) {
-            val wasEmpty = hasNoListeners()
+            synchronized(registrationLock) {
+                val wasEmpty = hasNoListeners()
 
-            changeCallbacks[packageName]?.let { callbackSet ->
-                callbackSet.remove(listener)
-                if (callbackSet.isEmpty()) {
-                    changeCallbacks.remove(packageName)
-                }
-                if (hasNoListeners() && !wasEmpty) {
-                    app.applicationContext.unregisterReceiver(this@PackageBroadcastReceiver)
+                changeCallbacks[packageName]?.let { callbackSet ->
+                    callbackSet.remove(listener)
+                    if (callbackSet.isEmpty()) {
+                        changeCallbacks.remove(packageName)
+                    }
+                    if (hasNoListeners() && !wasEmpty) {
+                        app.applicationContext.unregisterReceiver(this@PackageBroadcastReceiver)
+                    }
                 }
             }
         }
@@ -129,32 +204,28 @@ object PackageBroadcastReceiver : BroadcastReceiver() {
     }
 
     private fun hasNoListeners(): Boolean {
-        return getNumListeners() == 0
+        return caches.isEmpty() && getNumListeners() == 0
     }
 
     /**
-     * Upon receiving a broadcast, rout it to the proper callbacks.
+     * Upon receiving a broadcast, invalidate the caches of the package, and queue the broadcast to
+     * be routed to the proper callbacks.
      *
      * @param context the context of the broadcast
      * @param intent data about the broadcast which was sent
      */
+    @MainThread
     override fun onReceive(context: Context, intent: Intent) {
         val packageName = intent.data?.schemeSpecificPart ?: return
 
-        for (callback in allCallbacks.toList()) {
-            callback.onPackageUpdate(packageName)
+        // Make sure no listener reloads from outdated cached data
+        val uid = intent.getIntExtra(Intent.EXTRA_UID, -1)
+        for (cache in caches) {
+            cache.onPackageBroadcast(packageName, intent.action, uid)
         }
-
-        if (intent.action != Intent.ACTION_PACKAGE_ADDED) {
-            changeCallbacks[packageName]?.toList()?.let { callbacks ->
-                for (callback in callbacks) {
-                    callback.onPackageUpdate(packageName)
-                }
-            }
-        }
-
         if (intent.action == Intent.ACTION_PACKAGE_REMOVED) {
-            // Invalidate all livedatas associated with this package
+            // Invalidate all livedatas associated with this package, right away, as they must not
+            // be handed out again until the batch is dispatched
             LightPackageInfoLiveData.invalidateAllForPackage(packageName)
             PermStateLiveData.invalidateAllForPackage(packageName)
             PackagePermissionsLiveData.invalidateAllForPackage(packageName)
@@ -162,6 +233,95 @@ object PackageBroadcastReceiver : BroadcastReceiver() {
             LightAppPermGroupLiveData.invalidateAllForPackage(packageName)
             AppPermGroupUiInfoLiveData.invalidateAllForPackage(packageName)
         }
+
+        val actionFlag = when (intent.action) {
+            Intent.ACTION_PACKAGE_ADDED -> ACTION_FLAG_ADDED
+            Intent.ACTION_PACKAGE_REMOVED -> ACTION_FLAG_REMOVED
+            else -> ACTION_FLAG_OTHER
+        }
+        broadcasts.incrementAndGet()
+        if (pendingUpdates.isEmpty()) {
+            handler.postDelayed({ dispatchPendingUpdates() }, BATCH_DELAY_MILLIS)
+        }
+        val pendingFlags = pendingUpdates[packageName]
+        if (pendingFlags != null) {
+            coalesced.incrementAndGet()
+        }
+        pendingUpdates[packageName] = (pendingFlags ?: 0) or actionFlag
+        numPendingBroadcasts++
+    }
+
+    /**
+     * Route the collected broadcasts to the proper callbacks, with at most one update per package.
+     */
+    @MainThread
+    private fun dispatchPendingUpdates() {
+        val updates = pendingUpdates
+        val numBroadcasts = numPendingBroadcasts
+        pendingUpdates = ArrayMap()
+        numPendingBroadcasts = 0
+        if (updates.isEmpty()) {
+            return
+        }
+
+        val startMillis = SystemClock.uptimeMillis()
+        val packageNames = Collections.unmodifiableSet(updates.keys)
+        val callbacks = allCallbacks.toList()
+        var callsSaved = 0L
+        for (callback in callbacks) {
+            callback.onPackagesUpdate(packageNames)
+            // Listeners which don't handle batches are still called once per package, and only
+            // save the calls for coalesced broadcasts
+            callsSaved += numBroadcasts - if (callback.handlesBatches) 1 else updates.size
+        }
+
+        for (i in 0 until updates.size) {
+            val packageName = updates.keyAt(i)
+            val actionFlags = updates.valueAt(i)
+
+            if (actionFlags and ACTION_FLAG_ADDED.inv() != 0) {
+                changeCallbacks[packageName]?.toList()?.let { callbacks ->
+                    for (callback in callbacks) {
+                        callback.onPackageUpdate(packageName)
+                    }
+                }
+            }
+        }
+
+        batches.incrementAndGet()
+        maxBatchSize.accumulateAndGet(updates.size.toLong()) { a, b -> maxOf(a, b) }
+        listenerCallsSaved.addAndGet(callsSaved)
+        dispatchMillis.addAndGet(SystemClock.uptimeMillis() - startMillis)
+    }
+
+    /**
+     * Dump the statistics of the broadcast batching.
+     *
+     * @return The statistics as a proto
+     */
+    fun dump(): PackageBroadcastStatsProto {
+        return PackageBroadcastStatsProto.newBuilder()
+            .setBroadcasts(broadcasts.get())
+            .setCoalesced(coalesced.get())
+            .setBatches(batches.get())
+            .setMaxBatchSize(maxBatchSize.get())
+            .setListenerCallsSaved(listenerCallsSaved.get())
+            .setDispatchMillis(dispatchMillis.get())
+            .build()
+    }
+
+    /**
+     * A process-wide cache which needs to be invalidated upon package broadcasts.
+     */
+    interface PackageCache {
+        /**
+         * Called on the main thread upon every package broadcast, before any listener is notified.
+         *
+         * @param packageName the name of the package which was updated
+         * @param action the action of the broadcast
+         * @param uid the uid of the package, or -1 if the broadcast doesn't have one
+         */
+        fun onPackageBroadcast(packageName: String, action: String?, uid: Int)
     }
 
     /**
@@ -175,5 +335,24 @@ object PackageBroadcastReceiver : BroadcastReceiver() {
          * @param packageName the name of the package which was updated
          */
         fun onPackageUpdate(packageName: String)
+
+        /**
+         * To be called once for a batch of package broadcasts, if this listener listens to all
+         * packages. By default calls [onPackageUpdate] for each package.
+         *
+         * @param packageNames the names of the packages which were updated
+         */
+        fun onPackagesUpdate(packageNames: Set<String>) {
+            for (packageName in packageNames) {
+                onPackageUpdate(packageName)
+            }
+        }
+
+        /**
+         * Whether [onPackagesUpdate] handles a batch at once, instead of calling [onPackageUpdate]
+         * for each package. Only used for the statistics of the batching.
+         */
+        val handlesBatches: Boolean
+            get() = false
     }
 }
\ No newline at end of file
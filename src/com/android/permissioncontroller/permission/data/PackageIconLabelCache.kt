@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.data
+
+import android.app.Application
+import android.content.ComponentCallbacks2
+import android.content.pm.ApplicationInfo
+import android.content.res.Configuration
+import android.graphics.drawable.BitmapDrawable
+import android.graphics.drawable.Drawable
+import android.os.UserHandle
+import android.util.LruCache
+import androidx.annotation.GuardedBy
+import androidx.annotation.MainThread
+import com.android.permissioncontroller.PermissionControllerProto.CacheStatsProto
+import com.android.permissioncontroller.permission.utils.IPC
+import com.android.permissioncontroller.permission.utils.Utils
+import kotlinx.coroutines.Dispatchers.Main
+import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A process-wide, per-user cache of badged package icons and package labels, so that lists of
+ * packages don't load the same icons and labels again whenever a row is bound.
+ *
+ * <p>Icons are bounded by the memory their bitmaps hold, and can be loaded asynchronously so that
+ * binding a row never blocks. Every caller gets its own copy of a cached icon, as views change the
+ * bounds, alpha and state of their drawables. Entries for a package are dropped when the
+ * [PackageBroadcastReceiver] sees an update for it, and all entries are dropped when the
+ * configuration changes, e.g. the locale the labels are in, or when memory is low.
+ */
+object PackageIconLabelCache : ComponentCallbacks2, PackageBroadcastReceiver.PackageCache {
+
+    /** Maximum number of bytes held by cached icons */
+    private val MAX_ICON_BYTES = (Runtime.getRuntime().maxMemory() / 16)
+        .coerceAtMost(16L * 1024 * 1024).toInt()
+
+    /** Maximum number of cached labels */
+    private const val MAX_LABELS = 1000
+
+    private data class Key(val packageName: String, val user: UserHandle)
+
+    private val icons = object : LruCache<Key, Drawable>(MAX_ICON_BYTES) {
+        override fun sizeOf(key: Key, value: Drawable): Int {
+            return if (value is BitmapDrawable && value.bitmap != null) {
+                value.bitmap.allocationByteCount
+            } else {
+                value.intrinsicWidth.coerceAtLeast(1) * value.intrinsicHeight.coerceAtLeast(1) * 4
+            }
+        }
+    }
+
+    private val labels = LruCache<Key, String>(MAX_LABELS)
+    private val applicationLabels = LruCache<Key, String>(MAX_LABELS)
+
+    /**
+     * The number of times the cache has been invalidated, so that a load started before an
+     * invalidation doesn't populate the cache with an outdated value.
+     */
+    @Volatile
+    private var generation = 0
+
+    private val lock = Any()
+
+    @GuardedBy("lock")
+    private var listenersRegistered = false
+
+    /** Callbacks of the icon loads in progress, only accessed on the main thread */
+    private val pendingIconCallbacks = mutableMapOf<Key, MutableList<(Drawable?) -> Unit>>()
+
+    private val iconHits = AtomicLong()
+    private val iconCoalesced = AtomicLong()
+    private val iconMisses = AtomicLong()
+    private val labelHits = AtomicLong()
+    private val labelMisses = AtomicLong()
+
+    /**
+     * Get the badged icon of a package, loading it if needed.
+     *
+     * @param app The current application
+     * @param packageName The name of the package whose icon we want
+     * @param user The user for whom we want the package icon
+     *
+     * @return The package's icon, or null, if the package does not exist
+     */
+    fun getIcon(app: Application, packageName: String, user: UserHandle): Drawable? {
+        registerListenersIfNeeded(app)
+
+        val key = Key(packageName, user)
+        icons.get(key)?.let {
+            iconHits.incrementAndGet()
+            return copyOf(it)
+        }
+        iconMisses.incrementAndGet()
+        return loadIcon(app, key, generation)
+    }
+
+    /**
+     * Get the badged icon of a package if it is cached.
+     *
+     * @param packageName The name of the package whose icon we want
+     * @param user The user for whom we want the package icon
+     *
+     * @return The package's icon, or null, if it isn't cached
+     */
+    fun peekIcon(packageName: String, user: UserHandle): Drawable? {
+        val icon = icons.get(Key(packageName, user))
+        if (icon == null) {
+            iconMisses.incrementAndGet()
+            return null
+        }
+        iconHits.incrementAndGet()
+        return copyOf(icon)
+    }
+
+    /**
+     * Load the badged icon of a package in the background, unless it is cached. Concurrent loads
+     * of the same icon are merged.
+     *
+     * @param app The current application
+     * @param packageName The name of the package whose icon we want
+     * @param user The user for whom we want the package icon
+     * @param callback Called on the main thread with the package's icon, or null, if the package
+     * does not exist
+     */
+    @MainThread
+    fun loadIconAsync(
+        app: Application,
+        packageName: String,
+        user: UserHandle,
+        callback: (Drawable?) -> Unit
+    ) {
+        registerListenersIfNeeded(app)
+
+        val key = Key(packageName, user)
+        icons.get(key)?.let {
+            iconHits.incrementAndGet()
+            callback(copyOf(it))
+            return
+        }
+
+        pendingIconCallbacks[key]?.let {
+            iconCoalesced.incrementAndGet()
+            it.add(callback)
+            return
+        }
+        iconMisses.incrementAndGet()
+        pendingIconCallbacks[key] = mutableListOf(callback)
+
+        val loadGeneration = generation
+        GlobalScope.launch(IPC) {
+            val icon = loadIcon(app, key, loadGeneration)
+            withContext(Main) {
+                pendingIconCallbacks.remove(key)?.forEach { it(icon?.let { copyOf(it) }) }
+            }
+        }
+    }
+
+    private fun loadIcon(app: Application, key: Key, loadGeneration: Int): Drawable? {
+        val appInfo = PackageLookupCache.getApplicationInfo(key.packageName, 0, key.user)
+            ?: return null
+        val icon = Utils.getBadgedIcon(app, appInfo)
+        if (loadGeneration == generation) {
+            icons.put(key, icon)
+            return copyOf(icon)
+        }
+        return icon
+    }
+
+    /**
+     * Get a drawable that shares the bitmap of a cached icon, but not its bounds, alpha and state.
+     */
+    private fun copyOf(icon: Drawable): Drawable {
+        return icon.constantState?.newDrawable()?.mutate() ?: icon
+    }
+
+    /**
+     * Get the label of a package, loading it if needed.
+     *
+     * @param app The current application
+     * @param packageName The name of the package whose label we want
+     * @param user The user for whom we want the package label
+     *
+     * @return The package's label, or the package name, if the package does not exist
+     */
+    fun getLabel(app: Application, packageName: String, user: UserHandle): String {
+        return getLabel(app, labels, packageName, user) { appInfo ->
+            Utils.getFullAppLabel(appInfo, app)
+        }
+    }
+
+    /**
+     * Get the label of a package as returned by [ApplicationInfo.loadLabel], loading it if needed.
+     * Unlike [getLabel] the label is neither sanitized nor wrapped for BiDi, which the legacy
+     * models rely on for display and sorting.
+     *
+     * @param app The current application
+     * @param packageName The name of the package whose label we want
+     * @param user The user for whom we want the package label
+     *
+     * @return The package's label, or the package name, if the package does not exist
+     */
+    fun getApplicationLabel(app: Application, packageName: String, user: UserHandle): String {
+        return getLabel(app, applicationLabels, packageName, user) { appInfo ->
+            appInfo.loadLabel(app.packageManager).toString()
+        }
+    }
+
+    private fun getLabel(
+        app: Application,
+        cache: LruCache<Key, String>,
+        packageName: String,
+        user: UserHandle,
+        load: (ApplicationInfo) -> String
+    ): String {
+        registerListenersIfNeeded(app)
+
+        val key = Key(packageName, user)
+        cache.get(key)?.let {
+            labelHits.incrementAndGet()
+            return it
+        }
+        labelMisses.incrementAndGet()
+
+        val loadGeneration = generation
+        val appInfo = PackageLookupCache.getApplicationInfo(packageName, 0, user)
+            ?: return packageName
+        val label = load(appInfo)
+        if (loadGeneration == generation) {
+            cache.put(key, label)
+        }
+        return label
+    }
+
+    /**
+     * Drop the icons and labels of a package for all users. Called upon package broadcasts.
+     *
+     * @param packageName The name of the package which was updated
+     */
+    fun onPackageUpdate(packageName: String) {
+        generation++
+        for (key in icons.snapshot().keys) {
+            if (key.packageName == packageName) {
+                icons.remove(key)
+            }
+        }
+        for (key in labels.snapshot().keys) {
+            if (key.packageName == packageName) {
+                labels.remove(key)
+            }
+        }
+        for (key in applicationLabels.snapshot().keys) {
+            if (key.packageName == packageName) {
+                applicationLabels.remove(key)
+            }
+        }
+    }
+
+    override fun onPackageBroadcast(packageName: String, action: String?, uid: Int) {
+        onPackageUpdate(packageName)
+    }
+
+    /**
+     * Drop all icons and labels.
+     */
+    fun invalidateAll() {
+        generation++
+        icons.evictAll()
+        labels.evictAll()
+        applicationLabels.evictAll()
+    }
+
+    private fun registerListenersIfNeeded(app: Application) {
+        synchronized(lock) {
+            if (!listenersRegistered) {
+                app.registerComponentCallbacks(this)
+                // Entries have no expiry, so they must not miss any package update
+                PackageBroadcastReceiver.addCache(this)
+                listenersRegistered = true
+            }
+        }
+    }
+
+    override fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            invalidateAll()
+        }
+    }
+
+    override fun onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {
+        // Labels depend on the locale and icons on the density and night mode
+        invalidateAll()
+    }
+
+    /**
+     * Dump the usage statistics of this cache.
+     *
+     * @return The usage statistics of the icon and label caches as protos
+     */
+    fun dump(): List<CacheStatsProto> {
+        return listOf(
+            CacheStatsProto.newBuilder()
+                .setName("${PackageIconLabelCache::class.java.simpleName}.icons")
+                .setHits(iconHits.get())
+                .setCoalesced(iconCoalesced.get())
+                .setMisses(iconMisses.get())
+                .setBytes(icons.size().toLong())
+                .build(),
+            CacheStatsProto.newBuilder()
+                .setName("${PackageIconLabelCache::class.java.simpleName}.labels")
+                .setHits(labelHits.get())
+                .setMisses(labelMisses.get())
+                .setBytes((labels.snapshot().values + applicationLabels.snapshot().values)
+                    .sumBy { it.length * 2 }.toLong())
+                .build())
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.data
+
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageInfo
+import android.content.pm.PackageManager
+import android.content.pm.PermissionInfo
+import android.os.UserHandle
+import androidx.annotation.GuardedBy
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.PermissionControllerProto.CacheStatsProto
+import com.android.permissioncontroller.permission.utils.Utils
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A process-wide layer in front of PackageManager lookups, which merges concurrent identical
+ * lookups into a single binder call.
+ *
+ * <p>Lookups whose result can only change with a package update (application info, permission
+ * info) are also kept for a short time, or until the [PackageBroadcastReceiver] sees an update for
+ * the package. Package infos are only shared while in flight, since the permission state they
+ * contain can change at any time.
+ *
+ * <p>Returned objects are shared between callers, and must not be modified.
+ */
+object PackageLookupCache : PackageBroadcastReceiver.PackageCache {
+
+    private const val TYPE_PACKAGE_INFO = 0
+    private const val TYPE_APPLICATION_INFO = 1
+    private const val TYPE_PERMISSION_INFO = 2
+
+    /** User ID used for lookups which don't depend on a user */
+    private const val NO_USER_ID = -1
+
+    private val MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(5)
+
+    private data class Key(val type: Int, val name: String, val flags: Int, val userId: Int)
+
+    private class Entry(val retain: Boolean) {
+        val result = CompletableFuture<Any?>()
+        var completedAtNanos: Long? = null
+
+        fun isExpired(nowNanos: Long): Boolean {
+            val completedAt = completedAtNanos ?: return false
+            return nowNanos - completedAt > MAX_AGE_NANOS
+        }
+    }
+
+    private val app = PermissionControllerApplication.get()
+
+    private val lock = Any()
+    @GuardedBy("lock")
+    private val entries = mutableMapOf<Key, Entry>()
+    @GuardedBy("lock")
+    private var listenersRegistered = false
+
+    private val hits = AtomicLong()
+    private val coalesced = AtomicLong()
+    private val misses = AtomicLong()
+
+    /**
+     * Get the package info of a package.
+     *
+     * @param packageName The name of the package
+     * @param flags The flags to pass to [PackageManager.getPackageInfo]
+     * @param user The user of the package
+     *
+     * @return The package info, or null if the package is not found
+     */
+    fun getPackageInfo(packageName: String, flags: Int, user: UserHandle): PackageInfo? {
+        val key = Key(TYPE_PACKAGE_INFO, packageName, flags, user.identifier)
+        return lookup(key, retain = false) {
+            try {
+                Utils.getUserContext(app, user).packageManager.getPackageInfo(packageName, flags)
+            } catch (e: PackageManager.NameNotFoundException) {
+                null
+            }
+        }
+    }
+
+    /**
+     * Get the application info of a package.
+     *
+     * @param packageName The name of the package
+     * @param flags The flags to pass to [PackageManager.getApplicationInfo]
+     * @param user The user of the package
+     *
+     * @return The application info, or null if the package is not found
+     */
+    fun getApplicationInfo(packageName: String, flags: Int, user: UserHandle): ApplicationInfo? {
+        val key = Key(TYPE_APPLICATION_INFO, packageName, flags, user.identifier)
+        return lookup(key, retain = true) {
+            try {
+                Utils.getUserContext(app, user).packageManager.getApplicationInfo(packageName,
+                    flags)
+            } catch (e: PackageManager.NameNotFoundException) {
+                null
+            }
+        }
+    }
+
+    /**
+     * Get the info of a permission.
+     *
+     * @param permissionName The name of the permission
+     * @param flags The flags to pass to [PackageManager.getPermissionInfo]
+     *
+     * @return The permission info, or null if the permission is not found
+     */
+    fun getPermissionInfo(permissionName: String, flags: Int = 0): PermissionInfo? {
+        val key = Key(TYPE_PERMISSION_INFO, permissionName, flags, NO_USER_ID)
+        return lookup(key, retain = true) {
+            try {
+                app.packageManager.getPermissionInfo(permissionName, flags)
+            } catch (e: PackageManager.NameNotFoundException) {
+                null
+            }
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun <T> lookup(key: Key, retain: Boolean, load: () -> T?): T? {
+        var isLoader = false
+        val entry = synchronized(lock) {
+            if (!listenersRegistered) {
+                PackageBroadcastReceiver.addCache(this)
+                listenersRegistered = true
+            }
+            val existingEntry = entries[key]
+            if (existingEntry != null && !existingEntry.isExpired(System.nanoTime())) {
+                if (existingEntry.result.isDone) {
+                    hits.incrementAndGet()
+                } else {
+                    coalesced.incrementAndGet()
+                }
+                existingEntry
+            } else {
+                misses.incrementAndGet()
+                isLoader = true
+                Entry(retain).also { entries[key] = it }
+            }
+        }
+
+        if (isLoader) {
+            var failed = false
+            try {
+                entry.result.complete(load())
+            } catch (e: RuntimeException) {
+                failed = true
+                entry.result.completeExceptionally(e)
+            }
+            synchronized(lock) {
+                if ((failed || !entry.retain) && entries[key] === entry) {
+                    entries.remove(key)
+                } else {
+                    entry.completedAtNanos = System.nanoTime()
+                }
+            }
+        }
+
+        try {
+            return entry.result.get() as T?
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    /**
+     * Drop all results for a package, and all permission infos, as the package might define
+     * permissions. Called upon package broadcasts.
+     *
+     * @param packageName The name of the package which was updated
+     */
+    fun onPackageUpdate(packageName: String) {
+        synchronized(lock) {
+            entries.keys.removeAll { key ->
+                key.type == TYPE_PERMISSION_INFO || key.name == packageName
+            }
+        }
+    }
+
+    override fun onPackageBroadcast(packageName: String, action: String?, uid: Int) {
+        onPackageUpdate(packageName)
+    }
+
+    /**
+     * Stop sharing in-flight package infos for the user of a UID, as the permission state they
+     * contain might be outdated. Called upon permission changes.
+     *
+     * @param uid The UID whose permissions changed
+     */
+    fun onPermissionsChanged(uid: Int) {
+        val userId = UserHandle.getUserHandleForUid(uid).identifier
+        synchronized(lock) {
+            entries.keys.removeAll { key ->
+                key.type == TYPE_PACKAGE_INFO && key.userId == userId
+            }
+        }
+    }
+
+    /**
+     * Dump the usage statistics of this cache.
+     *
+     * @return The usage statistics as a proto
+     */
+    fun dump(): CacheStatsProto {
+        return CacheStatsProto.newBuilder()
+            .setName(PackageLookupCache::class.java.simpleName)
+            .setHits(hits.get())
+            .setCoalesced(coalesced.get())
+            .setMisses(misses.get())
+            .build()
+    }
+}
@@ -17,7 +17,6 @@
 package com.android.permissioncontroller.permission.data
 
 import android.app.Application
-import android.content.pm.PackageManager
 import android.content.pm.PermissionInfo
 import android.os.Build
 import android.os.UserHandle
@@ -57,11 +56,7 @@ class PackagePermissionsLiveData private constructor(
         val packageInfo = packageInfoLiveData.value ?: return
         val permissionMap = mutableMapOf<String, MutableList<String>>()
         for (permName in packageInfo.requestedPermissions) {
-            val permInfo = try {
-                app.packageManager.getPermissionInfo(permName, 0)
-            } catch (e: PackageManager.NameNotFoundException) {
-                continue
-            }
+            val permInfo = PackageLookupCache.getPermissionInfo(permName) ?: continue
 
             if (permInfo.flags and PermissionInfo.FLAG_INSTALLED == 0 ||
                 permInfo.flags and PermissionInfo.FLAG_REMOVED != 0) {
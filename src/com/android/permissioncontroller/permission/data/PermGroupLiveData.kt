@@ -62,6 +62,12 @@ class PermGroupLiveData private constructor(
         updateIfActive()
     }
 
+    override fun onPackagesUpdate(packageNames: Set<String>) {
+        updateIfActive()
+    }
+
+    override val handlesBatches = true
+
     /**
      * Initializes this permission group from scratch. Resets the groupInfo, PermissionInfos, and
      * PackageInfoLiveDatas, then re-adds them.
@@ -23,7 +23,9 @@ import android.os.UserHandle
 import androidx.lifecycle.LiveData
 import com.android.permissioncontroller.PermissionControllerApplication
 import com.android.permissioncontroller.permission.model.livedatatypes.PermGroup
+import com.android.permissioncontroller.permission.utils.PermissionSymbols
 import com.android.permissioncontroller.permission.utils.Utils.OS_PKG
+import java.util.BitSet
 
 /**
  * A LiveData which tracks either all platform permission groups, or all custom permission groups,
@@ -73,12 +75,14 @@ class PermGroupsPackagesLiveData private constructor(
 
         val groupApps = mutableMapOf<String, MutableSet<Pair<String, UserHandle>>>()
         val permGroups = mutableListOf<PermGroup>()
+        val permGroupBits = mutableListOf<BitSet>()
         for (groupName in groupNames) {
             val permGroup = permGroupLiveDatas[groupName]?.value
             if (permGroup == null || !permGroup.hasRuntimePermissions) {
                 continue
             }
             permGroups.add(permGroup)
+            permGroupBits.add(PermissionSymbols.toBits(permGroup.permissionInfos.keys))
             groupApps[groupName] = mutableSetOf()
         }
 
@@ -87,17 +91,16 @@ class PermGroupsPackagesLiveData private constructor(
             for (packageInfo in packageInfos) {
                 val isPreMApp = packageInfo.targetSdkVersion < Build.VERSION_CODES.M
 
-                for ((groupInfo, permissionInfos) in permGroups) {
+                for ((groupNum, permGroup) in permGroups.withIndex()) {
+                    val groupInfo = permGroup.groupInfo
                     // Do not allow toggling non-platform permission groups for legacy apps via app
                     // ops.
                     if (isPreMApp && groupInfo.packageName != OS_PKG) {
                         continue
                     }
                     // Categorize all requested permissions of this package
-                    for (permissionName in packageInfo.requestedPermissions) {
-                        if (permissionInfos.containsKey(permissionName)) {
-                            groupApps[groupInfo.name]?.add(packageInfo.packageName to userHandle)
-                        }
+                    if (packageInfo.requestsAnyPermission(permGroupBits[groupNum])) {
+                        groupApps[groupInfo.name]?.add(packageInfo.packageName to userHandle)
                     }
                 }
             }
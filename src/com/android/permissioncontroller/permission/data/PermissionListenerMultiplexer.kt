@@ -18,25 +18,62 @@ package com.android.permissioncontroller.permission.data
 
 import android.app.Application
 import android.content.pm.PackageManager
+import android.os.UserHandle
+import android.util.SparseArray
+import android.util.SparseLongArray
+import androidx.annotation.GuardedBy
 import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.PermissionControllerProto.PermissionListenerStatsProto
+import com.android.permissioncontroller.PermissionControllerProto.PermissionListenerUidStatsProto
+import java.util.concurrent.Executor
 
 /**
  * Serves as a single shared Permission Change Listener for all AppPermissionGroupLiveDatas.
  *
+ * <p>Callbacks can be added and removed from any thread. The callbacks of a UID are stored as an
+ * immutable array which is replaced on every change, so dispatching an event never copies them.
+ * Events arrive on a binder thread and are dispatched on [executor].
  */
 object PermissionListenerMultiplexer : PackageManager.OnPermissionsChangedListener {
 
     private val app: Application = PermissionControllerApplication.get()
+
+    /**
+     * The executor callbacks are called on. Only callbacks which are still registered once the
+     * executor runs the dispatch are called.
+     */
+    @Volatile
+    var executor: Executor = app.mainExecutor
+
+    private val lock = Any()
     /**
-     * Map<UID, list of PermissionChangeCallbacks that wish to be informed when
-     * permissions are updated for that UID>
+     * Map<UID, PermissionChangeCallbacks that wish to be informed when permissions are updated
+     * for that UID>
      */
-    private val callbacks = mutableMapOf<Int, MutableList<PermissionChangeCallback>>()
+    @GuardedBy("lock")
+    private val callbacks = SparseArray<Array<PermissionChangeCallback>>()
+    /** Map<UID, number of permission change events received> */
+    @GuardedBy("lock")
+    private val eventCounts = SparseLongArray()
     private val pm = app.applicationContext.packageManager
 
     override fun onPermissionsChanged(uid: Int) {
-        callbacks[uid]?.toList()?.forEach { callback ->
-            callback.onPermissionChange()
+        // Make sure no callback reloads from an outdated lookup result
+        PackageLookupCache.onPermissionsChanged(uid)
+        InstalledPackagesCache.invalidateUser(UserHandle.getUserHandleForUid(uid))
+
+        synchronized(lock) {
+            eventCounts.put(uid, eventCounts.get(uid) + 1)
+            if (callbacks[uid] == null) {
+                return
+            }
+        }
+
+        executor.execute {
+            val uidCallbacks = synchronized(lock) { callbacks[uid] } ?: return@execute
+            for (callback in uidCallbacks) {
+                callback.onPermissionChange()
+            }
         }
     }
 
@@ -48,34 +85,69 @@ object PermissionListenerMultiplexer : PackageManager.OnPermissionsChangedListen
     }
 
     fun addCallback(uid: Int, callback: PermissionChangeCallback) {
-        val wasEmpty = callbacks.isEmpty()
+        synchronized(lock) {
+            val wasEmpty = callbacks.size() == 0
 
-        callbacks.getOrPut(uid, { mutableListOf() }).add(callback)
+            val uidCallbacks = callbacks[uid]
+            callbacks.put(uid, uidCallbacks?.plus(callback) ?: arrayOf(callback))
 
-        if (wasEmpty) {
-            pm.addOnPermissionsChangeListener(this)
+            if (wasEmpty) {
+                pm.addOnPermissionsChangeListener(this)
+            }
         }
     }
 
     fun removeCallback(uid: Int, callback: PermissionChangeCallback) {
-        if (!callbacks.contains(uid)) {
-            return
-        }
+        synchronized(lock) {
+            val uidCallbacks = callbacks[uid] ?: return
 
-        if (!callbacks[uid]!!.remove(callback)) {
-            return
-        }
+            val index = uidCallbacks.indexOf(callback)
+            if (index == -1) {
+                return
+            }
+
+            if (uidCallbacks.size == 1) {
+                callbacks.remove(uid)
+            } else {
+                callbacks.put(uid, Array(uidCallbacks.size - 1) {
+                    uidCallbacks[if (it < index) it else it + 1]
+                })
+            }
 
-        if (callbacks[uid]!!.isEmpty()) {
-            callbacks.remove(uid)
+            if (callbacks.size() == 0) {
+                pm.removeOnPermissionsChangeListener(this)
+            }
         }
+    }
 
-        if (callbacks.isEmpty()) {
-            pm.removeOnPermissionsChangeListener(this)
+    /**
+     * Dump the registered callbacks and the events received per UID.
+     *
+     * @return The statistics as a proto
+     */
+    fun dump(): PermissionListenerStatsProto {
+        val builder = PermissionListenerStatsProto.newBuilder()
+        synchronized(lock) {
+            for (i in 0 until eventCounts.size()) {
+                val uid = eventCounts.keyAt(i)
+                builder.addUids(PermissionListenerUidStatsProto.newBuilder()
+                    .setUid(uid)
+                    .setEvents(eventCounts.valueAt(i))
+                    .setCallbacks(callbacks[uid]?.size ?: 0))
+            }
+            for (i in 0 until callbacks.size()) {
+                val uid = callbacks.keyAt(i)
+                if (eventCounts.indexOfKey(uid) < 0) {
+                    builder.addUids(PermissionListenerUidStatsProto.newBuilder()
+                        .setUid(uid)
+                        .setCallbacks(callbacks.valueAt(i).size))
+                }
+            }
         }
+        return builder.build()
     }
 
     interface PermissionChangeCallback {
         fun onPermissionChange()
     }
-}
\ No newline at end of file
+}
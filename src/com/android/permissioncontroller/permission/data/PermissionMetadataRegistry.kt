@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.data
+
+import android.Manifest
+import android.content.ComponentCallbacks2
+import android.content.Intent
+import android.content.pm.PackageItemInfo
+import android.content.pm.PackageManager
+import android.content.pm.PermissionInfo
+import android.content.res.Configuration
+import android.os.Process
+import android.os.UserHandle
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.PermissionControllerProto.CacheStatsProto
+import com.android.permissioncontroller.permission.utils.IPC
+import com.android.permissioncontroller.permission.utils.Utils
+import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.launch
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A process-wide registry of the metadata of permissions and permission groups, so that hot loops
+ * don't query the package manager for the same definitions again.
+ *
+ * <p>Entries are loaded on first use into an immutable snapshot, which is read without locking.
+ * The whole snapshot is replaced upon memory pressure, and when the [PackageBroadcastReceiver] sees
+ * an update for a package which defines a known permission or group, or an added or replaced
+ * package which defines permissions, as it might define new ones. A package which only defines an
+ * empty permission group is not noticed. Permission definitions are the same for all users.
+ *
+ * <p>Returned lists and infos are shared between callers, and must not be modified.
+ */
+object PermissionMetadataRegistry : ComponentCallbacks2, PackageBroadcastReceiver.PackageCache {
+
+    /**
+     * The metadata of a permission group.
+     *
+     * @param permissionInfos All permissions of the group, see
+     * [Utils.getPermissionInfosForGroup]
+     * @param installedRuntimePermissionInfos The installed runtime permissions of the group, see
+     * [Utils.getInstalledRuntimePermissionInfosForGroup]
+     */
+    class GroupMetadata(
+        val permissionInfos: List<PermissionInfo>,
+        val installedRuntimePermissionInfos: List<PermissionInfo>
+    )
+
+    /**
+     * The entries loaded since the last invalidation. Values which were looked up but don't exist
+     * are stored as [NOT_FOUND].
+     */
+    private class Snapshot {
+        val groups = ConcurrentHashMap<String, Any>()
+        val groupInfos = ConcurrentHashMap<String, PackageItemInfo>()
+        val permissionInfos = ConcurrentHashMap<String, Any>()
+        /** The packages which define any of the entries */
+        val definingPackages: MutableSet<String> = ConcurrentHashMap.newKeySet()
+    }
+
+    private val NOT_FOUND = Any()
+
+    private val app = PermissionControllerApplication.get()
+
+    @Volatile
+    private var snapshot = Snapshot()
+
+    private val lock = Any()
+
+    /** Only set while holding [lock] */
+    @Volatile
+    private var listenersRegistered = false
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    /**
+     * Get the metadata of a permission group.
+     *
+     * @param groupName The name of the permission group
+     *
+     * @return The metadata of the group, or null if no such group exists
+     */
+    fun getGroup(groupName: String): GroupMetadata? {
+        val snapshot = getSnapshot()
+        snapshot.groups[groupName]?.let {
+            hits.incrementAndGet()
+            return it as? GroupMetadata
+        }
+        misses.incrementAndGet()
+
+        val group = loadGroup(snapshot, groupName)
+        snapshot.groups[groupName] = group ?: NOT_FOUND
+        return group
+    }
+
+    private fun loadGroup(snapshot: Snapshot, groupName: String): GroupMetadata? {
+        val permissions = try {
+            app.packageManager.queryPermissionsByGroup(groupName, 0)
+        } catch (e: PackageManager.NameNotFoundException) {
+            return null
+        }
+        for (permName in Utils.getPlatformPermissionNamesOfGroup(groupName)) {
+            permissions.add(getPermissionInfo(permName)
+                ?: throw IllegalStateException("$permName not defined by platform"))
+        }
+
+        /*
+         * If the undefined group is requested, the package manager will return all platform
+         * permissions, since they are marked as Undefined in the manifest. Do not return these
+         * permissions.
+         */
+        val groupPermissions = if (groupName == Manifest.permission_group.UNDEFINED) {
+            permissions.filter { permissionInfo ->
+                val permGroup = Utils.getGroupOfPlatformPermission(permissionInfo.name)
+                permGroup == null || permGroup == Manifest.permission_group.UNDEFINED
+            }
+        } else {
+            permissions
+        }
+
+        for (permissionInfo in groupPermissions) {
+            snapshot.definingPackages.add(permissionInfo.packageName)
+        }
+
+        return GroupMetadata(Collections.unmodifiableList(groupPermissions),
+            Collections.unmodifiableList(groupPermissions.filter {
+                Utils.isPermissionDangerousInstalledNotRemoved(it)
+            }))
+    }
+
+    /**
+     * Get the info of a permission.
+     *
+     * @param permissionName The name of the permission
+     *
+     * @return The info of the permission, or null if no such permission exists
+     */
+    fun getPermissionInfo(permissionName: String): PermissionInfo? {
+        val snapshot = getSnapshot()
+        snapshot.permissionInfos[permissionName]?.let {
+            hits.incrementAndGet()
+            return it as? PermissionInfo
+        }
+        misses.incrementAndGet()
+
+        val permissionInfo = try {
+            app.packageManager.getPermissionInfo(permissionName, 0)
+        } catch (e: PackageManager.NameNotFoundException) {
+            null
+        }
+        if (permissionInfo != null) {
+            snapshot.definingPackages.add(permissionInfo.packageName)
+        }
+        snapshot.permissionInfos[permissionName] = permissionInfo ?: NOT_FOUND
+        return permissionInfo
+    }
+
+    /**
+     * Get the info of a permission group, or of the permission, if it is a lone permission not in
+     * any group.
+     *
+     * @param groupName The name of the group
+     *
+     * @return The info of the group, or null if no such group or permission exists
+     */
+    fun getGroupInfo(groupName: String): PackageItemInfo? {
+        val snapshot = getSnapshot()
+        snapshot.groupInfos[groupName]?.let {
+            hits.incrementAndGet()
+            return it
+        }
+        misses.incrementAndGet()
+
+        // Groups which don't exist are not stored, as a package defining only a group does not
+        // necessarily cause an invalidation
+        val groupInfo = try {
+            app.packageManager.getPermissionGroupInfo(groupName, 0)
+        } catch (e: PackageManager.NameNotFoundException) {
+            getPermissionInfo(groupName)
+        } ?: return null
+        snapshot.definingPackages.add(groupInfo.packageName)
+        snapshot.groupInfos[groupName] = groupInfo
+        return groupInfo
+    }
+
+    /**
+     * Drop all entries if a package update could have changed them. Called upon package
+     * broadcasts.
+     *
+     * @param packageName The name of the package which was updated
+     * @param action The action of the package broadcast
+     * @param user The user the package was updated for, or null if unknown
+     */
+    fun onPackageUpdate(packageName: String, action: String?, user: UserHandle?) {
+        val currentSnapshot = snapshot
+        if (packageName in currentSnapshot.definingPackages) {
+            snapshot = Snapshot()
+            return
+        }
+
+        if (action == Intent.ACTION_PACKAGE_ADDED || action == Intent.ACTION_PACKAGE_REPLACED) {
+            // Only a package which defines permissions can have added new ones. Checking that
+            // needs a binder call, which is not made on the main thread.
+            GlobalScope.launch(IPC) {
+                val packageInfo = PackageLookupCache.getPackageInfo(packageName,
+                    PackageManager.GET_PERMISSIONS, user ?: Process.myUserHandle())
+                if (!packageInfo?.permissions.isNullOrEmpty() && snapshot === currentSnapshot) {
+                    snapshot = Snapshot()
+                }
+            }
+        }
+    }
+
+    override fun onPackageBroadcast(packageName: String, action: String?, uid: Int) {
+        onPackageUpdate(packageName, action,
+            if (uid != -1) UserHandle.getUserHandleForUid(uid) else null)
+    }
+
+    override fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            snapshot = Snapshot()
+        }
+    }
+
+    override fun onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {
+        // Do nothing, but required to override by interface
+    }
+
+    private fun getSnapshot(): Snapshot {
+        if (!listenersRegistered) {
+            synchronized(lock) {
+                if (!listenersRegistered) {
+                    PackageBroadcastReceiver.addCache(this)
+                    app.registerComponentCallbacks(this)
+                    listenersRegistered = true
+                }
+            }
+        }
+        return snapshot
+    }
+
+    /**
+     * Dump the usage statistics of this registry.
+     *
+     * @return The usage statistics as a proto
+     */
+    fun dump(): CacheStatsProto {
+        return CacheStatsProto.newBuilder()
+            .setName(PermissionMetadataRegistry::class.java.simpleName)
+            .setHits(hits.get())
+            .setMisses(misses.get())
+            .build()
+    }
+}
@@ -47,6 +47,12 @@ class ServiceLiveData(
         updateAsync()
     }
 
+    override fun onPackagesUpdate(packageNames: Set<String>) {
+        updateAsync()
+    }
+
+    override val handlesBatches = true
+
     override suspend fun loadDataAndPostValue(job: Job) {
         if (job.isCancelled) {
             return
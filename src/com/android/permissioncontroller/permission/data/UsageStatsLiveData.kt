@@ -18,15 +18,24 @@ package com.android.permissioncontroller.permission.data
 
 import android.app.Application
 import android.app.usage.UsageStats
-import android.app.usage.UsageStatsManager
 import android.app.usage.UsageStatsManager.INTERVAL_MONTHLY
+import android.os.SystemClock
 import android.os.UserHandle
 import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.permission.utils.IPC
+import com.android.permissioncontroller.permission.utils.IPC_THREAD_POOL_COUNT
 import com.android.permissioncontroller.permission.utils.Utils
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+
+/** The most users whose stats are loaded at the same time */
+private const val MAX_PARALLEL_USER_LOADS = IPC_THREAD_POOL_COUNT / 2
 
 /**
  * A livedata which tracks the usage stats for all packages for all users in a given length of time.
+ * The stats are shared with all other such livedatas via the [UsageStatsStore].
  *
  * @param app The current application
  * @param searchTimeMs The length of time, in milliseconds, that this LiveData will track. The time
@@ -51,23 +60,39 @@ class UsageStatsLiveData private constructor(
         }
 
         val now = System.currentTimeMillis()
+        // If the user is not enabled, or if the user is a managed profile, and this is not an
+        // android TV (where parental control accounts are managed profiles), do not get stats.
+        val users = UsersLiveData.value!!.filter { user ->
+            !Utils.isUserDisabledOrWorkProfile(user)
+        }
+
+        // Load the users in parallel, but leave some of the IPC threads to other loads. Consumers
+        // expect the stats of all users, hence the value is only posted once all are loaded.
         val userMap = mutableMapOf<UserHandle, List<UsageStats>>()
-        for (user in UsersLiveData.value!!) {
-            // If the user is not enabled, or if the user is a managed profile, and this is not an
-            // android TV (where parental control accounts are managed profiles), do not get stats.
-            if (Utils.isUserDisabledOrWorkProfile(user)) {
-                continue
+        for (chunk in users.chunked(MAX_PARALLEL_USER_LOADS)) {
+            if (job.isCancelled) {
+                return
             }
-            val statsManager = Utils.getUserContext(app, user).getSystemService(
-                UsageStatsManager::class.java)!!
-            statsManager.queryUsageStats(interval, now - searchTimeMs, now)?.let { stats ->
-                userMap[user] = stats
+
+            val chunkStats = coroutineScope {
+                chunk.map { user -> async(IPC) { user to loadUsageStats(user, now) } }.awaitAll()
+            }
+            for ((user, stats) in chunkStats) {
+                stats?.let { userMap[user] = it }
             }
         }
 
         postValue(userMap)
     }
 
+    private fun loadUsageStats(user: UserHandle, now: Long): List<UsageStats>? {
+        val startMillis = SystemClock.elapsedRealtime()
+        val stats = UsageStatsStore.getUsageStats(user, interval, now - searchTimeMs, now)
+        UserLoadStats.record(UsageStatsLiveData::class.java.simpleName, user,
+            SystemClock.elapsedRealtime() - startMillis)
+        return stats
+    }
+
     override fun onActive() {
         super.onActive()
         updateIfActive()
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.data
+
+import android.app.usage.UsageStats
+import android.app.usage.UsageStatsManager
+import android.content.BroadcastReceiver
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.content.res.Configuration
+import android.os.UserHandle
+import androidx.annotation.GuardedBy
+import androidx.annotation.WorkerThread
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.PermissionControllerProto.CacheStatsProto
+import com.android.permissioncontroller.permission.utils.Utils
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A process-wide store of the usage stats of all packages, shared by all [UsageStatsLiveData]s.
+ *
+ * <p>The stats are stored per user and interval, by the bucket of the interval they were
+ * aggregated in. A query for a window only fetches the part of the window which is not covered
+ * yet, i.e. the tail since the last query, and older buckets if the window reaches further back
+ * than any query before. Buckets fetched again replace the stored ones, so nothing is counted
+ * twice. Overlapping windows of different queries hence share their data.
+ */
+object UsageStatsStore : ComponentCallbacks2 {
+
+    /**
+     * The stats of a user for one interval.
+     */
+    private class IntervalStats {
+        /** Map<(package name, begin of the bucket), stats of the package in the bucket> */
+        @GuardedBy("this")
+        val buckets = mutableMapOf<Pair<String, Long>, UsageStats>()
+        /** Begin of the time covered by the stored buckets */
+        @GuardedBy("this")
+        var coveredBegin = Long.MAX_VALUE
+        /** End of the time covered by the stored buckets */
+        @GuardedBy("this")
+        var coveredEnd = Long.MIN_VALUE
+    }
+
+    private val app = PermissionControllerApplication.get()
+
+    private val lock = Any()
+
+    /** Map<(user, interval), stats> */
+    @GuardedBy("lock")
+    private val stores = mutableMapOf<Pair<UserHandle, Int>, IntervalStats>()
+
+    @GuardedBy("lock")
+    private var listenersRegistered = false
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    /** Drops the stats of removed users */
+    private val userRemovedReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            val user = intent.getParcelableExtra<UserHandle>(Intent.EXTRA_USER) ?: return
+
+            synchronized(lock) {
+                stores.keys.removeAll { (storeUser, _) -> storeUser == user }
+            }
+        }
+    }
+
+    /**
+     * Get the usage stats of all packages of a user, as returned by
+     * [UsageStatsManager.queryUsageStats].
+     *
+     * @param user The user to get the stats for
+     * @param interval The interval to aggregate the stats in
+     * @param beginTime The begin of the window, in milliseconds since the epoch
+     * @param endTime The end of the window, in milliseconds since the epoch. Usually now.
+     *
+     * @return The stats of each package in each bucket overlapping the window, or {@code null} if
+     * the stats cannot be queried
+     */
+    @WorkerThread
+    fun getUsageStats(
+        user: UserHandle,
+        interval: Int,
+        beginTime: Long,
+        endTime: Long
+    ): List<UsageStats>? {
+        val store = getStore(user, interval)
+
+        synchronized(store) {
+            val statsManager = Utils.getUserContext(app, user).getSystemService(
+                UsageStatsManager::class.java)!!
+
+            if (store.coveredBegin == Long.MAX_VALUE) {
+                misses.incrementAndGet()
+
+                addBuckets(store, statsManager.queryUsageStats(interval, beginTime, endTime)
+                    ?: return null)
+                store.coveredBegin = beginTime
+                store.coveredEnd = endTime
+            } else {
+                // Only a query fully served from the store is a hit
+                var isHit = true
+
+                if (beginTime < store.coveredBegin) {
+                    isHit = false
+
+                    addBuckets(store, statsManager.queryUsageStats(interval, beginTime,
+                        store.coveredBegin) ?: return null)
+                    store.coveredBegin = beginTime
+                }
+
+                if (endTime > store.coveredEnd) {
+                    isHit = false
+
+                    // The bucket containing the end of the covered time is fetched again, as it
+                    // might have changed since
+                    addBuckets(store, statsManager.queryUsageStats(interval, store.coveredEnd,
+                        endTime) ?: return null)
+                    store.coveredEnd = endTime
+                }
+
+                if (isHit) {
+                    hits.incrementAndGet()
+                } else {
+                    misses.incrementAndGet()
+                }
+            }
+
+            return store.buckets.values.filter { stats ->
+                stats.lastTimeStamp >= beginTime && stats.firstTimeStamp <= endTime
+            }
+        }
+    }
+
+    @GuardedBy("store")
+    private fun addBuckets(store: IntervalStats, stats: List<UsageStats>) {
+        for (packageStats in stats) {
+            store.buckets[packageStats.packageName to packageStats.firstTimeStamp] = packageStats
+        }
+    }
+
+    private fun getStore(user: UserHandle, interval: Int): IntervalStats {
+        synchronized(lock) {
+            if (!listenersRegistered) {
+                app.registerComponentCallbacks(this)
+                app.registerReceiver(userRemovedReceiver, IntentFilter(Intent.ACTION_USER_REMOVED))
+                listenersRegistered = true
+            }
+
+            return stores.getOrPut(user to interval) { IntervalStats() }
+        }
+    }
+
+    override fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            synchronized(lock) {
+                stores.clear()
+            }
+        }
+    }
+
+    override fun onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {
+        // Do nothing, but required to override by interface
+    }
+
+    /**
+     * Dump the usage statistics of this store.
+     *
+     * @return The usage statistics as a proto
+     */
+    fun dump(): CacheStatsProto {
+        return CacheStatsProto.newBuilder()
+            .setName(UsageStatsStore::class.java.simpleName)
+            .setHits(hits.get())
+            .setMisses(misses.get())
+            .build()
+    }
+}
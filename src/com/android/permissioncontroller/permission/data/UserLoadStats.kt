@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.data
+
+import android.os.UserHandle
+import androidx.annotation.GuardedBy
+import com.android.permissioncontroller.PermissionControllerProto.UserLoadStatsProto
+
+/**
+ * Tracks how long the per-user loads of LiveDatas take, so that the users which dominate the load
+ * of data for all users can be found in the dump.
+ */
+object UserLoadStats {
+
+    private class Stats {
+        var loads = 0L
+        var lastMillis = 0L
+        var maxMillis = 0L
+        var totalMillis = 0L
+    }
+
+    private val lock = Any()
+    /** Map<(name of the load, user id), stats> */
+    @GuardedBy("lock")
+    private val stats = mutableMapOf<Pair<String, Int>, Stats>()
+
+    /**
+     * Record a finished load.
+     *
+     * @param name The name of what was loaded
+     * @param user The user the data was loaded for
+     * @param millis How long the load took
+     */
+    fun record(name: String, user: UserHandle, millis: Long) {
+        synchronized(lock) {
+            val userStats = stats.getOrPut(name to user.identifier) { Stats() }
+            userStats.loads++
+            userStats.lastMillis = millis
+            userStats.maxMillis = maxOf(userStats.maxMillis, millis)
+            userStats.totalMillis += millis
+        }
+    }
+
+    /**
+     * Dump the recorded loads.
+     *
+     * @return The stats of each name and user as a proto
+     */
+    fun dump(): List<UserLoadStatsProto> {
+        synchronized(lock) {
+            return stats.map { (key, userStats) ->
+                UserLoadStatsProto.newBuilder()
+                    .setName(key.first)
+                    .setUserId(key.second)
+                    .setLoads(userStats.loads)
+                    .setLastMillis(userStats.lastMillis)
+                    .setMaxMillis(userStats.maxMillis)
+                    .setTotalMillis(userStats.totalMillis)
+                    .build()
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ package com.android.permissioncontroller.permission.data
 import android.app.Application
 import android.content.pm.PackageManager.GET_PERMISSIONS
 import android.content.pm.PackageManager.MATCH_ALL
+import android.os.SystemClock
 import android.os.UserHandle
 import android.util.Log
 import com.android.permissioncontroller.PermissionControllerApplication
@@ -47,6 +48,12 @@ class UserPackageInfosLiveData private constructor(
         updateAsync()
     }
 
+    override fun onPackagesUpdate(packageNames: Set<String>) {
+        updateAsync()
+    }
+
+    override val handlesBatches = true
+
     // TODO ntmyren: replace with correctly updating
     override fun onPermissionChange() {
         permChangeStale = true
@@ -78,10 +85,14 @@ class UserPackageInfosLiveData private constructor(
         // TODO ntmyren: remove once b/154796729 is fixed
         Log.i("UserPackageInfos", "updating UserPackageInfosLiveData for user " +
             "${user.identifier}")
-        val packageInfos = app.applicationContext.packageManager
-            .getInstalledPackagesAsUser(GET_PERMISSIONS or MATCH_ALL, user.identifier)
-
-        postValue(packageInfos.map { packageInfo -> LightPackageInfo(packageInfo) })
+        val startMillis = SystemClock.elapsedRealtime()
+        val packageInfos = InstalledPackagesCache.getInstalledPackages(user,
+            GET_PERMISSIONS or MATCH_ALL)
+        val lightPackageInfos = packageInfos.map { packageInfo -> LightPackageInfo(packageInfo) }
+        UserLoadStats.record(UserPackageInfosLiveData::class.java.simpleName, user,
+            SystemClock.elapsedRealtime() - startMillis)
+
+        postValue(lightPackageInfos)
     }
 
     override fun onActive() {
@@ -26,7 +26,7 @@ import android.os.UserHandle
 
 import com.android.permissioncontroller.PermissionControllerApplication
 import com.android.permissioncontroller.permission.model.livedatatypes.UidSensitivityState
-import com.android.permissioncontroller.permission.utils.KotlinUtils
+import com.android.permissioncontroller.permission.utils.PermissionSymbols
 import com.android.permissioncontroller.permission.utils.Utils
 import kotlinx.coroutines.Job
 import java.lang.IllegalArgumentException
@@ -100,7 +100,7 @@ class UserSensitivityLiveData private constructor(
         val sensitiveStatePerUid = mutableMapOf<Int, UidSensitivityState>()
 
         // TODO ntmyren: Figure out how to get custom runtime permissions in a less costly manner
-        val runtimePerms = Utils.getRuntimePlatformPermissionNames()
+        val runtimePermBits = PermissionSymbols.toBits(Utils.getRuntimePlatformPermissionNames())
 
         for (pkg in pkgs) {
             // sensitivityState for one uid
@@ -113,11 +113,12 @@ class UserSensitivityLiveData private constructor(
                 // The launcher packages set will only be null when it is uninitialized.
                 LauncherPackagesLiveData.value?.contains(pkg.packageName) ?: return
             } else {
-                KotlinUtils.packageHasLaunchIntent(context, pkg.packageName)
+                LauncherIntentIndex.hasLaunchIntent(user, pkg.packageName)
             }
             val pkgIsSystemApp = pkg.appFlags and ApplicationInfo.FLAG_SYSTEM != 0
             // Iterate through all runtime perms, setting their keys
-            for (perm in pkg.requestedPermissions.intersect(runtimePerms)) {
+            for (perm in pkg.getRequestedPermissionsIn(runtimePermBits)) {
+
                 /*
                  * Permissions are considered user sensitive for a package, when
                  * - the package has a launcher icon, or
@@ -41,7 +41,7 @@ import android.text.Html;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
-import android.util.Pair;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -81,7 +81,9 @@ import java.lang.annotation.Retention;
 import java.text.Collator;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 
@@ -144,6 +146,12 @@ public class PermissionUsageFragment extends SettingsWithLargeHeader implements
 
     private ArrayMap<String, Integer> mGroupAppCounts = new ArrayMap<>();
 
+    private @Nullable UsageIndex mUsageIndex;
+    private @Nullable Preference mCountsWarningPreference;
+    private @Nullable PreferenceCategory mUsageCategory;
+    /** The rows showing in {@link #mUsageCategory}, keyed by the first entry of the row */
+    private @NonNull SparseArray<UsageRow> mUsageRows = new SparseArray<>();
+
     private boolean mFinishedInitialLoad;
 
     /**
@@ -337,6 +345,13 @@ public class PermissionUsageFragment extends SettingsWithLargeHeader implements
             return;
         }
         mAppPermissionUsages = new ArrayList<>(mPermissionUsages.getUsages());
+        mUsageIndex = new UsageIndex(mAppPermissionUsages);
+
+        // The rows refer to the previous usages
+        mUsageRows.clear();
+        if (mUsageCategory != null) {
+            mUsageCategory.removeAll();
+        }
 
         // Ensure the group name is valid.
         if (getGroup(mFilterGroup) == null) {
@@ -364,32 +379,10 @@ public class PermissionUsageFragment extends SettingsWithLargeHeader implements
         }
         screen.removeAll();
 
-        Preference countsWarningPreference = new Preference(getContext()) {
-            @Override
-            public void onBindViewHolder(PreferenceViewHolder holder) {
-                super.onBindViewHolder(holder);
-                ((TextView) holder.itemView.findViewById(android.R.id.title))
-                        .setTextColor(Color.RED);
-                holder.itemView.setBackgroundColor(Color.YELLOW);
-            }
-        };
-
-        StringBuffer accounts = new StringBuffer();
-        for (UserHandle user : getContext().getSystemService(UserManager.class).getAllProfiles()) {
-            for (Account account : getContext().createContextAsUser(user, 0).getSystemService(AccountManager.class).getAccounts()) {
-                accounts.append(", " + account.name);
-            }
-        }
-        if (accounts.length() > 0) {
-            accounts.delete(0, 2);
+        if (mCountsWarningPreference == null) {
+            mCountsWarningPreference = createCountsWarningPreference();
         }
-
-        countsWarningPreference.setTitle(Html.fromHtml("<b>INTERNAL ONLY</b> - For debugging.<br/><br/>"
-                + "- Access counts do not reflect amount of private data accessed.<br/>"
-                + "- Data might not be accurate.<br/><br/>"
-                + "Accounts: " + accounts, Html.FROM_HTML_SEPARATOR_LINE_BREAK_PARAGRAPH));
-        countsWarningPreference.setIcon(R.drawable.ic_info);
-        screen.addPreference(countsWarningPreference);
+        screen.addPreference(mCountsWarningPreference);
 
         boolean seenSystemApp = false;
 
@@ -398,52 +391,26 @@ public class PermissionUsageFragment extends SettingsWithLargeHeader implements
         long startTime = Math.max(timeFilterItem == null ? 0 : (curTime - timeFilterItem.getTime()),
                 Instant.EPOCH.toEpochMilli());
 
-        List<Pair<AppPermissionUsage, GroupUsage>> usages = new ArrayList<>();
+        // Count the apps using each group. The entries of an app are contiguous in the index.
+        final UsageIndex index = mUsageIndex;
         mGroupAppCounts.clear();
         ArrayList<PermissionApp> permApps = new ArrayList<>();
-        int numApps = mAppPermissionUsages.size();
-        for (int appNum = 0; appNum < numApps; appNum++) {
-            AppPermissionUsage appUsage = mAppPermissionUsages.get(appNum);
-            boolean used = false;
-            List<GroupUsage> appGroups = appUsage.getGroupUsages();
-            int numGroups = appGroups.size();
-            for (int groupNum = 0; groupNum < numGroups; groupNum++) {
-                GroupUsage groupUsage = appGroups.get(groupNum);
-                long lastAccessTime = groupUsage.getLastAccessTime();
-
-                if (groupUsage.getAccessCount() <= 0) {
-                    continue;
-                }
-                if (lastAccessTime == 0) {
-                    Log.w(LOG_TAG,
-                            "Unexpected access time of 0 for " + appUsage.getApp().getKey() + " "
-                                    + groupUsage.getGroup().getName());
-                    continue;
-                }
-                if (lastAccessTime < startTime) {
-                    continue;
-                }
-                final boolean isSystemApp = !Utils.isGroupOrBgGroupUserSensitive(
-                        groupUsage.getGroup());
-                seenSystemApp = seenSystemApp || isSystemApp;
-                if (isSystemApp && !mShowSystem) {
-                    continue;
-                }
-
-                used = true;
-                addGroupUser(groupUsage.getGroup().getName());
-
-                // Filter out usages that aren't of the filtered permission group.
-                // We do this after we call addGroupUser so we compute the correct usage counts
-                // for the permission filter dialog but before we add the usage to our list.
-                if (mFilterGroup != null && !mFilterGroup.equals(groupUsage.getGroup().getName())) {
-                    continue;
-                }
-
-                usages.add(Pair.create(appUsage, appGroups.get(groupNum)));
+        int lastUsedApp = -1;
+        final int numEntries = index.size();
+        for (int entry = 0; entry < numEntries; entry++) {
+            if (index.getLastAccessTime(entry) < startTime) {
+                continue;
             }
-            if (used) {
-                permApps.add(appUsage.getApp());
+            final boolean isSystemApp = index.isSystem(entry);
+            seenSystemApp = seenSystemApp || isSystemApp;
+            if (isSystemApp && !mShowSystem) {
+                continue;
+            }
+
+            addGroupUser(index.getGroupUsage(entry).getGroup().getName());
+            if (index.getAppIndex(entry) != lastUsedApp) {
+                lastUsedApp = index.getAppIndex(entry);
+                permApps.add(index.getAppUsage(entry).getApp());
                 addGroupUser(null);
             }
         }
@@ -453,9 +420,37 @@ public class PermissionUsageFragment extends SettingsWithLargeHeader implements
             getActivity().invalidateOptionsMenu();
         }
 
+        // Collect the usages to show, in the presorted order of the selected sort.
+        final int[] order;
+        if (mSort == SORT_RECENT) {
+            order = index.getOrderByTime();
+        } else if (mSort == SORT_RECENT_APPS) {
+            order = mFilterGroup == null ? index.getOrderByApp() : index.getOrderByTime();
+        } else {
+            Log.w(LOG_TAG, "Unexpected sort option: " + mSort);
+            order = index.getOrderByTime();
+        }
+
+        final int[] usages = new int[numEntries];
+        int numUsages = 0;
+        for (int i = 0; i < numEntries; i++) {
+            final int entry = order[i];
+            if (index.getLastAccessTime(entry) < startTime
+                    || (index.isSystem(entry) && !mShowSystem)) {
+                continue;
+            }
+            // Filter out usages that aren't of the filtered permission group.
+            if (mFilterGroup != null
+                    && !mFilterGroup.equals(index.getGroupUsage(entry).getGroup().getName())) {
+                continue;
+            }
+            usages[numUsages++] = entry;
+        }
+
         // Update header.
         if (mFilterGroup == null) {
-            screen.addPreference(createBarChart(usages, timeFilterItem, context));
+            screen.addPreference(createBarChart(index, usages, numUsages, timeFilterItem,
+                    context));
             hideHeader();
         } else {
             AppPermissionGroup group = getGroup(mFilterGroup);
@@ -470,63 +465,57 @@ public class PermissionUsageFragment extends SettingsWithLargeHeader implements
             }
         }
 
-        // Add the preference header.
-        PreferenceCategory category = new PreferenceCategory(context);
+        // Add the preference header. It keeps its rows across updates.
+        if (mUsageCategory == null) {
+            mUsageCategory = new PreferenceCategory(context);
+        }
+        final PreferenceCategory category = mUsageCategory;
         screen.addPreference(category);
         if (timeFilterItem != null) {
             category.setTitle(timeFilterItem.getListTitleRes());
         }
 
-        // Sort the apps.
-        if (mSort == SORT_RECENT) {
-            usages.sort(PermissionUsageFragment::compareAccessRecency);
-        } else if (mSort == SORT_RECENT_APPS) {
-            if (mFilterGroup == null) {
-                usages.sort(PermissionUsageFragment::compareAccessAppRecency);
-            } else {
-                usages.sort(PermissionUsageFragment::compareAccessTime);
-            }
-        } else {
-            Log.w(LOG_TAG, "Unexpected sort option: " + mSort);
-        }
-
         // If there are no entries, don't show anything.
-        if (usages.isEmpty()) {
+        if (numUsages == 0) {
             screen.removeAll();
         }
 
+        final int numShownUsages = numUsages;
         new PermissionApps.AppDataLoader(context, () -> {
-            ExpandablePreferenceGroup parent = null;
-            AppPermissionUsage lastAppPermissionUsage = null;
-            String lastAccessTimeString = null;
-            List<CharSequence> groups = new ArrayList<>();
-
-            final int numUsages = usages.size();
-            for (int usageNum = 0; usageNum < numUsages; usageNum++) {
-                final Pair<AppPermissionUsage, GroupUsage> usage = usages.get(usageNum);
-                AppPermissionUsage appPermissionUsage = usage.first;
-                GroupUsage groupUsage = usage.second;
-
-                String accessTimeString = UtilsKt.getAbsoluteLastUsageString(context, groupUsage);
-
-                if (lastAppPermissionUsage != appPermissionUsage || (mSort == SORT_RECENT
-                        && !accessTimeString.equals(lastAccessTimeString))) {
-                    setPermissionSummary(parent, groups);
-                    // Add a "parent" entry for the app that will expand to the individual entries.
-                    parent = createExpandablePreferenceGroup(context, appPermissionUsage,
-                            mSort == SORT_RECENT ? accessTimeString : null);
-                    category.addPreference(parent);
-                    lastAppPermissionUsage = appPermissionUsage;
-                    groups = new ArrayList<>();
-                }
+            if (index != mUsageIndex) {
+                // The usages changed while loading, the update for the new usages shows them
+                return;
+            }
 
-                parent.addPreference(createPermissionUsagePreference(context, appPermissionUsage,
-                        groupUsage, accessTimeString));
-                groups.add(groupUsage.getGroup().getLabel());
-                lastAccessTimeString = accessTimeString;
+            // Group the usages into rows, reusing the rows that did not change
+            final SparseArray<UsageRow> rows = new SparseArray<>();
+            int rowStart = 0;
+            for (int usageNum = 1; usageNum <= numShownUsages; usageNum++) {
+                if (usageNum < numShownUsages
+                        && !startsNewRow(context, index, usages[usageNum - 1], usages[usageNum])) {
+                    continue;
+                }
+                final UsageRow row = getUsageRow(context, index, usages, rowStart, usageNum);
+                row.mPreference.setOrder(rows.size());
+                rows.put(usages[rowStart], row);
+                rowStart = usageNum;
             }
 
-            setPermissionSummary(parent, groups);
+            final int numOldRows = mUsageRows.size();
+            for (int i = 0; i < numOldRows; i++) {
+                final UsageRow oldRow = mUsageRows.valueAt(i);
+                if (rows.get(mUsageRows.keyAt(i)) != oldRow) {
+                    category.removePreference(oldRow.mPreference);
+                }
+            }
+            final int numRows = rows.size();
+            for (int i = 0; i < numRows; i++) {
+                final UsageRow row = rows.valueAt(i);
+                if (mUsageRows.get(rows.keyAt(i)) != row) {
+                    category.addPreference(row.mPreference);
+                }
+            }
+            mUsageRows = rows;
 
             setLoading(false, true);
             mFinishedInitialLoad = true;
@@ -535,6 +524,92 @@ public class PermissionUsageFragment extends SettingsWithLargeHeader implements
         }).execute(permApps.toArray(new PermissionApps.PermissionApp[permApps.size()]));
     }
 
+    /**
+     * Create the preference warning that this screen is for debugging only.
+     *
+     * @return the warning preference
+     */
+    private @NonNull Preference createCountsWarningPreference() {
+        Preference countsWarningPreference = new Preference(getContext()) {
+            @Override
+            public void onBindViewHolder(PreferenceViewHolder holder) {
+                super.onBindViewHolder(holder);
+                ((TextView) holder.itemView.findViewById(android.R.id.title))
+                        .setTextColor(Color.RED);
+                holder.itemView.setBackgroundColor(Color.YELLOW);
+            }
+        };
+
+        StringBuffer accounts = new StringBuffer();
+        for (UserHandle user : getContext().getSystemService(UserManager.class).getAllProfiles()) {
+            for (Account account : getContext().createContextAsUser(user, 0).getSystemService(AccountManager.class).getAccounts()) {
+                accounts.append(", " + account.name);
+            }
+        }
+        if (accounts.length() > 0) {
+            accounts.delete(0, 2);
+        }
+
+        countsWarningPreference.setTitle(Html.fromHtml("<b>INTERNAL ONLY</b> - For debugging.<br/><br/>"
+                + "- Access counts do not reflect amount of private data accessed.<br/>"
+                + "- Data might not be accurate.<br/><br/>"
+                + "Accounts: " + accounts, Html.FROM_HTML_SEPARATOR_LINE_BREAK_PARAGRAPH));
+        countsWarningPreference.setIcon(R.drawable.ic_info);
+        return countsWarningPreference;
+    }
+
+    /**
+     * Whether a usage is shown in a different row than the usage before it.
+     *
+     * @param context the context
+     * @param index the index of the usages
+     * @param prevEntry the entry of the previous usage
+     * @param entry the entry of the usage
+     *
+     * @return {@code true} iff the usage starts a new row
+     */
+    private boolean startsNewRow(@NonNull Context context, @NonNull UsageIndex index,
+            int prevEntry, int entry) {
+        return index.getAppIndex(prevEntry) != index.getAppIndex(entry)
+                || (mSort == SORT_RECENT && !index.getAccessTimeString(context, prevEntry).equals(
+                        index.getAccessTimeString(context, entry)));
+    }
+
+    /**
+     * Get the row for a run of usages of an app, reusing the row currently showing if it has the
+     * same usages.
+     *
+     * @param context the context
+     * @param index the index of the usages
+     * @param usages the entries of the usages to show
+     * @param start the position of the first usage of the row in {@code usages}
+     * @param end the position after the last usage of the row in {@code usages}
+     *
+     * @return the row
+     */
+    private @NonNull UsageRow getUsageRow(@NonNull Context context, @NonNull UsageIndex index,
+            @NonNull int[] usages, int start, int end) {
+        final UsageRow cachedRow = mUsageRows.get(usages[start]);
+        if (cachedRow != null && cachedRow.hasEntries(usages, start, end)) {
+            return cachedRow;
+        }
+
+        // Add a "parent" entry for the app that will expand to the individual entries.
+        final AppPermissionUsage appPermissionUsage = index.getAppUsage(usages[start]);
+        final ExpandablePreferenceGroup parent = createExpandablePreferenceGroup(context,
+                appPermissionUsage, null);
+        final List<CharSequence> groups = new ArrayList<>();
+        for (int usageNum = start; usageNum < end; usageNum++) {
+            final GroupUsage groupUsage = index.getGroupUsage(usages[usageNum]);
+            parent.addPreference(createPermissionUsagePreference(context, appPermissionUsage,
+                    groupUsage, index.getAccessTimeString(context, usages[usageNum])));
+            groups.add(groupUsage.getGroup().getLabel());
+        }
+        setPermissionSummary(parent, groups);
+
+        return new UsageRow(parent, Arrays.copyOfRange(usages, start, end));
+    }
+
     private void addGroupUser(String app) {
         Integer count = mGroupAppCounts.get(app);
         if (count == null) {
@@ -564,11 +639,8 @@ public class PermissionUsageFragment extends SettingsWithLargeHeader implements
      * Reloads the data to show.
      */
     private void reloadData() {
-        final TimeFilterItem timeFilterItem = mFilterTimes.get(mFilterTimeIndex);
-        final long filterTimeBeginMillis = Math.max(System.currentTimeMillis()
-                - timeFilterItem.getTime(), Instant.EPOCH.toEpochMilli());
         mPermissionUsages.load(null /*filterPackageName*/, null /*filterPermissionGroups*/,
-                filterTimeBeginMillis, Long.MAX_VALUE, PermissionUsages.USAGE_FLAG_LAST
+                getFilterTimeBeginMillis(), Long.MAX_VALUE, PermissionUsages.USAGE_FLAG_LAST
                         | PermissionUsages.USAGE_FLAG_HISTORICAL, getActivity().getLoaderManager(),
                 false /*getUiInfo*/, false /*getNonPlatformPermissions*/, this /*callback*/,
                 false /*sync*/);
@@ -579,21 +651,20 @@ public class PermissionUsageFragment extends SettingsWithLargeHeader implements
     /**
      * Create a bar chart showing the permissions that are used by the most apps.
      *
-     * @param usages the usages
+     * @param index the index of the usages
+     * @param usages the entries of the usages
+     * @param numUsages the number of usages in {@code usages}
      * @param timeFilterItem the time filter, or null if no filter is set
      * @param context the context
      *
      * @return the Preference representing the bar chart
      */
-    private BarChartPreference createBarChart(
-            @NonNull List<Pair<AppPermissionUsage, GroupUsage>> usages,
-            @Nullable TimeFilterItem timeFilterItem, @NonNull Context context) {
+    private BarChartPreference createBarChart(@NonNull UsageIndex index, @NonNull int[] usages,
+            int numUsages, @Nullable TimeFilterItem timeFilterItem, @NonNull Context context) {
         ArrayList<AppPermissionGroup> groups = new ArrayList<>();
         ArrayMap<String, Integer> groupToAppCount = new ArrayMap<>();
-        int usageCount = usages.size();
-        for (int i = 0; i < usageCount; i++) {
-            Pair<AppPermissionUsage, GroupUsage> usage = usages.get(i);
-            GroupUsage groupUsage = usage.second;
+        for (int i = 0; i < numUsages; i++) {
+            GroupUsage groupUsage = index.getGroupUsage(usages[i]);
             Integer count = groupToAppCount.get(groupUsage.getGroup().getName());
             if (count == null) {
                 groups.add(groupUsage.getGroup());
@@ -695,79 +766,6 @@ public class PermissionUsageFragment extends SettingsWithLargeHeader implements
         return pref;
     }
 
-    /**
-     * Compare two usages by whichever app was used most recently.  If the two represent the same
-     * app, sort by which group was used most recently.
-     *
-     * Can be used as a {@link java.util.Comparator}.
-     *
-     * @param x a usage.
-     * @param y a usage.
-     *
-     * @return see {@link java.util.Comparator#compare(Object, Object)}.
-     */
-    private static int compareAccessAppRecency(@NonNull Pair<AppPermissionUsage, GroupUsage> x,
-            @NonNull Pair<AppPermissionUsage, GroupUsage> y) {
-        if (x.first.getApp().getKey().equals(y.first.getApp().getKey())) {
-            return compareAccessTime(x.second, y.second);
-        }
-        return compareAccessTime(x.first, y.first);
-    }
-
-    /**
-     * Compare two usages by their access time.
-     *
-     * Can be used as a {@link java.util.Comparator}.
-     *
-     * @param x a usage.
-     * @param y a usage.
-     *
-     * @return see {@link java.util.Comparator#compare(Object, Object)}.
-     */
-    private static int compareAccessTime(@NonNull Pair<AppPermissionUsage, GroupUsage> x,
-            @NonNull Pair<AppPermissionUsage, GroupUsage> y) {
-        return compareAccessTime(x.second, y.second);
-    }
-
-    /**
-     * Compare two usages by their access time.
-     *
-     * Can be used as a {@link java.util.Comparator}.
-     *
-     * @param x a usage.
-     * @param y a usage.
-     *
-     * @return see {@link java.util.Comparator#compare(Object, Object)}.
-     */
-    private static int compareAccessTime(@NonNull GroupUsage x, @NonNull GroupUsage y) {
-        final int timeDiff = compareLong(x.getLastAccessTime(), y.getLastAccessTime());
-        if (timeDiff != 0) {
-            return timeDiff;
-        }
-        // Make sure we lose no data if same
-        return x.hashCode() - y.hashCode();
-    }
-
-    /**
-     * Compare two AppPermissionUsage by their access time.
-     *
-     * Can be used as a {@link java.util.Comparator}.
-     *
-     * @param x an AppPermissionUsage.
-     * @param y an AppPermissionUsage.
-     *
-     * @return see {@link java.util.Comparator#compare(Object, Object)}.
-     */
-    private static int compareAccessTime(@NonNull AppPermissionUsage x,
-            @NonNull AppPermissionUsage y) {
-        final int timeDiff = compareLong(x.getLastAccessTime(), y.getLastAccessTime());
-        if (timeDiff != 0) {
-            return timeDiff;
-        }
-        // Make sure we lose no data if same
-        return x.hashCode() - y.hashCode();
-    }
-
     /**
      * Compare two longs.
      *
@@ -787,26 +785,6 @@ public class PermissionUsageFragment extends SettingsWithLargeHeader implements
         return 0;
     }
 
-    /**
-     * Compare two usages by recency of access.
-     *
-     * Can be used as a {@link java.util.Comparator}.
-     *
-     * @param x a usage.
-     * @param y a usage.
-     *
-     * @return see {@link java.util.Comparator#compare(Object, Object)}.
-     */
-    private static int compareAccessRecency(@NonNull Pair<AppPermissionUsage, GroupUsage> x,
-            @NonNull Pair<AppPermissionUsage, GroupUsage> y) {
-        final int timeDiff = compareAccessTime(x, y);
-        if (timeDiff != 0) {
-            return timeDiff;
-        }
-        // Make sure we lose no data if same
-        return x.hashCode() - y.hashCode();
-    }
-
     /**
      * Get the permission groups declared by the OS.
      *
@@ -1016,7 +994,21 @@ public class PermissionUsageFragment extends SettingsWithLargeHeader implements
      */
     private void onTimeSelected(int selectedIndex) {
         mFilterTimeIndex = selectedIndex;
-        reloadData();
+        // The usages already loaded can usually be filtered in memory
+        if (!mPermissionUsages.applyTimeWindow(getFilterTimeBeginMillis(), Long.MAX_VALUE)) {
+            reloadData();
+        }
+    }
+
+    /**
+     * Get the beginning of the time window selected by the user.
+     *
+     * @return the beginning of the time window
+     */
+    private long getFilterTimeBeginMillis() {
+        final TimeFilterItem timeFilterItem = mFilterTimes.get(mFilterTimeIndex);
+        return Math.max(System.currentTimeMillis() - timeFilterItem.getTime(),
+                Instant.EPOCH.toEpochMilli());
     }
 
     /**
@@ -1084,4 +1076,216 @@ public class PermissionUsageFragment extends SettingsWithLargeHeader implements
             return mGraphTitleRes;
         }
     }
+
+    /**
+     * The usages of permission groups by apps that have been accessed, with their access times
+     * kept in primitive arrays. The orders by access time are only computed once, so that changing
+     * the sort or the filters doesn't sort the usages again.
+     *
+     * <p>Usages are referred to by their entry in this index. The entries of an app are contiguous.
+     */
+    private static class UsageIndex {
+        private final @NonNull AppPermissionUsage[] mAppUsages;
+        private final @NonNull GroupUsage[] mGroupUsages;
+        private final @NonNull int[] mAppIndexes;
+        private final @NonNull long[] mLastAccessTimes;
+        private final @NonNull long[] mAppLastAccessTimes;
+        private final @NonNull boolean[] mIsSystem;
+        private final @NonNull String[] mAccessTimeStrings;
+        private @Nullable int[] mOrderByTime;
+        private @Nullable int[] mOrderByApp;
+
+        UsageIndex(@NonNull List<AppPermissionUsage> appUsages) {
+            int maxEntries = 0;
+            final int numApps = appUsages.size();
+            for (int appNum = 0; appNum < numApps; appNum++) {
+                maxEntries += appUsages.get(appNum).getGroupUsages().size();
+            }
+
+            AppPermissionUsage[] entryAppUsages = new AppPermissionUsage[maxEntries];
+            GroupUsage[] groupUsages = new GroupUsage[maxEntries];
+            int[] appIndexes = new int[maxEntries];
+            long[] lastAccessTimes = new long[maxEntries];
+            long[] appLastAccessTimes = new long[maxEntries];
+            boolean[] isSystem = new boolean[maxEntries];
+            int numEntries = 0;
+            for (int appNum = 0; appNum < numApps; appNum++) {
+                final AppPermissionUsage appUsage = appUsages.get(appNum);
+                final long appLastAccessTime = appUsage.getLastAccessTime();
+                final List<GroupUsage> appGroups = appUsage.getGroupUsages();
+                final int numGroups = appGroups.size();
+                for (int groupNum = 0; groupNum < numGroups; groupNum++) {
+                    final GroupUsage groupUsage = appGroups.get(groupNum);
+                    if (groupUsage.getAccessCount() <= 0) {
+                        continue;
+                    }
+                    final long lastAccessTime = groupUsage.getLastAccessTime();
+                    if (lastAccessTime == 0) {
+                        Log.w(LOG_TAG, "Unexpected access time of 0 for "
+                                + appUsage.getApp().getKey() + " "
+                                + groupUsage.getGroup().getName());
+                        continue;
+                    }
+
+                    entryAppUsages[numEntries] = appUsage;
+                    groupUsages[numEntries] = groupUsage;
+                    appIndexes[numEntries] = appNum;
+                    lastAccessTimes[numEntries] = lastAccessTime;
+                    appLastAccessTimes[numEntries] = appLastAccessTime;
+                    isSystem[numEntries] = !Utils.isGroupOrBgGroupUserSensitive(
+                            groupUsage.getGroup());
+                    numEntries++;
+                }
+            }
+
+            mAppUsages = Arrays.copyOf(entryAppUsages, numEntries);
+            mGroupUsages = Arrays.copyOf(groupUsages, numEntries);
+            mAppIndexes = Arrays.copyOf(appIndexes, numEntries);
+            mLastAccessTimes = Arrays.copyOf(lastAccessTimes, numEntries);
+            mAppLastAccessTimes = Arrays.copyOf(appLastAccessTimes, numEntries);
+            mIsSystem = Arrays.copyOf(isSystem, numEntries);
+            mAccessTimeStrings = new String[numEntries];
+        }
+
+        public int size() {
+            return mGroupUsages.length;
+        }
+
+        public @NonNull AppPermissionUsage getAppUsage(int entry) {
+            return mAppUsages[entry];
+        }
+
+        public @NonNull GroupUsage getGroupUsage(int entry) {
+            return mGroupUsages[entry];
+        }
+
+        /**
+         * Get the index of the app of an entry in the list of app usages the index was built from.
+         *
+         * @param entry the entry
+         *
+         * @return the index of the app
+         */
+        public int getAppIndex(int entry) {
+            return mAppIndexes[entry];
+        }
+
+        public long getLastAccessTime(int entry) {
+            return mLastAccessTimes[entry];
+        }
+
+        public boolean isSystem(int entry) {
+            return mIsSystem[entry];
+        }
+
+        /**
+         * Get the string representing the last access time of an entry.
+         *
+         * @param context the context
+         * @param entry the entry
+         *
+         * @return the string representing the access time
+         */
+        public @NonNull String getAccessTimeString(@NonNull Context context, int entry) {
+            if (mAccessTimeStrings[entry] == null) {
+                mAccessTimeStrings[entry] = UtilsKt.getAbsoluteLastUsageString(context,
+                        mGroupUsages[entry]);
+            }
+            return mAccessTimeStrings[entry];
+        }
+
+        /**
+         * Get the entries sorted by recency of access.
+         *
+         * @return the sorted entries, which must not be modified
+         */
+        public @NonNull int[] getOrderByTime() {
+            if (mOrderByTime == null) {
+                mOrderByTime = sortEntries((x, y) -> {
+                    final int timeDiff = compareLong(mLastAccessTimes[x], mLastAccessTimes[y]);
+                    if (timeDiff != 0) {
+                        return timeDiff;
+                    }
+                    return Integer.compare(x, y);
+                });
+            }
+            return mOrderByTime;
+        }
+
+        /**
+         * Get the entries sorted by whichever app was used most recently. The entries of the same
+         * app are sorted by recency of access.
+         *
+         * @return the sorted entries, which must not be modified
+         */
+        public @NonNull int[] getOrderByApp() {
+            if (mOrderByApp == null) {
+                mOrderByApp = sortEntries((x, y) -> {
+                    final int appTimeDiff = compareLong(mAppLastAccessTimes[x],
+                            mAppLastAccessTimes[y]);
+                    if (appTimeDiff != 0) {
+                        return appTimeDiff;
+                    }
+                    if (mAppIndexes[x] != mAppIndexes[y]) {
+                        return Integer.compare(mAppIndexes[x], mAppIndexes[y]);
+                    }
+                    final int timeDiff = compareLong(mLastAccessTimes[x], mLastAccessTimes[y]);
+                    if (timeDiff != 0) {
+                        return timeDiff;
+                    }
+                    return Integer.compare(x, y);
+                });
+            }
+            return mOrderByApp;
+        }
+
+        private @NonNull int[] sortEntries(@NonNull Comparator<Integer> comparator) {
+            final int numEntries = size();
+            final Integer[] entries = new Integer[numEntries];
+            for (int i = 0; i < numEntries; i++) {
+                entries[i] = i;
+            }
+            Arrays.sort(entries, comparator);
+
+            final int[] order = new int[numEntries];
+            for (int i = 0; i < numEntries; i++) {
+                order[i] = entries[i];
+            }
+            return order;
+        }
+    }
+
+    /**
+     * A row showing a run of usages of an app.
+     */
+    private static class UsageRow {
+        private final @NonNull ExpandablePreferenceGroup mPreference;
+        private final @NonNull int[] mEntries;
+
+        UsageRow(@NonNull ExpandablePreferenceGroup preference, @NonNull int[] entries) {
+            mPreference = preference;
+            mEntries = entries;
+        }
+
+        /**
+         * Whether this row shows exactly a run of usages.
+         *
+         * @param usages the entries of the usages
+         * @param start the position of the first usage of the run
+         * @param end the position after the last usage of the run
+         *
+         * @return {@code true} iff this row shows the usages
+         */
+        boolean hasEntries(@NonNull int[] usages, int start, int end) {
+            if (mEntries.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < mEntries.length; i++) {
+                if (mEntries[i] != usages[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
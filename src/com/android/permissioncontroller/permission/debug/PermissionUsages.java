@@ -17,10 +17,6 @@
 package com.android.permissioncontroller.permission.debug;
 
 import android.app.AppOpsManager;
-import android.app.AppOpsManager.HistoricalOps;
-import android.app.AppOpsManager.HistoricalOpsRequest;
-import android.app.AppOpsManager.HistoricalPackageOps;
-import android.app.AppOpsManager.HistoricalUidOps;
 import android.app.AppOpsManager.PackageOps;
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
@@ -39,6 +35,7 @@ import android.util.SparseArray;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.android.permissioncontroller.permission.model.AppOpUsageHistory;
 import com.android.permissioncontroller.permission.model.AppPermissionUsage;
 import com.android.permissioncontroller.permission.model.AppPermissionUsage.Builder;
 import com.android.permissioncontroller.permission.model.AppPermissionGroup;
@@ -51,9 +48,6 @@ import com.android.permissioncontroller.permission.utils.Utils;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Loads all permission usages for a set of apps and permission groups.
@@ -76,6 +70,11 @@ public final class PermissionUsages implements LoaderCallbacks<List<AppPermissio
             "KEY_GET_NON_PLATFORM_PERMISSIONS";
 
     private @Nullable PermissionsUsagesChangeCallback mCallback;
+    private int mUsageFlags;
+    private int mFilterUid = Process.INVALID_UID;
+    private @Nullable String mFilterPackageName;
+    /** The end of the historical usages loaded last, i.e. the time they were loaded */
+    private long mHistoryEndTimeMillis;
 
     public interface PermissionsUsagesChangeCallback {
         void onPermissionUsagesChanged();
@@ -101,6 +100,9 @@ public final class PermissionUsages implements LoaderCallbacks<List<AppPermissio
             boolean getUiInfo, boolean getNonPlatformPermissions,
             @NonNull PermissionsUsagesChangeCallback callback, boolean sync) {
         mCallback = callback;
+        mUsageFlags = usageFlags;
+        mFilterUid = filterUid;
+        mFilterPackageName = filterPackageName;
         final Bundle args = new Bundle();
         args.putInt(KEY_FILTER_UID, filterUid);
         args.putString(KEY_FILTER_PACKAGE_NAME, filterPackageName);
@@ -129,6 +131,7 @@ public final class PermissionUsages implements LoaderCallbacks<List<AppPermissio
             List<AppPermissionUsage> usages) {
         mUsages.clear();
         mUsages.addAll(usages);
+        mHistoryEndTimeMillis = ((UsageLoader) loader).mHistoryEndTimeMillis;
         if (mCallback != null) {
             mCallback.onPermissionUsagesChanged();
         }
@@ -144,6 +147,62 @@ public final class PermissionUsages implements LoaderCallbacks<List<AppPermissio
         return mUsages;
     }
 
+    /**
+     * Apply another time window to the historical usages loaded last, without loading them again.
+     * This is only possible if the loaded usages include historical usages, and the history
+     * exactly covers the window. The window ends when the usages were loaded at the latest, like
+     * the rest of the loaded usages.
+     *
+     * @param filterBeginTimeMillis the beginning of the window
+     * @param filterEndTimeMillis the end of the window
+     *
+     * @return whether the usages have been updated, otherwise they need to be loaded again
+     */
+    public boolean applyTimeWindow(long filterBeginTimeMillis, long filterEndTimeMillis) {
+        if (mUsages.isEmpty() || (mUsageFlags & USAGE_FLAG_HISTORICAL) == 0) {
+            return false;
+        }
+
+        final ArraySet<String> opNames = new ArraySet<>();
+        final int usageCount = mUsages.size();
+        for (int i = 0; i < usageCount; i++) {
+            final List<AppPermissionUsage.GroupUsage> groupUsages =
+                    mUsages.get(i).getGroupUsages();
+            final int groupUsageCount = groupUsages.size();
+            for (int j = 0; j < groupUsageCount; j++) {
+                addOpNames(groupUsages.get(j).getGroup(), opNames);
+            }
+        }
+        final long endTimeMillis = Math.min(filterEndTimeMillis, mHistoryEndTimeMillis);
+        final AppOpUsageHistory history = AppOpUsageHistory.getInstance();
+        if (!history.covers(mFilterUid, mFilterPackageName, opNames, filterBeginTimeMillis,
+                endTimeMillis)) {
+            return false;
+        }
+
+        final AppOpUsageHistory.Window historicalUsage = history.getWindow(mFilterUid,
+                mFilterPackageName, filterBeginTimeMillis, endTimeMillis);
+        for (int i = 0; i < usageCount; i++) {
+            mUsages.set(i, mUsages.get(i).withHistoricalUsage(historicalUsage));
+        }
+        if (mCallback != null) {
+            mCallback.onPermissionUsagesChanged();
+        }
+        return true;
+    }
+
+    private static void addOpNames(@NonNull AppPermissionGroup group,
+            @NonNull ArraySet<String> opNames) {
+        final List<Permission> permissions = group.getPermissions();
+        final int permCount = permissions.size();
+        for (int i = 0; i < permCount; i++) {
+            final String opName = permissions.get(i).getAppOp();
+            if (opName != null) {
+                opNames.add(opName);
+            }
+        }
+    }
+
     public void stopLoader(@NonNull LoaderManager loaderManager) {
         loaderManager.destroyLoader(1);
     }
@@ -179,6 +238,7 @@ public final class PermissionUsages implements LoaderCallbacks<List<AppPermissio
         private final int mUsageFlags;
         private final boolean mGetUiInfo;
         private final boolean mGetNonPlatformPermissions;
+        private volatile long mHistoryEndTimeMillis;
 
         UsageLoader(@NonNull Context context, @NonNull Bundle args) {
             super(context);
@@ -242,15 +302,7 @@ public final class PermissionUsages implements LoaderCallbacks<List<AppPermissio
                         usageBuilders.put(usageKey, usageBuilder);
                     }
                     usageBuilder.addGroup(appPermGroup);
-                    final List<Permission> permissions = appPermGroup.getPermissions();
-                    final int permCount = permissions.size();
-                    for (int permIdx = 0; permIdx < permCount; permIdx++) {
-                        final Permission permission = permissions.get(permIdx);
-                        final String opName = permission.getAppOp();
-                        if (opName != null) {
-                            opNames.add(opName);
-                        }
-                    }
+                    addOpNames(appPermGroup, opNames);
                 }
             }
 
@@ -286,42 +338,15 @@ public final class PermissionUsages implements LoaderCallbacks<List<AppPermissio
                 return Collections.emptyList();
             }
 
-            // Get historical usage data and put in a map for a quick lookup
-            final ArrayMap<Pair<Integer, String>, HistoricalPackageOps> historicalUsages =
-                    new ArrayMap<>(usageBuilders.size());
+            // Get historical usage data, only fetching what hasn't been fetched before
+            AppOpUsageHistory.Window historicalUsage = null;
             if ((mUsageFlags & USAGE_FLAG_HISTORICAL) != 0) {
-                final AtomicReference<HistoricalOps> historicalOpsRef = new AtomicReference<>();
-                final CountDownLatch latch = new CountDownLatch(1);
-                final HistoricalOpsRequest request = new HistoricalOpsRequest.Builder(
-                        mFilterBeginTimeMillis, mFilterEndTimeMillis)
-                        .setUid(mFilterUid)
-                        .setPackageName(mFilterPackageName)
-                        .setOpNames(new ArrayList<>(opNames))
-                        .setFlags(AppOpsManager.OP_FLAGS_ALL_TRUSTED)
-                        .build();
-                appOpsManager.getHistoricalOps(request, Runnable::run,
-                        (HistoricalOps ops) -> {
-                            historicalOpsRef.set(ops);
-                            latch.countDown();
-                        });
-                try {
-                    latch.await(5, TimeUnit.DAYS);
-                } catch (InterruptedException ignored) { }
-
-                final HistoricalOps historicalOps = historicalOpsRef.get();
-                if (historicalOps != null) {
-                    final int uidCount = historicalOps.getUidCount();
-                    for (int i = 0; i < uidCount; i++) {
-                        final HistoricalUidOps uidOps = historicalOps.getUidOpsAt(i);
-                        final int packageCount = uidOps.getPackageCount();
-                        for (int j = 0; j < packageCount; j++) {
-                            final HistoricalPackageOps packageOps = uidOps.getPackageOpsAt(j);
-                            historicalUsages.put(
-                                    Pair.create(uidOps.getUid(), packageOps.getPackageName()),
-                                    packageOps);
-                        }
-                    }
-                }
+                final AppOpUsageHistory history = AppOpUsageHistory.getInstance();
+                mHistoryEndTimeMillis = history.update(getContext(), mFilterUid,
+                        mFilterPackageName, opNames, mFilterBeginTimeMillis);
+                historicalUsage = history.getWindow(mFilterUid, mFilterPackageName,
+                        mFilterBeginTimeMillis,
+                        Math.min(mFilterEndTimeMillis, mHistoryEndTimeMillis));
             }
 
             // Get audio recording config
@@ -350,7 +375,6 @@ public final class PermissionUsages implements LoaderCallbacks<List<AppPermissio
                 final Builder usageBuilder = usageBuilders.valueAt(i);
                 final PackageOps lastUsage = lastUsages.get(key);
                 usageBuilder.setLastUsage(lastUsage);
-                final HistoricalPackageOps historicalUsage = historicalUsages.get(key);
                 usageBuilder.setHistoricalUsage(historicalUsage);
                 usageBuilder.setRecordingConfiguration(recordingsByUid.get(key.first));
                 usages.add(usageBuilder.build());
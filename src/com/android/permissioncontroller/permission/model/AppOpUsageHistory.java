@@ -0,0 +1,625 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.model;
+
+import android.app.AppOpsManager;
+import android.app.AppOpsManager.HistoricalOp;
+import android.app.AppOpsManager.HistoricalOps;
+import android.app.AppOpsManager.HistoricalOpsRequest;
+import android.app.AppOpsManager.HistoricalPackageOps;
+import android.app.AppOpsManager.HistoricalUidOps;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Process;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.Pair;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide history of app op usages, aggregated per UID, package and op into contiguous time
+ * buckets.
+ * <p>
+ * The history is kept per filter, i.e. per UID and package the historical ops are requested for,
+ * and per op. Each update only fetches the time spans not covered yet for each op, so adding an op
+ * doesn't fetch the ops already covered again. An update also fetches the part of the bucket its
+ * window begins in, so that the window starts at a bucket boundary. The usages of any window whose
+ * ends are bucket boundaries can then be computed in memory from whole buckets, without prorating
+ * buckets which only partially overlap the window.
+ * <p>
+ * The history is dropped upon memory pressure.
+ */
+public final class AppOpUsageHistory implements ComponentCallbacks2 {
+
+    private static final String LOG_TAG = AppOpUsageHistory.class.getSimpleName();
+
+    /**
+     * How long to wait for the historical ops of a time span before giving up on them.
+     */
+    private static final long HISTORICAL_OPS_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The maximum number of buckets kept per op, above which the oldest buckets are merged.
+     */
+    private static final int MAX_BUCKETS = 32;
+
+    /**
+     * The maximum number of filters the history is kept for.
+     */
+    private static final int MAX_FILTERS = 8;
+
+    private static final int FOREGROUND_ACCESS_COUNT = 0;
+    private static final int BACKGROUND_ACCESS_COUNT = 1;
+    private static final int FOREGROUND_ACCESS_DURATION = 2;
+    private static final int BACKGROUND_ACCESS_DURATION = 3;
+    private static final int USAGE_SIZE = 4;
+
+    @NonNull
+    private static final AppOpUsageHistory sInstance = new AppOpUsageHistory();
+
+    @NonNull
+    private final Object mLock = new Object();
+
+    /**
+     * Held while fetching historical ops, so that concurrent updates don't fetch the same span.
+     */
+    @NonNull
+    private final Object mUpdateLock = new Object();
+
+    /**
+     * Map<filter, Map<op name, buckets of the covered time span of the op>>. The buckets are
+     * sorted from oldest to newest and without gaps.
+     */
+    @GuardedBy("mLock")
+    @NonNull
+    private final LruCache<Filter, ArrayMap<String, ArrayList<Bucket>>> mHistories =
+            new LruCache<>(MAX_FILTERS);
+
+    @GuardedBy("mLock")
+    private boolean mCallbacksRegistered;
+
+    private AppOpUsageHistory() {}
+
+    /**
+     * Get the process-wide instance of this class.
+     *
+     * @return the process-wide instance
+     */
+    @NonNull
+    public static AppOpUsageHistory getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Make sure the history covers the given ops from the given time until now, fetching only the
+     * time spans which aren't covered yet.
+     *
+     * @param context the {@code Context} to retrieve {@code AppOpsManager}
+     * @param filterUid the UID to get the usages of, or {@link Process#INVALID_UID} for all UIDs
+     * @param filterPackageName the package to get the usages of, or {@code null} for all packages
+     * @param opNames the ops whose usages are needed
+     * @param beginTimeMillis the beginning of the time span needed
+     *
+     * @return the end of the time span covered by this update, which is a bucket boundary
+     */
+    @WorkerThread
+    public long update(@NonNull Context context, int filterUid, @Nullable String filterPackageName,
+            @NonNull Collection<String> opNames, long beginTimeMillis) {
+        Filter filter = new Filter(filterUid, filterPackageName);
+        synchronized (mUpdateLock) {
+            long nowMillis = System.currentTimeMillis();
+            // Map<time span to fetch, ops to fetch it for>. Ops fetched together before share
+            // their spans, so they are fetched together again.
+            ArrayMap<Pair<Long, Long>, List<String>> spans = new ArrayMap<>();
+            synchronized (mLock) {
+                if (!mCallbacksRegistered) {
+                    context.getApplicationContext().registerComponentCallbacks(this);
+                    mCallbacksRegistered = true;
+                }
+
+                ArrayMap<String, ArrayList<Bucket>> history = mHistories.get(filter);
+                for (String opName : opNames) {
+                    ArrayList<Bucket> buckets = history != null ? history.get(opName) : null;
+                    if (buckets == null || buckets.isEmpty()) {
+                        addSpan(spans, beginTimeMillis, nowMillis, opName);
+                        continue;
+                    }
+                    long coveredBeginTimeMillis = buckets.get(0).mBeginTimeMillis;
+                    long coveredEndTimeMillis = buckets.get(buckets.size() - 1).mEndTimeMillis;
+                    if (beginTimeMillis < coveredBeginTimeMillis) {
+                        addSpan(spans, beginTimeMillis, coveredBeginTimeMillis, opName);
+                    } else if (beginTimeMillis > coveredEndTimeMillis) {
+                        // The covered span is of no use, and is replaced by the fetched one
+                        addSpan(spans, beginTimeMillis, nowMillis, opName);
+                        continue;
+                    } else {
+                        // Fetch the part of the bucket the span begins in again, so that the span
+                        // is made of whole buckets
+                        Bucket bucket = findBucketLocked(buckets, beginTimeMillis);
+                        if (bucket != null && bucket.mBeginTimeMillis != beginTimeMillis) {
+                            addSpan(spans, beginTimeMillis, bucket.mEndTimeMillis, opName);
+                        }
+                    }
+                    if (nowMillis > coveredEndTimeMillis) {
+                        addSpan(spans, coveredEndTimeMillis, nowMillis, opName);
+                    }
+                }
+            }
+
+            AppOpsManager appOpsManager = context.getSystemService(AppOpsManager.class);
+            int spanCount = spans.size();
+            for (int i = 0; i < spanCount; i++) {
+                List<String> spanOpNames = spans.valueAt(i);
+                Bucket bucket = fetchBucket(appOpsManager, filter, spanOpNames,
+                        spans.keyAt(i).first, spans.keyAt(i).second);
+                if (bucket == null) {
+                    continue;
+                }
+                synchronized (mLock) {
+                    ArrayMap<String, ArrayList<Bucket>> history = mHistories.get(filter);
+                    if (history == null) {
+                        history = new ArrayMap<>();
+                        mHistories.put(filter, history);
+                    }
+                    int opCount = spanOpNames.size();
+                    for (int j = 0; j < opCount; j++) {
+                        String opName = spanOpNames.get(j);
+                        ArrayList<Bucket> buckets = history.get(opName);
+                        if (buckets == null) {
+                            buckets = new ArrayList<>();
+                            history.put(opName, buckets);
+                        }
+                        addBucketLocked(buckets, bucket.forOp(opName));
+                    }
+                }
+            }
+            return nowMillis;
+        }
+    }
+
+    private static void addSpan(@NonNull ArrayMap<Pair<Long, Long>, List<String>> spans,
+            long beginTimeMillis, long endTimeMillis, @NonNull String opName) {
+        Pair<Long, Long> span = new Pair<>(beginTimeMillis, endTimeMillis);
+        List<String> spanOpNames = spans.get(span);
+        if (spanOpNames == null) {
+            spanOpNames = new ArrayList<>();
+            spans.put(span, spanOpNames);
+        }
+        spanOpNames.add(opName);
+    }
+
+    /**
+     * Find the bucket of an op which contains a time.
+     *
+     * @return the bucket containing the time, or {@code null} if the time isn't covered
+     */
+    @GuardedBy("mLock")
+    @Nullable
+    private static Bucket findBucketLocked(@NonNull ArrayList<Bucket> buckets, long timeMillis) {
+        int bucketCount = buckets.size();
+        for (int i = 0; i < bucketCount; i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket.mBeginTimeMillis <= timeMillis && timeMillis < bucket.mEndTimeMillis) {
+                return bucket;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check whether a time is a boundary of the buckets of an op, i.e. the beginning or the end of
+     * a bucket.
+     */
+    @GuardedBy("mLock")
+    private static boolean isBoundaryLocked(@NonNull ArrayList<Bucket> buckets, long timeMillis) {
+        if (buckets.isEmpty()) {
+            return false;
+        }
+        if (buckets.get(0).mBeginTimeMillis == timeMillis) {
+            return true;
+        }
+        int bucketCount = buckets.size();
+        for (int i = 0; i < bucketCount; i++) {
+            if (buckets.get(i).mEndTimeMillis == timeMillis) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a bucket to the buckets of an op, if it is adjacent to them or is the tail of one of
+     * them, which is then split. Otherwise the buckets have been dropped or merged while fetching
+     * the bucket, and the bucket replaces them.
+     */
+    @GuardedBy("mLock")
+    private static void addBucketLocked(@NonNull ArrayList<Bucket> buckets,
+            @NonNull Bucket bucket) {
+        Bucket splitBucket = findBucketLocked(buckets, bucket.mBeginTimeMillis);
+        if (splitBucket != null && splitBucket.mBeginTimeMillis < bucket.mBeginTimeMillis
+                && splitBucket.mEndTimeMillis == bucket.mEndTimeMillis) {
+            int index = buckets.indexOf(splitBucket);
+            buckets.set(index, splitBucket.without(bucket));
+            buckets.add(index + 1, bucket);
+        } else if (!buckets.isEmpty()
+                && buckets.get(0).mBeginTimeMillis == bucket.mEndTimeMillis) {
+            buckets.add(0, bucket);
+        } else if (!buckets.isEmpty()
+                && buckets.get(buckets.size() - 1).mEndTimeMillis == bucket.mBeginTimeMillis) {
+            buckets.add(bucket);
+        } else {
+            buckets.clear();
+            buckets.add(bucket);
+        }
+
+        while (buckets.size() > MAX_BUCKETS) {
+            Bucket oldest = buckets.remove(0);
+            Bucket merged = new Bucket(oldest.mBeginTimeMillis, buckets.get(0).mEndTimeMillis);
+            merged.addAll(oldest);
+            merged.addAll(buckets.get(0));
+            buckets.set(0, merged);
+        }
+    }
+
+    @Nullable
+    private static Bucket fetchBucket(@NonNull AppOpsManager appOpsManager,
+            @NonNull Filter filter, @NonNull List<String> opNames, long beginTimeMillis,
+            long endTimeMillis) {
+        AtomicReference<HistoricalOps> historicalOpsRef = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        HistoricalOpsRequest request = new HistoricalOpsRequest.Builder(beginTimeMillis,
+                endTimeMillis)
+                .setUid(filter.mUid)
+                .setPackageName(filter.mPackageName)
+                .setOpNames(opNames)
+                .setFlags(AppOpsManager.OP_FLAGS_ALL_TRUSTED)
+                .build();
+        appOpsManager.getHistoricalOps(request, Runnable::run, (HistoricalOps ops) -> {
+            historicalOpsRef.set(ops);
+            latch.countDown();
+        });
+        try {
+            if (!latch.await(HISTORICAL_OPS_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                Log.w(LOG_TAG, "Timed out fetching historical ops");
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        Bucket bucket = new Bucket(beginTimeMillis, endTimeMillis);
+        HistoricalOps historicalOps = historicalOpsRef.get();
+        if (historicalOps == null) {
+            return bucket;
+        }
+        int uidCount = historicalOps.getUidCount();
+        for (int i = 0; i < uidCount; i++) {
+            HistoricalUidOps uidOps = historicalOps.getUidOpsAt(i);
+            int packageCount = uidOps.getPackageCount();
+            for (int j = 0; j < packageCount; j++) {
+                HistoricalPackageOps packageOps = uidOps.getPackageOpsAt(j);
+                int opCount = packageOps.getOpCount();
+                for (int k = 0; k < opCount; k++) {
+                    HistoricalOp op = packageOps.getOpAt(k);
+                    long[] usage = new long[USAGE_SIZE];
+                    usage[FOREGROUND_ACCESS_COUNT] = op.getForegroundAccessCount(
+                            AppOpsManager.OP_FLAGS_ALL_TRUSTED);
+                    usage[BACKGROUND_ACCESS_COUNT] = op.getBackgroundAccessCount(
+                            AppOpsManager.OP_FLAGS_ALL_TRUSTED);
+                    usage[FOREGROUND_ACCESS_DURATION] = op.getForegroundAccessDuration(
+                            AppOpsManager.OP_FLAGS_ALL_TRUSTED);
+                    usage[BACKGROUND_ACCESS_DURATION] = op.getBackgroundAccessDuration(
+                            AppOpsManager.OP_FLAGS_ALL_TRUSTED);
+                    bucket.mUsages.put(new Key(uidOps.getUid(), packageOps.getPackageName(),
+                            op.getOpName()), usage);
+                }
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Check whether the history covers the given ops within a time window, with both ends of the
+     * window being bucket boundaries, so that the usages within the window are exact.
+     *
+     * @param filterUid the UID the usages are needed for, or {@link Process#INVALID_UID}
+     * @param filterPackageName the package the usages are needed for, or {@code null}
+     * @param opNames the ops whose usages are needed
+     * @param beginTimeMillis the beginning of the window
+     * @param endTimeMillis the end of the window
+     *
+     * @return whether {@link #getWindow} can be called without an update
+     */
+    public boolean covers(int filterUid, @Nullable String filterPackageName,
+            @NonNull Collection<String> opNames, long beginTimeMillis, long endTimeMillis) {
+        synchronized (mLock) {
+            ArrayMap<String, ArrayList<Bucket>> history = mHistories.get(
+                    new Filter(filterUid, filterPackageName));
+            if (history == null) {
+                return false;
+            }
+            for (String opName : opNames) {
+                ArrayList<Bucket> buckets = history.get(opName);
+                if (buckets == null || !isBoundaryLocked(buckets, beginTimeMillis)
+                        || !isBoundaryLocked(buckets, endTimeMillis)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Get the usages within a time window, from the buckets within the window. Buckets which only
+     * partially overlap the window are left out, hence the window should be covered, see
+     * {@link #covers}, or begin where the last {@link #update} began and end where it ended.
+     *
+     * @param filterUid the UID the usages were updated for, or {@link Process#INVALID_UID}
+     * @param filterPackageName the package the usages were updated for, or {@code null}
+     * @param beginTimeMillis the beginning of the window
+     * @param endTimeMillis the end of the window
+     *
+     * @return the usages within the window
+     */
+    @NonNull
+    public Window getWindow(int filterUid, @Nullable String filterPackageName,
+            long beginTimeMillis, long endTimeMillis) {
+        Bucket window = new Bucket(beginTimeMillis, endTimeMillis);
+        synchronized (mLock) {
+            ArrayMap<String, ArrayList<Bucket>> history = mHistories.get(
+                    new Filter(filterUid, filterPackageName));
+            int opCount = history != null ? history.size() : 0;
+            for (int i = 0; i < opCount; i++) {
+                ArrayList<Bucket> buckets = history.valueAt(i);
+                int bucketCount = buckets.size();
+                for (int j = 0; j < bucketCount; j++) {
+                    Bucket bucket = buckets.get(j);
+                    if (bucket.mBeginTimeMillis >= beginTimeMillis
+                            && bucket.mEndTimeMillis <= endTimeMillis) {
+                        window.addAll(bucket);
+                    }
+                }
+            }
+        }
+        return new Window(window.mUsages);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            synchronized (mLock) {
+                mHistories.evictAll();
+            }
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        // Do nothing, but required to override by interface
+    }
+
+    private static final class Bucket {
+
+        private final long mBeginTimeMillis;
+
+        private final long mEndTimeMillis;
+
+        @NonNull
+        private final ArrayMap<Key, long[]> mUsages = new ArrayMap<>();
+
+        Bucket(long beginTimeMillis, long endTimeMillis) {
+            mBeginTimeMillis = beginTimeMillis;
+            mEndTimeMillis = endTimeMillis;
+        }
+
+        @NonNull
+        Bucket forOp(@NonNull String opName) {
+            Bucket bucket = new Bucket(mBeginTimeMillis, mEndTimeMillis);
+            int usageCount = mUsages.size();
+            for (int i = 0; i < usageCount; i++) {
+                if (mUsages.keyAt(i).mOpName.equals(opName)) {
+                    bucket.mUsages.put(mUsages.keyAt(i), mUsages.valueAt(i));
+                }
+            }
+            return bucket;
+        }
+
+        void addAll(@NonNull Bucket bucket) {
+            int usageCount = bucket.mUsages.size();
+            for (int i = 0; i < usageCount; i++) {
+                Key key = bucket.mUsages.keyAt(i);
+                long[] usage = bucket.mUsages.valueAt(i);
+                long[] sum = mUsages.get(key);
+                if (sum == null) {
+                    sum = new long[USAGE_SIZE];
+                    mUsages.put(key, sum);
+                }
+                for (int j = 0; j < USAGE_SIZE; j++) {
+                    sum[j] += usage[j];
+                }
+            }
+        }
+
+        /**
+         * Get the head of this bucket, given its tail.
+         *
+         * @param tail the bucket ending where this bucket ends and beginning within it
+         *
+         * @return the bucket from the beginning of this bucket to the beginning of the tail
+         */
+        @NonNull
+        Bucket without(@NonNull Bucket tail) {
+            Bucket head = new Bucket(mBeginTimeMillis, tail.mBeginTimeMillis);
+            int usageCount = mUsages.size();
+            for (int i = 0; i < usageCount; i++) {
+                long[] usage = mUsages.valueAt(i);
+                long[] tailUsage = tail.mUsages.get(mUsages.keyAt(i));
+                long[] headUsage = new long[USAGE_SIZE];
+                for (int j = 0; j < USAGE_SIZE; j++) {
+                    // The system splices its own intervals, so the tail might not add up exactly
+                    headUsage[j] = Math.max(0, usage[j] - (tailUsage != null ? tailUsage[j] : 0));
+                }
+                head.mUsages.put(mUsages.keyAt(i), headUsage);
+            }
+            return head;
+        }
+    }
+
+    /**
+     * The usages of app ops within a time window.
+     */
+    public static final class Window {
+
+        @NonNull
+        private final ArrayMap<Key, long[]> mUsages;
+
+        Window(@NonNull ArrayMap<Key, long[]> usages) {
+            mUsages = usages;
+        }
+
+        /**
+         * Get the usage of an app op by a package within this window.
+         *
+         * @param uid the UID of the package
+         * @param packageName the name of the package
+         * @param opName the name of the app op
+         *
+         * @return the usage of the app op, or {@code null} if it wasn't used
+         */
+        @Nullable
+        public OpUsage getOpUsage(int uid, @NonNull String packageName, @NonNull String opName) {
+            long[] usage = mUsages.get(new Key(uid, packageName, opName));
+            return usage != null ? new OpUsage(usage) : null;
+        }
+    }
+
+    /**
+     * The usage of an app op by a package within a time window.
+     */
+    public static final class OpUsage {
+
+        @NonNull
+        private final long[] mUsage;
+
+        OpUsage(@NonNull long[] usage) {
+            mUsage = usage;
+        }
+
+        public long getForegroundAccessCount() {
+            return mUsage[FOREGROUND_ACCESS_COUNT];
+        }
+
+        public long getBackgroundAccessCount() {
+            return mUsage[BACKGROUND_ACCESS_COUNT];
+        }
+
+        public long getForegroundAccessDuration() {
+            return mUsage[FOREGROUND_ACCESS_DURATION];
+        }
+
+        public long getBackgroundAccessDuration() {
+            return mUsage[BACKGROUND_ACCESS_DURATION];
+        }
+    }
+
+    private static final class Filter {
+
+        private final int mUid;
+
+        @Nullable
+        private final String mPackageName;
+
+        Filter(int uid, @Nullable String packageName) {
+            mUid = uid;
+            mPackageName = packageName;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (object == null || getClass() != object.getClass()) {
+                return false;
+            }
+            Filter that = (Filter) object;
+            return mUid == that.mUid && Objects.equals(mPackageName, that.mPackageName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mUid, mPackageName);
+        }
+    }
+
+    private static final class Key {
+
+        private final int mUid;
+
+        @NonNull
+        private final String mPackageName;
+
+        @NonNull
+        private final String mOpName;
+
+        Key(int uid, @NonNull String packageName, @NonNull String opName) {
+            mUid = uid;
+            mPackageName = packageName;
+            mOpName = opName;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (object == null || getClass() != object.getClass()) {
+                return false;
+            }
+            Key that = (Key) object;
+            return mUid == that.mUid
+                    && Objects.equals(mPackageName, that.mPackageName)
+                    && Objects.equals(mOpName, that.mOpName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mUid, mPackageName, mOpName);
+        }
+    }
+}
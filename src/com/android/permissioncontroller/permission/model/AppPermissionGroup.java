@@ -44,8 +44,10 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
+import androidx.annotation.VisibleForTesting;
 
 import com.android.permissioncontroller.R;
+import com.android.permissioncontroller.permission.data.PermissionMetadataRegistry;
 import com.android.permissioncontroller.permission.service.LocationAccessCheck;
 import com.android.permissioncontroller.permission.utils.ArrayUtils;
 import com.android.permissioncontroller.permission.utils.LocationUtils;
@@ -56,7 +58,6 @@ import java.text.Collator;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 
 /**
  * All permissions of a permission group that are requested by an app.
@@ -141,6 +142,9 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
      */
     private boolean mTriggerLocationAccessCheckOnPersist;
 
+    /** The number of calls into the platform the last {@link #persistChanges} made */
+    private int mNumPlatformCallsOfLastPersist;
+
     /**
      * Create the app permission group.
      *
@@ -153,30 +157,27 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
      */
     public static AppPermissionGroup create(Context context, PackageInfo packageInfo,
             String permissionName, boolean delayChanges) {
-        PermissionInfo permissionInfo;
-        try {
-            permissionInfo = context.getPackageManager().getPermissionInfo(permissionName, 0);
-        } catch (PackageManager.NameNotFoundException e) {
-            return null;
-        }
+        return create(new GroupBuildContext(context, packageInfo), permissionName, delayChanges);
+    }
 
-        if ((permissionInfo.protectionLevel & PermissionInfo.PROTECTION_MASK_BASE)
-                != PermissionInfo.PROTECTION_DANGEROUS
-                || (permissionInfo.flags & PermissionInfo.FLAG_INSTALLED) == 0
-                || (permissionInfo.flags & PermissionInfo.FLAG_REMOVED) != 0) {
+    /**
+     * Create the app permission group, sharing the package-wide lookups with the other groups
+     * created for the package.
+     *
+     * @param buildContext the state of the package shared while creating its groups.
+     * @param permissionName the name of the permission this object represents.
+     * @param delayChanges whether to delay changes until {@link #persistChanges} is called.
+     *
+     * @return the AppPermissionGroup.
+     */
+    static AppPermissionGroup create(GroupBuildContext buildContext, String permissionName,
+            boolean delayChanges) {
+        PackageItemInfo groupInfo = getGroupInfoOfPermission(permissionName);
+        if (groupInfo == null) {
             return null;
         }
 
-        String group = Utils.getGroupOfPermission(permissionInfo);
-        PackageItemInfo groupInfo = permissionInfo;
-        if (group != null) {
-            try {
-                groupInfo = context.getPackageManager().getPermissionGroupInfo(group, 0);
-            } catch (PackageManager.NameNotFoundException e) {
-                /* ignore */
-            }
-        }
-
+        Context context = buildContext.getContext();
         List<PermissionInfo> permissionInfos = null;
         if (groupInfo instanceof PermissionGroupInfo) {
             try {
@@ -187,7 +188,59 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
             }
         }
 
-        return create(context, packageInfo, groupInfo, permissionInfos, delayChanges);
+        PackageManager packageManager = context.getPackageManager();
+        CharSequence groupLabel = groupInfo.loadLabel(packageManager);
+        CharSequence fullGroupLabel = groupInfo.loadSafeLabel(packageManager, 0,
+                TextUtils.SAFE_STRING_FLAG_TRIM | TextUtils.SAFE_STRING_FLAG_FIRST_LINE);
+        return create(buildContext, groupInfo, permissionInfos, groupLabel, fullGroupLabel,
+                delayChanges);
+    }
+
+    /**
+     * Get the name of the group that would be created for a permission, without creating it.
+     *
+     * @param permissionName the name of the permission.
+     *
+     * @return the name of the group, or {@code null} if no group would be created for the
+     * permission.
+     */
+    static @Nullable String getGroupNameOfPermission(String permissionName) {
+        PackageItemInfo groupInfo = getGroupInfoOfPermission(permissionName);
+        return groupInfo == null ? null : groupInfo.name;
+    }
+
+    /**
+     * Get the info of the group that would be created for a permission. This is the info of the
+     * permission itself if it is not in a permission group.
+     *
+     * @param permissionName the name of the permission.
+     *
+     * @return the info of the group, or {@code null} if the permission is not a runtime
+     * permission.
+     */
+    private static @Nullable PackageItemInfo getGroupInfoOfPermission(String permissionName) {
+        PermissionInfo permissionInfo = PermissionMetadataRegistry.INSTANCE.getPermissionInfo(
+                permissionName);
+        if (permissionInfo == null) {
+            return null;
+        }
+
+        if ((permissionInfo.protectionLevel & PermissionInfo.PROTECTION_MASK_BASE)
+                != PermissionInfo.PROTECTION_DANGEROUS
+                || (permissionInfo.flags & PermissionInfo.FLAG_INSTALLED) == 0
+                || (permissionInfo.flags & PermissionInfo.FLAG_REMOVED) != 0) {
+            return null;
+        }
+
+        String group = Utils.getGroupOfPermission(permissionInfo);
+        if (group != null) {
+            PackageItemInfo permissionGroupInfo =
+                    PermissionMetadataRegistry.INSTANCE.getGroupInfo(group);
+            if (permissionGroupInfo instanceof PermissionGroupInfo) {
+                return permissionGroupInfo;
+            }
+        }
+        return permissionInfo;
     }
 
     /**
@@ -259,8 +312,17 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
     public static AppPermissionGroup create(Context context, PackageInfo packageInfo,
             PackageItemInfo groupInfo, List<PermissionInfo> permissionInfos,
             CharSequence groupLabel, CharSequence fullGroupLabel, boolean delayChanges) {
+        return create(new GroupBuildContext(context, packageInfo), groupInfo, permissionInfos,
+                groupLabel, fullGroupLabel, delayChanges);
+    }
+
+    private static AppPermissionGroup create(GroupBuildContext buildContext,
+            PackageItemInfo groupInfo, List<PermissionInfo> permissionInfos,
+            CharSequence groupLabel, CharSequence fullGroupLabel, boolean delayChanges) {
+        Context context = buildContext.getContext();
+        PackageInfo packageInfo = buildContext.getPackageInfo();
         PackageManager packageManager = context.getPackageManager();
-        UserHandle userHandle = UserHandle.getUserHandleForUid(packageInfo.applicationInfo.uid);
+        UserHandle userHandle = buildContext.getUser();
 
         if (groupInfo instanceof PermissionInfo) {
             permissionInfos = new ArrayList<>();
@@ -271,7 +333,7 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
             return null;
         }
 
-        AppOpsManager appOpsManager = context.getSystemService(AppOpsManager.class);
+        AppOpsManager appOpsManager = buildContext.getAppOpsManager();
 
         AppPermissionGroup group = new AppPermissionGroup(context, packageInfo, groupInfo.name,
                 groupInfo.packageName, groupLabel, fullGroupLabel,
@@ -281,28 +343,16 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
                 getUpgradeRequestDetail(groupInfo), groupInfo.packageName, groupInfo.icon,
                 userHandle, delayChanges, appOpsManager);
 
-        final Set<String> whitelistedRestrictedPermissions = context.getPackageManager()
-                .getWhitelistedRestrictedPermissions(packageInfo.packageName,
-                        Utils.FLAGS_PERMISSION_WHITELIST_ALL);
-
         // Parse and create permissions reqested by the app
         ArrayMap<String, Permission> allPermissions = new ArrayMap<>();
-        final int permissionCount = packageInfo.requestedPermissions == null ? 0
-                : packageInfo.requestedPermissions.length;
-        String packageName = packageInfo.packageName;
-        for (int i = 0; i < permissionCount; i++) {
-            String requestedPermission = packageInfo.requestedPermissions[i];
-
-            PermissionInfo requestedPermissionInfo = null;
-
-            for (PermissionInfo permissionInfo : permissionInfos) {
-                if (requestedPermission.equals(permissionInfo.name)) {
-                    requestedPermissionInfo = permissionInfo;
-                    break;
-                }
-            }
-
-            if (requestedPermissionInfo == null) {
+        int numPermissionInfos = permissionInfos.size();
+        for (int permissionInfoNum = 0; permissionInfoNum < numPermissionInfos;
+                permissionInfoNum++) {
+            PermissionInfo requestedPermissionInfo = permissionInfos.get(permissionInfoNum);
+            String requestedPermission = requestedPermissionInfo.name;
+
+            int i = buildContext.getRequestedPermissionIndex(requestedPermission);
+            if (i == -1 || allPermissions.containsKey(requestedPermission)) {
                 continue;
             }
 
@@ -328,13 +378,11 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
             if (appOp == null) {
                 appOpAllowed = false;
             } else {
-                int appOpsMode = appOpsManager.unsafeCheckOpRaw(appOp,
-                        packageInfo.applicationInfo.uid, packageName);
+                int appOpsMode = buildContext.getAppOpMode(appOp);
                 appOpAllowed = appOpsMode == MODE_ALLOWED || appOpsMode == MODE_FOREGROUND;
             }
 
-            final int flags = packageManager.getPermissionFlags(
-                    requestedPermission, packageName, userHandle);
+            final int flags = buildContext.getPermissionFlags(requestedPermission);
 
             Permission permission = new Permission(requestedPermission, requestedPermissionInfo,
                     granted, appOp, appOpAllowed, flags);
@@ -367,9 +415,7 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
                     // the foregound permission's appOp. Hence we can only set it once we know the
                     // matching foreground permission.
                     // @see #allowAppOp
-                    if (context.getSystemService(AppOpsManager.class).unsafeCheckOpRaw(
-                            permission.getAppOp(), packageInfo.applicationInfo.uid,
-                            packageInfo.packageName) == MODE_ALLOWED) {
+                    if (buildContext.getAppOpMode(permission.getAppOp()) == MODE_ALLOWED) {
                         backgroundPermission.setAppOpAllowed(true);
                     }
                 }
@@ -395,7 +441,7 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
                 group.getBackgroundPermissions().addPermission(permission);
             } else {
                 if ((!permission.isHardRestricted()
-                        || whitelistedRestrictedPermissions.contains(permission.getName()))
+                        || buildContext.isRestrictedPermissionWhitelisted(permission.getName()))
                         && (!permission.isSoftRestricted()
                         || SoftRestrictedPermissionPolicy.shouldShow(packageInfo, permission))) {
                     group.addPermission(permission);
@@ -758,11 +804,13 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
      */
     private boolean setAppOpMode(@NonNull String op, int uid, int mode) {
         int currentMode = mAppOps.unsafeCheckOpRaw(op, uid, mPackageInfo.packageName);
+        mNumPlatformCallsOfLastPersist++;
         if (currentMode == mode) {
             return false;
         }
 
         mAppOps.setUidMode(op, uid, mode);
+        mNumPlatformCallsOfLastPersist++;
         return true;
     }
 
@@ -1404,17 +1452,24 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
 
         int numPermissions = mPermissions.size();
         boolean shouldKillApp = false;
+        mNumPlatformCallsOfLastPersist = 0;
 
         for (int i = 0; i < numPermissions; i++) {
             Permission permission = mPermissions.valueAt(i);
 
             if (!permission.isSystemFixed()) {
                 if (permission.isGranted()) {
-                    mPackageManager.grantRuntimePermission(mPackageInfo.packageName,
-                            permission.getName(), mUserHandle);
+                    // Skip the grant if the permission was granted when loaded, or last persisted
+                    if (!permission.isPersistedGranted()) {
+                        mPackageManager.grantRuntimePermission(mPackageInfo.packageName,
+                                permission.getName(), mUserHandle);
+                        permission.setPersistedGranted(true);
+                        mNumPlatformCallsOfLastPersist++;
+                    }
                 } else {
                     boolean isCurrentlyGranted = mContext.checkPermission(permission.getName(), -1,
                             uid) == PERMISSION_GRANTED;
+                    mNumPlatformCallsOfLastPersist++;
 
                     if (isCurrentlyGranted) {
                         if (revokeReason == null) {
@@ -1424,7 +1479,9 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
                             mPackageManager.revokeRuntimePermission(mPackageInfo.packageName,
                                     permission.getName(), mUserHandle, revokeReason);
                         }
+                        mNumPlatformCallsOfLastPersist++;
                     }
+                    permission.setPersistedGranted(false);
                 }
             }
 
@@ -1437,17 +1494,24 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
                     ? PackageManager.FLAG_PERMISSION_REVIEW_REQUIRED : 0)
                     | (permission.isOneTime() ? PackageManager.FLAG_PERMISSION_ONE_TIME : 0);
 
-            mPackageManager.updatePermissionFlags(permission.getName(),
-                    mPackageInfo.packageName,
-                    PackageManager.FLAG_PERMISSION_USER_SET
-                            | PackageManager.FLAG_PERMISSION_USER_FIXED
-                            | PackageManager.FLAG_PERMISSION_REVOKED_COMPAT
-                            | PackageManager.FLAG_PERMISSION_POLICY_FIXED
-                            | (permission.isReviewRequired()
-                            ? 0 : PackageManager.FLAG_PERMISSION_REVIEW_REQUIRED)
-                            | PackageManager.FLAG_PERMISSION_ONE_TIME
-                            | PackageManager.FLAG_PERMISSION_AUTO_REVOKED, // clear auto revoke
-                    flags, mUserHandle);
+            int flagMask = PackageManager.FLAG_PERMISSION_USER_SET
+                    | PackageManager.FLAG_PERMISSION_USER_FIXED
+                    | PackageManager.FLAG_PERMISSION_REVOKED_COMPAT
+                    | PackageManager.FLAG_PERMISSION_POLICY_FIXED
+                    | (permission.isReviewRequired()
+                    ? 0 : PackageManager.FLAG_PERMISSION_REVIEW_REQUIRED)
+                    | PackageManager.FLAG_PERMISSION_ONE_TIME
+                    | PackageManager.FLAG_PERMISSION_AUTO_REVOKED; // clear auto revoke
+
+            // Skip the update if it would not change the flags loaded with this group, or last
+            // persisted
+            int persistedFlags = permission.getPersistedFlags();
+            if (((persistedFlags ^ flags) & flagMask) != 0) {
+                mPackageManager.updatePermissionFlags(permission.getName(),
+                        mPackageInfo.packageName, flagMask, flags, mUserHandle);
+                permission.setPersistedFlags((persistedFlags & ~flagMask) | (flags & flagMask));
+                mNumPlatformCallsOfLastPersist++;
+            }
 
             if (permission.affectsAppOp()) {
                 if (!permission.isSystemFixed()) {
@@ -1485,6 +1549,18 @@ public final class AppPermissionGroup implements Comparable<AppPermissionGroup>
         }
     }
 
+    /**
+     * Get the number of calls into the platform, to read or write permission state, the last
+     * {@link #persistChanges} made. Grants and flag updates which don't change the state the group
+     * loaded or last persisted are skipped.
+     *
+     * @return the number of platform calls
+     */
+    @VisibleForTesting
+    public int getNumPlatformCallsOfLastPersist() {
+        return mNumPlatformCallsOfLastPersist;
+    }
+
     /**
      * Check if permission group contains a runtime permission that split from an installed
      * permission and the split happened in an Android version higher than app's targetSdk.
@@ -19,8 +19,6 @@ package com.android.permissioncontroller.permission.model;
 import static android.Manifest.permission_group.MICROPHONE;
 
 import android.app.AppOpsManager;
-import android.app.AppOpsManager.HistoricalOp;
-import android.app.AppOpsManager.HistoricalPackageOps;
 import android.app.AppOpsManager.OpEntry;
 import android.app.AppOpsManager.PackageOps;
 import android.media.AudioRecordingConfiguration;
@@ -28,6 +26,7 @@ import android.media.AudioRecordingConfiguration;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.android.permissioncontroller.permission.model.AppOpUsageHistory.OpUsage;
 import com.android.permissioncontroller.permission.model.legacy.PermissionApps.PermissionApp;
 
 import java.util.ArrayList;
@@ -41,12 +40,18 @@ import java.util.function.Function;
 public final class AppPermissionUsage {
     private final @NonNull List<GroupUsage> mGroupUsages = new ArrayList<>();
     private final @NonNull PermissionApp mPermissionApp;
+    private final @NonNull List<AppPermissionGroup> mGroups;
+    private final @Nullable PackageOps mLastUsage;
+    private final @Nullable ArrayList<AudioRecordingConfiguration> mRecordings;
 
     private AppPermissionUsage(@NonNull PermissionApp permissionApp,
             @NonNull List<AppPermissionGroup> groups, @Nullable PackageOps lastUsage,
-            @Nullable HistoricalPackageOps historicalUsage,
+            @Nullable AppOpUsageHistory.Window historicalUsage,
             @Nullable ArrayList<AudioRecordingConfiguration> recordings) {
         mPermissionApp = permissionApp;
+        mGroups = groups;
+        mLastUsage = lastUsage;
+        mRecordings = recordings;
         final int groupCount = groups.size();
         for (int i = 0; i < groupCount; i++) {
             final AppPermissionGroup group = groups.get(i);
@@ -113,6 +118,19 @@ public final class AppPermissionUsage {
         return mGroupUsages;
     }
 
+    /**
+     * Get the usage of the same app with the historical usage of another time window.
+     *
+     * @param historicalUsage the historical usage to use
+     *
+     * @return the usage with the historical usage replaced
+     */
+    public @NonNull AppPermissionUsage withHistoricalUsage(
+            @Nullable AppOpUsageHistory.Window historicalUsage) {
+        return new AppPermissionUsage(mPermissionApp, mGroups, mLastUsage, historicalUsage,
+                mRecordings);
+    }
+
     /**
      * Stats for permission usage of a permission group. This data is for a
      * given time period, i.e. does not contain the full history.
@@ -120,10 +138,10 @@ public final class AppPermissionUsage {
     public static class GroupUsage {
         private final @NonNull AppPermissionGroup mGroup;
         private final @Nullable PackageOps mLastUsage;
-        private final @Nullable HistoricalPackageOps mHistoricalUsage;
+        private final @Nullable AppOpUsageHistory.Window mHistoricalUsage;
 
         public GroupUsage(@NonNull AppPermissionGroup group, @Nullable PackageOps lastUsage,
-                @Nullable HistoricalPackageOps historicalUsage) {
+                @Nullable AppOpUsageHistory.Window historicalUsage) {
             mGroup = group;
             mLastUsage = lastUsage;
             mHistoricalUsage = historicalUsage;
@@ -157,26 +175,22 @@ public final class AppPermissionUsage {
             if (mHistoricalUsage == null) {
                 return 0;
             }
-            return extractAggregate((HistoricalOp op)
-                    -> op.getForegroundAccessCount(AppOpsManager.OP_FLAGS_ALL_TRUSTED));
+            return extractAggregate(OpUsage::getForegroundAccessCount);
         }
 
         public long getBackgroundAccessCount() {
             if (mHistoricalUsage == null) {
                 return 0;
             }
-            return extractAggregate((HistoricalOp op)
-                    -> op.getBackgroundAccessCount(AppOpsManager.OP_FLAGS_ALL_TRUSTED));
+            return extractAggregate(OpUsage::getBackgroundAccessCount);
         }
 
         public long getAccessCount() {
             if (mHistoricalUsage == null) {
                 return 0;
             }
-            return extractAggregate((HistoricalOp op) ->
-                    op.getForegroundAccessCount(AppOpsManager.OP_FLAGS_ALL_TRUSTED)
-                            + op.getBackgroundAccessCount(AppOpsManager.OP_FLAGS_ALL_TRUSTED)
-            );
+            return extractAggregate((OpUsage op) ->
+                    op.getForegroundAccessCount() + op.getBackgroundAccessCount());
         }
 
         public long getLastAccessDuration() {
@@ -192,10 +206,8 @@ public final class AppPermissionUsage {
             if (mHistoricalUsage == null) {
                 return 0;
             }
-            return extractAggregate((HistoricalOp op) ->
-                    op.getForegroundAccessDuration(AppOpsManager.OP_FLAGS_ALL_TRUSTED)
-                            + op.getBackgroundAccessDuration(AppOpsManager.OP_FLAGS_ALL_TRUSTED)
-            );
+            return extractAggregate((OpUsage op) ->
+                    op.getForegroundAccessDuration() + op.getBackgroundAccessDuration());
         }
 
         public boolean isRunning() {
@@ -219,16 +231,21 @@ public final class AppPermissionUsage {
             return false;
         }
 
-        private long extractAggregate(@NonNull Function<HistoricalOp, Long> extractor) {
+        private long extractAggregate(@NonNull Function<OpUsage, Long> extractor) {
             long aggregate = 0;
+            final int uid = mGroup.getApp().applicationInfo.uid;
+            final String packageName = mGroup.getApp().packageName;
             final ArrayList<Permission> permissions = mGroup.getPermissions();
             final int permissionCount = permissions.size();
             for (int i = 0; i < permissionCount; i++) {
                 final Permission permission = permissions.get(i);
                 final String opName = permission.getAppOp();
-                final HistoricalOp historicalOp = mHistoricalUsage.getOp(opName);
-                if (historicalOp != null) {
-                    aggregate += extractor.apply(historicalOp);
+                if (opName == null) {
+                    continue;
+                }
+                final OpUsage opUsage = mHistoricalUsage.getOpUsage(uid, packageName, opName);
+                if (opUsage != null) {
+                    aggregate += extractor.apply(opUsage);
                 }
             }
             return aggregate;
@@ -262,7 +279,7 @@ public final class AppPermissionUsage {
         private final @NonNull List<AppPermissionGroup> mGroups = new ArrayList<>();
         private final @NonNull PermissionApp mPermissionApp;
         private @Nullable PackageOps mLastUsage;
-        private @Nullable HistoricalPackageOps mHistoricalUsage;
+        private @Nullable AppOpUsageHistory.Window mHistoricalUsage;
         private @Nullable ArrayList<AudioRecordingConfiguration> mAudioRecordingConfigurations;
 
         public Builder(@NonNull PermissionApp permissionApp) {
@@ -279,7 +296,8 @@ public final class AppPermissionUsage {
             return this;
         }
 
-        public @NonNull Builder setHistoricalUsage(@Nullable HistoricalPackageOps historicalUsage) {
+        public @NonNull Builder setHistoricalUsage(
+                @Nullable AppOpUsageHistory.Window historicalUsage) {
             mHistoricalUsage = historicalUsage;
             return this;
         }
@@ -21,7 +21,12 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.UserHandle;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.permissioncontroller.permission.utils.ArrayUtils;
 import com.android.permissioncontroller.permission.utils.Utils;
 
 import java.util.ArrayList;
@@ -46,6 +51,9 @@ public final class AppPermissions {
     /** Cache: permission name -> group. Might point to background group */
     private final ArrayMap<String, AppPermissionGroup> mPermissionNameToGroup = new ArrayMap<>();
 
+    /** Requested permissions for which no group could be created */
+    private final ArraySet<String> mPermissionsWithoutGroup = new ArraySet<>();
+
     private final Context mContext;
 
     private final CharSequence mAppLabel;
@@ -57,6 +65,22 @@ public final class AppPermissions {
     /** Do not actually commit changes to the platform until {@link #persistChanges} is called */
     private final boolean mDelayChanges;
 
+    /**
+     * The permissions whose groups are loaded upfront, or {@code null} if all groups are loaded
+     * upfront. If not {@code null}, all other groups are only loaded once they are accessed.
+     */
+    private final @Nullable String[] mInitialPermissions;
+
+    /**
+     * Index: requested permission name -> name of its group, or {@code null} if no group can be
+     * created for it. Built on first use, so that groups can be found by name without creating
+     * the groups of all requested permissions.
+     */
+    private ArrayMap<String, String> mRequestedPermissionToGroupName;
+
+    /** Whether the groups of all requested permissions are loaded */
+    private boolean mAllGroupsLoaded;
+
     private PackageInfo mPackageInfo;
 
     public AppPermissions(Context context, PackageInfo packageInfo, boolean sortGroups,
@@ -66,13 +90,50 @@ public final class AppPermissions {
 
     public AppPermissions(Context context, PackageInfo packageInfo, boolean sortGroups,
             boolean delayChanges, Runnable onErrorCallback) {
+        this(context, packageInfo, null, sortGroups, delayChanges, onErrorCallback);
+    }
+
+    /**
+     * Create the permissions of an app, loading only the groups of some permissions upfront. The
+     * groups of the other requested permissions are loaded once they are accessed.
+     *
+     * @param context The context to use
+     * @param packageInfo The package of the app
+     * @param initialPermissions The permissions whose groups to load upfront
+     * @param onErrorCallback Called if the package cannot be found anymore
+     */
+    public AppPermissions(Context context, PackageInfo packageInfo,
+            @NonNull String[] initialPermissions, Runnable onErrorCallback) {
+        this(context, packageInfo, initialPermissions, false, onErrorCallback);
+    }
+
+    /**
+     * Create the permissions of an app, loading only the groups of some permissions upfront. The
+     * groups of the other requested permissions are loaded once they are accessed.
+     *
+     * @param context The context to use
+     * @param packageInfo The package of the app
+     * @param initialPermissions The permissions whose groups to load upfront
+     * @param delayChanges Whether to delay changes until {@link #persistChanges} is called
+     * @param onErrorCallback Called if the package cannot be found anymore
+     */
+    public AppPermissions(Context context, PackageInfo packageInfo,
+            @NonNull String[] initialPermissions, boolean delayChanges,
+            Runnable onErrorCallback) {
+        this(context, packageInfo, initialPermissions, false, delayChanges, onErrorCallback);
+    }
+
+    private AppPermissions(Context context, PackageInfo packageInfo,
+            @Nullable String[] initialPermissions, boolean sortGroups, boolean delayChanges,
+            Runnable onErrorCallback) {
         mContext = context;
         mPackageInfo = packageInfo;
         mAppLabel = Utils.getAppLabel(packageInfo.applicationInfo, context);
+        mInitialPermissions = initialPermissions;
         mSortGroups = sortGroups;
         mDelayChanges = delayChanges;
         mOnErrorCallback = onErrorCallback;
-        loadPermissionGroups();
+        loadPermissionGroups(initialPermissions);
     }
 
     public PackageInfo getPackageInfo() {
@@ -81,7 +142,12 @@ public final class AppPermissions {
 
     public void refresh() {
         loadPackageInfo();
-        loadPermissionGroups();
+        if (mInitialPermissions == null) {
+            loadPermissionGroups(null);
+        } else {
+            // Only the groups accessed again are reloaded, instead of all groups loaded so far
+            resetPermissionGroups();
+        }
     }
 
     public CharSequence getAppLabel() {
@@ -89,17 +155,37 @@ public final class AppPermissions {
     }
 
     public AppPermissionGroup getPermissionGroup(String name) {
-        return mGroupNameToGroup.get(name);
+        AppPermissionGroup group = mGroupNameToGroup.get(name);
+        if (group == null && !mAllGroupsLoaded) {
+            loadGroup(name);
+            group = mGroupNameToGroup.get(name);
+        }
+        return group;
+    }
+
+    /**
+     * Get the groups loaded so far. Unlike {@link #getPermissionGroups()} this does not load the
+     * groups of all other requested permissions.
+     *
+     * @return The loaded groups. Background permission groups are attached to their foreground
+     * groups.
+     */
+    public @NonNull List<AppPermissionGroup> getLoadedPermissionGroups() {
+        return mGroups;
     }
 
     public List<AppPermissionGroup> getPermissionGroups() {
+        if (!mAllGroupsLoaded) {
+            loadAllPermissionGroups();
+        }
         return mGroups;
     }
 
     public boolean isReviewRequired() {
-        final int groupCount = mGroups.size();
+        List<AppPermissionGroup> groups = getPermissionGroups();
+        final int groupCount = groups.size();
         for (int i = 0; i < groupCount; i++) {
-            AppPermissionGroup group = mGroups.get(i);
+            AppPermissionGroup group = groups.get(i);
             if (group.isReviewRequired()) {
                 return true;
             }
@@ -135,36 +221,112 @@ public final class AppPermissions {
         }
     }
 
-    private void loadPermissionGroups() {
+    /**
+     * Reload the permission groups.
+     *
+     * @param permissions The permissions whose groups to load, or {@code null} to load the groups
+     *                    of all requested permissions
+     */
+    private void loadPermissionGroups(@Nullable String[] permissions) {
+        resetPermissionGroups();
+
+        if (permissions == null) {
+            loadAllPermissionGroups();
+            return;
+        }
+
+        GroupBuildContext buildContext = new GroupBuildContext(mContext, mPackageInfo);
+        for (String permission : permissions) {
+            if (ArrayUtils.contains(mPackageInfo.requestedPermissions, permission)) {
+                loadGroupOfPermission(buildContext, permission);
+            }
+        }
+    }
+
+    /**
+     * Drop all loaded permission groups, so that they are loaded again once they are accessed.
+     */
+    private void resetPermissionGroups() {
         mGroups.clear();
         mGroupNameToGroup.clear();
         mPermissionNameToGroup.clear();
+        mPermissionsWithoutGroup.clear();
+        mRequestedPermissionToGroupName = null;
+        mAllGroupsLoaded = false;
+    }
 
+    private void loadAllPermissionGroups() {
         if (mPackageInfo.requestedPermissions != null) {
+            GroupBuildContext buildContext = new GroupBuildContext(mContext, mPackageInfo);
             for (String requestedPerm : mPackageInfo.requestedPermissions) {
-                if (getGroupForPermission(requestedPerm) == null) {
-                    AppPermissionGroup group = AppPermissionGroup.create(mContext, mPackageInfo,
-                            requestedPerm, mDelayChanges);
-                    if (group == null) {
-                        continue;
-                    }
-
-                    mGroups.add(group);
-                    mGroupNameToGroup.put(group.getName(), group);
-
-                    addAllPermissions(group);
-
-                    AppPermissionGroup backgroundGroup = group.getBackgroundPermissions();
-                    if (backgroundGroup != null) {
-                        addAllPermissions(backgroundGroup);
-                    }
-                }
+                loadGroupOfPermission(buildContext, requestedPerm);
             }
 
             if (mSortGroups) {
                 Collections.sort(mGroups);
             }
         }
+        mAllGroupsLoaded = true;
+    }
+
+    /**
+     * Load the group of a requested permission, unless it is already loaded.
+     *
+     * <p>The build context memoizes the package-wide state it read, hence it must only be shared
+     * by groups loaded together. Groups loaded later need a new context to see the current state.
+     *
+     * @param buildContext The package-wide state shared by the groups loaded together
+     * @param permission The name of the requested permission
+     */
+    private void loadGroupOfPermission(@NonNull GroupBuildContext buildContext,
+            String permission) {
+        if (mPermissionNameToGroup.containsKey(permission)
+                || mPermissionsWithoutGroup.contains(permission)) {
+            return;
+        }
+
+        AppPermissionGroup group = AppPermissionGroup.create(buildContext, permission,
+                mDelayChanges);
+        if (group == null) {
+            mPermissionsWithoutGroup.add(permission);
+            return;
+        }
+
+        mGroups.add(group);
+        mGroupNameToGroup.put(group.getName(), group);
+
+        addAllPermissions(group);
+
+        AppPermissionGroup backgroundGroup = group.getBackgroundPermissions();
+        if (backgroundGroup != null) {
+            addAllPermissions(backgroundGroup);
+        }
+    }
+
+    /**
+     * Load a group by name, by loading the group of the first requested permission in it.
+     *
+     * @param groupName The name of the group
+     */
+    private void loadGroup(String groupName) {
+        if (mRequestedPermissionToGroupName == null) {
+            mRequestedPermissionToGroupName = new ArrayMap<>();
+            if (mPackageInfo.requestedPermissions != null) {
+                for (String requestedPerm : mPackageInfo.requestedPermissions) {
+                    mRequestedPermissionToGroupName.put(requestedPerm,
+                            AppPermissionGroup.getGroupNameOfPermission(requestedPerm));
+                }
+            }
+        }
+
+        int numRequestedPerms = mRequestedPermissionToGroupName.size();
+        for (int i = 0; i < numRequestedPerms; i++) {
+            if (groupName.equals(mRequestedPermissionToGroupName.valueAt(i))) {
+                loadGroupOfPermission(new GroupBuildContext(mContext, mPackageInfo),
+                        mRequestedPermissionToGroupName.keyAt(i));
+                return;
+            }
+        }
     }
 
     /**
@@ -177,7 +339,13 @@ public final class AppPermissions {
      * @return The group the permission belongs to
      */
     public AppPermissionGroup getGroupForPermission(String permission) {
-        return mPermissionNameToGroup.get(permission);
+        AppPermissionGroup group = mPermissionNameToGroup.get(permission);
+        if (group == null && !mAllGroupsLoaded
+                && ArrayUtils.contains(mPackageInfo.requestedPermissions, permission)) {
+            loadGroupOfPermission(new GroupBuildContext(mContext, mPackageInfo), permission);
+            group = mPermissionNameToGroup.get(permission);
+        }
+        return group;
     }
 
     /**
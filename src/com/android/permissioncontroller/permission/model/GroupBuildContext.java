@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.model;
+
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+
+import androidx.annotation.NonNull;
+
+import com.android.permissioncontroller.permission.utils.Utils;
+
+import java.util.Set;
+
+/**
+ * The state of a package which is shared by all {@link AppPermissionGroup groups} created for it,
+ * so that creating all groups of a package looks up the package-wide state only once.
+ *
+ * <p>Values are loaded on first use and then kept, hence a context should only be used while the
+ * groups of a package are created. Not thread safe.
+ */
+final class GroupBuildContext {
+    private final @NonNull Context mContext;
+    private final @NonNull PackageInfo mPackageInfo;
+    private final @NonNull UserHandle mUser;
+    private final @NonNull PackageManager mPackageManager;
+    private final @NonNull AppOpsManager mAppOpsManager;
+
+    /** Requested permission name -> index in {@link PackageInfo#requestedPermissions} */
+    private ArrayMap<String, Integer> mRequestedPermissionIndices;
+
+    private Set<String> mWhitelistedRestrictedPermissions;
+
+    /** Permission name -> permission flags */
+    private final ArrayMap<String, Integer> mPermissionFlags = new ArrayMap<>();
+
+    /** App op name -> raw app op mode */
+    private final ArrayMap<String, Integer> mAppOpModes = new ArrayMap<>();
+
+    GroupBuildContext(@NonNull Context context, @NonNull PackageInfo packageInfo) {
+        mContext = context;
+        mPackageInfo = packageInfo;
+        mUser = UserHandle.getUserHandleForUid(packageInfo.applicationInfo.uid);
+        mPackageManager = context.getPackageManager();
+        mAppOpsManager = context.getSystemService(AppOpsManager.class);
+    }
+
+    @NonNull Context getContext() {
+        return mContext;
+    }
+
+    @NonNull PackageInfo getPackageInfo() {
+        return mPackageInfo;
+    }
+
+    @NonNull UserHandle getUser() {
+        return mUser;
+    }
+
+    @NonNull AppOpsManager getAppOpsManager() {
+        return mAppOpsManager;
+    }
+
+    /**
+     * Find a requested permission of the package.
+     *
+     * @param permissionName The name of the permission
+     *
+     * @return The index of the permission in {@link PackageInfo#requestedPermissions}, or
+     * {@code -1} if the package does not request the permission
+     */
+    int getRequestedPermissionIndex(@NonNull String permissionName) {
+        if (mRequestedPermissionIndices == null) {
+            String[] requestedPermissions = mPackageInfo.requestedPermissions;
+            int numRequestedPermissions = requestedPermissions == null ? 0
+                    : requestedPermissions.length;
+
+            mRequestedPermissionIndices = new ArrayMap<>(numRequestedPermissions);
+            for (int i = 0; i < numRequestedPermissions; i++) {
+                // Keep the first index, as a linear search would find that one
+                if (!mRequestedPermissionIndices.containsKey(requestedPermissions[i])) {
+                    mRequestedPermissionIndices.put(requestedPermissions[i], i);
+                }
+            }
+        }
+
+        Integer index = mRequestedPermissionIndices.get(permissionName);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return whether the restricted permission is whitelisted for the package
+     */
+    boolean isRestrictedPermissionWhitelisted(@NonNull String permissionName) {
+        if (mWhitelistedRestrictedPermissions == null) {
+            mWhitelistedRestrictedPermissions = mPackageManager.getWhitelistedRestrictedPermissions(
+                    mPackageInfo.packageName, Utils.FLAGS_PERMISSION_WHITELIST_ALL);
+        }
+        return mWhitelistedRestrictedPermissions.contains(permissionName);
+    }
+
+    /**
+     * @return the flags of the permission for the package
+     */
+    int getPermissionFlags(@NonNull String permissionName) {
+        Integer flags = mPermissionFlags.get(permissionName);
+        if (flags == null) {
+            flags = mPackageManager.getPermissionFlags(permissionName, mPackageInfo.packageName,
+                    mUser);
+            mPermissionFlags.put(permissionName, flags);
+        }
+        return flags;
+    }
+
+    /**
+     * @return the raw mode of the app op for the package
+     */
+    int getAppOpMode(@NonNull String appOp) {
+        Integer mode = mAppOpModes.get(appOp);
+        if (mode == null) {
+            mode = mAppOpsManager.unsafeCheckOpRaw(appOp, mPackageInfo.applicationInfo.uid,
+                    mPackageInfo.packageName);
+            mAppOpModes.put(appOp, mode);
+        }
+        return mode;
+    }
+}
@@ -38,6 +38,10 @@ public final class Permission {
     private boolean mGranted;
     private boolean mAppOpAllowed;
     private int mFlags;
+    /** Whether the permission is granted, as last read from or written to the platform */
+    private boolean mPersistedGranted;
+    /** The flags, as last read from or written to the platform */
+    private int mPersistedFlags;
     private boolean mIsEphemeral;
     private boolean mIsRuntimeOnly;
     private Permission mBackgroundPermission;
@@ -53,6 +57,8 @@ public final class Permission {
         mAppOp = appOp;
         mAppOpAllowed = appOpAllowed;
         mFlags = flags;
+        mPersistedGranted = granted;
+        mPersistedFlags = flags;
         mIsEphemeral =
                 (permissionInfo.protectionLevel & PermissionInfo.PROTECTION_FLAG_INSTANT) != 0;
         mIsRuntimeOnly =
@@ -96,6 +102,22 @@ public final class Permission {
         return mFlags;
     }
 
+    boolean isPersistedGranted() {
+        return mPersistedGranted;
+    }
+
+    void setPersistedGranted(boolean persistedGranted) {
+        mPersistedGranted = persistedGranted;
+    }
+
+    int getPersistedFlags() {
+        return mPersistedFlags;
+    }
+
+    void setPersistedFlags(int persistedFlags) {
+        mPersistedFlags = persistedFlags;
+    }
+
     boolean isHardRestricted() {
         return (mPermissionInfo.flags & PermissionInfo.FLAG_HARD_RESTRICTED) != 0;
     }
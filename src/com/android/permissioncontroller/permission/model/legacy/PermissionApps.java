@@ -15,6 +15,7 @@
  */
 package com.android.permissioncontroller.permission.model.legacy;
 
+import android.app.Application;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
@@ -30,13 +31,15 @@ import android.os.UserManager;
 import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.Log;
-import android.util.Pair;
 import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.android.permissioncontroller.PermissionControllerApplication;
 import com.android.permissioncontroller.R;
+import com.android.permissioncontroller.permission.data.InstalledPackagesCache;
+import com.android.permissioncontroller.permission.data.PackageIconLabelCache;
 import com.android.permissioncontroller.permission.model.AppPermissionGroup;
 import com.android.permissioncontroller.permission.utils.Utils;
 
@@ -58,7 +61,6 @@ public class PermissionApps {
     private final Callback mCallback;
 
     private final @Nullable PmCache mPmCache;
-    private final @Nullable AppDataCache mAppDataCache;
 
     private CharSequence mLabel;
     private CharSequence mFullLabel;
@@ -72,13 +74,17 @@ public class PermissionApps {
     private boolean mRefreshing;
 
     public PermissionApps(Context context, String groupName, Callback callback) {
-        this(context, groupName, null, callback, null, null);
+        this(context, groupName, null, callback);
     }
 
     public PermissionApps(Context context, String groupName, String packageName,
-            Callback callback, @Nullable PmCache pmCache, @Nullable AppDataCache appDataCache) {
+            Callback callback) {
+        this(context, groupName, packageName, callback, null);
+    }
+
+    public PermissionApps(Context context, String groupName, String packageName,
+            Callback callback, @Nullable PmCache pmCache) {
         mPmCache = pmCache;
-        mAppDataCache = appDataCache;
         mContext = context;
         mPm = mContext.getPackageManager();
         mGroupName = groupName;
@@ -193,8 +199,8 @@ public class PermissionApps {
             return apps;
         }
         if (mPackageName == null) {
-            return mPm.getInstalledPackagesAsUser(PackageManager.GET_PERMISSIONS,
-                    user.getIdentifier());
+            return InstalledPackagesCache.INSTANCE.getInstalledPackages(user,
+                    PackageManager.GET_PERMISSIONS);
         } else {
             try {
                 final PackageInfo packageInfo = mPm.getPackageInfo(mPackageName,
@@ -208,6 +214,20 @@ public class PermissionApps {
         }
     }
 
+    private static @NonNull String getAppLabel(@NonNull ApplicationInfo appInfo,
+            @NonNull UserHandle user) {
+        return PackageIconLabelCache.INSTANCE.getApplicationLabel(
+                PermissionControllerApplication.get(), appInfo.packageName, user);
+    }
+
+    private static @NonNull Drawable getAppIcon(@NonNull ApplicationInfo appInfo,
+            @NonNull UserHandle user) {
+        Application application = PermissionControllerApplication.get();
+        Drawable icon = PackageIconLabelCache.INSTANCE.getIcon(application, appInfo.packageName,
+                user);
+        return icon != null ? icon : Utils.getBadgedIcon(application, appInfo);
+    }
+
     private List<PermissionApp> loadPermissionApps() {
         PackageItemInfo groupInfo = Utils.getGroupInfo(mGroupName, mContext);
         if (groupInfo == null) {
@@ -269,28 +289,13 @@ public class PermissionApps {
                         continue;
                     }
 
-                    Pair<String, Drawable> appData = null;
-                    if (mAppDataCache != null && !mSkipUi) {
-                        appData = mAppDataCache.getAppData(user.getIdentifier(),
-                                app.applicationInfo);
-                    }
-
                     String label;
+                    Drawable icon = null;
                     if (mSkipUi) {
                         label = app.packageName;
-                    } else if (appData != null) {
-                        label = appData.first;
                     } else {
-                        label = app.applicationInfo.loadLabel(mPm).toString();
-                    }
-
-                    Drawable icon = null;
-                    if (!mSkipUi) {
-                        if (appData != null) {
-                            icon = appData.second;
-                        } else {
-                            icon = Utils.getBadgedIcon(mContext, app.applicationInfo);
-                        }
+                        label = getAppLabel(app.applicationInfo, user);
+                        icon = getAppIcon(app.applicationInfo, user);
                     }
 
                     PermissionApp permApp = new PermissionApp(app.packageName, group, label, icon,
@@ -423,14 +428,12 @@ public class PermissionApps {
 
         /**
          * Load this app's label and icon if they were not previously loaded.
-         *
-         * @param appDataCache the cache of already-loaded labels and icons.
          */
-        public void loadLabelAndIcon(@NonNull AppDataCache appDataCache) {
+        public void loadLabelAndIcon() {
             if (mInfo.packageName.equals(mLabel) || mIcon == null) {
-                Pair<String, Drawable> appData = appDataCache.getAppData(getUid(), mInfo);
-                mLabel = appData.first;
-                mIcon = appData.second;
+                UserHandle user = UserHandle.getUserHandleForUid(getUid());
+                mLabel = getAppLabel(mInfo, user);
+                mIcon = getAppIcon(mInfo, user);
             }
         }
 
@@ -466,70 +469,6 @@ public class PermissionApps {
         }
     }
 
-    /**
-     * Class used to reduce the number of calls to the package manager.
-     * This caches app information so it should only be used across parallel PermissionApps
-     * instances, and should not be retained across UI refresh.
-     */
-    public static class PmCache {
-        private final SparseArray<List<PackageInfo>> mPackageInfoCache = new SparseArray<>();
-        private final PackageManager mPm;
-
-        public PmCache(PackageManager pm) {
-            mPm = pm;
-        }
-
-        public synchronized List<PackageInfo> getPackages(int userId) {
-            List<PackageInfo> ret = mPackageInfoCache.get(userId);
-            if (ret == null) {
-                ret = mPm.getInstalledPackagesAsUser(PackageManager.GET_PERMISSIONS, userId);
-                mPackageInfoCache.put(userId, ret);
-            }
-            return ret;
-        }
-    }
-
-    /**
-     * Class used to reduce the number of calls to loading labels and icons.
-     * This caches app information so it should only be used across parallel PermissionApps
-     * instances, and should not be retained across UI refresh.
-     */
-    public static class AppDataCache {
-        private final @NonNull SparseArray<ArrayMap<String, Pair<String, Drawable>>> mCache =
-                new SparseArray<>();
-        private final @NonNull PackageManager mPm;
-        private final @NonNull Context mContext;
-
-        public AppDataCache(@NonNull PackageManager pm, @NonNull Context context) {
-            mPm = pm;
-            mContext = context;
-        }
-
-        /**
-         * Get the label and icon for the given app.
-         *
-         * @param userId the user id.
-         * @param app The app
-         *
-         * @return a pair of the label and icon.
-         */
-        public @NonNull Pair<String, Drawable> getAppData(int userId,
-                @NonNull ApplicationInfo app) {
-            ArrayMap<String, Pair<String, Drawable>> dataForUser = mCache.get(userId);
-            if (dataForUser == null) {
-                dataForUser = new ArrayMap<>();
-                mCache.put(userId, dataForUser);
-            }
-            Pair<String, Drawable> data = dataForUser.get(app.packageName);
-            if (data == null) {
-                data = Pair.create(app.loadLabel(mPm).toString(),
-                        Utils.getBadgedIcon(mContext, app));
-                dataForUser.put(app.packageName, data);
-            }
-            return data;
-        }
-    }
-
     public interface Callback {
         void onPermissionsLoaded(PermissionApps permissionApps);
     }
@@ -549,10 +488,9 @@ public class PermissionApps {
 
         @Override
         protected Void doInBackground(PermissionApp... args) {
-            AppDataCache appDataCache = new AppDataCache(mContext.getPackageManager(), mContext);
             int numArgs = args.length;
             for (int i = 0; i < numArgs; i++) {
-                args[i].loadLabelAndIcon(appDataCache);
+                args[i].loadLabelAndIcon();
             }
             return null;
         }
@@ -562,4 +500,23 @@ public class PermissionApps {
             mCallback.run();
         }
     }
+
+    /**
+     * Class used to reduce the number of calls to the package manager.
+     * This shares one copy of the installed packages of each user between parallel PermissionApps
+     * instances, so it should not be retained across UI refresh.
+     */
+    public static class PmCache {
+        private final SparseArray<List<PackageInfo>> mPackageInfoCache = new SparseArray<>();
+
+        public synchronized List<PackageInfo> getPackages(int userId) {
+            List<PackageInfo> ret = mPackageInfoCache.get(userId);
+            if (ret == null) {
+                ret = InstalledPackagesCache.INSTANCE.getInstalledPackages(UserHandle.of(userId),
+                        PackageManager.GET_PERMISSIONS);
+                mPackageInfoCache.put(userId, ret);
+            }
+            return ret;
+        }
+    }
 }
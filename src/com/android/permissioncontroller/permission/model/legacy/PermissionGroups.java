@@ -33,12 +33,14 @@ import android.content.pm.PermissionInfo;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Process;
 import android.util.ArraySet;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.android.permissioncontroller.R;
+import com.android.permissioncontroller.permission.model.legacy.PermissionApps.PmCache;
 import com.android.permissioncontroller.permission.utils.Utils;
 
 import java.util.ArrayList;
@@ -168,15 +170,11 @@ public final class PermissionGroups implements LoaderCallbacks<List<PermissionGr
             @Nullable Supplier<Boolean> isCanceled, boolean getAppUiInfo,
             boolean getNonPlatformPermissions, @Nullable String[] groupNames,
             @Nullable String packageName) {
-        PermissionApps.PmCache pmCache = new PermissionApps.PmCache(
-                context.getPackageManager());
-        PermissionApps.AppDataCache appDataCache = new PermissionApps.AppDataCache(
-                context.getPackageManager(), context);
-
         List<PermissionGroup> groups = new ArrayList<>();
         Set<String> seenPermissions = new ArraySet<>();
 
         PackageManager packageManager = context.getPackageManager();
+        PmCache pmCache = new PmCache();
         List<PermissionGroupInfo> groupInfos = getPermissionGroupInfos(context, groupNames);
 
         for (PermissionGroupInfo groupInfo : groupInfos) {
@@ -219,7 +217,7 @@ public final class PermissionGroups implements LoaderCallbacks<List<PermissionGr
             Drawable icon = loadItemInfoIcon(context, groupInfo);
 
             PermissionApps permApps = new PermissionApps(context, groupInfo.name, packageName,
-                    null, pmCache, appDataCache);
+                    null, pmCache);
             permApps.refreshSync(getAppUiInfo);
 
             // Create the group and add to the list.
@@ -231,8 +229,8 @@ public final class PermissionGroups implements LoaderCallbacks<List<PermissionGr
 
 
         // Make sure we add groups for lone runtime permissions.
-        List<PackageInfo> installedPackages = context.getPackageManager()
-                .getInstalledPackages(PackageManager.GET_PERMISSIONS);
+        List<PackageInfo> installedPackages = pmCache.getPackages(
+                Process.myUserHandle().getIdentifier());
 
 
         // We will filter out permissions that no package requests.
@@ -278,7 +276,7 @@ public final class PermissionGroups implements LoaderCallbacks<List<PermissionGr
                 Drawable icon = loadItemInfoIcon(context, permissionInfo);
 
                 PermissionApps permApps = new PermissionApps(context, permissionInfo.name,
-                        packageName, null, pmCache, appDataCache);
+                        packageName, null, pmCache);
                 permApps.refreshSync(getAppUiInfo);
 
                 // Create the group and add to the list.
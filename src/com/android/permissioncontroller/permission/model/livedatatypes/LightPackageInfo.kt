@@ -21,52 +21,219 @@ import android.content.pm.ApplicationInfo
 import android.content.pm.PackageInfo
 import android.content.pm.PackageManager
 import android.os.UserHandle
-import com.android.permissioncontroller.permission.utils.Utils
+import com.android.permissioncontroller.permission.data.PackageLookupCache
+import com.android.permissioncontroller.permission.utils.PermissionSymbols
+import java.util.Arrays
+import java.util.BitSet
 
 /**
  * A lighter version of the system's PackageInfo class, containing select information about the
  * package.
  *
+ * <p>The requested permissions are stored as [PermissionSymbols], with bitsets of the requested
+ * and granted permissions, so that checking which permissions a package requests is a bit
+ * operation rather than a string lookup. Requested names which don't get a symbol are kept as
+ * strings.
+ *
  * @param packageName The name of the packages
  * @param permissions The list of LightPermInfos representing the permissions this package defines
- * @param requestedPermissions The names of the permissions this package requests
+ * @param requestedPermissionNames The names of the permissions this package requests
  * @param requestedPermissionsFlags The grant state of the permissions this package requests
  * @param uid The UID of this package
  * @param targetSdkVersion The target SDK of this package
  * @param isInstantApp Whether or not this package is an instant app
  * @param enabled Whether or not this package is enabled.
+ * @param appFlags The flags of the application of this package
+ * @param firstInstallTime The time this package was first installed
+ * @param lastUpdateTime The time this package was last updated
  */
-data class LightPackageInfo(
+class LightPackageInfo(
     val packageName: String,
     val permissions: List<LightPermInfo>,
-    val requestedPermissions: List<String>,
-    val requestedPermissionsFlags: List<Int>,
+    requestedPermissionNames: List<String>,
+    val requestedPermissionsFlags: IntArray,
     val uid: Int,
     val targetSdkVersion: Int,
     val isInstantApp: Boolean,
     val enabled: Boolean,
     val appFlags: Int,
-    val firstInstallTime: Long
+    val firstInstallTime: Long,
+    val lastUpdateTime: Long = firstInstallTime
 ) {
+    constructor(
+        packageName: String,
+        permissions: List<LightPermInfo>,
+        requestedPermissions: List<String>,
+        requestedPermissionsFlags: List<Int>,
+        uid: Int,
+        targetSdkVersion: Int,
+        isInstantApp: Boolean,
+        enabled: Boolean,
+        appFlags: Int,
+        firstInstallTime: Long,
+        lastUpdateTime: Long = firstInstallTime
+    ) : this(packageName, permissions, requestedPermissions,
+        requestedPermissionsFlags.toIntArray(), uid, targetSdkVersion, isInstantApp, enabled,
+        appFlags, firstInstallTime, lastUpdateTime)
+
     constructor(pI: PackageInfo) : this(pI.packageName,
         pI.permissions?.map { perm -> LightPermInfo(perm) } ?: emptyList(),
-        pI.requestedPermissions?.toList() ?: emptyList(),
-        pI.requestedPermissionsFlags?.toList() ?: emptyList(),
+        pI.requestedPermissions?.asList() ?: emptyList(),
+        pI.requestedPermissionsFlags ?: EMPTY_INTS,
         pI.applicationInfo.uid, pI.applicationInfo.targetSdkVersion,
         pI.applicationInfo.isInstantApp, pI.applicationInfo.enabled, pI.applicationInfo.flags,
-        pI.firstInstallTime)
+        pI.firstInstallTime, pI.lastUpdateTime)
+
+    /**
+     * The symbols of the permissions this package requests, in the order of
+     * [requestedPermissionsFlags], or [PermissionSymbols.NO_SYMBOL] for names which didn't get one
+     */
+    private val requestedPermissionSymbols = PermissionSymbols.internRequested(
+        requestedPermissionNames)
+
+    /**
+     * The requested names which didn't get a symbol, at the index of their symbol, or null if all
+     * names got one. Such a name might get a symbol later, if it turns out to be defined.
+     */
+    private val unsymbolizedPermissions: Array<String?>? =
+        if (PermissionSymbols.NO_SYMBOL in requestedPermissionSymbols) {
+            Array(requestedPermissionSymbols.size) { i ->
+                requestedPermissionNames[i].takeIf {
+                    requestedPermissionSymbols[i] == PermissionSymbols.NO_SYMBOL
+                }
+            }
+        } else {
+            null
+        }
+
+    /**
+     * The symbols of the permissions this package requests, as a set
+     */
+    private val requestedPermissionBits = BitSet()
+
+    /**
+     * The symbols of the permissions which are granted according to the
+     * [requestedPermissionsFlags], as a set
+     */
+    private val grantedPermissionBits = BitSet()
+
+    init {
+        for (i in requestedPermissionSymbols.indices) {
+            val symbol = requestedPermissionSymbols[i]
+            if (symbol == PermissionSymbols.NO_SYMBOL) {
+                continue
+            }
+            requestedPermissionBits.set(symbol)
+            if (isGranted(i)) {
+                grantedPermissionBits.set(symbol)
+            }
+        }
+    }
+
+    /**
+     * The names of the permissions this package requests
+     */
+    val requestedPermissions: List<String> = RequestedPermissionList()
 
     /**
      * Permissions which are granted according to the [requestedPermissionsFlags]
      */
-    val grantedPermissions: List<String> get() {
-        val grantedPermissions = mutableListOf<String>()
-        for (i in 0 until requestedPermissions.size) {
-            if ((requestedPermissionsFlags[i] and PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0) {
-                grantedPermissions.add(requestedPermissions[i])
+    val grantedPermissions: List<String>
+        get() {
+            val names = PermissionSymbols.getNames(grantedPermissionBits)
+            if (unsymbolizedPermissions == null) {
+                return names
+            }
+            return names + unsymbolizedPermissions.filterIndexed { i, name ->
+                name != null && isGranted(i)
+            }.filterNotNull()
+        }
+
+    private fun isGranted(index: Int): Boolean {
+        return (requestedPermissionsFlags[index] and PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0
+    }
+
+    /**
+     * Whether this package requests a permission.
+     *
+     * @param permissionName The name of the permission
+     *
+     * @return Whether the permission is requested
+     */
+    fun requestsPermission(permissionName: String): Boolean {
+        val symbol = PermissionSymbols.find(permissionName)
+        if (symbol != PermissionSymbols.NO_SYMBOL && requestedPermissionBits[symbol]) {
+            return true
+        }
+        return unsymbolizedPermissions?.contains(permissionName) == true
+    }
+
+    /**
+     * Whether this package requests any permission of a set.
+     *
+     * @param permissionBits The symbols of the permissions, see [PermissionSymbols.toBits]
+     *
+     * @return Whether any of the permissions is requested
+     */
+    fun requestsAnyPermission(permissionBits: BitSet): Boolean {
+        if (requestedPermissionBits.intersects(permissionBits)) {
+            return true
+        }
+        return unsymbolizedPermissions?.any { it != null && isInBits(it, permissionBits) } == true
+    }
+
+    /**
+     * Get the permissions of a set which this package requests.
+     *
+     * @param permissionBits The symbols of the permissions, see [PermissionSymbols.toBits]
+     *
+     * @return The names of the requested permissions in the set, in the order they are requested
+     */
+    fun getRequestedPermissionsIn(permissionBits: BitSet): List<String> {
+        val names = mutableListOf<String>()
+        for (i in requestedPermissionSymbols.indices) {
+            val symbol = requestedPermissionSymbols[i]
+            if (symbol != PermissionSymbols.NO_SYMBOL) {
+                if (permissionBits[symbol]) {
+                    names.add(PermissionSymbols.getName(symbol))
+                }
+            } else {
+                val name = unsymbolizedPermissions!![i]!!
+                if (isInBits(name, permissionBits)) {
+                    names.add(name)
+                }
             }
         }
-        return grantedPermissions
+        return names
+    }
+
+    /**
+     * Whether a permission is granted according to the [requestedPermissionsFlags].
+     *
+     * @param permissionName The name of the permission
+     *
+     * @return Whether the permission is requested and granted
+     */
+    fun isPermissionGranted(permissionName: String): Boolean {
+        val symbol = PermissionSymbols.find(permissionName)
+        if (symbol != PermissionSymbols.NO_SYMBOL && grantedPermissionBits[symbol]) {
+            return true
+        }
+        return unsymbolizedPermissions?.withIndex()?.any { (i, name) ->
+            name == permissionName && isGranted(i)
+        } == true
+    }
+
+    /**
+     * Whether any permission is granted according to the [requestedPermissionsFlags].
+     */
+    fun hasGrantedPermissions(): Boolean {
+        return requestedPermissionsFlags.indices.any { isGranted(it) }
+    }
+
+    private fun isInBits(permissionName: String, permissionBits: BitSet): Boolean {
+        val symbol = PermissionSymbols.find(permissionName)
+        return symbol != PermissionSymbols.NO_SYMBOL && permissionBits[symbol]
     }
 
     /**
@@ -79,12 +246,8 @@ data class LightPackageInfo(
      * such package exists
      */
     fun getApplicationInfo(app: Application): ApplicationInfo? {
-        try {
-            val userContext = Utils.getUserContext(app, UserHandle.getUserHandleForUid(uid))
-            return userContext.packageManager.getApplicationInfo(packageName, 0)
-        } catch (e: PackageManager.NameNotFoundException) {
-        }
-        return null
+        return PackageLookupCache.getApplicationInfo(packageName, 0,
+            UserHandle.getUserHandleForUid(uid))
     }
 
     /**
@@ -97,12 +260,76 @@ data class LightPackageInfo(
      * such package exists
      */
     fun toPackageInfo(app: Application): PackageInfo? {
-        try {
-            val userContext = Utils.getUserContext(app, UserHandle.getUserHandleForUid(uid))
-            return userContext.packageManager.getPackageInfo(packageName,
-                PackageManager.GET_PERMISSIONS)
-        } catch (e: PackageManager.NameNotFoundException) {
+        return PackageLookupCache.getPackageInfo(packageName, PackageManager.GET_PERMISSIONS,
+            UserHandle.getUserHandleForUid(uid))
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) {
+            return true
+        }
+        if (other !is LightPackageInfo) {
+            return false
         }
-        return null
+        return packageName == other.packageName &&
+            permissions == other.permissions &&
+            requestedPermissionSymbols.contentEquals(other.requestedPermissionSymbols) &&
+            Arrays.equals(unsymbolizedPermissions, other.unsymbolizedPermissions) &&
+            requestedPermissionsFlags.contentEquals(other.requestedPermissionsFlags) &&
+            uid == other.uid &&
+            targetSdkVersion == other.targetSdkVersion &&
+            isInstantApp == other.isInstantApp &&
+            enabled == other.enabled &&
+            appFlags == other.appFlags &&
+            firstInstallTime == other.firstInstallTime &&
+            lastUpdateTime == other.lastUpdateTime
+    }
+
+    override fun hashCode(): Int {
+        var result = packageName.hashCode()
+        result = 31 * result + permissions.hashCode()
+        result = 31 * result + requestedPermissionSymbols.contentHashCode()
+        result = 31 * result + Arrays.hashCode(unsymbolizedPermissions)
+        result = 31 * result + requestedPermissionsFlags.contentHashCode()
+        result = 31 * result + uid
+        result = 31 * result + targetSdkVersion
+        result = 31 * result + isInstantApp.hashCode()
+        result = 31 * result + enabled.hashCode()
+        result = 31 * result + appFlags
+        result = 31 * result + firstInstallTime.hashCode()
+        result = 31 * result + lastUpdateTime.hashCode()
+        return result
+    }
+
+    override fun toString(): String {
+        return "LightPackageInfo(packageName=$packageName, permissions=$permissions, " +
+            "requestedPermissions=$requestedPermissions, " +
+            "requestedPermissionsFlags=${requestedPermissionsFlags.contentToString()}, " +
+            "uid=$uid, targetSdkVersion=$targetSdkVersion, isInstantApp=$isInstantApp, " +
+            "enabled=$enabled, appFlags=$appFlags, firstInstallTime=$firstInstallTime, " +
+            "lastUpdateTime=$lastUpdateTime)"
+    }
+
+    /**
+     * A list view of the names of a package's requested permissions, which checks whether it
+     * contains a name with the package's bitset.
+     */
+    private inner class RequestedPermissionList : AbstractList<String>() {
+        override val size: Int get() = requestedPermissionSymbols.size
+
+        override fun get(index: Int): String {
+            val symbol = requestedPermissionSymbols[index]
+            return if (symbol != PermissionSymbols.NO_SYMBOL) {
+                PermissionSymbols.getName(symbol)
+            } else {
+                unsymbolizedPermissions!![index]!!
+            }
+        }
+
+        override fun contains(element: String): Boolean = requestsPermission(element)
+    }
+
+    companion object {
+        private val EMPTY_INTS = IntArray(0)
     }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.service
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.os.UserHandle
+import android.telephony.CarrierConfigManager
+import android.util.ArrayMap
+import android.util.SparseArray
+import androidx.annotation.GuardedBy
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.PermissionControllerProto.CacheStatsProto
+import com.android.permissioncontroller.permission.data.PackageBroadcastReceiver
+import com.android.permissioncontroller.permission.model.livedatatypes.LightPackageInfo
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A process-wide cache of whether packages are exempt from auto revoke because of exempt services
+ * or carrier privileges, see [isPackageAutoRevokePermanentlyExempt].
+ *
+ * <p>A decision is only used while the package has the same last update time. Additionally the
+ * decisions of a package are dropped when the [PackageBroadcastReceiver] sees an update for it, as
+ * enabling or disabling a component does not update the package, and all decisions are dropped
+ * when the carrier config changes, as that might change carrier privileges.
+ */
+object AutoRevokeExemptionCache : PackageBroadcastReceiver.PackageCache {
+
+    private class Decision(val lastUpdateTime: Long, val isExempt: Boolean)
+
+    /**
+     * A lookup of a decision.
+     *
+     * @param isExempt Whether the package is exempt, or {@code null} if no current decision is
+     * cached
+     * @param generation The generation to pass to [put] for the decision made upon a miss
+     */
+    class Lookup(val isExempt: Boolean?, val generation: Int)
+
+    private val app = PermissionControllerApplication.get()
+
+    private val lock = Any()
+    /** Map<user id, Map<package name, decision>> */
+    @GuardedBy("lock")
+    private val decisions = SparseArray<ArrayMap<String, Decision>>()
+
+    /**
+     * The number of times decisions have been dropped, so that a decision made before a package or
+     * carrier config change is not cached.
+     */
+    @GuardedBy("lock")
+    private var generation = 0
+
+    @GuardedBy("lock")
+    private var listenersRegistered = false
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    private val carrierConfigReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            synchronized(lock) {
+                generation++
+                decisions.clear()
+            }
+        }
+    }
+
+    /**
+     * Get the cached decision for a package.
+     *
+     * @param pkg The package
+     * @param user The user of the package
+     *
+     * @return The cached decision, if any, and the current generation
+     */
+    fun get(pkg: LightPackageInfo, user: UserHandle): Lookup {
+        synchronized(lock) {
+            registerListenersIfNeeded()
+
+            val decision = decisions[user.identifier]?.get(pkg.packageName)
+            if (decision == null || decision.lastUpdateTime != pkg.lastUpdateTime) {
+                misses.incrementAndGet()
+                return Lookup(null, generation)
+            }
+            hits.incrementAndGet()
+            return Lookup(decision.isExempt, generation)
+        }
+    }
+
+    /**
+     * Cache the decision for a package, unless decisions have been dropped since it was looked up.
+     *
+     * @param pkg The package
+     * @param user The user of the package
+     * @param isExempt Whether the package is exempt
+     * @param lookupGeneration The generation of the [Lookup] which missed
+     */
+    fun put(pkg: LightPackageInfo, user: UserHandle, isExempt: Boolean, lookupGeneration: Int) {
+        synchronized(lock) {
+            if (lookupGeneration != generation) {
+                return
+            }
+            val userDecisions = decisions[user.identifier] ?: ArrayMap<String, Decision>().also {
+                decisions.put(user.identifier, it)
+            }
+            userDecisions[pkg.packageName] = Decision(pkg.lastUpdateTime, isExempt)
+        }
+    }
+
+    override fun onPackageBroadcast(packageName: String, action: String?, uid: Int) {
+        synchronized(lock) {
+            generation++
+            for (i in 0 until decisions.size()) {
+                if (uid == -1 || decisions.keyAt(i) == UserHandle.getUserId(uid)) {
+                    decisions.valueAt(i).remove(packageName)
+                }
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private fun registerListenersIfNeeded() {
+        if (listenersRegistered) {
+            return
+        }
+
+        PackageBroadcastReceiver.addCache(this)
+        app.registerReceiver(carrierConfigReceiver,
+            IntentFilter(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED))
+        listenersRegistered = true
+    }
+
+    /**
+     * Dump the usage statistics of this cache.
+     *
+     * @return The usage statistics as a proto
+     */
+    fun dump(): CacheStatsProto {
+        return CacheStatsProto.newBuilder()
+            .setName(AutoRevokeExemptionCache::class.java.simpleName)
+            .setHits(hits.get())
+            .setMisses(misses.get())
+            .build()
+    }
+}
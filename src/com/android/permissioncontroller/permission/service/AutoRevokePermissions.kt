@@ -317,7 +317,7 @@ private suspend fun revokePermissionsOnUnusedApps(
             continue
         }
         userApps.forEachInParallel(Main) { pkg: LightPackageInfo ->
-            if (pkg.grantedPermissions.isEmpty()) {
+            if (!pkg.hasGrantedPermissions()) {
                 return@forEachInParallel
             }
 
@@ -452,11 +452,6 @@ suspend fun isPackageAutoRevokePermanentlyExempt(
     pkg: LightPackageInfo,
     user: UserHandle
 ): Boolean {
-    if (!ExemptServicesLiveData[user]
-            .getInitializedValue()[pkg.packageName]
-            .isNullOrEmpty()) {
-        return true
-    }
     if (Utils.isUserDisabledOrWorkProfile(user)) {
         if (DEBUG) {
             DumpableLog.i(LOG_TAG,
@@ -464,6 +459,30 @@ suspend fun isPackageAutoRevokePermanentlyExempt(
         }
         return true
     }
+
+    val lookup = AutoRevokeExemptionCache.get(pkg, user)
+    lookup.isExempt?.let { isExempt ->
+        return isExempt
+    }
+    val isExempt = isPackageExemptByServiceOrCarrier(pkg, user)
+    AutoRevokeExemptionCache.put(pkg, user, isExempt, lookup.generation)
+    return isExempt
+}
+
+/**
+ * Checks if the given package is permanently exempt from auto revoke because of the services it
+ * offers or its carrier privileges. Only depends on the package and the carrier config, hence
+ * can be cached in the [AutoRevokeExemptionCache].
+ */
+private suspend fun isPackageExemptByServiceOrCarrier(
+    pkg: LightPackageInfo,
+    user: UserHandle
+): Boolean {
+    if (!ExemptServicesLiveData[user]
+            .getInitializedValue()[pkg.packageName]
+            .isNullOrEmpty()) {
+        return true
+    }
     val carrierPrivilegedStatus = CarrierPrivilegedStatusLiveData[pkg.packageName]
             .getInitializedValue()
     if (carrierPrivilegedStatus != CARRIER_PRIVILEGE_STATUS_HAS_ACCESS &&
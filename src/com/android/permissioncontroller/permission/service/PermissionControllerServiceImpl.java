@@ -190,9 +190,15 @@ public final class PermissionControllerServiceImpl extends PermissionControllerL
     private @NonNull ArrayList<AppPermissionGroup> getRevocableGroupsForPermissions(
             @NonNull ArrayList<String> permissions, @NonNull AppPermissions appPerms) {
         ArrayList<AppPermissionGroup> groupsToRevoke = new ArrayList<>();
-        int numGroups = appPerms.getPermissionGroups().size();
+        // Only the groups of the permissions can contain them, hence don't load any other groups
+        for (String permission : permissions) {
+            appPerms.getGroupForPermission(permission);
+        }
+
+        List<AppPermissionGroup> groups = appPerms.getLoadedPermissionGroups();
+        int numGroups = groups.size();
         for (int groupNum = 0; groupNum < numGroups; groupNum++) {
-            AppPermissionGroup group = appPerms.getPermissionGroups().get(groupNum);
+            AppPermissionGroup group = groups.get(groupNum);
 
             // Do not override fixed permissions
             if (group.isPolicyFixed() || group.isSystemFixed()) {
@@ -326,7 +332,8 @@ public final class PermissionControllerServiceImpl extends PermissionControllerL
                 ArrayList<String> expandedPerms = addSplitPermissions(appRequest.getValue(),
                         callerTargetSdk);
 
-                AppPermissions appPerms = new AppPermissions(this, pkgInfo, false, true, null);
+                AppPermissions appPerms = new AppPermissions(this, pkgInfo,
+                        expandedPerms.toArray(new String[0]), true, null);
 
                 // First find the groups that should be revoked and then revoke all permissions of
                 // these groups. This is needed as soon as a single permission in the group is
@@ -454,8 +461,8 @@ public final class PermissionControllerServiceImpl extends PermissionControllerL
         try {
             final PackageInfo packageInfo = getPackageManager().getPackageInfo(packageName,
                     GET_PERMISSIONS);
-            final AppPermissions appPermissions = new AppPermissions(this, packageInfo, false,
-                    null);
+            final AppPermissions appPermissions = new AppPermissions(this, packageInfo,
+                    new String[] { permissionName }, null);
 
             final AppPermissionGroup appPermissionGroup = appPermissions.getGroupForPermission(
                     permissionName);
@@ -514,7 +521,8 @@ public final class PermissionControllerServiceImpl extends PermissionControllerL
                 Collections.singletonList(unexpandedPermission),
                 callerPkgInfo.applicationInfo.targetSdkVersion);
 
-        AppPermissions app = new AppPermissions(this, pkgInfo, false, true, null);
+        AppPermissions app = new AppPermissions(this, pkgInfo,
+                expandedPermissions.toArray(new String[0]), true, null);
         AutoGrantPermissionsNotifier autoGrantPermissionsNotifier =
                 new AutoGrantPermissionsNotifier(this, pkgInfo);
 
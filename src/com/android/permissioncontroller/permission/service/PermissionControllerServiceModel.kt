@@ -27,8 +27,17 @@ import androidx.lifecycle.Observer
 import com.android.permissioncontroller.DumpableLog
 import com.android.permissioncontroller.PermissionControllerProto.PermissionControllerDumpProto
 import com.android.permissioncontroller.permission.data.AppPermGroupUiInfoLiveData
+import com.android.permissioncontroller.permission.data.InstalledPackagesCache
+import com.android.permissioncontroller.permission.data.LauncherIntentIndex
+import com.android.permissioncontroller.permission.data.PackageBroadcastReceiver
+import com.android.permissioncontroller.permission.data.PackageIconLabelCache
+import com.android.permissioncontroller.permission.data.PackageLookupCache
 import com.android.permissioncontroller.permission.data.PackagePermissionsLiveData
+import com.android.permissioncontroller.permission.data.PermissionListenerMultiplexer
+import com.android.permissioncontroller.permission.data.PermissionMetadataRegistry
 import com.android.permissioncontroller.permission.data.SmartUpdateMediatorLiveData
+import com.android.permissioncontroller.permission.data.UsageStatsStore
+import com.android.permissioncontroller.permission.data.UserLoadStats
 import com.android.permissioncontroller.permission.data.UserPackageInfosLiveData
 import com.android.permissioncontroller.permission.data.get
 import com.android.permissioncontroller.permission.model.livedatatypes.AppPermGroupUiInfo
@@ -36,6 +45,7 @@ import com.android.permissioncontroller.permission.model.livedatatypes.AppPermGr
 import com.android.permissioncontroller.permission.model.livedatatypes.LightPackageInfo
 import com.android.permissioncontroller.permission.utils.IPC
 import com.android.permissioncontroller.permission.utils.Utils
+import com.android.permissioncontroller.permission.utils.dumpUserSensitiveFlagsRecord
 import kotlinx.coroutines.Dispatchers.IO
 import kotlinx.coroutines.Dispatchers.Main
 import kotlinx.coroutines.GlobalScope
@@ -175,11 +185,11 @@ class PermissionControllerServiceModel(private val service: PermissionController
 
         val uiLiveDatasPerPackage = mutableListOf<MutableSet<AppPermGroupUiInfoLiveData>>()
         var numLiveDatas = 0
-        for ((packageName, _, requestedPermissions) in packageInfos) {
+        for (packageInfo in packageInfos) {
             val packageUiLiveDatas = mutableSetOf<AppPermGroupUiInfoLiveData>()
             for (permName in permToGroup.keys) {
-                if (requestedPermissions.contains(permName)) {
-                    packageUiLiveDatas.add(AppPermGroupUiInfoLiveData[packageName,
+                if (packageInfo.requestsPermission(permName)) {
+                    packageUiLiveDatas.add(AppPermGroupUiInfoLiveData[packageInfo.packageName,
                         permToGroup[permName]!!, Process.myUserHandle()])
                 }
             }
@@ -288,6 +298,17 @@ class PermissionControllerServiceModel(private val service: PermissionController
             PermissionControllerDumpProto.newBuilder()
                     .setAutoRevoke(autoRevokeDump.await())
                     .addAllLogs(dumpedLogs.await())
+                    .addCacheStats(PackageLookupCache.dump())
+                    .addCacheStats(InstalledPackagesCache.dump())
+                    .addAllCacheStats(PackageIconLabelCache.dump())
+                    .addCacheStats(PermissionMetadataRegistry.dump())
+                    .addCacheStats(LauncherIntentIndex.dump())
+                    .addCacheStats(dumpUserSensitiveFlagsRecord())
+                    .addCacheStats(UsageStatsStore.dump())
+                    .addCacheStats(AutoRevokeExemptionCache.dump())
+                    .setPackageBroadcastStats(PackageBroadcastReceiver.dump())
+                    .setPermissionListenerStats(PermissionListenerMultiplexer.dump())
+                    .addAllUserLoadStats(UserLoadStats.dump())
                     .build()
         }
     }
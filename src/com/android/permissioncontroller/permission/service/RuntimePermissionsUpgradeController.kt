@@ -199,12 +199,13 @@ internal object RuntimePermissionsUpgradeController {
 
                     // Only load app-perm-groups needed for this upgrade
                     if (needBackgroundAppPermGroups || needAccessMediaAppPermGroups) {
-                        for ((pkgName, _, requestedPerms, requestedPermFlags) in
-                                pkgInfoProvider.value!!) {
+                        for (pkg in pkgInfoProvider.value!!) {
+                            val pkgName = pkg.packageName
                             var hasAccessMedia = false
                             var hasGrantedExternalStorage = false
 
-                            for ((perm, flags) in requestedPerms.zip(requestedPermFlags)) {
+                            for ((perm, flags) in pkg.requestedPermissions.zip(
+                                    pkg.requestedPermissionsFlags.asList())) {
                                 if (needBackgroundAppPermGroups &&
                                         perm == permission.ACCESS_BACKGROUND_LOCATION) {
                                     permGroupProviders!!.add(LightAppPermGroupLiveData[pkgName,
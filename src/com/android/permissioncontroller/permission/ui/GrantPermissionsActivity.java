@@ -56,8 +56,10 @@ import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
 import android.graphics.drawable.Icon;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.permission.PermissionManager;
 import android.text.Annotation;
@@ -72,9 +74,11 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
+import android.widget.ProgressBar;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import androidx.core.util.Consumer;
 
 import com.android.permissioncontroller.Constants;
@@ -133,7 +137,19 @@ public class GrantPermissionsActivity extends Activity
     private Consumer<Intent> mActivityResultCallback;
 
     private GrantPermissionsViewHandler mViewHandler;
+    /**
+     * Loaded in the background. Only read on the main thread once {@link #mModelLoaded} is set,
+     * as are {@link #mRequestGrantPermissionGroups}.
+     */
     private AppPermissions mAppPermissions;
+    /** Whether the model of the request was loaded. Only accessed on the main thread. */
+    private boolean mModelLoaded;
+    /** The uptime at which this activity was created, to measure the time to the first dialog */
+    private long mCreateUptimeMillis;
+    /** Whether a grant request was shown since this activity was created */
+    private boolean mFirstRequestShown;
+    /** The state this activity was restored from, if any */
+    private @Nullable Bundle mRestoredState;
 
     boolean mResultSet;
 
@@ -292,6 +308,9 @@ public class GrantPermissionsActivity extends Activity
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
 
+        mCreateUptimeMillis = SystemClock.uptimeMillis();
+        mRestoredState = icicle;
+
         if (icicle == null) {
             mRequestId = new Random().nextLong();
         } else {
@@ -362,14 +381,35 @@ public class GrantPermissionsActivity extends Activity
                     .setResultListener(this);
         }
 
-        mAppPermissions = new AppPermissions(this, callingPackageInfo, false,
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        setResultAndFinish();
-                    }
-                });
+        // Show a placeholder right away, the dialog replaces it once the request is loaded
+        setContentView(new ProgressBar(this));
 
+        // Loading the groups of the request needs many IPCs, hence don't block the main thread.
+        // Don't queue behind other serial AsyncTasks of this process either.
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            boolean isInvalidBackgroundRequest = loadModel(callingPackageInfo, icicle == null);
+            runOnUiThread(() -> onModelLoaded(icicle, isInvalidBackgroundRequest));
+        });
+    }
+
+    /**
+     * Load the groups of the requested permissions, and create the {@link GroupState group states}
+     * of the request.
+     *
+     * @param callingPackageInfo The package requesting the permissions
+     * @param isFirstInstance Is this the first time the groupStates get created
+     *
+     * @return {@code true} iff the app requested background permissions in a way it is not allowed
+     * to
+     */
+    @WorkerThread
+    private boolean loadModel(@NonNull PackageInfo callingPackageInfo, boolean isFirstInstance) {
+        // Only the groups of the requested permissions are needed upfront. The groups of split
+        // permissions are loaded on demand.
+        mAppPermissions = new AppPermissions(this, callingPackageInfo, mRequestedPermissions,
+                this::setResultAndFinish);
+
+        boolean isInvalidBackgroundRequest = false;
         for (String requestedPermission : mRequestedPermissions) {
             if (requestedPermission == null) {
                 continue;
@@ -395,13 +435,34 @@ public class GrantPermissionsActivity extends Activity
                     Log.e(LOG_TAG, "Apps targeting " + Build.VERSION_CODES.R + " must"
                             + " have foreground permission before requesting background and must"
                             + " request background on its own.");
-                    finish();
+                    isInvalidBackgroundRequest = true;
                 }
 
-                addRequestedPermissions(group, affectedPermissions.get(i), icicle == null);
+                addRequestedPermissions(group, affectedPermissions.get(i), isFirstInstance);
             }
         }
 
+        return isInvalidBackgroundRequest;
+    }
+
+    /**
+     * Show the request once its model was {@link #loadModel loaded}.
+     *
+     * @param icicle The saved instance state of this activity
+     * @param isInvalidBackgroundRequest Whether the app requested background permissions in a way
+     *                                   it is not allowed to
+     */
+    private void onModelLoaded(@Nullable Bundle icicle, boolean isInvalidBackgroundRequest) {
+        if (isFinishing() || isDestroyed()) {
+            return;
+        }
+
+        mModelLoaded = true;
+
+        if (isInvalidBackgroundRequest) {
+            finish();
+        }
+
         int numGroupStates = mRequestGrantPermissionGroups.size();
         for (int groupStateNum = 0; groupStateNum < numGroupStates; groupStateNum++) {
             GroupState groupState = mRequestGrantPermissionGroups.valueAt(groupStateNum);
@@ -459,6 +520,20 @@ public class GrantPermissionsActivity extends Activity
         }
     }
 
+    /**
+     * Report how long it took from creating this activity to showing the first grant request.
+     */
+    private void reportFirstRequestShown() {
+        if (mFirstRequestShown) {
+            return;
+        }
+        mFirstRequestShown = true;
+
+        Log.v(LOG_TAG, "First grant request shown requestId=" + mRequestId + " callingUid="
+                + mCallingUid + " callingPackage=" + mCallingPackage + " delayMillis="
+                + (SystemClock.uptimeMillis() - mCreateUptimeMillis));
+    }
+
     /**
      * Update the {@link #mRequestedPermissions} if the system reports them as granted.
      *
@@ -466,6 +541,11 @@ public class GrantPermissionsActivity extends Activity
      * request if the current group becomes granted.
      */
     private void updateIfPermissionsWereGranted() {
+        if (!mModelLoaded) {
+            // The model reads the current permission state once it is loaded
+            return;
+        }
+
         PackageManager pm = getPackageManager();
 
         boolean mightShowNextGroup = true;
@@ -549,7 +629,7 @@ public class GrantPermissionsActivity extends Activity
 
     @Override
     protected void onResume() {
-        if (!showNextPermissionGroupGrantRequest()) {
+        if (mModelLoaded && !showNextPermissionGroupGrantRequest()) {
             setResultAndFinish();
         }
         super.onResume();
@@ -596,8 +676,18 @@ public class GrantPermissionsActivity extends Activity
 
     @Override
     protected void onSaveInstanceState(Bundle outState) {
+        if (!mModelLoaded && mRestoredState != null) {
+            // Nothing was shown yet, hence keep the state this activity was restored from
+            outState.putAll(mRestoredState);
+        }
+
         super.onSaveInstanceState(outState);
 
+        if (!mModelLoaded) {
+            outState.putLong(KEY_REQUEST_ID, mRequestId);
+            return;
+        }
+
         mViewHandler.saveInstanceState(outState);
 
         outState.putLong(KEY_REQUEST_ID, mRequestId);
@@ -875,6 +965,7 @@ public class GrantPermissionsActivity extends Activity
 
                 mViewHandler.updateUi(groupState.mGroup.getName(), numGrantRequests, currentIndex,
                         icon, message, detailMessage, mButtonVisibilities);
+                reportFirstRequestShown();
 
                 return true;
             }
@@ -1133,6 +1224,11 @@ public class GrantPermissionsActivity extends Activity
 
     @Override
     public void onBackPressed() {
+        if (!mModelLoaded) {
+            setResultAndFinish();
+            return;
+        }
+
         mViewHandler.onBackPressed();
     }
 
@@ -1180,7 +1276,7 @@ public class GrantPermissionsActivity extends Activity
     }
 
     private void logRequestedPermissionGroups() {
-        if (mRequestGrantPermissionGroups.isEmpty()) {
+        if (!mModelLoaded || mRequestGrantPermissionGroups.isEmpty()) {
             return;
         }
 
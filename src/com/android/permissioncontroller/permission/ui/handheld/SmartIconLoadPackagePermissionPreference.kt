@@ -27,12 +27,13 @@ import androidx.preference.AndroidResources
 import androidx.preference.Preference
 import androidx.preference.PreferenceViewHolder
 import com.android.permissioncontroller.R
-import com.android.permissioncontroller.permission.utils.KotlinUtils
+import com.android.permissioncontroller.permission.data.PackageIconLabelCache
 
 /**
  * A Preference representing a package for a user, which loads and displays its icon only upon
- * being bound to a viewHolder. This lets us synchronously load package icons and labels, while
- * still displaying the PermissionAppsFragment instantly.
+ * being bound to a viewHolder. Icons are loaded in the background through the
+ * [PackageIconLabelCache], so that binding never blocks while the PermissionAppsFragment is
+ * scrolled.
  *
  * @param app The current application
  * @param packageName The name of the package whose icon this preference will retrieve
@@ -49,8 +50,8 @@ open class SmartIconLoadPackagePermissionPreference constructor(
     private var titleContentDescription: CharSequence? = null
 
     /**
-     * Loads the package's badged icon upon being bound to a viewholder. This allows us to load
-     * icons synchronously, because we only load the icons that are visible on the screen.
+     * Loads the package's badged icon upon being bound to a viewholder. A placeholder is shown
+     * until the icon is loaded, unless it is already cached.
      */
     override fun onBindViewHolder(holder: PreferenceViewHolder) {
         super.onBindViewHolder(holder)
@@ -65,7 +66,7 @@ open class SmartIconLoadPackagePermissionPreference constructor(
             context.resources.getDimensionPixelSize(R.dimen.secondary_app_icon_size)
         imageView.maxHeight =
             context.resources.getDimensionPixelSize(R.dimen.secondary_app_icon_size)
-        imageView.setImageDrawable(KotlinUtils.getBadgedPackageIcon(app, packageName, user))
+        bindIcon(imageView)
         imageView.visibility = View.VISIBLE
 
         var imageFrame: View? = holder.findViewById(R.id.icon_frame)
@@ -80,6 +81,23 @@ open class SmartIconLoadPackagePermissionPreference constructor(
         }
     }
 
+    private fun bindIcon(imageView: ImageView) {
+        // The view holder may be rebound to another preference before the icon is loaded
+        imageView.tag = this
+        val cachedIcon = PackageIconLabelCache.peekIcon(packageName, user)
+        if (cachedIcon != null) {
+            imageView.setImageDrawable(cachedIcon)
+            return
+        }
+
+        imageView.setImageDrawable(app.packageManager.defaultActivityIcon)
+        PackageIconLabelCache.loadIconAsync(app, packageName, user) { icon ->
+            if (imageView.tag === this && icon != null) {
+                imageView.setImageDrawable(icon)
+            }
+        }
+    }
+
     fun setTitleContentDescription(contentDescription: CharSequence) {
         titleContentDescription = contentDescription
     }
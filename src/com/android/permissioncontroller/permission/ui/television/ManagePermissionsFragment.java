@@ -32,7 +32,6 @@ import androidx.preference.Preference.OnPreferenceClickListener;
 import androidx.preference.PreferenceScreen;
 
 import com.android.permissioncontroller.R;
-import com.android.permissioncontroller.permission.model.legacy.PermissionApps.PmCache;
 import com.android.permissioncontroller.permission.model.legacy.PermissionGroup;
 import com.android.permissioncontroller.permission.model.legacy.PermissionGroups;
 import com.android.permissioncontroller.permission.utils.Utils;
@@ -125,9 +124,6 @@ public final class ManagePermissionsFragment extends SettingsWithHeader
         List<PermissionGroup> groups = mPermissions.getGroups();
         PreferenceScreen screen = getPreferenceScreen();
 
-        // Use this to speed up getting the info for all of the PermissionApps below.
-        // Create a new one for each refresh to make sure it has fresh data.
-        PmCache cache = new PmCache(context.getPackageManager());
         for (PermissionGroup group : groups) {
             boolean isSystemPermission = group.getDeclaringPackage().equals(OS_PKG);
 
@@ -54,6 +54,8 @@ import androidx.preference.Preference
 import androidx.preference.PreferenceGroup
 import com.android.permissioncontroller.R
 import com.android.permissioncontroller.permission.data.LightPackageInfoLiveData
+import com.android.permissioncontroller.permission.data.PackageIconLabelCache
+import com.android.permissioncontroller.permission.data.PackageLookupCache
 import com.android.permissioncontroller.permission.data.get
 import com.android.permissioncontroller.permission.model.livedatatypes.LightAppPermGroup
 import com.android.permissioncontroller.permission.model.livedatatypes.LightPermission
@@ -271,7 +273,7 @@ object KotlinUtils {
     }
 
     /**
-     * Gets a package's badged icon from the system.
+     * Gets a package's badged icon from the system, or from the [PackageIconLabelCache].
      *
      * @param app The current application
      * @param packageName The name of the package whose icon we want
@@ -285,17 +287,11 @@ object KotlinUtils {
         packageName: String,
         user: UserHandle
     ): Drawable? {
-        return try {
-            val userContext = Utils.getUserContext(app, user)
-            val appInfo = userContext.packageManager.getApplicationInfo(packageName, 0)
-            Utils.getBadgedIcon(app, appInfo)
-        } catch (e: PackageManager.NameNotFoundException) {
-            null
-        }
+        return PackageIconLabelCache.getIcon(app, packageName, user)
     }
 
     /**
-     * Gets a package's badged label from the system.
+     * Gets a package's badged label from the system, or from the [PackageIconLabelCache].
      *
      * @param app The current application
      * @param packageName The name of the package whose label we want
@@ -304,13 +300,7 @@ object KotlinUtils {
      * @return The package's label
      */
     fun getPackageLabel(app: Application, packageName: String, user: UserHandle): String {
-        return try {
-            val userContext = Utils.getUserContext(app, user)
-            val appInfo = userContext.packageManager.getApplicationInfo(packageName, 0)
-            Utils.getFullAppLabel(appInfo, app)
-        } catch (e: PackageManager.NameNotFoundException) {
-            packageName
-        }
+        return PackageIconLabelCache.getLabel(app, packageName, user)
     }
 
     /**
@@ -327,13 +317,7 @@ object KotlinUtils {
         val liveData = LightPackageInfoLiveData[packageName, user]
         val liveDataUid = liveData.value?.uid
         return if (liveDataUid != null && liveData.hasActiveObservers()) liveDataUid else {
-            val userContext = Utils.getUserContext(app, user)
-            try {
-                val appInfo = userContext.packageManager.getApplicationInfo(packageName, 0)
-                appInfo.uid
-            } catch (e: PackageManager.NameNotFoundException) {
-                null
-            }
+            PackageLookupCache.getApplicationInfo(packageName, 0, user)?.uid
         }
     }
 
@@ -347,12 +331,12 @@ object KotlinUtils {
      * @return true if the package is R+ (and not a work profile) or has auto revoke enabled
      */
     fun isROrAutoRevokeEnabled(app: Application, packageName: String, user: UserHandle): Boolean {
-        val userContext = Utils.getUserContext(app, user)
         val liveDataValue = LightPackageInfoLiveData[packageName, user].value
         val (targetSdk, uid) = if (liveDataValue != null) {
             liveDataValue.targetSdkVersion to liveDataValue.uid
         } else {
-            val appInfo = userContext.packageManager.getApplicationInfo(packageName, 0)
+            val appInfo = PackageLookupCache.getApplicationInfo(packageName, 0, user)
+                ?: throw PackageManager.NameNotFoundException(packageName)
             appInfo.targetSdkVersion to appInfo.uid
         }
 
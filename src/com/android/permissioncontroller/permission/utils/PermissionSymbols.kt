@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.utils
+
+import androidx.annotation.GuardedBy
+import java.util.BitSet
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A process-wide symbol table mapping permission names to small, dense ints, so that sets of
+ * permissions can be stored as int arrays and [BitSet]s, and compared with word-level bit
+ * operations instead of string hashing.
+ *
+ * <p>Symbols are assigned in the order names are first seen and are never released, as sets of
+ * symbols outlive any lookup. Names of defined permissions always get a symbol, as there are few of
+ * them. Packages can request any name though, hence requested names only get a symbol while fewer
+ * than [MAX_REQUESTED_SYMBOLS] are assigned. Holders of requested names without a symbol need to
+ * keep these names themselves.
+ */
+object PermissionSymbols {
+
+    /** Returned by [find] and [internRequested] for names which don't have a symbol */
+    const val NO_SYMBOL = -1
+
+    /** The number of symbols after which requested names don't get a symbol anymore */
+    private const val MAX_REQUESTED_SYMBOLS = 4096
+
+    private val symbols = ConcurrentHashMap<String, Int>()
+
+    private val lock = Any()
+
+    /** Map from symbol to name. Only grown while holding [lock], before a symbol is published. */
+    @Volatile
+    private var names = arrayOfNulls<String>(256)
+
+    @GuardedBy("lock")
+    private var numSymbols = 0
+
+    /**
+     * Get the symbol of the name of a defined permission, assigning one if needed.
+     *
+     * @param name The name of the permission
+     *
+     * @return The symbol of the permission
+     */
+    fun intern(name: String): Int {
+        return intern(name, isRequested = false)
+    }
+
+    private fun intern(name: String, isRequested: Boolean): Int {
+        symbols[name]?.let { return it }
+        synchronized(lock) {
+            symbols[name]?.let { return it }
+            if (isRequested && numSymbols >= MAX_REQUESTED_SYMBOLS) {
+                return NO_SYMBOL
+            }
+
+            val symbol = numSymbols
+            if (symbol == names.size) {
+                names = names.copyOf(symbol * 2)
+            }
+            names[symbol] = name
+            numSymbols++
+            symbols[name] = symbol
+            return symbol
+        }
+    }
+
+    /**
+     * Get the symbols of permission names requested by a package, assigning them if there is room.
+     *
+     * @param names The names of the permissions, which might not be defined
+     *
+     * @return The symbols of the permissions, in the same order, with [NO_SYMBOL] for names which
+     * didn't get one
+     */
+    fun internRequested(names: List<String>): IntArray {
+        return IntArray(names.size) { intern(names[it], isRequested = true) }
+    }
+
+    /**
+     * Get the symbol of a permission name, without assigning one.
+     *
+     * @param name The name of the permission
+     *
+     * @return The symbol of the permission, or [NO_SYMBOL] if the name doesn't have one, in which
+     * case no set of symbols can contain it
+     */
+    fun find(name: String): Int {
+        return symbols[name] ?: NO_SYMBOL
+    }
+
+    /**
+     * Get the name of a permission symbol.
+     *
+     * @param symbol The symbol returned by [intern]
+     *
+     * @return The name of the permission
+     */
+    fun getName(symbol: Int): String {
+        return names[symbol]!!
+    }
+
+    /**
+     * Get the set of symbols of the names of defined permissions, assigning them if needed.
+     *
+     * @param names The names of the permissions
+     *
+     * @return A set with the bit of each permission's symbol set
+     */
+    fun toBits(names: Collection<String>): BitSet {
+        val bits = BitSet()
+        for (name in names) {
+            bits.set(intern(name))
+        }
+        return bits
+    }
+
+    /**
+     * Get the names of the permissions in a set of symbols.
+     *
+     * @param bits The set of symbols
+     *
+     * @return The names of the permissions, ordered by symbol
+     */
+    fun getNames(bits: BitSet): List<String> {
+        val names = ArrayList<String>(bits.cardinality())
+        var symbol = bits.nextSetBit(0)
+        while (symbol >= 0) {
+            names.add(getName(symbol))
+            symbol = bits.nextSetBit(symbol + 1)
+        }
+        return names
+    }
+}
@@ -18,19 +18,102 @@
 
 package com.android.permissioncontroller.permission.utils
 
+import android.content.ComponentCallbacks2
 import android.content.pm.PackageManager
+import android.content.res.Configuration
 import android.os.UserHandle
+import android.util.ArrayMap
 import android.util.Log
+import android.util.SparseArray
+import android.util.SparseIntArray
+import androidx.annotation.GuardedBy
+import androidx.annotation.VisibleForTesting
 import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.PermissionControllerProto.CacheStatsProto
+import com.android.permissioncontroller.permission.data.PackageBroadcastReceiver
 import com.android.permissioncontroller.permission.data.UserSensitivityLiveData
 import com.android.permissioncontroller.permission.model.livedatatypes.UidSensitivityState
 import com.android.permissioncontroller.permission.utils.Utils.FLAGS_ALWAYS_USER_SENSITIVE
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.launch
 import java.lang.IllegalStateException
+import java.util.concurrent.atomic.AtomicLong
 
 private const val LOG_TAG = "UserSensitiveFlagsUtils"
 
+/**
+ * The user sensitive flags of the permissions of a package, as last read from or written to the
+ * platform. Never modified once published.
+ *
+ * @param firstInstallTime The first install time of the package, as a reinstalled package starts
+ * out with new flags
+ */
+private class AppliedFlagsRecord(val firstInstallTime: Long) {
+    /** Map<permission name, applied user sensitive flags> */
+    val appliedFlags = ArrayMap<String, Int>()
+}
+
+private val recordLock = Any()
+
+/**
+ * Map<uid, Map<package name, record>> of the flags applied by previous updates, so that an update
+ * only needs to touch the permissions whose sensitivity changed.
+ *
+ * The platform can change the flags behind the record's back, e.g. when it resets permissions or
+ * sets flags from the shell. Hence the record of a uid is dropped upon any package or permission
+ * change of the uid, and all records are dropped upon configuration changes and memory pressure.
+ */
+@GuardedBy("recordLock")
+private val uidRecords = SparseArray<ArrayMap<String, AppliedFlagsRecord>>()
+
+/**
+ * Map<uid, number of times the record of the uid has been dropped>, so that an update started
+ * before a change doesn't store an outdated record.
+ */
+@GuardedBy("recordLock")
+private val uidGenerations = SparseIntArray()
+
+/** The number of times the records of all uids have been dropped */
+@GuardedBy("recordLock")
+private var allUidsGeneration = 0
+
+@GuardedBy("recordLock")
+private var recordListenersRegistered = false
+
+private val recordPermissionsChangedListener = PackageManager.OnPermissionsChangedListener { uid ->
+    forgetUserSensitiveFlagsOfUid(uid)
+}
+
+private val recordPackageCache = object : PackageBroadcastReceiver.PackageCache {
+    override fun onPackageBroadcast(packageName: String, action: String?, uid: Int) {
+        if (uid != -1) {
+            forgetUserSensitiveFlagsOfUid(uid)
+        } else {
+            forgetAllUserSensitiveFlags()
+        }
+    }
+}
+
+private val recordComponentCallbacks = object : ComponentCallbacks2 {
+    override fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            forgetAllUserSensitiveFlags()
+        }
+    }
+
+    override fun onLowMemory() {
+        forgetAllUserSensitiveFlags()
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {
+        forgetAllUserSensitiveFlags()
+    }
+}
+
+private val skippedPermissions = AtomicLong()
+private val readPermissions = AtomicLong()
+
 /**
  * Update the [PackageManager.FLAG_PERMISSION_USER_SENSITIVE_WHEN_GRANTED] and
  * [PackageManager.FLAG_PERMISSION_USER_SENSITIVE_WHEN_DENIED] for all apps of this user.
@@ -49,44 +132,152 @@ fun updateUserSensitiveForUser(user: UserHandle, callback: Runnable) {
             throw IllegalStateException(
                 "All uids sensitivity liveData should not be null if initialized")
         }
-        updateUserSensitiveForUidsInternal(uidUserSensitivity, user, callback)
+        updateUserSensitiveForUidsInternal(uidUserSensitivity, user, callback,
+            isFullUpdate = true)
     }
 }
 
-private fun updateUserSensitiveForUidsInternal(
+/**
+ * Update the user sensitive flags of the permissions of some uids.
+ *
+ * @param uidsUserSensitivity The uids to update and their sensitivity
+ * @param user The user of the uids
+ * @param callback A callback which will be executed when finished
+ * @param isFullUpdate Whether [uidsUserSensitivity] contains all uids of the user, so that the
+ * records of uids which no longer exist can be dropped
+ */
+@VisibleForTesting
+fun updateUserSensitiveForUidsInternal(
     uidsUserSensitivity: Map<Int, UidSensitivityState>,
     user: UserHandle,
-    callback: Runnable?
+    callback: Runnable?,
+    isFullUpdate: Boolean = false
 ) {
+    if (isFullUpdate) {
+        synchronized(recordLock) {
+            for (i in uidRecords.size() - 1 downTo 0) {
+                val uid = uidRecords.keyAt(i)
+                if (UserHandle.getUserHandleForUid(uid) == user &&
+                    uid !in uidsUserSensitivity) {
+                    uidRecords.removeAt(i)
+                }
+            }
+        }
+    }
+
     val userContext = Utils.getUserContext(PermissionControllerApplication.get(), user)
     val pm = userContext.packageManager
 
     for ((uid, uidState) in uidsUserSensitivity) {
-            for (pkg in uidState.packages) {
-                for (perm in pkg.requestedPermissions) {
-                    var flags = uidState.permStates[perm] ?: continue
-
-                    try {
-                        val oldFlags = pm.getPermissionFlags(perm, pkg.packageName, user) and
-                            FLAGS_ALWAYS_USER_SENSITIVE
-                        if (flags != oldFlags) {
-                            pm.updatePermissionFlags(perm, pkg.packageName,
-                                FLAGS_ALWAYS_USER_SENSITIVE, flags, user)
-                        }
-                    } catch (e: IllegalArgumentException) {
-                        if (e.message?.startsWith("Unknown permission: ") == false) {
-                            Log.e(LOG_TAG, "Unexpected exception while updating flags for " +
-                                "${pkg.packageName} (uid $uid) permission $perm", e)
-                        } else {
-                            // Unknown permission - ignore
-                        }
+        val (oldRecords, generation) = synchronized(recordLock) {
+            ensureRecordListenersRegisteredLocked()
+            uidRecords[uid] to getRecordGenerationLocked(uid)
+        }
+        // Packages no longer in the uid are dropped from the record
+        val newRecords = ArrayMap<String, AppliedFlagsRecord>()
+
+        for (pkg in uidState.packages) {
+            val oldRecord = oldRecords?.get(pkg.packageName)?.takeIf {
+                it.firstInstallTime == pkg.firstInstallTime
+            }
+            val newRecord = AppliedFlagsRecord(pkg.firstInstallTime)
+
+            for (perm in pkg.requestedPermissions) {
+                var flags = uidState.permStates[perm] ?: continue
+
+                if (oldRecord?.appliedFlags?.get(perm) == flags) {
+                    // Already applied, no need to check the platform
+                    newRecord.appliedFlags[perm] = flags
+                    skippedPermissions.incrementAndGet()
+                    continue
+                }
+
+                try {
+                    val oldFlags = pm.getPermissionFlags(perm, pkg.packageName, user) and
+                        FLAGS_ALWAYS_USER_SENSITIVE
+                    readPermissions.incrementAndGet()
+                    if (flags != oldFlags) {
+                        pm.updatePermissionFlags(perm, pkg.packageName,
+                            FLAGS_ALWAYS_USER_SENSITIVE, flags, user)
+                    }
+                    newRecord.appliedFlags[perm] = flags
+                } catch (e: IllegalArgumentException) {
+                    if (e.message?.startsWith("Unknown permission: ") == false) {
+                        Log.e(LOG_TAG, "Unexpected exception while updating flags for " +
+                            "${pkg.packageName} (uid $uid) permission $perm", e)
+                    } else {
+                        // Unknown permission - ignore
                     }
                 }
             }
+
+            newRecords[pkg.packageName] = newRecord
+        }
+
+        synchronized(recordLock) {
+            // The flags might have changed while the uid was updated
+            if (getRecordGenerationLocked(uid) == generation) {
+                uidRecords.put(uid, newRecords)
+            }
         }
+    }
     callback?.run()
 }
 
+/**
+ * Drop the record of the flags applied to a uid, as a package or permission change of the uid might
+ * have changed its flags.
+ *
+ * @param uid The uid whose record should be dropped
+ */
+fun forgetUserSensitiveFlagsOfUid(uid: Int) {
+    synchronized(recordLock) {
+        uidGenerations.put(uid, uidGenerations.get(uid) + 1)
+        uidRecords.remove(uid)
+    }
+}
+
+/**
+ * Drop the records of the flags applied to all uids.
+ */
+fun forgetAllUserSensitiveFlags() {
+    synchronized(recordLock) {
+        allUidsGeneration++
+        uidRecords.clear()
+    }
+}
+
+@GuardedBy("recordLock")
+private fun getRecordGenerationLocked(uid: Int): Int {
+    return allUidsGeneration + uidGenerations.get(uid)
+}
+
+@GuardedBy("recordLock")
+private fun ensureRecordListenersRegisteredLocked() {
+    if (recordListenersRegistered) {
+        return
+    }
+    val app = PermissionControllerApplication.get()
+    app.packageManager.addOnPermissionsChangeListener(recordPermissionsChangedListener)
+    app.registerComponentCallbacks(recordComponentCallbacks)
+    PackageBroadcastReceiver.addCache(recordPackageCache)
+    recordListenersRegistered = true
+}
+
+/**
+ * Dump how many permissions the updates of the user sensitive flags could skip, as their flags
+ * were already applied.
+ *
+ * @return The statistics as a proto
+ */
+fun dumpUserSensitiveFlagsRecord(): CacheStatsProto {
+    return CacheStatsProto.newBuilder()
+        .setName("UserSensitiveFlags")
+        .setHits(skippedPermissions.get())
+        .setMisses(readPermissions.get())
+        .build()
+}
+
 /**
  * [updateUserSensitiveForUser] for a single [uid]
  *
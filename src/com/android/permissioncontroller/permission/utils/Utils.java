@@ -91,6 +91,7 @@ import com.android.permissioncontroller.Constants;
 import com.android.permissioncontroller.DeviceUtils;
 import com.android.permissioncontroller.PermissionControllerApplication;
 import com.android.permissioncontroller.R;
+import com.android.permissioncontroller.permission.data.PermissionMetadataRegistry;
 import com.android.permissioncontroller.permission.model.AppPermissionGroup;
 
 import java.util.ArrayList;
@@ -150,6 +151,12 @@ public final class Utils {
     /** Mapping group -> permissions for all dangerous platform permissions */
     private static final ArrayMap<String, ArrayList<String>> PLATFORM_PERMISSION_GROUPS;
 
+    /** Names of all dangerous platform permissions */
+    private static final List<String> PLATFORM_PERMISSION_NAMES;
+
+    /** Names of all platform permission groups */
+    private static final List<String> PLATFORM_PERMISSION_GROUP_NAMES;
+
     /** Set of groups that will be able to receive one-time grant */
     private static final ArraySet<String> ONE_TIME_PERMISSION_GROUPS;
 
@@ -225,6 +232,11 @@ public final class Utils {
             permissionsOfThisGroup.add(permission);
         }
 
+        PLATFORM_PERMISSION_NAMES = Collections.unmodifiableList(
+                new ArrayList<>(PLATFORM_PERMISSIONS.keySet()));
+        PLATFORM_PERMISSION_GROUP_NAMES = Collections.unmodifiableList(
+                new ArrayList<>(PLATFORM_PERMISSION_GROUPS.keySet()));
+
         ONE_TIME_PERMISSION_GROUPS = new ArraySet<>();
         ONE_TIME_PERMISSION_GROUPS.add(LOCATION);
         ONE_TIME_PERMISSION_GROUPS.add(CAMERA);
@@ -411,11 +423,10 @@ public final class Utils {
         int numPermissions = permissions.size();
         for (int i = 0; i < numPermissions; i++) {
             String permName = permissions.get(i);
-            PermissionInfo permInfo;
-            try {
-                permInfo = pm.getPermissionInfo(permName, 0);
-            } catch (PackageManager.NameNotFoundException e) {
-                throw new IllegalStateException(permName + " not defined by platform", e);
+            PermissionInfo permInfo = PermissionMetadataRegistry.INSTANCE.getPermissionInfo(
+                    permName);
+            if (permInfo == null) {
+                throw new IllegalStateException(permName + " not defined by platform");
             }
 
             permInfos.add(permInfo);
@@ -436,26 +447,7 @@ public final class Utils {
     public static @NonNull List<PermissionInfo> getPermissionInfosForGroup(
             @NonNull PackageManager pm, @NonNull String group)
             throws PackageManager.NameNotFoundException {
-        List<PermissionInfo> permissions = pm.queryPermissionsByGroup(group, 0);
-        permissions.addAll(getPlatformPermissionsOfGroup(pm, group));
-
-        /*
-         * If the undefined group is requested, the package manager will return all platform
-         * permissions, since they are marked as Undefined in the manifest. Do not return these
-         * permissions.
-         */
-        if (group.equals(Manifest.permission_group.UNDEFINED)) {
-            List<PermissionInfo> undefinedPerms = new ArrayList<>();
-            for (PermissionInfo permissionInfo : permissions) {
-                String permGroup = getGroupOfPlatformPermission(permissionInfo.name);
-                if (permGroup == null || permGroup.equals(Manifest.permission_group.UNDEFINED)) {
-                    undefinedPerms.add(permissionInfo);
-                }
-            }
-            return undefinedPerms;
-        }
-
-        return permissions;
+        return getGroupMetadata(group).getPermissionInfos();
     }
 
     /**
@@ -471,35 +463,24 @@ public final class Utils {
     public static @NonNull List<PermissionInfo> getInstalledRuntimePermissionInfosForGroup(
             @NonNull PackageManager pm, @NonNull String group)
             throws PackageManager.NameNotFoundException {
-        List<PermissionInfo> permissions = pm.queryPermissionsByGroup(group, 0);
-        permissions.addAll(getPlatformPermissionsOfGroup(pm, group));
-
-        List<PermissionInfo> installedRuntime = new ArrayList<>();
-        for (PermissionInfo permissionInfo: permissions) {
-            if (permissionInfo.getProtection() == PermissionInfo.PROTECTION_DANGEROUS
-                    && (permissionInfo.flags & PermissionInfo.FLAG_INSTALLED) != 0
-                    && (permissionInfo.flags & PermissionInfo.FLAG_REMOVED) == 0) {
-                installedRuntime.add(permissionInfo);
-            }
-        }
+        return getGroupMetadata(group).getInstalledRuntimePermissionInfos();
+    }
 
-        /*
-         * If the undefined group is requested, the package manager will return all platform
-         * permissions, since they are marked as Undefined in the manifest. Do not return these
-         * permissions.
-         */
-        if (group.equals(Manifest.permission_group.UNDEFINED)) {
-            List<PermissionInfo> undefinedPerms = new ArrayList<>();
-            for (PermissionInfo permissionInfo : installedRuntime) {
-                String permGroup = getGroupOfPlatformPermission(permissionInfo.name);
-                if (permGroup == null || permGroup.equals(Manifest.permission_group.UNDEFINED)) {
-                    undefinedPerms.add(permissionInfo);
-                }
-            }
-            return undefinedPerms;
+    /**
+     * Get the cached metadata of a permission group.
+     *
+     * @param group the group
+     *
+     * @return The metadata of the group
+     */
+    private static @NonNull PermissionMetadataRegistry.GroupMetadata getGroupMetadata(
+            @NonNull String group) throws PackageManager.NameNotFoundException {
+        PermissionMetadataRegistry.GroupMetadata groupMetadata =
+                PermissionMetadataRegistry.INSTANCE.getGroup(group);
+        if (groupMetadata == null) {
+            throw new PackageManager.NameNotFoundException(group);
         }
-
-        return installedRuntime;
+        return groupMetadata;
     }
 
     /**
@@ -512,17 +493,7 @@ public final class Utils {
      */
     public static @Nullable PackageItemInfo getGroupInfo(@NonNull String groupName,
             @NonNull Context context) {
-        try {
-            return context.getPackageManager().getPermissionGroupInfo(groupName, 0);
-        } catch (NameNotFoundException e) {
-            /* ignore */
-        }
-        try {
-            return context.getPackageManager().getPermissionInfo(groupName, 0);
-        } catch (NameNotFoundException e) {
-            /* ignore */
-        }
-        return null;
+        return PermissionMetadataRegistry.INSTANCE.getGroupInfo(groupName);
     }
 
     /**
@@ -618,7 +589,7 @@ public final class Utils {
      * @return the names of the platform permission groups.
      */
     public static List<String> getPlatformPermissionGroups() {
-        return new ArrayList<>(PLATFORM_PERMISSION_GROUPS.keySet());
+        return PLATFORM_PERMISSION_GROUP_NAMES;
     }
 
     /**
@@ -627,7 +598,7 @@ public final class Utils {
      * @return the names of the runtime platform permissions.
      */
     public static List<String> getRuntimePlatformPermissionNames() {
-        return new ArrayList<>(PLATFORM_PERMISSIONS.keySet());
+        return PLATFORM_PERMISSION_NAMES;
     }
 
     /**
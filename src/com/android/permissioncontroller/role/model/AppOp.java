@@ -22,8 +22,6 @@ import android.content.pm.ApplicationInfo;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.android.permissioncontroller.role.utils.PackageUtils;
-
 import java.util.Objects;
 
 /**
@@ -77,10 +75,21 @@ public class AppOp {
      * @return whether any app mode has changed
      */
     public boolean grant(@NonNull String packageName, @NonNull Context context) {
-        if (!checkTargetSdkVersion(packageName, context)) {
+        return grant(new RoleChangeTransaction(packageName, context));
+    }
+
+    /**
+     * Grant this app op to an application, as part of a role change.
+     *
+     * @param transaction the {@link RoleChangeTransaction} for the application
+     *
+     * @return whether any app mode has changed
+     */
+    boolean grant(@NonNull RoleChangeTransaction transaction) {
+        if (!checkTargetSdkVersion(transaction)) {
             return false;
         }
-        return Permissions.setAppOpUidMode(packageName, mName, mMode, context);
+        return Permissions.setAppOpUidMode(transaction, mName, mMode);
     }
 
     /**
@@ -92,18 +101,29 @@ public class AppOp {
      * @return whether any app mode has changed
      */
     public boolean revoke(@NonNull String packageName, @NonNull Context context) {
-        if (!checkTargetSdkVersion(packageName, context)) {
+        return revoke(new RoleChangeTransaction(packageName, context));
+    }
+
+    /**
+     * Revoke this app op from an application, as part of a role change.
+     *
+     * @param transaction the {@link RoleChangeTransaction} for the application
+     *
+     * @return whether any app mode has changed
+     */
+    boolean revoke(@NonNull RoleChangeTransaction transaction) {
+        if (!checkTargetSdkVersion(transaction)) {
             return false;
         }
         int defaultMode = Permissions.getDefaultAppOpMode(mName);
-        return Permissions.setAppOpUidMode(packageName, mName, defaultMode, context);
+        return Permissions.setAppOpUidMode(transaction, mName, defaultMode);
     }
 
-    private boolean checkTargetSdkVersion(@NonNull String packageName, @NonNull Context context) {
+    private boolean checkTargetSdkVersion(@NonNull RoleChangeTransaction transaction) {
         if (mMaxTargetSdkVersion == null) {
             return true;
         }
-        ApplicationInfo applicationInfo = PackageUtils.getApplicationInfo(packageName, context);
+        ApplicationInfo applicationInfo = transaction.getApplicationInfo();
         if (applicationInfo == null) {
             return false;
         }
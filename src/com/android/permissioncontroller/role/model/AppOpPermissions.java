@@ -24,7 +24,6 @@ import android.content.pm.PackageManager;
 import androidx.annotation.NonNull;
 
 import com.android.permissioncontroller.permission.utils.ArrayUtils;
-import com.android.permissioncontroller.role.utils.PackageUtils;
 
 /**
  * App op permissions to be granted or revoke by a {@link Role}.
@@ -44,8 +43,20 @@ public class AppOpPermissions {
      */
     public static boolean grant(@NonNull String packageName, @NonNull String appOpPermission,
             @NonNull Context context) {
-        PackageInfo packageInfo = PackageUtils.getPackageInfo(packageName,
-                PackageManager.GET_PERMISSIONS, context);
+        return grant(new RoleChangeTransaction(packageName, context), appOpPermission);
+    }
+
+    /**
+     * Grant the app op of an app op permission to an application, as part of a role change.
+     *
+     * @param transaction the {@link RoleChangeTransaction} for the application
+     * @param appOpPermission the name of the app op permission
+     *
+     * @return whether any app op mode has changed
+     */
+    static boolean grant(@NonNull RoleChangeTransaction transaction,
+            @NonNull String appOpPermission) {
+        PackageInfo packageInfo = transaction.getPackageInfo(PackageManager.GET_PERMISSIONS);
         if (packageInfo == null) {
             return false;
         }
@@ -53,7 +64,7 @@ public class AppOpPermissions {
             return false;
         }
         String appOp = AppOpsManager.permissionToOp(appOpPermission);
-        return setAppOpMode(packageName, appOp, AppOpsManager.MODE_ALLOWED, context);
+        return setAppOpMode(transaction, appOp, AppOpsManager.MODE_ALLOWED);
     }
 
     /**
@@ -67,13 +78,26 @@ public class AppOpPermissions {
      */
     public static boolean revoke(@NonNull String packageName, @NonNull String appOpPermission,
             @NonNull Context context) {
+        return revoke(new RoleChangeTransaction(packageName, context), appOpPermission);
+    }
+
+    /**
+     * Revoke the app op of an app op permission from an application, as part of a role change.
+     *
+     * @param transaction the {@link RoleChangeTransaction} for the application
+     * @param appOpPermission the name of the app op permission
+     *
+     * @return whether any app op mode has changed
+     */
+    static boolean revoke(@NonNull RoleChangeTransaction transaction,
+            @NonNull String appOpPermission) {
         String appOp = AppOpsManager.permissionToOp(appOpPermission);
         int defaultMode = Permissions.getDefaultAppOpMode(appOp);
-        return setAppOpMode(packageName, appOp, defaultMode, context);
+        return setAppOpMode(transaction, appOp, defaultMode);
     }
 
-    private static boolean setAppOpMode(@NonNull String packageName, @NonNull String appOp,
-            int mode, @NonNull Context context) {
+    private static boolean setAppOpMode(@NonNull RoleChangeTransaction transaction,
+            @NonNull String appOp, int mode) {
         switch (appOp) {
             case AppOpsManager.OPSTR_ACCESS_NOTIFICATIONS:
             case AppOpsManager.OPSTR_SYSTEM_ALERT_WINDOW:
@@ -86,9 +110,9 @@ public class AppOpPermissions {
             case AppOpsManager.OPSTR_INSTANT_APP_START_FOREGROUND:
             case AppOpsManager.OPSTR_INTERACT_ACROSS_PROFILES:
             case AppOpsManager.OPSTR_LOADER_USAGE_STATS:
-                return Permissions.setAppOpPackageMode(packageName, appOp, mode, context);
+                return Permissions.setAppOpPackageMode(transaction, appOp, mode);
             default:
-                return Permissions.setAppOpUidMode(packageName, appOp, mode, context);
+                return Permissions.setAppOpUidMode(transaction, appOp, mode);
         }
     }
 }
@@ -25,8 +25,6 @@ import android.content.pm.PackageManager;
 import android.content.pm.PermissionGroupInfo;
 import android.content.pm.PermissionInfo;
 import android.os.Build;
-import android.os.Process;
-import android.os.UserHandle;
 import android.permission.PermissionManager;
 import android.util.ArrayMap;
 import android.util.ArraySet;
@@ -38,7 +36,6 @@ import androidx.annotation.Nullable;
 import com.android.permissioncontroller.permission.utils.ArrayUtils;
 import com.android.permissioncontroller.permission.utils.CollectionUtils;
 import com.android.permissioncontroller.permission.utils.Utils;
-import com.android.permissioncontroller.role.utils.PackageUtils;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -53,6 +50,9 @@ public class Permissions {
 
     private static final boolean DEBUG = false;
 
+    private static List<PermissionManager.SplitPermissionInfo> sSplitPermissions;
+    private static final Object sSplitPermissionsLock = new Object();
+
     private static ArrayMap<String, String> sForegroundToBackgroundPermission;
     private static ArrayMap<String, List<String>> sBackgroundToForegroundPermissions;
     private static final Object sForegroundBackgroundPermissionMappingsLock = new Object();
@@ -79,12 +79,39 @@ public class Permissions {
             boolean overrideDisabledSystemPackage, boolean overrideUserSetAndFixed,
             boolean setGrantedByRole, boolean setGrantedByDefault, boolean setSystemFixed,
             @NonNull Context context) {
+        // Changes made before a failure are kept, only role changes are rolled back as a whole
+        return grant(new RoleChangeTransaction(packageName, context), permissions,
+                overrideDisabledSystemPackage, overrideUserSetAndFixed, setGrantedByRole,
+                setGrantedByDefault, setSystemFixed);
+    }
+
+    /**
+     * Grant permissions and associated app ops to an application, as part of a role change.
+     *
+     * @param transaction the {@link RoleChangeTransaction} for the application
+     * @param permissions the list of permissions to be granted
+     * @param overrideDisabledSystemPackage whether to ignore the permissions of a disabled system
+     *                                      package (if this package is an updated system package)
+     * @param overrideUserSetAndFixed whether to override user set and fixed flags on the permission
+     * @param setGrantedByRole whether the permissions will be granted as granted-by-role
+     * @param setGrantedByDefault whether the permissions will be granted as granted-by-default
+     * @param setSystemFixed whether the permissions will be granted as system-fixed
+     *
+     * @return whether any permission or app op changed
+     *
+     * @see #grant(String, List, boolean, boolean, boolean, boolean, boolean, Context)
+     */
+    static boolean grant(@NonNull RoleChangeTransaction transaction,
+            @NonNull List<String> permissions, boolean overrideDisabledSystemPackage,
+            boolean overrideUserSetAndFixed, boolean setGrantedByRole, boolean setGrantedByDefault,
+            boolean setSystemFixed) {
         if (setGrantedByRole == setGrantedByDefault) {
             throw new IllegalArgumentException("Permission must be either granted by role, or"
                     + " granted by default, but not both");
         }
 
-        PackageInfo packageInfo = getPackageInfo(packageName, context);
+        Context context = transaction.getContext();
+        PackageInfo packageInfo = getPackageInfo(transaction);
         if (packageInfo == null) {
             return false;
         }
@@ -94,9 +121,7 @@ public class Permissions {
         }
 
         // Automatically attempt to grant split permissions to older APKs
-        PermissionManager permissionManager = context.getSystemService(PermissionManager.class);
-        List<PermissionManager.SplitPermissionInfo> splitPermissions =
-                permissionManager.getSplitPermissions();
+        List<PermissionManager.SplitPermissionInfo> splitPermissions = getSplitPermissions(context);
         ArraySet<String> permissionsWithoutSplits = new ArraySet<>(permissions);
         ArraySet<String> permissionsToGrant = new ArraySet<>(permissionsWithoutSplits);
         int splitPermissionsSize = splitPermissions.size();
@@ -121,7 +146,7 @@ public class Permissions {
         // apps, (default grants on first boot and user creation) we don't grant default
         // permissions if the version on the system image does not declare them.
         if (!overrideDisabledSystemPackage && isUpdatedSystemApp(packageInfo)) {
-            PackageInfo disabledSystemPackageInfo = getFactoryPackageInfo(packageName, context);
+            PackageInfo disabledSystemPackageInfo = getFactoryPackageInfo(transaction);
             if (disabledSystemPackageInfo != null) {
                 if (ArrayUtils.isEmpty(disabledSystemPackageInfo.requestedPermissions)) {
                     return false;
@@ -155,9 +180,8 @@ public class Permissions {
 
         boolean permissionOrAppOpChanged = false;
 
-        PackageManager packageManager = context.getPackageManager();
         Set<String> whitelistedRestrictedPermissions = new ArraySet<>(
-                packageManager.getWhitelistedRestrictedPermissions(packageName,
+                transaction.getWhitelistedRestrictedPermissions(
                         PackageManager.FLAG_PERMISSION_WHITELIST_SYSTEM));
         List<String> smsPermissions = Utils.getPlatformPermissionNamesOfGroup(
                 Manifest.permission_group.SMS);
@@ -170,24 +194,24 @@ public class Permissions {
 
             if ((smsPermissions.contains(permission) || callLogPermissions.contains(permission))
                     && whitelistedRestrictedPermissions.add(permission)) {
-                packageManager.addWhitelistedRestrictedPermission(packageName, permission,
+                transaction.addWhitelistedRestrictedPermission(permission,
                         PackageManager.FLAG_PERMISSION_WHITELIST_SYSTEM);
             }
 
-            permissionOrAppOpChanged |= grantSingle(packageName, permission,
-                    overrideUserSetAndFixed, setGrantedByRole, setGrantedByDefault, setSystemFixed,
-                    context);
+            permissionOrAppOpChanged |= grantSingle(transaction, permission,
+                    overrideUserSetAndFixed, setGrantedByRole, setGrantedByDefault,
+                    setSystemFixed);
         }
 
         return permissionOrAppOpChanged;
     }
 
-    private static boolean grantSingle(@NonNull String packageName, @NonNull String permission,
-            boolean overrideUserSetAndFixed, boolean setGrantedByRole, boolean setGrantedByDefault,
-            boolean setSystemFixed, @NonNull Context context) {
-        boolean wasPermissionOrAppOpGranted = isPermissionAndAppOpGranted(packageName, permission,
-                context);
-        if (isPermissionFixed(packageName, permission, false, overrideUserSetAndFixed, context)
+    private static boolean grantSingle(@NonNull RoleChangeTransaction transaction,
+            @NonNull String permission, boolean overrideUserSetAndFixed, boolean setGrantedByRole,
+            boolean setGrantedByDefault, boolean setSystemFixed) {
+        Context context = transaction.getContext();
+        boolean wasPermissionOrAppOpGranted = isPermissionAndAppOpGranted(transaction, permission);
+        if (isPermissionFixed(transaction, permission, false, overrideUserSetAndFixed)
                 && !wasPermissionOrAppOpGranted) {
             // Stop granting if this permission is fixed to revoked.
             return false;
@@ -200,7 +224,7 @@ public class Permissions {
             for (int i = 0; i < foregroundPermissionsSize; i++) {
                 String foregroundPermission = foregroundPermissions.get(i);
 
-                if (isPermissionAndAppOpGranted(packageName, foregroundPermission, context)) {
+                if (isPermissionAndAppOpGranted(transaction, foregroundPermission)) {
                     isAnyForegroundPermissionGranted = true;
                     break;
                 }
@@ -213,8 +237,7 @@ public class Permissions {
             }
         }
 
-        boolean permissionOrAppOpChanged = grantPermissionAndAppOp(packageName, permission,
-                context);
+        boolean permissionOrAppOpChanged = grantPermissionAndAppOp(transaction, permission);
 
         // Update permission flags.
         int newFlags = 0;
@@ -237,31 +260,32 @@ public class Permissions {
         // If a component gets a permission for being the default handler A and also default handler
         // B, we grant the weaker grant form. This only applies to default permission grant.
         if (setGrantedByDefault && !setSystemFixed) {
-            int oldFlags = getPermissionFlags(packageName, permission, context);
+            int oldFlags = transaction.getPermissionFlags(permission);
             if ((oldFlags & PackageManager.FLAG_PERMISSION_GRANTED_BY_DEFAULT) != 0
                     && (oldFlags & PackageManager.FLAG_PERMISSION_SYSTEM_FIXED) != 0) {
                 if (DEBUG) {
                     Log.i(LOG_TAG, "Granted not fixed " + permission + " to default handler "
-                            + packageName);
+                            + transaction.getPackageName());
                 }
                 newMask |= PackageManager.FLAG_PERMISSION_SYSTEM_FIXED;
             }
         }
 
-        setPermissionFlags(packageName, permission, newFlags, newMask, context);
+        transaction.updatePermissionFlags(permission, newFlags, newMask);
 
         return permissionOrAppOpChanged;
     }
 
-    private static boolean isPermissionAndAppOpGranted(@NonNull String packageName,
-            @NonNull String permission, @NonNull Context context) {
+    private static boolean isPermissionAndAppOpGranted(@NonNull RoleChangeTransaction transaction,
+            @NonNull String permission) {
+        Context context = transaction.getContext();
         // Check this permission.
-        if (!isPermissionGrantedWithoutCheckingAppOp(packageName, permission, context)) {
+        if (!transaction.isPermissionGranted(permission)) {
             return false;
         }
 
         // Check if the permission is review required.
-        if (isPermissionReviewRequired(packageName, permission, context)) {
+        if (isPermissionReviewRequired(transaction, permission)) {
             return false;
         }
 
@@ -271,7 +295,7 @@ public class Permissions {
             if (appOp == null) {
                 return true;
             }
-            Integer appOpMode = getAppOpMode(packageName, appOp, context);
+            Integer appOpMode = transaction.getAppOpMode(appOp);
             if (appOpMode == null) {
                 return false;
             }
@@ -297,7 +321,7 @@ public class Permissions {
                 if (foregroundAppOp == null) {
                     continue;
                 }
-                Integer foregroundAppOpMode = getAppOpMode(packageName, foregroundAppOp, context);
+                Integer foregroundAppOpMode = transaction.getAppOpMode(foregroundAppOp);
                 if (foregroundAppOpMode == null) {
                     continue;
                 }
@@ -309,11 +333,11 @@ public class Permissions {
         }
     }
 
-    private static boolean grantPermissionAndAppOp(@NonNull String packageName,
-            @NonNull String permission, @NonNull Context context) {
+    private static boolean grantPermissionAndAppOp(@NonNull RoleChangeTransaction transaction,
+            @NonNull String permission) {
+        Context context = transaction.getContext();
         // Grant the permission.
-        boolean permissionOrAppOpChanged = grantPermissionWithoutAppOp(packageName, permission,
-                context);
+        boolean permissionOrAppOpChanged = transaction.grantPermission(permission);
 
         // Grant the app op.
         if (!isBackgroundPermission(permission, context)) {
@@ -330,13 +354,13 @@ public class Permissions {
                 // This permission is a foreground permission, set its app op mode according to
                 // whether its background permission is granted.
                 String backgroundPermission = getBackgroundPermission(permission, context);
-                if (!isPermissionAndAppOpGranted(packageName, backgroundPermission, context)) {
+                if (!isPermissionAndAppOpGranted(transaction, backgroundPermission)) {
                     appOpMode = AppOpsManager.MODE_FOREGROUND;
                 } else {
                     appOpMode = AppOpsManager.MODE_ALLOWED;
                 }
             }
-            permissionOrAppOpChanged = setAppOpUidMode(packageName, appOp, appOpMode, context);
+            permissionOrAppOpChanged = setAppOpUidMode(transaction, appOp, appOpMode);
         } else {
             // This permission is a background permission, set all its foreground permissions' app
             // op modes to MODE_ALLOWED.
@@ -349,8 +373,8 @@ public class Permissions {
                 if (foregroundAppOp == null) {
                     continue;
                 }
-                permissionOrAppOpChanged |= setAppOpUidMode(packageName, foregroundAppOp,
-                        AppOpsManager.MODE_ALLOWED, context);
+                permissionOrAppOpChanged |= setAppOpUidMode(transaction, foregroundAppOp,
+                        AppOpsManager.MODE_ALLOWED);
             }
         }
 
@@ -375,7 +399,29 @@ public class Permissions {
     public static boolean revoke(@NonNull String packageName, @NonNull List<String> permissions,
             boolean onlyIfGrantedByRole, boolean onlyIfGrantedByDefault,
             boolean overrideSystemFixed, @NonNull Context context) {
-        PackageInfo packageInfo = getPackageInfo(packageName, context);
+        // Changes made before a failure are kept, only role changes are rolled back as a whole
+        return revoke(new RoleChangeTransaction(packageName, context), permissions,
+                onlyIfGrantedByRole, onlyIfGrantedByDefault, overrideSystemFixed);
+    }
+
+    /**
+     * Revoke permissions and associated app ops from an application, as part of a role change.
+     *
+     * @param transaction the {@link RoleChangeTransaction} for the application
+     * @param permissions the list of permissions to be revoked
+     * @param onlyIfGrantedByRole revoke the permission only if it is granted by role
+     * @param onlyIfGrantedByDefault revoke the permission only if it is granted by default
+     * @param overrideSystemFixed whether system-fixed permissions can be revoked
+     *
+     * @return whether any permission or app op changed
+     *
+     * @see #revoke(String, List, boolean, boolean, boolean, Context)
+     */
+    static boolean revoke(@NonNull RoleChangeTransaction transaction,
+            @NonNull List<String> permissions, boolean onlyIfGrantedByRole,
+            boolean onlyIfGrantedByDefault, boolean overrideSystemFixed) {
+        Context context = transaction.getContext();
+        PackageInfo packageInfo = getPackageInfo(transaction);
         if (packageInfo == null) {
             return false;
         }
@@ -409,9 +455,8 @@ public class Permissions {
             }
         }
 
-        PackageManager packageManager = context.getPackageManager();
         Set<String> whitelistedRestrictedPermissions =
-                packageManager.getWhitelistedRestrictedPermissions(packageName,
+                transaction.getWhitelistedRestrictedPermissions(
                         Utils.FLAGS_PERMISSION_WHITELIST_ALL);
 
         boolean permissionOrAppOpChanged = false;
@@ -420,13 +465,13 @@ public class Permissions {
         for (int i = 0; i < sortedPermissionsToRevokeLength; i++) {
             String permission = sortedPermissionsToRevoke[i];
 
-            permissionOrAppOpChanged |= revokeSingle(packageName, permission, onlyIfGrantedByRole,
-                    onlyIfGrantedByDefault, overrideSystemFixed, context);
+            permissionOrAppOpChanged |= revokeSingle(transaction, permission, onlyIfGrantedByRole,
+                    onlyIfGrantedByDefault, overrideSystemFixed);
 
             // Remove from the system whitelist only if not granted by default.
-            if (!isPermissionGrantedByDefault(packageName, permission, context)
+            if (!isPermissionGrantedByDefault(transaction, permission)
                     && whitelistedRestrictedPermissions.remove(permission)) {
-                packageManager.removeWhitelistedRestrictedPermission(packageName, permission,
+                transaction.removeWhitelistedRestrictedPermission(permission,
                         PackageManager.FLAG_PERMISSION_WHITELIST_SYSTEM);
             }
         }
@@ -434,59 +479,60 @@ public class Permissions {
         return permissionOrAppOpChanged;
     }
 
-    private static boolean revokeSingle(@NonNull String packageName, @NonNull String permission,
-            boolean onlyIfGrantedByRole, boolean onlyIfGrantedByDefault,
-            boolean overrideSystemFixed, @NonNull Context context) {
+    private static boolean revokeSingle(@NonNull RoleChangeTransaction transaction,
+            @NonNull String permission, boolean onlyIfGrantedByRole, boolean onlyIfGrantedByDefault,
+            boolean overrideSystemFixed) {
+        Context context = transaction.getContext();
         if (onlyIfGrantedByRole == onlyIfGrantedByDefault) {
             throw new IllegalArgumentException("Permission can be revoked only if either granted by"
                     + " role, or granted by default, but not both");
         }
 
         if (onlyIfGrantedByRole) {
-            if (!isPermissionGrantedByRole(packageName, permission, context)) {
+            if (!isPermissionGrantedByRole(transaction, permission)) {
                 return false;
             }
-            setPermissionFlags(packageName, permission, 0,
-                    PackageManager.FLAG_PERMISSION_GRANTED_BY_ROLE, context);
+            transaction.updatePermissionFlags(permission, 0,
+                    PackageManager.FLAG_PERMISSION_GRANTED_BY_ROLE);
         }
 
         if (onlyIfGrantedByDefault) {
-            if (!isPermissionGrantedByDefault(packageName, permission, context)) {
+            if (!isPermissionGrantedByDefault(transaction, permission)) {
                 return false;
             }
             // Remove the granted-by-default permission flag.
-            setPermissionFlags(packageName, permission, 0,
-                    PackageManager.FLAG_PERMISSION_GRANTED_BY_DEFAULT, context);
+            transaction.updatePermissionFlags(permission, 0,
+                    PackageManager.FLAG_PERMISSION_GRANTED_BY_DEFAULT);
             // Note that we do not revoke FLAG_PERMISSION_SYSTEM_FIXED. That bit remains sticky once
             // set.
         }
 
-        if (isPermissionFixed(packageName, permission, overrideSystemFixed, false, context)
-                && isPermissionAndAppOpGranted(packageName, permission, context)) {
+        if (isPermissionFixed(transaction, permission, overrideSystemFixed, false)
+                && isPermissionAndAppOpGranted(transaction, permission)) {
             // Stop revoking if this permission is fixed to granted.
             return false;
         }
 
         if (isForegroundPermission(permission, context)) {
             String backgroundPermission = getBackgroundPermission(permission, context);
-            if (isPermissionAndAppOpGranted(packageName, backgroundPermission, context)) {
+            if (isPermissionAndAppOpGranted(transaction, backgroundPermission)) {
                 // Stop revoking if this foreground permission has a granted background permission.
                 return false;
             }
         }
 
-        return revokePermissionAndAppOp(packageName, permission, context);
+        return revokePermissionAndAppOp(transaction, permission);
     }
 
-    private static boolean revokePermissionAndAppOp(@NonNull String packageName,
-            @NonNull String permission, @NonNull Context context) {
+    private static boolean revokePermissionAndAppOp(@NonNull RoleChangeTransaction transaction,
+            @NonNull String permission) {
+        Context context = transaction.getContext();
         boolean permissionOrAppOpChanged = false;
 
-        boolean isRuntimePermissionsSupported = isRuntimePermissionsSupported(packageName, context);
+        boolean isRuntimePermissionsSupported = isRuntimePermissionsSupported(transaction);
         if (isRuntimePermissionsSupported) {
             // Revoke the permission.
-            permissionOrAppOpChanged |= revokePermissionWithoutAppOp(packageName, permission,
-                    context);
+            permissionOrAppOpChanged |= transaction.revokePermission(permission);
         }
 
         // Revoke the app op.
@@ -499,7 +545,7 @@ public class Permissions {
             // This permission is an ordinary or foreground permission, reset its app op mode to
             // default.
             int appOpMode = getDefaultAppOpMode(appOp);
-            boolean appOpModeChanged = setAppOpUidMode(packageName, appOp, appOpMode, context);
+            boolean appOpModeChanged = setAppOpUidMode(transaction, appOp, appOpMode);
             permissionOrAppOpChanged |= appOpModeChanged;
 
             if (appOpModeChanged) {
@@ -507,9 +553,9 @@ public class Permissions {
                         || appOpMode == AppOpsManager.MODE_ALLOWED)) {
                     // We've reset this permission's app op mode to be permissive, so we'll need the
                     // user to review it again.
-                    setPermissionFlags(packageName, permission,
+                    transaction.updatePermissionFlags(permission,
                             PackageManager.FLAG_PERMISSION_REVIEW_REQUIRED,
-                            PackageManager.FLAG_PERMISSION_REVIEW_REQUIRED, context);
+                            PackageManager.FLAG_PERMISSION_REVIEW_REQUIRED);
                 }
             }
         } else {
@@ -520,7 +566,7 @@ public class Permissions {
             for (int i = 0; i < foregroundPermissionsSize; i++) {
                 String foregroundPermission = foregroundPermissions.get(i);
 
-                if (!isPermissionAndAppOpGranted(packageName, foregroundPermission, context)) {
+                if (!isPermissionAndAppOpGranted(transaction, foregroundPermission)) {
                     continue;
                 }
 
@@ -528,8 +574,8 @@ public class Permissions {
                 if (foregroundAppOp == null) {
                     continue;
                 }
-                permissionOrAppOpChanged |= setAppOpUidMode(packageName, foregroundAppOp,
-                        AppOpsManager.MODE_FOREGROUND, context);
+                permissionOrAppOpChanged |= setAppOpUidMode(transaction, foregroundAppOp,
+                        AppOpsManager.MODE_FOREGROUND);
             }
         }
 
@@ -537,24 +583,36 @@ public class Permissions {
     }
 
     @Nullable
-    private static PackageInfo getPackageInfo(@NonNull String packageName,
-            @NonNull Context context) {
-        return getPackageInfo(packageName, 0, context);
+    private static PackageInfo getPackageInfo(@NonNull RoleChangeTransaction transaction) {
+        return getPackageInfo(transaction, 0);
     }
 
     @Nullable
-    private static PackageInfo getFactoryPackageInfo(@NonNull String packageName,
-            @NonNull Context context) {
-        return getPackageInfo(packageName, PackageManager.MATCH_FACTORY_ONLY, context);
+    private static PackageInfo getFactoryPackageInfo(@NonNull RoleChangeTransaction transaction) {
+        return getPackageInfo(transaction, PackageManager.MATCH_FACTORY_ONLY);
     }
 
     @Nullable
-    private static PackageInfo getPackageInfo(@NonNull String packageName, int extraFlags,
-            @NonNull Context context) {
-        return PackageUtils.getPackageInfo(packageName, extraFlags
+    private static PackageInfo getPackageInfo(@NonNull RoleChangeTransaction transaction,
+            int extraFlags) {
+        return transaction.getPackageInfo(extraFlags
                 // TODO: Why MATCH_UNINSTALLED_PACKAGES?
-                | PackageManager.MATCH_UNINSTALLED_PACKAGES | PackageManager.GET_PERMISSIONS,
-                context);
+                | PackageManager.MATCH_UNINSTALLED_PACKAGES | PackageManager.GET_PERMISSIONS);
+    }
+
+    @NonNull
+    private static List<PermissionManager.SplitPermissionInfo> getSplitPermissions(
+            @NonNull Context context) {
+        synchronized (sSplitPermissionsLock) {
+            // Split permissions come from the system configuration, which doesn't change at
+            // runtime.
+            if (sSplitPermissions == null) {
+                PermissionManager permissionManager = context.getSystemService(
+                        PermissionManager.class);
+                sSplitPermissions = permissionManager.getSplitPermissions();
+            }
+            return sSplitPermissions;
+        }
     }
 
     private static boolean isUpdatedSystemApp(@NonNull PackageInfo packageInfo) {
@@ -562,26 +620,18 @@ public class Permissions {
                 & ApplicationInfo.FLAG_UPDATED_SYSTEM_APP) != 0;
     }
 
-    static boolean isRuntimePermissionsSupported(@NonNull String packageName,
-            @NonNull Context context) {
-        ApplicationInfo applicationInfo = PackageUtils.getApplicationInfo(packageName, context);
+    static boolean isRuntimePermissionsSupported(@NonNull RoleChangeTransaction transaction) {
+        ApplicationInfo applicationInfo = transaction.getApplicationInfo();
         if (applicationInfo == null) {
             return false;
         }
         return applicationInfo.targetSdkVersion >= Build.VERSION_CODES.M;
     }
 
-    private static int getPermissionFlags(@NonNull String packageName, @NonNull String permission,
-            @NonNull Context context) {
-        PackageManager packageManager = context.getPackageManager();
-        UserHandle user = Process.myUserHandle();
-        return packageManager.getPermissionFlags(permission, packageName, user);
-    }
-
-    private static boolean isPermissionFixed(@NonNull String packageName,
+    private static boolean isPermissionFixed(@NonNull RoleChangeTransaction transaction,
             @NonNull String permission, boolean overrideSystemFixed,
-            boolean overrideUserSetAndFixed, @NonNull Context context) {
-        int flags = getPermissionFlags(packageName, permission, context);
+            boolean overrideUserSetAndFixed) {
+        int flags = transaction.getPermissionFlags(permission);
         int fixedFlags = PackageManager.FLAG_PERMISSION_POLICY_FIXED;
         if (!overrideSystemFixed) {
             fixedFlags |= PackageManager.FLAG_PERMISSION_SYSTEM_FIXED;
@@ -593,64 +643,24 @@ public class Permissions {
         return (flags & fixedFlags) != 0;
     }
 
-    private static boolean isPermissionGrantedByDefault(@NonNull String packageName,
-            @NonNull String permission, @NonNull Context context) {
-        int flags = getPermissionFlags(packageName, permission, context);
+    private static boolean isPermissionGrantedByDefault(
+            @NonNull RoleChangeTransaction transaction, @NonNull String permission) {
+        int flags = transaction.getPermissionFlags(permission);
         return (flags & PackageManager.FLAG_PERMISSION_GRANTED_BY_DEFAULT) != 0;
     }
 
-    private static boolean isPermissionGrantedByRole(@NonNull String packageName,
-            @NonNull String permission, @NonNull Context context) {
-        int flags = getPermissionFlags(packageName, permission, context);
+    private static boolean isPermissionGrantedByRole(@NonNull RoleChangeTransaction transaction,
+            @NonNull String permission) {
+        int flags = transaction.getPermissionFlags(permission);
         return (flags & PackageManager.FLAG_PERMISSION_GRANTED_BY_ROLE) != 0;
     }
 
-    private static boolean isPermissionReviewRequired(@NonNull String packageName,
-            @NonNull String permission, @NonNull Context context) {
-        int flags = getPermissionFlags(packageName, permission, context);
+    private static boolean isPermissionReviewRequired(@NonNull RoleChangeTransaction transaction,
+            @NonNull String permission) {
+        int flags = transaction.getPermissionFlags(permission);
         return (flags & PackageManager.FLAG_PERMISSION_REVIEW_REQUIRED) != 0;
     }
 
-    private static void setPermissionFlags(@NonNull String packageName, @NonNull String permission,
-            int flags, int mask, @NonNull Context context) {
-        PackageManager packageManager = context.getPackageManager();
-        UserHandle user = Process.myUserHandle();
-        packageManager.updatePermissionFlags(permission, packageName, mask, flags, user);
-    }
-
-    /**
-     * Most of the time {@link #isPermissionAndAppOpGranted(String, String, Context)} should be used
-     * instead.
-     */
-    private static boolean isPermissionGrantedWithoutCheckingAppOp(@NonNull String packageName,
-            @NonNull String permission, @NonNull Context context) {
-        PackageManager packageManager = context.getPackageManager();
-        return packageManager.checkPermission(permission, packageName)
-                == PackageManager.PERMISSION_GRANTED;
-    }
-
-    private static boolean grantPermissionWithoutAppOp(@NonNull String packageName,
-            @NonNull String permission, @NonNull Context context) {
-        if (isPermissionGrantedWithoutCheckingAppOp(packageName, permission, context)) {
-            return false;
-        }
-        PackageManager packageManager = context.getPackageManager();
-        UserHandle user = Process.myUserHandle();
-        packageManager.grantRuntimePermission(packageName, permission, user);
-        return true;
-    }
-
-    private static boolean revokePermissionWithoutAppOp(@NonNull String packageName,
-            @NonNull String permission, @NonNull Context context) {
-        if (!isPermissionGrantedWithoutCheckingAppOp(packageName, permission, context)) {
-            return false;
-        }
-        PackageManager packageManager = context.getPackageManager();
-        UserHandle user = Process.myUserHandle();
-        packageManager.revokeRuntimePermission(packageName, permission, user);
-        return true;
-    }
-
     private static boolean isForegroundPermission(@NonNull String permission,
             @NonNull Context context) {
         ensureForegroundBackgroundPermissionMappings(context);
@@ -762,49 +772,17 @@ public class Permissions {
         return AppOpsManager.permissionToOp(permission);
     }
 
-    @Nullable
-    private static Integer getAppOpMode(@NonNull String packageName, @NonNull String appOp,
-            @NonNull Context context) {
-        ApplicationInfo applicationInfo = PackageUtils.getApplicationInfo(packageName, context);
-        if (applicationInfo == null) {
-            return null;
-        }
-        AppOpsManager appOpsManager = context.getSystemService(AppOpsManager.class);
-        return appOpsManager.unsafeCheckOpRaw(appOp, applicationInfo.uid, packageName);
-    }
-
     static int getDefaultAppOpMode(@NonNull String appOp) {
         return AppOpsManager.opToDefaultMode(appOp);
     }
 
-    static boolean setAppOpUidMode(@NonNull String packageName, @NonNull String appOp, int mode,
-            @NonNull Context context) {
-        return setAppOpMode(packageName, appOp, mode, true, context);
-    }
-
-    static boolean setAppOpPackageMode(@NonNull String packageName, @NonNull String appOp, int mode,
-            @NonNull Context context) {
-        return setAppOpMode(packageName, appOp, mode, false, context);
+    static boolean setAppOpUidMode(@NonNull RoleChangeTransaction transaction,
+            @NonNull String appOp, int mode) {
+        return transaction.setAppOpMode(appOp, mode, true);
     }
 
-    private static boolean setAppOpMode(@NonNull String packageName, @NonNull String appOp,
-            int mode, boolean setUidMode, @NonNull Context context) {
-        Integer currentMode = getAppOpMode(packageName, appOp, context);
-        if (currentMode != null && currentMode == mode) {
-            return false;
-        }
-        ApplicationInfo applicationInfo = PackageUtils.getApplicationInfo(packageName, context);
-        if (applicationInfo == null) {
-            Log.e(LOG_TAG, "Cannot get ApplicationInfo for package to set app op mode: "
-                    + packageName);
-            return false;
-        }
-        AppOpsManager appOpsManager = context.getSystemService(AppOpsManager.class);
-        if (setUidMode) {
-            appOpsManager.setUidMode(appOp, applicationInfo.uid, mode);
-        } else {
-            appOpsManager.setMode(appOp, applicationInfo.uid, packageName, mode);
-        }
-        return true;
+    static boolean setAppOpPackageMode(@NonNull RoleChangeTransaction transaction,
+            @NonNull String appOp, int mode) {
+        return transaction.setAppOpMode(appOp, mode, false);
     }
 }
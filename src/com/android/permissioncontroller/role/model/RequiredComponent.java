@@ -105,12 +105,18 @@ public abstract class RequiredComponent {
     private List<ComponentName> getQualifyingComponentsInternal(@Nullable String packageName,
             @NonNull UserHandle user, @NonNull Context context) {
         Intent intent = mIntentFilterData.createIntent();
+        int flags = PackageManager.MATCH_DIRECT_BOOT_AWARE
+                | PackageManager.MATCH_DIRECT_BOOT_UNAWARE;
+        List<ResolveInfo> resolveInfos;
         if (packageName != null) {
             intent.setPackage(packageName);
+            resolveInfos = queryIntentComponentsAsUser(intent, flags, user, context);
+        } else {
+            // Queries across all packages are shared between roles with the same required
+            // component, and are the expensive ones.
+            resolveInfos = ResolveInfoCache.queryAsUser(getClass(), mIntentFilterData, flags, user,
+                    () -> queryIntentComponentsAsUser(intent, flags, user, context));
         }
-        List<ResolveInfo> resolveInfos = queryIntentComponentsAsUser(intent,
-                PackageManager.MATCH_DIRECT_BOOT_AWARE | PackageManager.MATCH_DIRECT_BOOT_UNAWARE,
-                user, context);
 
         ArraySet<String> componentPackageNames = new ArraySet<>();
         List<ComponentName> componentNames = new ArrayList<>();
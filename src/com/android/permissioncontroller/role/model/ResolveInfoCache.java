@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.role.model;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.permissioncontroller.permission.data.PackageBroadcastReceiver;
+import com.android.permissioncontroller.role.utils.PackageUtils;
+import com.android.permissioncontroller.role.utils.UserUtils;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Per-user cache of the components resolved for {@link RequiredComponent}s, and of the package
+ * state checked for every candidate of a role.
+ * <p>
+ * Query results are keyed by the type of the required component, its {@link IntentFilterData} and
+ * the query flags, so that roles with overlapping required components share a single
+ * {@code PackageManager} query. The {@code ApplicationInfo} and declared shared libraries of a
+ * candidate package are shared between all roles the package is a candidate for. All cached results
+ * for a user are dropped upon any package broadcast for that user, and a result which was loaded
+ * while such a broadcast arrived is not cached.
+ */
+public final class ResolveInfoCache {
+
+    @NonNull
+    private static final Object sLock = new Object();
+
+    /**
+     * Stored for lookups which found nothing, as {@code null} values mark a cache miss.
+     */
+    @NonNull
+    private static final Object NOT_FOUND = new Object();
+
+    /**
+     * Map from user ID to the cached results for that user, keyed by {@link Key} for queries, and
+     * by {@link PackageKey} for package state.
+     */
+    @GuardedBy("sLock")
+    @NonNull
+    private static final SparseArray<ArrayMap<Object, Object>> sUserCaches = new SparseArray<>();
+
+    /**
+     * Map from user ID to the number of times the cache for that user has been invalidated, so that
+     * a query started before an invalidation doesn't populate the cache with a stale result.
+     */
+    @GuardedBy("sLock")
+    @NonNull
+    private static final SparseIntArray sUserGenerations = new SparseIntArray();
+
+    /**
+     * The number of times the cache for all users has been invalidated, so that a query started
+     * before an invalidation without a user doesn't populate the cache with a stale result, even if
+     * nothing was cached for its user.
+     */
+    @GuardedBy("sLock")
+    private static int sGeneration;
+
+    @GuardedBy("sLock")
+    private static boolean sListenersRegistered;
+
+    @GuardedBy("sLock")
+    private static long sHitCount;
+
+    @GuardedBy("sLock")
+    private static long sMissCount;
+
+    @GuardedBy("sLock")
+    private static long sInvalidationCount;
+
+    @NonNull
+    private static final PackageBroadcastReceiver.PackageCache sPackageCache =
+            (packageName, action, uid) -> {
+                if (uid != -1) {
+                    invalidateAsUser(UserHandle.getUserHandleForUid(uid));
+                } else {
+                    invalidateAll();
+                }
+            };
+
+    private ResolveInfoCache() {}
+
+    /**
+     * Get the components resolved for a required component, querying them if they aren't cached.
+     *
+     * @param componentClass the class of the required component, which determines the type of the
+     *                       components queried
+     * @param intentFilterData the {@code Intent} or {@code IntentFilter} data of the query
+     * @param flags the flags of the query
+     * @param user the user of the query
+     * @param query the actual query to run upon a cache miss
+     *
+     * @return the unmodifiable list of resolved components, ordered from best to worst
+     */
+    @NonNull
+    static List<ResolveInfo> queryAsUser(@NonNull Class<? extends RequiredComponent> componentClass,
+            @NonNull IntentFilterData intentFilterData, int flags, @NonNull UserHandle user,
+            @NonNull Supplier<List<ResolveInfo>> query) {
+        return getAsUser(new Key(componentClass, intentFilterData, flags), user,
+                () -> Collections.unmodifiableList(query.get()));
+    }
+
+    /**
+     * Get the {@code ApplicationInfo} of a package, loading it if it isn't cached.
+     *
+     * @param packageName the package name of the application
+     * @param user the user of the application
+     * @param context the {@code Context} to retrieve system services
+     *
+     * @return the {@link ApplicationInfo} of the application, or {@code null} if not found. Shared
+     *         between callers, hence must not be modified.
+     */
+    @Nullable
+    static ApplicationInfo getApplicationInfoAsUser(@NonNull String packageName,
+            @NonNull UserHandle user, @NonNull Context context) {
+        return getAsUser(new PackageKey(packageName, false), user,
+                () -> PackageUtils.getApplicationInfoAsUser(packageName, user, context));
+    }
+
+    /**
+     * Check whether a package declares any shared libraries, loading them if they aren't cached.
+     *
+     * @param packageName the package name of the application
+     * @param user the user of the application
+     * @param context the {@code Context} to retrieve system services
+     *
+     * @return whether the package declares any shared libraries
+     */
+    static boolean declaresSharedLibrariesAsUser(@NonNull String packageName,
+            @NonNull UserHandle user, @NonNull Context context) {
+        return getAsUser(new PackageKey(packageName, true), user, () -> {
+            PackageManager userPackageManager = UserUtils.getUserContext(context, user)
+                    .getPackageManager();
+            return !userPackageManager.getDeclaredSharedLibraries(packageName, 0).isEmpty();
+        });
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private static <T> T getAsUser(@NonNull Object key, @NonNull UserHandle user,
+            @NonNull Supplier<T> load) {
+        int userId = user.getIdentifier();
+        int userGeneration;
+        int generation;
+        synchronized (sLock) {
+            ensureListenersRegisteredLocked();
+            ArrayMap<Object, Object> userCache = sUserCaches.get(userId);
+            Object value = userCache != null ? userCache.get(key) : null;
+            if (value != null) {
+                sHitCount++;
+                return value != NOT_FOUND ? (T) value : null;
+            }
+            sMissCount++;
+            userGeneration = sUserGenerations.get(userId);
+            generation = sGeneration;
+        }
+
+        T value = load.get();
+
+        synchronized (sLock) {
+            if (sUserGenerations.get(userId) == userGeneration && sGeneration == generation) {
+                ArrayMap<Object, Object> userCache = sUserCaches.get(userId);
+                if (userCache == null) {
+                    userCache = new ArrayMap<>();
+                    sUserCaches.put(userId, userCache);
+                }
+                userCache.put(key, value != null ? value : NOT_FOUND);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Drop all cached query results for a user.
+     *
+     * @param user the user to drop cached query results for
+     */
+    public static void invalidateAsUser(@NonNull UserHandle user) {
+        int userId = user.getIdentifier();
+        synchronized (sLock) {
+            sUserCaches.remove(userId);
+            sUserGenerations.put(userId, sUserGenerations.get(userId) + 1);
+            sInvalidationCount++;
+        }
+    }
+
+    /**
+     * Drop all cached query results for all users.
+     */
+    public static void invalidateAll() {
+        synchronized (sLock) {
+            sGeneration++;
+            sUserCaches.clear();
+            sInvalidationCount++;
+        }
+    }
+
+    @GuardedBy("sLock")
+    private static void ensureListenersRegisteredLocked() {
+        if (sListenersRegistered) {
+            return;
+        }
+        PackageBroadcastReceiver.INSTANCE.addCache(sPackageCache);
+        sListenersRegistered = true;
+    }
+
+    /**
+     * Dump the state of this cache, including its hit and miss counts.
+     *
+     * @param writer the {@code PrintWriter} to dump to
+     */
+    public static void dump(@NonNull PrintWriter writer) {
+        synchronized (sLock) {
+            writer.println("ResolveInfoCache:");
+            writer.println("  hits=" + sHitCount + ", misses=" + sMissCount + ", invalidations="
+                    + sInvalidationCount);
+            int userCachesSize = sUserCaches.size();
+            for (int i = 0; i < userCachesSize; i++) {
+                writer.println("  user " + sUserCaches.keyAt(i) + ": "
+                        + sUserCaches.valueAt(i).size() + " cached entries");
+            }
+        }
+    }
+
+    private static final class Key {
+
+        @NonNull
+        private final Class<? extends RequiredComponent> mComponentClass;
+
+        @NonNull
+        private final IntentFilterData mIntentFilterData;
+
+        private final int mFlags;
+
+        Key(@NonNull Class<? extends RequiredComponent> componentClass,
+                @NonNull IntentFilterData intentFilterData, int flags) {
+            mComponentClass = componentClass;
+            mIntentFilterData = intentFilterData;
+            mFlags = flags;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (object == null || getClass() != object.getClass()) {
+                return false;
+            }
+            Key that = (Key) object;
+            return mFlags == that.mFlags
+                    && mComponentClass == that.mComponentClass
+                    && Objects.equals(mIntentFilterData, that.mIntentFilterData);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mComponentClass, mIntentFilterData, mFlags);
+        }
+    }
+
+    private static final class PackageKey {
+
+        @NonNull
+        private final String mPackageName;
+
+        /**
+         * Whether this is the key of the declared shared libraries, instead of the
+         * {@code ApplicationInfo}
+         */
+        private final boolean mSharedLibraries;
+
+        PackageKey(@NonNull String packageName, boolean sharedLibraries) {
+            mPackageName = packageName;
+            mSharedLibraries = sharedLibraries;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (object == null || getClass() != object.getClass()) {
+                return false;
+            }
+            PackageKey that = (PackageKey) object;
+            return mSharedLibraries == that.mSharedLibraries
+                    && Objects.equals(mPackageName, that.mPackageName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mPackageName, mSharedLibraries);
+        }
+    }
+}
@@ -22,7 +22,6 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.os.Process;
 import android.os.UserHandle;
@@ -650,8 +649,9 @@ public class Role {
             return false;
         }
 
-        ApplicationInfo applicationInfo = PackageUtils.getApplicationInfoAsUser(packageName, user,
-                context);
+        // Shared between the roles the package is a candidate for, as all of them check it
+        ApplicationInfo applicationInfo = ResolveInfoCache.getApplicationInfoAsUser(packageName,
+                user, context);
         if (applicationInfo == null) {
             Log.w(LOG_TAG, "Cannot get ApplicationInfo for package: " + packageName + ", user: "
                     + user.getIdentifier());
@@ -670,9 +670,7 @@ public class Role {
             return false;
         }
 
-        PackageManager userPackageManager = UserUtils.getUserContext(context, user)
-                .getPackageManager();
-        if (!userPackageManager.getDeclaredSharedLibraries(packageName, 0).isEmpty()) {
+        if (ResolveInfoCache.declaresSharedLibrariesAsUser(packageName, user, context)) {
             return false;
         }
 
@@ -690,19 +688,31 @@ public class Role {
      */
     public void grant(@NonNull String packageName, boolean dontKillApp,
             boolean overrideUserSetAndFixedPermissions, @NonNull Context context) {
-        boolean permissionOrAppOpChanged = Permissions.grant(packageName, mPermissions, true,
-                overrideUserSetAndFixedPermissions, true, false, false, context);
+        RoleChangeTransaction transaction = new RoleChangeTransaction(packageName, context);
+        boolean permissionOrAppOpChanged;
+        try {
+            permissionOrAppOpChanged = Permissions.grant(transaction, mPermissions, true,
+                    overrideUserSetAndFixedPermissions, true, false, false);
 
-        int appOpPermissionsSize = mAppOpPermissions.size();
-        for (int i = 0; i < appOpPermissionsSize; i++) {
-            String appOpPermissions = mAppOpPermissions.get(i);
-            AppOpPermissions.grant(packageName, appOpPermissions, context);
-        }
+            int appOpPermissionsSize = mAppOpPermissions.size();
+            for (int i = 0; i < appOpPermissionsSize; i++) {
+                String appOpPermissions = mAppOpPermissions.get(i);
+                AppOpPermissions.grant(transaction, appOpPermissions);
+            }
 
-        int appOpsSize = mAppOps.size();
-        for (int i = 0; i < appOpsSize; i++) {
-            AppOp appOp = mAppOps.get(i);
-            appOp.grant(packageName, context);
+            int appOpsSize = mAppOps.size();
+            for (int i = 0; i < appOpsSize; i++) {
+                AppOp appOp = mAppOps.get(i);
+                appOp.grant(transaction);
+            }
+        } catch (RuntimeException e) {
+            transaction.rollback();
+            throw e;
+        }
+        if (DEBUG) {
+            Log.i(LOG_TAG, "Granting " + mName + " to " + packageName + " took "
+                    + transaction.getBinderCallCount() + " binder calls for permissions and app"
+                    + " ops");
         }
 
         int preferredActivitiesSize = mPreferredActivities.size();
@@ -716,7 +726,7 @@ public class Role {
         }
 
         if (!dontKillApp && permissionOrAppOpChanged && !Permissions.isRuntimePermissionsSupported(
-                packageName, context)) {
+                transaction)) {
             killApp(packageName, context);
         }
     }
@@ -743,8 +753,6 @@ public class Role {
             Role role = roles.get(roleName);
             permissionsToRevoke.removeAll(role.mPermissions);
         }
-        boolean permissionOrAppOpChanged = Permissions.revoke(packageName, permissionsToRevoke,
-                true, false, overrideSystemFixedPermissions, context);
 
         List<String> appOpPermissionsToRevoke = new ArrayList<>(mAppOpPermissions);
         for (int i = 0; i < otherRoleNamesSize; i++) {
@@ -752,11 +760,6 @@ public class Role {
             Role role = roles.get(roleName);
             appOpPermissionsToRevoke.removeAll(role.mAppOpPermissions);
         }
-        int appOpPermissionsSize = appOpPermissionsToRevoke.size();
-        for (int i = 0; i < appOpPermissionsSize; i++) {
-            String appOpPermission = appOpPermissionsToRevoke.get(i);
-            AppOpPermissions.revoke(packageName, appOpPermission, context);
-        }
 
         List<AppOp> appOpsToRevoke = new ArrayList<>(mAppOps);
         for (int i = 0; i < otherRoleNamesSize; i++) {
@@ -764,10 +767,32 @@ public class Role {
             Role role = roles.get(roleName);
             appOpsToRevoke.removeAll(role.mAppOps);
         }
-        int appOpsSize = appOpsToRevoke.size();
-        for (int i = 0; i < appOpsSize; i++) {
-            AppOp appOp = appOpsToRevoke.get(i);
-            appOp.revoke(packageName, context);
+
+        RoleChangeTransaction transaction = new RoleChangeTransaction(packageName, context);
+        boolean permissionOrAppOpChanged;
+        try {
+            permissionOrAppOpChanged = Permissions.revoke(transaction, permissionsToRevoke, true,
+                    false, overrideSystemFixedPermissions);
+
+            int appOpPermissionsSize = appOpPermissionsToRevoke.size();
+            for (int i = 0; i < appOpPermissionsSize; i++) {
+                String appOpPermission = appOpPermissionsToRevoke.get(i);
+                AppOpPermissions.revoke(transaction, appOpPermission);
+            }
+
+            int appOpsSize = appOpsToRevoke.size();
+            for (int i = 0; i < appOpsSize; i++) {
+                AppOp appOp = appOpsToRevoke.get(i);
+                appOp.revoke(transaction);
+            }
+        } catch (RuntimeException e) {
+            transaction.rollback();
+            throw e;
+        }
+        if (DEBUG) {
+            Log.i(LOG_TAG, "Revoking " + mName + " from " + packageName + " took "
+                    + transaction.getBinderCallCount() + " binder calls for permissions and app"
+                    + " ops");
         }
 
         // TODO: Revoke preferred activities? But this is unnecessary for most roles using it as
@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.role.model;
+
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Process;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.permissioncontroller.role.utils.PackageUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The permission and app op changes made to an application for a role change.
+ * <p>
+ * Each piece of state of the application is read at most once and kept up to date as changes are
+ * made, so that granting or revoking a role doesn't re-read the same state for every permission,
+ * and writes that wouldn't change anything are skipped. All changes made are recorded, so that
+ * they can be rolled back if the role change fails midway.
+ * <p>
+ * This class is not thread safe, and each instance should only be used for a single role change.
+ */
+class RoleChangeTransaction {
+
+    private static final String LOG_TAG = RoleChangeTransaction.class.getSimpleName();
+
+    @NonNull
+    private final String mPackageName;
+
+    @NonNull
+    private final Context mContext;
+
+    @NonNull
+    private final PackageManager mPackageManager;
+
+    @NonNull
+    private final AppOpsManager mAppOpsManager;
+
+    @NonNull
+    private final UserHandle mUser = Process.myUserHandle();
+
+    /**
+     * Map from extra flags to the {@link PackageInfo} retrieved with them, or {@code null} if not
+     * found.
+     */
+    @NonNull
+    private final ArrayMap<Integer, PackageInfo> mPackageInfos = new ArrayMap<>();
+
+    private boolean mApplicationInfoLoaded;
+
+    @Nullable
+    private ApplicationInfo mApplicationInfo;
+
+    @NonNull
+    private final ArrayMap<String, Integer> mPermissionFlags = new ArrayMap<>();
+
+    @NonNull
+    private final ArrayMap<String, Boolean> mPermissionsGranted = new ArrayMap<>();
+
+    /**
+     * Map from app op to its raw mode, or {@code null} if the application isn't found.
+     */
+    @NonNull
+    private final ArrayMap<String, Integer> mAppOpModes = new ArrayMap<>();
+
+    /**
+     * Map from app op to its package mode, which only differs from the raw mode if a UID mode is
+     * set.
+     */
+    @NonNull
+    private final ArrayMap<String, Integer> mPackageAppOpModes = new ArrayMap<>();
+
+    @NonNull
+    private final List<Runnable> mUndoActions = new ArrayList<>();
+
+    private int mBinderCallCount;
+
+    RoleChangeTransaction(@NonNull String packageName, @NonNull Context context) {
+        mPackageName = packageName;
+        mContext = context;
+        mPackageManager = context.getPackageManager();
+        mAppOpsManager = context.getSystemService(AppOpsManager.class);
+    }
+
+    @NonNull
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    @NonNull
+    public Context getContext() {
+        return mContext;
+    }
+
+    /**
+     * Get the number of binder calls made by this transaction so far, which is useful for
+     * measuring the cost of a role change.
+     *
+     * @return the number of binder calls made
+     */
+    public int getBinderCallCount() {
+        return mBinderCallCount;
+    }
+
+    /**
+     * Get the {@link PackageInfo} of the application.
+     *
+     * @param extraFlags the extra flags to pass to {@link PackageManager#getPackageInfo(String,
+     *                   int)}
+     *
+     * @return the {@link PackageInfo} of the application, or {@code null} if not found
+     */
+    @Nullable
+    public PackageInfo getPackageInfo(int extraFlags) {
+        if (mPackageInfos.containsKey(extraFlags)) {
+            return mPackageInfos.get(extraFlags);
+        }
+        mBinderCallCount++;
+        PackageInfo packageInfo = PackageUtils.getPackageInfo(mPackageName, extraFlags, mContext);
+        mPackageInfos.put(extraFlags, packageInfo);
+        return packageInfo;
+    }
+
+    /**
+     * Get the {@link ApplicationInfo} of the application.
+     *
+     * @return the {@link ApplicationInfo} of the application, or {@code null} if not found
+     */
+    @Nullable
+    public ApplicationInfo getApplicationInfo() {
+        if (!mApplicationInfoLoaded) {
+            mBinderCallCount++;
+            mApplicationInfo = PackageUtils.getApplicationInfo(mPackageName, mContext);
+            mApplicationInfoLoaded = true;
+        }
+        return mApplicationInfo;
+    }
+
+    /**
+     * Get the flags of a permission of the application.
+     *
+     * @param permission the permission
+     *
+     * @return the flags of the permission
+     */
+    public int getPermissionFlags(@NonNull String permission) {
+        Integer flags = mPermissionFlags.get(permission);
+        if (flags == null) {
+            mBinderCallCount++;
+            flags = mPackageManager.getPermissionFlags(permission, mPackageName, mUser);
+            mPermissionFlags.put(permission, flags);
+        }
+        return flags;
+    }
+
+    /**
+     * Update the flags of a permission of the application, unless they already have the values to
+     * be set.
+     *
+     * @param permission the permission
+     * @param flags the values of the flags to set
+     * @param mask the flags to set
+     */
+    public void updatePermissionFlags(@NonNull String permission, int flags, int mask) {
+        int oldFlags = getPermissionFlags(permission);
+        if ((oldFlags & mask) == (flags & mask)) {
+            return;
+        }
+        mBinderCallCount++;
+        mPackageManager.updatePermissionFlags(permission, mPackageName, mask, flags, mUser);
+        mPermissionFlags.put(permission, (oldFlags & ~mask) | (flags & mask));
+        mUndoActions.add(() -> mPackageManager.updatePermissionFlags(permission, mPackageName,
+                mask, oldFlags & mask, mUser));
+    }
+
+    /**
+     * Check whether a permission is granted to the application, without checking its app op.
+     *
+     * @param permission the permission
+     *
+     * @return whether the permission is granted
+     */
+    public boolean isPermissionGranted(@NonNull String permission) {
+        Boolean granted = mPermissionsGranted.get(permission);
+        if (granted == null) {
+            mBinderCallCount++;
+            granted = mPackageManager.checkPermission(permission, mPackageName)
+                    == PackageManager.PERMISSION_GRANTED;
+            mPermissionsGranted.put(permission, granted);
+        }
+        return granted;
+    }
+
+    /**
+     * Grant a permission to the application, without touching its app op.
+     *
+     * @param permission the permission
+     *
+     * @return whether the permission wasn't granted before
+     */
+    public boolean grantPermission(@NonNull String permission) {
+        if (isPermissionGranted(permission)) {
+            return false;
+        }
+        mBinderCallCount++;
+        mPackageManager.grantRuntimePermission(mPackageName, permission, mUser);
+        mPermissionsGranted.put(permission, true);
+        // Granting a permission may update its flags as well.
+        mPermissionFlags.remove(permission);
+        mUndoActions.add(() -> mPackageManager.revokeRuntimePermission(mPackageName, permission,
+                mUser));
+        return true;
+    }
+
+    /**
+     * Revoke a permission from the application, without touching its app op.
+     *
+     * @param permission the permission
+     *
+     * @return whether the permission was granted before
+     */
+    public boolean revokePermission(@NonNull String permission) {
+        if (!isPermissionGranted(permission)) {
+            return false;
+        }
+        mBinderCallCount++;
+        mPackageManager.revokeRuntimePermission(mPackageName, permission, mUser);
+        mPermissionsGranted.put(permission, false);
+        // Revoking a permission may update its flags as well.
+        mPermissionFlags.remove(permission);
+        mUndoActions.add(() -> mPackageManager.grantRuntimePermission(mPackageName, permission,
+                mUser));
+        return true;
+    }
+
+    /**
+     * Get the raw mode of an app op of the application.
+     *
+     * @param appOp the app op
+     *
+     * @return the raw mode of the app op, or {@code null} if the application isn't found
+     */
+    @Nullable
+    public Integer getAppOpMode(@NonNull String appOp) {
+        if (mAppOpModes.containsKey(appOp)) {
+            return mAppOpModes.get(appOp);
+        }
+        ApplicationInfo applicationInfo = getApplicationInfo();
+        Integer mode = null;
+        if (applicationInfo != null) {
+            mBinderCallCount++;
+            mode = mAppOpsManager.unsafeCheckOpRaw(appOp, applicationInfo.uid, mPackageName);
+        }
+        mAppOpModes.put(appOp, mode);
+        return mode;
+    }
+
+    /**
+     * Set the mode of an app op of the application, unless its raw mode is already the mode to be
+     * set.
+     *
+     * @param appOp the app op
+     * @param mode the mode to set
+     * @param setUidMode whether to set the UID mode, as opposed to the package mode
+     *
+     * @return whether the mode of the app op has been set
+     */
+    public boolean setAppOpMode(@NonNull String appOp, int mode, boolean setUidMode) {
+        Integer currentMode = getAppOpMode(appOp);
+        if (currentMode != null && currentMode == mode) {
+            return false;
+        }
+        ApplicationInfo applicationInfo = getApplicationInfo();
+        if (applicationInfo == null) {
+            Log.e(LOG_TAG, "Cannot get ApplicationInfo for package to set app op mode: "
+                    + mPackageName);
+            return false;
+        }
+        int uid = applicationInfo.uid;
+        int packageMode = getPackageAppOpMode(appOp, uid);
+        // The UID mode can't be read, but the raw mode is the UID mode if one is set, and the
+        // package mode otherwise. Setting the UID mode to the default mode unsets it.
+        int previousMode;
+        if (setUidMode) {
+            previousMode = currentMode != packageMode ? currentMode
+                    : AppOpsManager.opToDefaultMode(appOp);
+        } else {
+            previousMode = packageMode;
+        }
+        mBinderCallCount++;
+        setAppOpModeInternal(appOp, uid, mode, setUidMode);
+        // The raw mode depends on both the UID mode and the package mode, so read it again if
+        // needed.
+        mAppOpModes.remove(appOp);
+        if (!setUidMode) {
+            mPackageAppOpModes.put(appOp, mode);
+        }
+        mUndoActions.add(() -> setAppOpModeInternal(appOp, uid, previousMode, setUidMode));
+        return true;
+    }
+
+    private int getPackageAppOpMode(@NonNull String appOp, int uid) {
+        Integer mode = mPackageAppOpModes.get(appOp);
+        if (mode == null) {
+            mBinderCallCount++;
+            List<AppOpsManager.PackageOps> packageOps = mAppOpsManager.getOpsForPackage(uid,
+                    mPackageName, appOp);
+            mode = AppOpsManager.opToDefaultMode(appOp);
+            if (packageOps != null && !packageOps.isEmpty()) {
+                List<AppOpsManager.OpEntry> opEntries = packageOps.get(0).getOps();
+                if (!opEntries.isEmpty()) {
+                    mode = opEntries.get(0).getMode();
+                }
+            }
+            mPackageAppOpModes.put(appOp, mode);
+        }
+        return mode;
+    }
+
+    private void setAppOpModeInternal(@NonNull String appOp, int uid, int mode,
+            boolean setUidMode) {
+        if (setUidMode) {
+            mAppOpsManager.setUidMode(appOp, uid, mode);
+        } else {
+            mAppOpsManager.setMode(appOp, uid, mPackageName, mode);
+        }
+    }
+
+    /**
+     * Get the whitelisted restricted permissions of the application.
+     *
+     * @param whitelistFlags the whitelists to retrieve
+     *
+     * @return the whitelisted restricted permissions
+     */
+    @NonNull
+    public Set<String> getWhitelistedRestrictedPermissions(int whitelistFlags) {
+        mBinderCallCount++;
+        return mPackageManager.getWhitelistedRestrictedPermissions(mPackageName, whitelistFlags);
+    }
+
+    /**
+     * Add a restricted permission to a whitelist of the application.
+     *
+     * @param permission the permission
+     * @param whitelistFlag the whitelist to add to
+     */
+    public void addWhitelistedRestrictedPermission(@NonNull String permission, int whitelistFlag) {
+        mBinderCallCount++;
+        mPackageManager.addWhitelistedRestrictedPermission(mPackageName, permission,
+                whitelistFlag);
+        mUndoActions.add(() -> mPackageManager.removeWhitelistedRestrictedPermission(mPackageName,
+                permission, whitelistFlag));
+    }
+
+    /**
+     * Remove a restricted permission from a whitelist of the application.
+     *
+     * @param permission the permission
+     * @param whitelistFlag the whitelist to remove from
+     */
+    public void removeWhitelistedRestrictedPermission(@NonNull String permission,
+            int whitelistFlag) {
+        mBinderCallCount++;
+        mPackageManager.removeWhitelistedRestrictedPermission(mPackageName, permission,
+                whitelistFlag);
+        mUndoActions.add(() -> mPackageManager.addWhitelistedRestrictedPermission(mPackageName,
+                permission, whitelistFlag));
+    }
+
+    /**
+     * Undo all changes made by this transaction, in reverse order. Failures are logged and don't
+     * stop the remaining changes from being undone.
+     */
+    public void rollback() {
+        Log.w(LOG_TAG, "Rolling back " + mUndoActions.size() + " changes to package: "
+                + mPackageName);
+        for (int i = mUndoActions.size() - 1; i >= 0; i--) {
+            try {
+                mUndoActions.get(i).run();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to roll back change to package: " + mPackageName, e);
+            }
+        }
+        mUndoActions.clear();
+        mPackageInfos.clear();
+        mApplicationInfoLoaded = false;
+        mApplicationInfo = null;
+        mPermissionFlags.clear();
+        mPermissionsGranted.clear();
+        mAppOpModes.clear();
+        mPackageAppOpModes.clear();
+    }
+}
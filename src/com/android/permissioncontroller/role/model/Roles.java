@@ -17,21 +17,41 @@
 package com.android.permissioncontroller.role.model;
 
 import android.content.Context;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.ArrayMap;
+import android.util.Log;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.PrintWriter;
+
 /**
  * Provides access to all the {@link Role} definitions.
  */
 public class Roles {
 
+    private static final String LOG_TAG = Roles.class.getSimpleName();
+
     @NonNull
     private static final Object sLock = new Object();
 
     @Nullable
-    private static ArrayMap<String, Role> sRoles;
+    private static volatile ArrayMap<String, Role> sRoles;
+
+    /**
+     * How long parsing the roles took, or {@code -1} if they are not parsed yet.
+     */
+    @GuardedBy("sLock")
+    private static long sParseMillis = -1;
+
+    /**
+     * Whether the roles were parsed on the main thread, i.e. delayed the process start.
+     */
+    @GuardedBy("sLock")
+    private static boolean sParsedOnMainThread;
 
     private Roles() {}
 
@@ -44,11 +64,39 @@ public class Roles {
      */
     @NonNull
     public static ArrayMap<String, Role> get(@NonNull Context context) {
+        // Roles are only parsed once, so avoid taking the lock on every role binder call after
+        // that.
+        ArrayMap<String, Role> roles = sRoles;
+        if (roles != null) {
+            return roles;
+        }
         synchronized (sLock) {
             if (sRoles == null) {
+                long startMillis = SystemClock.elapsedRealtime();
                 sRoles = new RoleParser(context).parse();
+                sParseMillis = SystemClock.elapsedRealtime() - startMillis;
+                sParsedOnMainThread = Looper.myLooper() == Looper.getMainLooper();
+                Log.i(LOG_TAG, "Parsed " + sRoles.size() + " roles in " + sParseMillis + "ms on "
+                        + Thread.currentThread().getName());
             }
             return sRoles;
         }
     }
+
+    /**
+     * Dump how long parsing the roles took, and whether it happened on the main thread.
+     *
+     * @param writer the {@code PrintWriter} to dump to
+     */
+    public static void dump(@NonNull PrintWriter writer) {
+        synchronized (sLock) {
+            writer.println("Roles:");
+            if (sParseMillis == -1) {
+                writer.println("  not parsed");
+            } else {
+                writer.println("  parseMillis=" + sParseMillis + ", parsedOnMainThread="
+                        + sParsedOnMainThread);
+            }
+        }
+    }
 }
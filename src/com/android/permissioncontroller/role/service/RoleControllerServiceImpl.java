@@ -29,10 +29,13 @@ import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 
 import com.android.permissioncontroller.permission.utils.CollectionUtils;
+import com.android.permissioncontroller.role.model.ResolveInfoCache;
 import com.android.permissioncontroller.role.model.Role;
 import com.android.permissioncontroller.role.model.Roles;
 import com.android.permissioncontroller.role.utils.PackageUtils;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -440,6 +443,13 @@ public class RoleControllerServiceImpl extends RoleControllerService {
         return role.isVisibleAsUser(Process.myUserHandle(), this);
     }
 
+    @Override
+    protected void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter writer,
+            @NonNull String[] args) {
+        Roles.dump(writer);
+        ResolveInfoCache.dump(writer);
+    }
+
     private static boolean checkFlags(int flags, int allowedFlags) {
         if ((flags & allowedFlags) != flags) {
             Log.e(LOG_TAG, "flags is invalid, flags: 0x" + Integer.toHexString(flags)
@@ -22,9 +22,12 @@ import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.os.UserHandle;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.lifecycle.LiveData;
 
@@ -38,6 +41,9 @@ import java.util.List;
 
 /**
  * {@link LiveData} for a list of roles.
+ * <p>
+ * The result for each role is cached while active, so that a change in the holders of a role only
+ * reloads that role.
  */
 public class RoleListLiveData extends AsyncTaskLiveData<List<RoleItem>>
         implements OnRoleHoldersChangedListener {
@@ -50,7 +56,29 @@ public class RoleListLiveData extends AsyncTaskLiveData<List<RoleItem>>
     @NonNull
     private final Context mContext;
 
+    @NonNull
+    private final Object mLock = new Object();
+
+    /**
+     * Whether the next load needs to reload all roles, as opposed to only the changed ones.
+     */
+    @GuardedBy("mLock")
+    private boolean mReloadAll = true;
+
+    @GuardedBy("mLock")
+    @NonNull
+    private final ArraySet<String> mChangedRoleNames = new ArraySet<>();
+
+    /**
+     * Map from role name to its loaded {@link RoleItem}, or {@code null} if it shouldn't be in the
+     * list. Only accessed on the load thread.
+     */
+    @NonNull
+    private final ArrayMap<String, RoleItem> mRoleItems = new ArrayMap<>();
+
     public RoleListLiveData(boolean exclusive, @NonNull UserHandle user, @NonNull Context context) {
+        super(RoleLoadExecutor.get());
+
         mExclusive = exclusive;
         mUser = user;
         mContext = context;
@@ -58,6 +86,10 @@ public class RoleListLiveData extends AsyncTaskLiveData<List<RoleItem>>
 
     @Override
     protected void onActive() {
+        // Anything may have changed while we weren't listening.
+        synchronized (mLock) {
+            mReloadAll = true;
+        }
         loadValue();
 
         RoleManager roleManager = mContext.getSystemService(RoleManager.class);
@@ -73,6 +105,9 @@ public class RoleListLiveData extends AsyncTaskLiveData<List<RoleItem>>
 
     @Override
     public void onRoleHoldersChanged(@NonNull String roleName, @NonNull UserHandle user) {
+        synchronized (mLock) {
+            mChangedRoleNames.add(roleName);
+        }
         loadValue();
     }
 
@@ -80,7 +115,19 @@ public class RoleListLiveData extends AsyncTaskLiveData<List<RoleItem>>
     @Override
     @WorkerThread
     protected List<RoleItem> loadValueInBackground() {
+        boolean reloadAll;
+        ArraySet<String> changedRoleNames;
+        synchronized (mLock) {
+            reloadAll = mReloadAll;
+            mReloadAll = false;
+            changedRoleNames = new ArraySet<>(mChangedRoleNames);
+            mChangedRoleNames.clear();
+        }
+
         ArrayMap<String, Role> roles = Roles.get(mContext);
+        if (reloadAll) {
+            mRoleItems.clear();
+        }
 
         List<RoleItem> roleItems = new ArrayList<>();
         RoleManager roleManager = mContext.getSystemService(RoleManager.class);
@@ -92,39 +139,54 @@ public class RoleListLiveData extends AsyncTaskLiveData<List<RoleItem>>
                 continue;
             }
 
-            if (!role.isAvailableAsUser(mUser, mContext)) {
-                continue;
+            String roleName = role.getName();
+            RoleItem roleItem;
+            if (mRoleItems.containsKey(roleName) && !changedRoleNames.contains(roleName)) {
+                roleItem = mRoleItems.get(roleName);
+            } else {
+                roleItem = loadRoleItem(role, roleManager);
+                mRoleItems.put(roleName, roleItem);
             }
-
-            if (!role.isVisibleAsUser(mUser, mContext)) {
-                continue;
+            if (roleItem != null) {
+                roleItems.add(roleItem);
             }
+        }
 
-            if (mExclusive && role.getQualifyingPackagesAsUser(mUser, mContext).isEmpty()) {
-                continue;
-            }
+        return roleItems;
+    }
 
-            List<ApplicationInfo> holderApplicationInfos = new ArrayList<>();
-            List<String> holderPackageNames = roleManager.getRoleHoldersAsUser(role.getName(),
-                    mUser);
-            int holderPackageNamesSize = holderPackageNames.size();
-            for (int holderPackageNamesIndex = 0; holderPackageNamesIndex < holderPackageNamesSize;
-                    holderPackageNamesIndex++) {
-                String holderPackageName = holderPackageNames.get(holderPackageNamesIndex);
-
-                ApplicationInfo holderApplicationInfo = PackageUtils.getApplicationInfoAsUser(
-                        holderPackageName, mUser, mContext);
-                if (holderApplicationInfo == null) {
-                    Log.w(LOG_TAG, "Cannot get ApplicationInfo for application, package name: "
-                            + holderPackageName + ", user id: " + mUser.getIdentifier());
-                    continue;
-                }
-                holderApplicationInfos.add(holderApplicationInfo);
-            }
+    @Nullable
+    @WorkerThread
+    private RoleItem loadRoleItem(@NonNull Role role, @NonNull RoleManager roleManager) {
+        if (!role.isAvailableAsUser(mUser, mContext)) {
+            return null;
+        }
 
-            roleItems.add(new RoleItem(role, holderApplicationInfos));
+        if (!role.isVisibleAsUser(mUser, mContext)) {
+            return null;
         }
 
-        return roleItems;
+        if (mExclusive && role.getQualifyingPackagesAsUser(mUser, mContext).isEmpty()) {
+            return null;
+        }
+
+        List<ApplicationInfo> holderApplicationInfos = new ArrayList<>();
+        List<String> holderPackageNames = roleManager.getRoleHoldersAsUser(role.getName(), mUser);
+        int holderPackageNamesSize = holderPackageNames.size();
+        for (int holderPackageNamesIndex = 0; holderPackageNamesIndex < holderPackageNamesSize;
+                holderPackageNamesIndex++) {
+            String holderPackageName = holderPackageNames.get(holderPackageNamesIndex);
+
+            ApplicationInfo holderApplicationInfo = PackageUtils.getApplicationInfoAsUser(
+                    holderPackageName, mUser, mContext);
+            if (holderApplicationInfo == null) {
+                Log.w(LOG_TAG, "Cannot get ApplicationInfo for application, package name: "
+                        + holderPackageName + ", user id: " + mUser.getIdentifier());
+                continue;
+            }
+            holderApplicationInfos.add(holderApplicationInfo);
+        }
+
+        return new RoleItem(role, holderApplicationInfos);
     }
 }
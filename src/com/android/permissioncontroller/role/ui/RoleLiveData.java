@@ -25,6 +25,7 @@ import android.util.Log;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.lifecycle.LiveData;
 
@@ -34,9 +35,13 @@ import com.android.permissioncontroller.role.utils.PackageUtils;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * {@link LiveData} for a role.
+ * <p>
+ * The visible qualifying applications are cached while active, so that a change in the holders of
+ * the role doesn't reload them.
  */
 public class RoleLiveData extends AsyncTaskLiveData<List<Pair<ApplicationInfo, Boolean>>>
         implements OnRoleHoldersChangedListener {
@@ -50,7 +55,21 @@ public class RoleLiveData extends AsyncTaskLiveData<List<Pair<ApplicationInfo, B
     @NonNull
     private final Context mContext;
 
+    /**
+     * Whether the next load needs to reload the qualifying applications, as opposed to only the
+     * role holders.
+     */
+    private volatile boolean mReloadQualifyingApplications = true;
+
+    /**
+     * The visible qualifying applications. Only accessed on the load thread.
+     */
+    @Nullable
+    private List<ApplicationInfo> mQualifyingApplicationInfos;
+
     public RoleLiveData(@NonNull Role role, @NonNull UserHandle user, @NonNull Context context) {
+        super(RoleLoadExecutor.get());
+
         mRole = role;
         mUser = user;
         mContext = context;
@@ -58,6 +77,8 @@ public class RoleLiveData extends AsyncTaskLiveData<List<Pair<ApplicationInfo, B
 
     @Override
     protected void onActive() {
+        // Anything may have changed while we weren't listening.
+        mReloadQualifyingApplications = true;
         loadValue();
 
         RoleManager roleManager = mContext.getSystemService(RoleManager.class);
@@ -72,6 +93,10 @@ public class RoleLiveData extends AsyncTaskLiveData<List<Pair<ApplicationInfo, B
 
     @Override
     public void onRoleHoldersChanged(@NonNull String roleName, @NonNull UserHandle user) {
+        // We are notified about all roles of the user.
+        if (!Objects.equals(roleName, mRole.getName())) {
+            return;
+        }
         loadValue();
     }
 
@@ -81,8 +106,29 @@ public class RoleLiveData extends AsyncTaskLiveData<List<Pair<ApplicationInfo, B
         RoleManager roleManager = mContext.getSystemService(RoleManager.class);
         List<String> holderPackageNames = roleManager.getRoleHoldersAsUser(mRole.getName(), mUser);
 
-        List<String> qualifyingPackageNames = mRole.getQualifyingPackagesAsUser(mUser, mContext);
+        if (mReloadQualifyingApplications || mQualifyingApplicationInfos == null) {
+            mReloadQualifyingApplications = false;
+            mQualifyingApplicationInfos = loadQualifyingApplicationInfos();
+        }
+
         List<Pair<ApplicationInfo, Boolean>> qualifyingApplications = new ArrayList<>();
+        int qualifyingApplicationInfosSize = mQualifyingApplicationInfos.size();
+        for (int i = 0; i < qualifyingApplicationInfosSize; i++) {
+            ApplicationInfo qualifyingApplicationInfo = mQualifyingApplicationInfos.get(i);
+
+            boolean isHolderApplication = holderPackageNames.contains(
+                    qualifyingApplicationInfo.packageName);
+            qualifyingApplications.add(new Pair<>(qualifyingApplicationInfo, isHolderApplication));
+        }
+
+        return qualifyingApplications;
+    }
+
+    @NonNull
+    @WorkerThread
+    private List<ApplicationInfo> loadQualifyingApplicationInfos() {
+        List<String> qualifyingPackageNames = mRole.getQualifyingPackagesAsUser(mUser, mContext);
+        List<ApplicationInfo> qualifyingApplicationInfos = new ArrayList<>();
         int qualifyingPackageNamesSize = qualifyingPackageNames.size();
         for (int i = 0; i < qualifyingPackageNamesSize; i++) {
             String qualifyingPackageName = qualifyingPackageNames.get(i);
@@ -97,10 +143,8 @@ public class RoleLiveData extends AsyncTaskLiveData<List<Pair<ApplicationInfo, B
             if (!mRole.isApplicationVisibleAsUser(qualifyingApplicationInfo, mUser, mContext)) {
                 continue;
             }
-            boolean isHolderApplication = holderPackageNames.contains(qualifyingPackageName);
-            qualifyingApplications.add(new Pair<>(qualifyingApplicationInfo, isHolderApplication));
+            qualifyingApplicationInfos.add(qualifyingApplicationInfo);
         }
-
-        return qualifyingApplications;
+        return qualifyingApplicationInfos;
     }
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.role.ui;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code Executor} for loading role {@code LiveData}s, so that they don't queue up behind (or
+ * hold up) other work on the process-wide {@code AsyncTask} queue.
+ * <p>
+ * It has a single thread, so that loads of the same {@code LiveData} never run concurrently.
+ */
+final class RoleLoadExecutor {
+
+    private static final long KEEP_ALIVE_MILLIS = 10 * 1000;
+
+    @NonNull
+    private static final Executor sExecutor;
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_MILLIS,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, RoleLoadExecutor.class.getSimpleName()));
+        executor.allowCoreThreadTimeOut(true);
+        sExecutor = executor;
+    }
+
+    private RoleLoadExecutor() {}
+
+    /**
+     * Get the {@code Executor} for loading role {@code LiveData}s.
+     *
+     * @return the {@code Executor}
+     */
+    @NonNull
+    static Executor get() {
+        return sExecutor;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.incident
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.net.Uri
+import android.os.IncidentManager
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import com.google.protobuf.ByteString
+import com.google.protobuf.CodedOutputStream
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.mock
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import org.mockito.Mockito.`when` as whenever
+
+@RunWith(AndroidJUnit4::class)
+class ReportDetailsTest {
+    private val context = mock(Context::class.java)
+    private val incidentManager = mock(IncidentManager::class.java)
+    private val report = mock(IncidentManager.IncidentReport::class.java)
+    private val uri = Uri.parse("content://android.os.IncidentManager/pending")
+
+    private var reportBytes = ByteArray(0)
+    private var numOpens = 0
+
+    @Before
+    fun initSystem() {
+        whenever(context.getSystemService(IncidentManager::class.java)).thenReturn(
+                incidentManager)
+        whenever(incidentManager.getIncidentReport(any())).thenReturn(report)
+        whenever(report.inputStream).thenAnswer {
+            numOpens++
+            ByteArrayInputStream(reportBytes)
+        }
+    }
+
+    private fun encodePng(width: Int, height: Int): ByteString {
+        val output = ByteArrayOutputStream()
+        Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+                .compress(Bitmap.CompressFormat.PNG, 100, output)
+        return ByteString.copyFrom(output.toByteArray())
+    }
+
+    private fun setReport(write: (CodedOutputStream) -> Unit) {
+        val output = ByteArrayOutputStream()
+        val codedOutput = CodedOutputStream.newInstance(output)
+        write(codedOutput)
+        codedOutput.flush()
+        reportBytes = output.toByteArray()
+    }
+
+    private fun imagesSection(vararg images: ByteString): RestrictedImagesDumpProto {
+        return RestrictedImagesDumpProto.newBuilder()
+                .addSets(RestrictedImageSetProto.newBuilder()
+                        .setCategory("test")
+                        .addAllImages(images.map {
+                            RestrictedImageProto.newBuilder()
+                                    .setMimeType("image/png")
+                                    .setImageData(it)
+                                    .build()
+                        }))
+                .build()
+    }
+
+    @Test
+    fun parseRecordsReasonsAndImages() {
+        setReport {
+            it.writeMessage(IncidentMinimal.HEADER_FIELD_NUMBER,
+                    IncidentHeaderProto.newBuilder().setReason("reason").build())
+            it.writeMessage(IncidentMinimal.RESTRICTED_IMAGES_SECTION_FIELD_NUMBER,
+                    imagesSection(encodePng(4, 4), encodePng(8, 8)))
+        }
+
+        val details = ReportDetails.parseIncidentReport(context, uri)
+
+        assertThat(details.reasons).containsExactly("reason")
+        assertThat(details.imageCount).isEqualTo(2)
+    }
+
+    @Test
+    fun fieldsOfUnexpectedWireTypeAreSkipped() {
+        setReport {
+            it.writeUInt64(IncidentMinimal.HEADER_FIELD_NUMBER, 1000)
+            it.writeUInt64(IncidentMinimal.RESTRICTED_IMAGES_SECTION_FIELD_NUMBER, 1000)
+            it.writeMessage(IncidentMinimal.RESTRICTED_IMAGES_SECTION_FIELD_NUMBER,
+                    imagesSection(encodePng(4, 4)))
+        }
+
+        val details = ReportDetails.parseIncidentReport(context, uri)
+
+        assertThat(details.reasons).isEmpty()
+        assertThat(details.imageCount).isEqualTo(1)
+    }
+
+    @Test
+    fun decodeImageReadsReportOnceAndCachesImage() {
+        setReport {
+            it.writeMessage(IncidentMinimal.RESTRICTED_IMAGES_SECTION_FIELD_NUMBER,
+                    imagesSection(encodePng(4, 4), encodePng(8, 8)))
+        }
+        val details = ReportDetails.parseIncidentReport(context, uri)
+        numOpens = 0
+
+        val image = details.decodeImage(context, 1, 8, 8)
+
+        assertThat(numOpens).isEqualTo(1)
+        assertThat(image!!.width).isEqualTo(8)
+        assertThat(details.getCachedImage(1)).isSameInstanceAs(image)
+        assertThat(details.decodeImage(context, 1, 8, 8)).isSameInstanceAs(image)
+        assertThat(numOpens).isEqualTo(1)
+    }
+
+    @Test
+    fun failedImageIsNotDecodedAgain() {
+        setReport {
+            it.writeMessage(IncidentMinimal.RESTRICTED_IMAGES_SECTION_FIELD_NUMBER,
+                    imagesSection(ByteString.copyFromUtf8("not an image"), encodePng(4, 4)))
+        }
+        val details = ReportDetails.parseIncidentReport(context, uri)
+        numOpens = 0
+
+        assertThat(details.decodeImage(context, 0, 4, 4)).isNull()
+        assertThat(details.decodeImage(context, 0, 4, 4)).isNull()
+
+        assertThat(numOpens).isEqualTo(1)
+        assertThat(details.hasImageFailed(0)).isTrue()
+        assertThat(details.hasImageFailed(1)).isFalse()
+    }
+
+    @Test
+    fun decodeImageDownsamplesToDisplaySize() {
+        setReport {
+            it.writeMessage(IncidentMinimal.RESTRICTED_IMAGES_SECTION_FIELD_NUMBER,
+                    imagesSection(encodePng(64, 64)))
+        }
+        val details = ReportDetails.parseIncidentReport(context, uri)
+
+        val image = details.decodeImage(context, 0, 16, 16)
+
+        assertThat(image!!.width).isEqualTo(16)
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.data
+
+import android.content.ComponentCallbacks2
+import android.content.pm.PackageInfo
+import android.content.pm.PackageManager
+import android.content.pm.PackageManager.GET_PERMISSIONS
+import android.os.UserHandle
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.dx.mockito.inline.extended.ExtendedMockito.mockitoSession
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.Mockito.mock
+import org.mockito.MockitoSession
+import org.mockito.quality.Strictness.LENIENT
+import org.mockito.Mockito.`when` as whenever
+
+@RunWith(AndroidJUnit4::class)
+class InstalledPackagesCacheTest {
+    private val packageManager = mock(PackageManager::class.java)
+    private val user = UserHandle.of(0)
+    private val otherUser = UserHandle.of(10)
+
+    private var mockitoSession: MockitoSession? = null
+
+    private var numQueries = 0
+    private var onQuery: () -> Unit = {}
+
+    @Before
+    fun initSystem() {
+        mockitoSession = mockitoSession().mockStatic(PermissionControllerApplication::class.java)
+                .strictness(LENIENT).startMocking()
+        whenever(PermissionControllerApplication.get()).thenReturn(sharedApplication)
+
+        whenever(sharedApplication.packageManager).thenReturn(packageManager)
+        whenever(packageManager.getInstalledPackagesAsUser(anyInt(), anyInt())).thenAnswer {
+            numQueries++
+            onQuery()
+            mutableListOf(PackageInfo().apply {
+                packageName = "pkg.of.user.${it.arguments[1]}"
+                requestedPermissions = arrayOf("permission")
+            })
+        }
+
+        InstalledPackagesCache.invalidateAll()
+        numQueries = 0
+        onQuery = {}
+    }
+
+    @After
+    fun finishMocking() {
+        mockitoSession?.finishMocking()
+    }
+
+    @Test
+    fun repeatedQueryIsServedFromCache() {
+        InstalledPackagesCache.getInstalledPackages(user, GET_PERMISSIONS)
+        InstalledPackagesCache.getInstalledPackages(user, GET_PERMISSIONS)
+
+        assertThat(numQueries).isEqualTo(1)
+    }
+
+    @Test
+    fun callersGetTheirOwnPackageInfos() {
+        val first = InstalledPackagesCache.getInstalledPackages(user, GET_PERMISSIONS)
+        first[0].requestedPermissions[0] = "changed"
+        first[0].packageName = "changed"
+
+        val second = InstalledPackagesCache.getInstalledPackages(user, GET_PERMISSIONS)
+
+        assertThat(numQueries).isEqualTo(1)
+        assertThat(second[0]).isNotSameInstanceAs(first[0])
+        assertThat(second[0].packageName).isEqualTo("pkg.of.user.0")
+        assertThat(second[0].requestedPermissions).asList().containsExactly("permission")
+    }
+
+    @Test
+    fun invalidateUserOnlyDropsThatUser() {
+        InstalledPackagesCache.getInstalledPackages(user, GET_PERMISSIONS)
+        InstalledPackagesCache.getInstalledPackages(otherUser, GET_PERMISSIONS)
+
+        InstalledPackagesCache.invalidateUser(otherUser)
+        InstalledPackagesCache.getInstalledPackages(user, GET_PERMISSIONS)
+        InstalledPackagesCache.getInstalledPackages(otherUser, GET_PERMISSIONS)
+
+        assertThat(numQueries).isEqualTo(3)
+    }
+
+    @Test
+    fun queryInFlightDuringInvalidationIsNotCached() {
+        onQuery = {
+            onQuery = {}
+            InstalledPackagesCache.invalidateUser(user)
+        }
+        InstalledPackagesCache.getInstalledPackages(user, GET_PERMISSIONS)
+        InstalledPackagesCache.getInstalledPackages(user, GET_PERMISSIONS)
+
+        assertThat(numQueries).isEqualTo(2)
+    }
+
+    @Test
+    fun memoryTrimDropsSnapshots() {
+        InstalledPackagesCache.getInstalledPackages(user, GET_PERMISSIONS)
+
+        InstalledPackagesCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+        InstalledPackagesCache.getInstalledPackages(user, GET_PERMISSIONS)
+
+        assertThat(numQueries).isEqualTo(2)
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.data
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageManager
+import android.content.res.Configuration
+import android.graphics.Bitmap
+import android.graphics.drawable.BitmapDrawable
+import android.os.UserHandle
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.dx.mockito.inline.extended.ExtendedMockito.mockitoSession
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.permission.utils.Utils
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.mock
+import org.mockito.MockitoSession
+import org.mockito.quality.Strictness.LENIENT
+import org.mockito.Mockito.`when` as whenever
+
+@RunWith(AndroidJUnit4::class)
+class PackageIconLabelCacheTest {
+    private val application = sharedApplication
+
+    /** Use a unique test package name for each test */
+    private val TEST_PKG_NAME: String
+        get() = Thread.currentThread().stackTrace
+                .filter { it.className == this::class.java.name }[1].methodName
+
+    private val user = UserHandle.of(0)
+
+    private var mockitoSession: MockitoSession? = null
+
+    private var numIconLoads = 0
+    private var numLabelLoads = 0
+
+    @Before
+    fun initSystem() {
+        mockitoSession = mockitoSession().mockStatic(PermissionControllerApplication::class.java)
+                .mockStatic(Utils::class.java).strictness(LENIENT).startMocking()
+
+        whenever(PermissionControllerApplication.get()).thenReturn(application)
+
+        val userContext = mock(Context::class.java)
+        val packageManager = mock(PackageManager::class.java)
+        whenever(Utils.getUserContext(any(), any())).thenReturn(userContext)
+        whenever(userContext.packageManager).thenReturn(packageManager)
+        whenever(packageManager.getApplicationInfo(anyString(), anyInt())).thenAnswer {
+            ApplicationInfo().apply { packageName = it.arguments[0] as String }
+        }
+
+        whenever(Utils.getBadgedIcon(any(), any())).thenAnswer {
+            numIconLoads++
+            BitmapDrawable(null, Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888))
+        }
+        whenever(Utils.getFullAppLabel(any(), any())).thenAnswer {
+            numLabelLoads++
+            "label $numLabelLoads"
+        }
+
+        PackageIconLabelCache.invalidateAll()
+        numIconLoads = 0
+        numLabelLoads = 0
+    }
+
+    @After
+    fun finishMocking() {
+        mockitoSession?.finishMocking()
+    }
+
+    @Test
+    fun cachedIconIsNotSharedBetweenCallers() {
+        val first = PackageIconLabelCache.getIcon(application, TEST_PKG_NAME, user)!!
+        val second = PackageIconLabelCache.getIcon(application, TEST_PKG_NAME, user)!!
+        val peeked = PackageIconLabelCache.peekIcon(TEST_PKG_NAME, user)!!
+
+        first.alpha = 0
+        first.setBounds(0, 0, 10, 10)
+
+        assertThat(numIconLoads).isEqualTo(1)
+        assertThat(second).isNotSameInstanceAs(first)
+        assertThat(peeked).isNotSameInstanceAs(first)
+        assertThat(second.alpha).isEqualTo(255)
+        assertThat(peeked.bounds.isEmpty).isTrue()
+    }
+
+    @Test
+    fun packageUpdateDropsIconAndLabel() {
+        PackageIconLabelCache.getIcon(application, TEST_PKG_NAME, user)
+        PackageIconLabelCache.getLabel(application, TEST_PKG_NAME, user)
+
+        PackageIconLabelCache.onPackageUpdate(TEST_PKG_NAME)
+
+        assertThat(PackageIconLabelCache.peekIcon(TEST_PKG_NAME, user)).isNull()
+        assertThat(PackageIconLabelCache.getLabel(application, TEST_PKG_NAME, user))
+                .isEqualTo("label 2")
+    }
+
+    @Test
+    fun configurationChangeDropsLabels() {
+        assertThat(PackageIconLabelCache.getLabel(application, TEST_PKG_NAME, user))
+                .isEqualTo("label 1")
+        assertThat(PackageIconLabelCache.getLabel(application, TEST_PKG_NAME, user))
+                .isEqualTo("label 1")
+
+        PackageIconLabelCache.onConfigurationChanged(Configuration())
+
+        assertThat(PackageIconLabelCache.getLabel(application, TEST_PKG_NAME, user))
+                .isEqualTo("label 2")
+    }
+
+    @Test
+    fun memoryTrimDropsIcons() {
+        PackageIconLabelCache.getIcon(application, TEST_PKG_NAME, user)
+
+        PackageIconLabelCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+        assertThat(PackageIconLabelCache.peekIcon(TEST_PKG_NAME, user)).isNotNull()
+
+        PackageIconLabelCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+        assertThat(PackageIconLabelCache.peekIcon(TEST_PKG_NAME, user)).isNull()
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.data
+
+import android.content.Context
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageInfo
+import android.content.pm.PackageManager
+import android.content.pm.PermissionInfo
+import android.os.SystemClock
+import android.os.UserHandle
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.dx.mockito.inline.extended.ExtendedMockito.mockitoSession
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.permission.utils.Utils
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.mock
+import org.mockito.MockitoSession
+import org.mockito.quality.Strictness.LENIENT
+import kotlin.concurrent.thread
+import org.mockito.Mockito.`when` as whenever
+
+@RunWith(AndroidJUnit4::class)
+class PackageLookupCacheTest {
+    companion object {
+        private const val TIMEOUT_MILLIS = 5000L
+    }
+
+    /** Use a unique test package name for each test */
+    private val TEST_PKG_NAME: String
+        get() = Thread.currentThread().stackTrace
+                .filter { it.className == this::class.java.name }[1].methodName
+
+    private val packageManager = mock(PackageManager::class.java)
+    private val user = UserHandle.of(0)
+
+    private var mockitoSession: MockitoSession? = null
+
+    @Volatile
+    private var numCalls = 0
+    @Volatile
+    private var onCall: () -> Unit = {}
+
+    @Before
+    fun initSystem() {
+        mockitoSession = mockitoSession().mockStatic(PermissionControllerApplication::class.java)
+                .mockStatic(Utils::class.java).strictness(LENIENT).startMocking()
+        whenever(PermissionControllerApplication.get()).thenReturn(sharedApplication)
+
+        val userContext = mock(Context::class.java)
+        whenever(Utils.getUserContext(any(), any())).thenReturn(userContext)
+        whenever(userContext.packageManager).thenReturn(packageManager)
+        whenever(sharedApplication.packageManager).thenReturn(packageManager)
+
+        whenever(packageManager.getPackageInfo(anyString(), anyInt())).thenAnswer {
+            numCalls++
+            onCall()
+            PackageInfo().apply { packageName = it.arguments[0] as String }
+        }
+        whenever(packageManager.getApplicationInfo(anyString(), anyInt())).thenAnswer {
+            numCalls++
+            ApplicationInfo().apply { packageName = it.arguments[0] as String }
+        }
+        whenever(packageManager.getPermissionInfo(anyString(), anyInt())).thenAnswer {
+            numCalls++
+            PermissionInfo().apply { name = it.arguments[0] as String }
+        }
+    }
+
+    @After
+    fun finishMocking() {
+        mockitoSession?.finishMocking()
+    }
+
+    @Test
+    fun concurrentPackageInfoLookupsShareOneCall() {
+        val pkgName = TEST_PKG_NAME
+        val coalescedBefore = PackageLookupCache.dump().coalesced
+        var otherResult: PackageInfo? = null
+        var otherThread: Thread? = null
+
+        onCall = {
+            onCall = {}
+            otherThread = thread {
+                otherResult = PackageLookupCache.getPackageInfo(pkgName, 0, user)
+            }
+
+            // Only return once the other lookup waits for this one
+            val deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS
+            while (PackageLookupCache.dump().coalesced == coalescedBefore &&
+                    SystemClock.uptimeMillis() < deadline) {
+                Thread.sleep(10)
+            }
+        }
+        val result = PackageLookupCache.getPackageInfo(pkgName, 0, user)
+        otherThread!!.join(TIMEOUT_MILLIS)
+
+        assertThat(numCalls).isEqualTo(1)
+        assertThat(otherResult).isSameInstanceAs(result)
+    }
+
+    @Test
+    fun packageInfoIsNotKeptOnceLoaded() {
+        PackageLookupCache.getPackageInfo(TEST_PKG_NAME, 0, user)
+        PackageLookupCache.getPackageInfo(TEST_PKG_NAME, 0, user)
+
+        assertThat(numCalls).isEqualTo(2)
+    }
+
+    @Test
+    fun applicationInfoIsKeptUntilPackageUpdate() {
+        PackageLookupCache.getApplicationInfo(TEST_PKG_NAME, 0, user)
+        PackageLookupCache.getApplicationInfo(TEST_PKG_NAME, 0, user)
+        assertThat(numCalls).isEqualTo(1)
+
+        PackageLookupCache.onPackageUpdate("$TEST_PKG_NAME.other")
+        PackageLookupCache.getApplicationInfo(TEST_PKG_NAME, 0, user)
+        assertThat(numCalls).isEqualTo(1)
+
+        PackageLookupCache.onPackageUpdate(TEST_PKG_NAME)
+        PackageLookupCache.getApplicationInfo(TEST_PKG_NAME, 0, user)
+        assertThat(numCalls).isEqualTo(2)
+    }
+
+    @Test
+    fun anyPackageUpdateDropsPermissionInfos() {
+        val permName = "$TEST_PKG_NAME.permission"
+        PackageLookupCache.getPermissionInfo(permName)
+        PackageLookupCache.getPermissionInfo(permName)
+        assertThat(numCalls).isEqualTo(1)
+
+        // Any package might define the permission
+        PackageLookupCache.onPackageUpdate("$TEST_PKG_NAME.other")
+        PackageLookupCache.getPermissionInfo(permName)
+
+        assertThat(numCalls).isEqualTo(2)
+    }
+
+    @Test
+    fun differentFlagsAreSeparateLookups() {
+        PackageLookupCache.getApplicationInfo(TEST_PKG_NAME, 0, user)
+        PackageLookupCache.getApplicationInfo(TEST_PKG_NAME, PackageManager.MATCH_ALL, user)
+
+        assertThat(numCalls).isEqualTo(2)
+    }
+}
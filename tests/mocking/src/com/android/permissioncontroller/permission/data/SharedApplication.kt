@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.data
+
+import com.android.permissioncontroller.PermissionControllerApplication
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.`when` as whenever
+
+/**
+ * Process-wide objects, e.g. the caches, keep the application they were first used with. Hence all
+ * tests use the same application mock.
+ */
+val sharedApplication: PermissionControllerApplication =
+    mock(PermissionControllerApplication::class.java).also {
+        // Used to register the package broadcast receiver
+        whenever(it.applicationContext).thenReturn(it)
+    }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.data
+
+import android.app.usage.UsageStats
+import android.app.usage.UsageStatsManager
+import android.app.usage.UsageStatsManager.INTERVAL_DAILY
+import android.content.BroadcastReceiver
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.os.UserHandle
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.dx.mockito.inline.extended.ExtendedMockito.mockitoSession
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.permission.utils.Utils
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyLong
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.mockingDetails
+import org.mockito.MockitoSession
+import org.mockito.quality.Strictness.LENIENT
+import org.mockito.Mockito.`when` as whenever
+
+@RunWith(AndroidJUnit4::class)
+class UsageStatsStoreTest {
+    private val user = UserHandle.of(0)
+    private val otherUser = UserHandle.of(10)
+
+    private var mockitoSession: MockitoSession? = null
+
+    private var numQueries = 0
+
+    @Before
+    fun initSystem() {
+        mockitoSession = mockitoSession().mockStatic(PermissionControllerApplication::class.java)
+                .mockStatic(Utils::class.java).strictness(LENIENT).startMocking()
+        whenever(PermissionControllerApplication.get()).thenReturn(sharedApplication)
+
+        val userContext = mock(Context::class.java)
+        val statsManager = mock(UsageStatsManager::class.java)
+        whenever(Utils.getUserContext(any(), any())).thenReturn(userContext)
+        whenever(userContext.getSystemService(UsageStatsManager::class.java)).thenReturn(
+                statsManager)
+        whenever(statsManager.queryUsageStats(anyInt(), anyLong(), anyLong())).thenAnswer {
+            numQueries++
+            val stats = mock(UsageStats::class.java)
+            whenever(stats.packageName).thenReturn("pkg")
+            whenever(stats.firstTimeStamp).thenReturn(it.arguments[1] as Long)
+            whenever(stats.lastTimeStamp).thenReturn(it.arguments[2] as Long)
+            listOf(stats)
+        }
+
+        UsageStatsStore.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+        numQueries = 0
+    }
+
+    @After
+    fun finishMocking() {
+        mockitoSession?.finishMocking()
+    }
+
+    private fun getUsageStats(user: UserHandle, beginTime: Long, endTime: Long) {
+        UsageStatsStore.getUsageStats(user, INTERVAL_DAILY, beginTime, endTime)
+    }
+
+    @Test
+    fun coveredWindowIsAHit() {
+        getUsageStats(user, 0, 1000)
+        val hits = UsageStatsStore.dump().hits
+        val misses = UsageStatsStore.dump().misses
+
+        getUsageStats(user, 100, 900)
+
+        assertThat(numQueries).isEqualTo(1)
+        assertThat(UsageStatsStore.dump().hits).isEqualTo(hits + 1)
+        assertThat(UsageStatsStore.dump().misses).isEqualTo(misses)
+    }
+
+    @Test
+    fun fetchingTheTailIsAMiss() {
+        getUsageStats(user, 0, 1000)
+        val hits = UsageStatsStore.dump().hits
+        val misses = UsageStatsStore.dump().misses
+
+        getUsageStats(user, 0, 2000)
+
+        assertThat(numQueries).isEqualTo(2)
+        assertThat(UsageStatsStore.dump().hits).isEqualTo(hits)
+        assertThat(UsageStatsStore.dump().misses).isEqualTo(misses + 1)
+    }
+
+    @Test
+    fun fetchingHeadAndTailIsASingleMiss() {
+        getUsageStats(user, 1000, 2000)
+        val misses = UsageStatsStore.dump().misses
+
+        getUsageStats(user, 0, 3000)
+
+        assertThat(numQueries).isEqualTo(3)
+        assertThat(UsageStatsStore.dump().misses).isEqualTo(misses + 1)
+    }
+
+    @Test
+    fun userRemovalDropsStatsOfUser() {
+        getUsageStats(user, 0, 1000)
+        getUsageStats(otherUser, 0, 1000)
+
+        val userRemovedReceiver = mockingDetails(sharedApplication).invocations
+                .filter { it.method.name == "registerReceiver" }
+                .filter { (it.arguments[1] as IntentFilter).hasAction(Intent.ACTION_USER_REMOVED) }
+                .map { it.arguments[0] as BroadcastReceiver }
+                .single { it.javaClass.enclosingClass == UsageStatsStore::class.java }
+        userRemovedReceiver.onReceive(sharedApplication,
+                Intent(Intent.ACTION_USER_REMOVED).putExtra(Intent.EXTRA_USER, otherUser))
+
+        getUsageStats(user, 0, 1000)
+        getUsageStats(otherUser, 0, 1000)
+
+        assertThat(numQueries).isEqualTo(3)
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.model
+
+import android.app.AppOpsManager
+import android.app.AppOpsManager.HistoricalOps
+import android.app.AppOpsManager.OPSTR_CAMERA
+import android.app.AppOpsManager.OPSTR_FINE_LOCATION
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.os.Process.INVALID_UID
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.mock
+import java.util.function.Consumer
+import org.mockito.Mockito.`when` as whenever
+
+@RunWith(AndroidJUnit4::class)
+class AppOpUsageHistoryTest {
+    private val context = mock(Context::class.java)
+    private val appOpsManager = mock(AppOpsManager::class.java)
+    private val history = AppOpUsageHistory.getInstance()
+
+    private var numFetches = 0
+
+    @Before
+    fun initSystem() {
+        whenever(context.applicationContext).thenReturn(context)
+        whenever(context.getSystemService(AppOpsManager::class.java)).thenReturn(appOpsManager)
+        doAnswer {
+            numFetches++
+            @Suppress("UNCHECKED_CAST")
+            (it.arguments[2] as Consumer<HistoricalOps?>).accept(null)
+        }.`when`(appOpsManager).getHistoricalOps(any(), any(), any())
+
+        history.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+        numFetches = 0
+    }
+
+    @Test
+    fun historyIsKeptPerFilter() {
+        val end = history.update(context, 1000, "pkg", listOf(OPSTR_CAMERA), 0)
+
+        assertThat(history.covers(1000, "pkg", listOf(OPSTR_CAMERA), 0, end)).isTrue()
+        assertThat(history.covers(INVALID_UID, null, listOf(OPSTR_CAMERA), 0, end)).isFalse()
+        assertThat(history.covers(1000, "other.pkg", listOf(OPSTR_CAMERA), 0, end)).isFalse()
+    }
+
+    @Test
+    fun addingAnOpOnlyFetchesTheNewOp() {
+        history.update(context, INVALID_UID, null, listOf(OPSTR_CAMERA), 0)
+        assertThat(numFetches).isEqualTo(1)
+
+        val end = history.update(context, INVALID_UID, null,
+                listOf(OPSTR_CAMERA, OPSTR_FINE_LOCATION), 1000)
+
+        // The new op, and for the covered op the part of the bucket the window begins in and at
+        // most the tail since the first update
+        assertThat(numFetches).isAtMost(3)
+        assertThat(history.covers(INVALID_UID, null, listOf(OPSTR_FINE_LOCATION), 1000, end))
+                .isTrue()
+        // The covered op was not fetched again, so it still covers its older span
+        assertThat(history.covers(INVALID_UID, null, listOf(OPSTR_CAMERA), 0, end)).isTrue()
+        assertThat(history.covers(INVALID_UID, null, listOf(OPSTR_CAMERA), 1000, end)).isTrue()
+    }
+
+    @Test
+    fun olderWindowOnlyFetchesTheHead() {
+        val firstEnd = history.update(context, INVALID_UID, null, listOf(OPSTR_CAMERA), 1000)
+        assertThat(history.covers(INVALID_UID, null, listOf(OPSTR_CAMERA), 0, firstEnd))
+                .isFalse()
+
+        val end = history.update(context, INVALID_UID, null, listOf(OPSTR_CAMERA), 0)
+
+        assertThat(numFetches).isAtMost(3)
+        assertThat(history.covers(INVALID_UID, null, listOf(OPSTR_CAMERA), 0, end)).isTrue()
+    }
+
+    @Test
+    fun memoryTrimDropsHistory() {
+        val end = history.update(context, INVALID_UID, null, listOf(OPSTR_CAMERA), 0)
+
+        history.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+        assertThat(history.covers(INVALID_UID, null, listOf(OPSTR_CAMERA), 0, end)).isTrue()
+
+        history.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+        assertThat(history.covers(INVALID_UID, null, listOf(OPSTR_CAMERA), 0, end)).isFalse()
+    }
+
+    @Test
+    fun windowEndingAfterTheLastUpdateIsNotCovered() {
+        val end = history.update(context, INVALID_UID, null, listOf(OPSTR_CAMERA), 0)
+
+        assertThat(history.covers(INVALID_UID, null, listOf(OPSTR_CAMERA), 0, end + 1)).isFalse()
+    }
+
+    @Test
+    fun windowEndsWithinABucketAreNotCovered() {
+        val end = history.update(context, INVALID_UID, null, listOf(OPSTR_CAMERA), 0)
+
+        // The usages of the window would have to be prorated
+        assertThat(history.covers(INVALID_UID, null, listOf(OPSTR_CAMERA), 1, end)).isFalse()
+        assertThat(history.covers(INVALID_UID, null, listOf(OPSTR_CAMERA), 0, end - 1))
+                .isFalse()
+    }
+}
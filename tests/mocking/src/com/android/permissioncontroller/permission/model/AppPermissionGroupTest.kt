@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.model
+
+import android.app.ActivityManager
+import android.app.AppOpsManager
+import android.content.Context
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageInfo
+import android.content.pm.PackageManager
+import android.content.pm.PackageManager.FLAG_PERMISSION_AUTO_REVOKED
+import android.content.pm.PackageManager.FLAG_PERMISSION_USER_SET
+import android.content.pm.PackageManager.PERMISSION_DENIED
+import android.content.pm.PermissionGroupInfo
+import android.content.pm.PermissionInfo
+import android.content.res.Configuration
+import android.content.res.Resources
+import android.os.Build
+import android.os.LocaleList
+import android.os.UserHandle
+import android.permission.PermissionManager
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.dx.mockito.inline.extended.ExtendedMockito.mockitoSession
+import com.android.permissioncontroller.permission.utils.Utils
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.MockitoSession
+import org.mockito.quality.Strictness.LENIENT
+import java.util.Locale
+import org.mockito.Mockito.`when` as whenever
+
+@RunWith(AndroidJUnit4::class)
+class AppPermissionGroupTest {
+    companion object {
+        private const val PKG_NAME = "test.app"
+        private const val PERM_NAME = "test.permission.PERM"
+        private const val PERM_GROUP_NAME = "test.permission-group.GROUP"
+        private const val UID = 10123
+    }
+
+    private val context = mock(Context::class.java)
+    private val packageManager = mock(PackageManager::class.java)
+    private val user = UserHandle.getUserHandleForUid(UID)
+
+    private var mockitoSession: MockitoSession? = null
+
+    /** The flags as the platform currently reports them */
+    private var platformFlags = 0
+
+    @Before
+    fun initSystem() {
+        mockitoSession = mockitoSession().mockStatic(Utils::class.java)
+                .strictness(LENIENT).startMocking()
+        whenever(Utils.hasOneTimePermissions(any(), anyString())).thenReturn(false)
+
+        val resources = mock(Resources::class.java)
+        whenever(resources.configuration).thenReturn(Configuration().apply {
+            setLocales(LocaleList(Locale.US))
+        })
+
+        whenever(context.packageManager).thenReturn(packageManager)
+        whenever(context.resources).thenReturn(resources)
+        whenever(context.getSystemService(AppOpsManager::class.java)).thenReturn(
+                mock(AppOpsManager::class.java))
+        whenever(context.getSystemService(ActivityManager::class.java)).thenReturn(
+                mock(ActivityManager::class.java))
+        whenever(context.getSystemService(PermissionManager::class.java)).thenReturn(
+                mock(PermissionManager::class.java))
+        whenever(context.checkPermission(anyString(), anyInt(), anyInt())).thenReturn(
+                PERMISSION_DENIED)
+        whenever(packageManager.getPermissionFlags(eq(PERM_NAME), eq(PKG_NAME), any()))
+                .thenAnswer { platformFlags }
+    }
+
+    @After
+    fun finishMocking() {
+        mockitoSession?.finishMocking()
+    }
+
+    private fun createGroup(granted: Boolean): AppPermissionGroup {
+        val packageInfo = PackageInfo().apply {
+            packageName = PKG_NAME
+            applicationInfo = ApplicationInfo().apply {
+                uid = UID
+                targetSdkVersion = Build.VERSION_CODES.R
+            }
+            requestedPermissions = arrayOf(PERM_NAME)
+            requestedPermissionsFlags = intArrayOf(if (granted) {
+                PackageInfo.REQUESTED_PERMISSION_GRANTED
+            } else {
+                0
+            })
+        }
+        val groupInfo = PermissionGroupInfo().apply {
+            name = PERM_GROUP_NAME
+            packageName = PKG_NAME
+        }
+        val permissionInfo = PermissionInfo().apply {
+            name = PERM_NAME
+            packageName = PKG_NAME
+            group = PERM_GROUP_NAME
+            protectionLevel = PermissionInfo.PROTECTION_DANGEROUS
+        }
+
+        return AppPermissionGroup.create(context, packageInfo, groupInfo,
+                listOf(permissionInfo), "label", "full label", true)
+    }
+
+    @Test
+    fun unchangedStateIsNotWritten() {
+        platformFlags = FLAG_PERMISSION_USER_SET
+        val group = createGroup(granted = true)
+
+        group.grantRuntimePermissions(true, false)
+        group.persistChanges(false)
+
+        // Persisting used to grant and update the flags every time
+        verify(packageManager, never()).grantRuntimePermission(anyString(), anyString(), any())
+        verify(packageManager, never()).updatePermissionFlags(anyString(), anyString(), anyInt(),
+                anyInt(), any())
+        assertThat(group.numPlatformCallsOfLastPersist).isEqualTo(0)
+    }
+
+    @Test
+    fun changedStateIsWritten() {
+        platformFlags = 0
+        val group = createGroup(granted = false)
+
+        group.grantRuntimePermissions(true, false)
+        group.persistChanges(false)
+
+        verify(packageManager).grantRuntimePermission(PKG_NAME, PERM_NAME, user)
+        verify(packageManager).updatePermissionFlags(eq(PERM_NAME), eq(PKG_NAME), anyInt(),
+                eq(FLAG_PERMISSION_USER_SET), eq(user))
+        // The grant and the flag update. The flags are not read again before the update.
+        assertThat(group.numPlatformCallsOfLastPersist).isEqualTo(2)
+    }
+
+    @Test
+    fun persistedStateIsNotWrittenAgain() {
+        platformFlags = 0
+        val group = createGroup(granted = false)
+        group.grantRuntimePermissions(true, false)
+        group.persistChanges(false)
+
+        group.persistChanges(false)
+
+        verify(packageManager, times(1)).grantRuntimePermission(PKG_NAME, PERM_NAME, user)
+        verify(packageManager, times(1)).updatePermissionFlags(anyString(), anyString(),
+                anyInt(), anyInt(), any())
+        assertThat(group.numPlatformCallsOfLastPersist).isEqualTo(0)
+    }
+
+    @Test
+    fun clearingAutoRevokedFlagIsWritten() {
+        platformFlags = FLAG_PERMISSION_USER_SET or FLAG_PERMISSION_AUTO_REVOKED
+        val group = createGroup(granted = false)
+
+        group.grantRuntimePermissions(true, false)
+        group.persistChanges(false)
+
+        verify(packageManager).updatePermissionFlags(eq(PERM_NAME), eq(PKG_NAME),
+                anyInt(), eq(FLAG_PERMISSION_USER_SET), eq(user))
+    }
+
+    @Test
+    fun revokeOnlyWritesIfPermissionIsGranted() {
+        platformFlags = 0
+        val group = createGroup(granted = false)
+
+        group.persistChanges(false)
+
+        verify(packageManager, never()).revokeRuntimePermission(anyString(), anyString(), any())
+        // Only the check of the grant state
+        assertThat(group.numPlatformCallsOfLastPersist).isEqualTo(1)
+    }
+}
@@ -44,6 +44,7 @@ import androidx.test.platform.app.InstrumentationRegistry
 import com.android.dx.mockito.inline.extended.ExtendedMockito.mockitoSession
 import com.android.permissioncontroller.PermissionControllerApplication
 import com.android.permissioncontroller.permission.data.dataRepositories
+import com.android.permissioncontroller.permission.data.sharedApplication
 import org.junit.After
 import org.junit.Before
 import org.junit.Test
@@ -53,7 +54,6 @@ import org.mockito.ArgumentMatchers.anyInt
 import org.mockito.ArgumentMatchers.eq
 import org.mockito.Mock
 import org.mockito.Mockito.anyString
-import org.mockito.Mockito.mock
 import org.mockito.Mockito.never
 import org.mockito.Mockito.timeout
 import org.mockito.Mockito.verify
@@ -67,7 +67,7 @@ import org.mockito.Mockito.`when` as whenever
 class RuntimePermissionsUpgradeControllerTest {
     companion object {
         /** Reuse application mock as we otherwise end up with multiple applications */
-        val application = mock(PermissionControllerApplication::class.java)
+        val application = sharedApplication
 
         init {
             whenever(application.applicationContext).thenReturn(application)
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.permission.utils
+
+import android.content.Context
+import android.content.pm.PackageManager
+import android.content.pm.PackageManager.FLAG_PERMISSION_USER_SENSITIVE_WHEN_DENIED
+import android.content.pm.PackageManager.FLAG_PERMISSION_USER_SENSITIVE_WHEN_GRANTED
+import android.os.Build
+import android.os.UserHandle
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.android.dx.mockito.inline.extended.ExtendedMockito.mockitoSession
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.permission.data.sharedApplication
+import com.android.permissioncontroller.permission.model.livedatatypes.LightPackageInfo
+import com.android.permissioncontroller.permission.model.livedatatypes.UidSensitivityState
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.MockitoSession
+import org.mockito.quality.Strictness.LENIENT
+import org.mockito.Mockito.`when` as whenever
+
+@RunWith(AndroidJUnit4::class)
+class UserSensitiveFlagsUtilsTest {
+    companion object {
+        private const val PERM_NAME = "test.permission.PERM"
+        private const val FLAGS_BOTH = FLAG_PERMISSION_USER_SENSITIVE_WHEN_GRANTED or
+                FLAG_PERMISSION_USER_SENSITIVE_WHEN_DENIED
+    }
+
+    /** Use a unique test package name for each test */
+    private val TEST_PKG_NAME: String
+        get() = Thread.currentThread().stackTrace
+                .filter { it.className == this::class.java.name }[1].methodName
+
+    private val packageManager = mock(PackageManager::class.java)
+    private val user = UserHandle.of(0)
+
+    private var mockitoSession: MockitoSession? = null
+
+    /** The user sensitive flags as the platform currently reports them */
+    private var platformFlags = 0
+
+    @Before
+    fun initSystem() {
+        mockitoSession = mockitoSession().mockStatic(PermissionControllerApplication::class.java)
+                .mockStatic(Utils::class.java).strictness(LENIENT).startMocking()
+        whenever(PermissionControllerApplication.get()).thenReturn(sharedApplication)
+
+        val userContext = mock(Context::class.java)
+        whenever(Utils.getUserContext(any(), any())).thenReturn(userContext)
+        whenever(userContext.packageManager).thenReturn(packageManager)
+        whenever(sharedApplication.packageManager).thenReturn(packageManager)
+        whenever(packageManager.getPermissionFlags(anyString(), anyString(), any())).thenAnswer {
+            platformFlags
+        }
+    }
+
+    @After
+    fun finishMocking() {
+        mockitoSession?.finishMocking()
+    }
+
+    /** Get the uid of the test package, which is the only package of a uid unique to the test */
+    private fun getUid(pkgName: String): Int {
+        return UserHandle.getUid(user.identifier, 10000 + pkgName.hashCode().and(0xfff))
+    }
+
+    /**
+     * Update the flags of the test package.
+     *
+     * @param isFullUpdate Whether to update the test package as the only uid of the user
+     */
+    private fun update(pkgName: String, flags: Int, isFullUpdate: Boolean = false) {
+        val uid = getUid(pkgName)
+        val pkg = LightPackageInfo(pkgName, listOf(), listOf(PERM_NAME), listOf(0), uid,
+                Build.VERSION_CODES.R, false, true, 0, 0L)
+
+        val state = UidSensitivityState(mutableSetOf(pkg), mutableMapOf(PERM_NAME to flags))
+
+        updateUserSensitiveForUidsInternal(mapOf(uid to state), user, null, isFullUpdate)
+    }
+
+    @Test
+    fun appliedFlagsAreNotReadAgain() {
+        platformFlags = 0
+        update(TEST_PKG_NAME, FLAGS_BOTH)
+        platformFlags = FLAGS_BOTH
+
+        update(TEST_PKG_NAME, FLAGS_BOTH)
+
+        verify(packageManager, times(1)).getPermissionFlags(PERM_NAME, TEST_PKG_NAME, user)
+        verify(packageManager, times(1)).updatePermissionFlags(PERM_NAME, TEST_PKG_NAME,
+                FLAGS_BOTH, FLAGS_BOTH, user)
+    }
+
+    @Test
+    fun changedSensitivityIsApplied() {
+        platformFlags = 0
+        update(TEST_PKG_NAME, FLAGS_BOTH)
+        platformFlags = FLAGS_BOTH
+
+        update(TEST_PKG_NAME, 0)
+
+        verify(packageManager).updatePermissionFlags(PERM_NAME, TEST_PKG_NAME, FLAGS_BOTH, 0,
+                user)
+    }
+
+    @Test
+    fun fullUpdateDoesNotReadAppliedFlagsAgain() {
+        platformFlags = 0
+        update(TEST_PKG_NAME, FLAGS_BOTH)
+        platformFlags = FLAGS_BOTH
+
+        update(TEST_PKG_NAME, FLAGS_BOTH, isFullUpdate = true)
+
+        verify(packageManager, times(1)).getPermissionFlags(PERM_NAME, TEST_PKG_NAME, user)
+    }
+
+    @Test
+    fun permissionChangeRepairsFlagsChangedByThePlatform() {
+        platformFlags = 0
+        update(TEST_PKG_NAME, FLAGS_BOTH)
+
+        // E.g. the permissions of the package got reset
+        platformFlags = 0
+        forgetUserSensitiveFlagsOfUid(getUid(TEST_PKG_NAME))
+
+        update(TEST_PKG_NAME, FLAGS_BOTH)
+
+        verify(packageManager, times(2)).getPermissionFlags(PERM_NAME, TEST_PKG_NAME, user)
+        verify(packageManager, times(2)).updatePermissionFlags(PERM_NAME, TEST_PKG_NAME,
+                FLAGS_BOTH, FLAGS_BOTH, user)
+    }
+
+    @Test
+    fun permissionChangeOfOtherUidKeepsRecord() {
+        platformFlags = FLAGS_BOTH
+        update(TEST_PKG_NAME, FLAGS_BOTH)
+
+        forgetUserSensitiveFlagsOfUid(getUid("$TEST_PKG_NAME.other"))
+        update(TEST_PKG_NAME, FLAGS_BOTH)
+
+        verify(packageManager, times(1)).getPermissionFlags(PERM_NAME, TEST_PKG_NAME, user)
+    }
+
+    @Test
+    fun fullUpdateDropsRecordsOfRemovedUids() {
+        val removedPkg = "$TEST_PKG_NAME.removed"
+        platformFlags = FLAGS_BOTH
+        update(removedPkg, FLAGS_BOTH)
+
+        update(TEST_PKG_NAME, FLAGS_BOTH, isFullUpdate = true)
+        update(removedPkg, FLAGS_BOTH)
+
+        verify(packageManager, times(2)).getPermissionFlags(PERM_NAME, removedPkg, user)
+    }
+
+    @Test
+    fun fullUpdateDoesNotWriteUnchangedFlags() {
+        platformFlags = FLAGS_BOTH
+
+        update(TEST_PKG_NAME, FLAGS_BOTH, isFullUpdate = true)
+
+        verify(packageManager).getPermissionFlags(PERM_NAME, TEST_PKG_NAME, user)
+        verify(packageManager, never()).updatePermissionFlags(anyString(), anyString(), anyInt(),
+                anyInt(), any())
+    }
+
+    @Test
+    fun fullUpdateKeepsRecordsOfOtherUsers() {
+        val otherUserPkg = "$TEST_PKG_NAME.other"
+        val otherUser = UserHandle.of(10)
+        val otherUid = UserHandle.getUid(otherUser.identifier, 10001)
+        val pkg = LightPackageInfo(otherUserPkg, listOf(), listOf(PERM_NAME), listOf(0), otherUid,
+                Build.VERSION_CODES.R, false, true, 0, 0L)
+        val state = mapOf(otherUid to UidSensitivityState(mutableSetOf(pkg),
+                mutableMapOf(PERM_NAME to FLAGS_BOTH)))
+        platformFlags = FLAGS_BOTH
+        updateUserSensitiveForUidsInternal(state, otherUser, null)
+
+        update(TEST_PKG_NAME, FLAGS_BOTH, isFullUpdate = true)
+        updateUserSensitiveForUidsInternal(state, otherUser, null)
+
+        verify(packageManager, times(1)).getPermissionFlags(eq(PERM_NAME), eq(otherUserPkg),
+                any())
+    }
+}
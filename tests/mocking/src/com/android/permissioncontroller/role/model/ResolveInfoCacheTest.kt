@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.role.model
+
+import android.content.Intent
+import android.content.pm.ResolveInfo
+import android.net.Uri
+import android.os.UserHandle
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.dx.mockito.inline.extended.ExtendedMockito.mockitoSession
+import com.android.permissioncontroller.PermissionControllerApplication
+import com.android.permissioncontroller.permission.data.PackageBroadcastReceiver
+import com.android.permissioncontroller.permission.data.sharedApplication
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.MockitoSession
+import org.mockito.quality.Strictness.LENIENT
+import org.mockito.Mockito.`when` as whenever
+
+@RunWith(AndroidJUnit4::class)
+class ResolveInfoCacheTest {
+    private val user = UserHandle.of(0)
+    private val otherUser = UserHandle.of(10)
+    private val intentFilterData = IntentFilterData(Intent.ACTION_MAIN, emptyList(), null, null)
+
+    private var mockitoSession: MockitoSession? = null
+
+    private var numQueries = 0
+
+    @Before
+    fun resetCache() {
+        // The cache registers for package broadcasts through the application
+        mockitoSession = mockitoSession().mockStatic(PermissionControllerApplication::class.java)
+                .strictness(LENIENT).startMocking()
+        whenever(PermissionControllerApplication.get()).thenReturn(sharedApplication)
+
+        ResolveInfoCache.invalidateAll()
+        numQueries = 0
+    }
+
+    @After
+    fun finishMocking() {
+        mockitoSession?.finishMocking()
+    }
+
+    private fun query(user: UserHandle, onQuery: () -> Unit = {}): List<ResolveInfo> {
+        return ResolveInfoCache.queryAsUser(RequiredActivity::class.java, intentFilterData, 0,
+            user) {
+            numQueries++
+            onQuery()
+            listOf(ResolveInfo())
+        }
+    }
+
+    @Test
+    fun repeatedQueryIsServedFromCache() {
+        val first = query(user)
+        val second = query(user)
+
+        assertThat(numQueries).isEqualTo(1)
+        assertThat(second).isSameInstanceAs(first)
+    }
+
+    @Test
+    fun invalidateAsUserOnlyDropsThatUser() {
+        query(user)
+        query(otherUser)
+
+        ResolveInfoCache.invalidateAsUser(otherUser)
+        query(user)
+        query(otherUser)
+
+        assertThat(numQueries).isEqualTo(3)
+    }
+
+    @Test
+    fun queryInFlightDuringInvalidateAsUserIsNotCached() {
+        query(user) { ResolveInfoCache.invalidateAsUser(user) }
+        query(user)
+
+        assertThat(numQueries).isEqualTo(2)
+    }
+
+    @Test
+    fun queryInFlightDuringInvalidateAllIsNotCachedForUncachedUser() {
+        // Nothing is cached for the user yet while the query is in flight
+        query(otherUser) { ResolveInfoCache.invalidateAll() }
+        query(otherUser)
+
+        assertThat(numQueries).isEqualTo(2)
+    }
+
+    @Test
+    fun queryInFlightDuringPackageBroadcastIsNotCached() {
+        val intent = Intent(Intent.ACTION_PACKAGE_CHANGED, Uri.fromParts("package", "test.pkg",
+                null)).putExtra(Intent.EXTRA_UID, UserHandle.getUid(user.identifier, 10123))
+        query(user) { receivePackageBroadcast(intent) }
+        query(user)
+
+        assertThat(numQueries).isEqualTo(2)
+    }
+
+    @Test
+    fun queryInFlightDuringPackageBroadcastWithoutUidIsNotCached() {
+        val intent = Intent(Intent.ACTION_PACKAGE_CHANGED, Uri.fromParts("package", "test.pkg",
+                null))
+        query(otherUser) { receivePackageBroadcast(intent) }
+        query(otherUser)
+
+        assertThat(numQueries).isEqualTo(2)
+    }
+
+    private fun receivePackageBroadcast(intent: Intent) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync {
+            PackageBroadcastReceiver.onReceive(sharedApplication, intent)
+        }
+    }
+}
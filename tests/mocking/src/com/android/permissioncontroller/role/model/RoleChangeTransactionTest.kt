@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.permissioncontroller.role.model
+
+import android.app.AppOpsManager
+import android.app.AppOpsManager.MODE_ALLOWED
+import android.app.AppOpsManager.MODE_ERRORED
+import android.app.AppOpsManager.MODE_IGNORED
+import android.app.AppOpsManager.OPSTR_CAMERA
+import android.content.Context
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageManager
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.`when` as whenever
+
+@RunWith(AndroidJUnit4::class)
+class RoleChangeTransactionTest {
+    companion object {
+        private const val PKG_NAME = "test.app"
+        private const val UID = 10123
+    }
+
+    private val context = mock(Context::class.java)
+    private val packageManager = mock(PackageManager::class.java)
+    private val appOpsManager = mock(AppOpsManager::class.java)
+
+    /** The UID modes as the platform currently has them, unset if absent */
+    private val uidModes = mutableMapOf<String, Int>()
+    /** The package modes as the platform currently has them, unset if absent */
+    private val packageModes = mutableMapOf<String, Int>()
+
+    @Before
+    fun initSystem() {
+        whenever(context.packageManager).thenReturn(packageManager)
+        whenever(context.getSystemService(AppOpsManager::class.java)).thenReturn(appOpsManager)
+        whenever(packageManager.getApplicationInfo(eq(PKG_NAME), anyInt())).thenReturn(
+                ApplicationInfo().apply {
+                    packageName = PKG_NAME
+                    uid = UID
+                })
+
+        whenever(appOpsManager.unsafeCheckOpRaw(anyString(), eq(UID), eq(PKG_NAME))).thenAnswer {
+            val op = it.arguments[0] as String
+            uidModes[op] ?: getPackageMode(op)
+        }
+        whenever(appOpsManager.getOpsForPackage(eq(UID), eq(PKG_NAME), anyString())).thenAnswer {
+            val op = it.arguments[2] as String
+            val opEntry = mock(AppOpsManager.OpEntry::class.java)
+            whenever(opEntry.mode).thenReturn(getPackageMode(op))
+            val packageOps = mock(AppOpsManager.PackageOps::class.java)
+            whenever(packageOps.ops).thenReturn(listOf(opEntry))
+            listOf(packageOps)
+        }
+        doAnswer {
+            val op = it.arguments[0] as String
+            val mode = it.arguments[2] as Int
+            // Like the platform, setting the default mode unsets the UID mode
+            if (mode == AppOpsManager.opToDefaultMode(op)) {
+                uidModes.remove(op)
+            } else {
+                uidModes[op] = mode
+            }
+        }.`when`(appOpsManager).setUidMode(anyString(), eq(UID), anyInt())
+        doAnswer {
+            packageModes[it.arguments[0] as String] = it.arguments[3] as Int
+        }.`when`(appOpsManager).setMode(anyString(), eq(UID), eq(PKG_NAME), anyInt())
+    }
+
+    private fun getPackageMode(op: String): Int {
+        return packageModes[op] ?: AppOpsManager.opToDefaultMode(op)
+    }
+
+    @Test
+    fun rollbackOfPackageModeRestoresPackageMode() {
+        uidModes[OPSTR_CAMERA] = MODE_IGNORED
+        packageModes[OPSTR_CAMERA] = MODE_ERRORED
+        val transaction = RoleChangeTransaction(PKG_NAME, context)
+
+        transaction.setAppOpMode(OPSTR_CAMERA, MODE_ALLOWED, false)
+        transaction.rollback()
+
+        // The raw mode was the UID mode, which must not end up as the package mode
+        assertThat(packageModes[OPSTR_CAMERA]).isEqualTo(MODE_ERRORED)
+        assertThat(uidModes[OPSTR_CAMERA]).isEqualTo(MODE_IGNORED)
+    }
+
+    @Test
+    fun rollbackOfUidModeRestoresUidMode() {
+        uidModes[OPSTR_CAMERA] = MODE_ERRORED
+        packageModes[OPSTR_CAMERA] = MODE_IGNORED
+        val transaction = RoleChangeTransaction(PKG_NAME, context)
+
+        transaction.setAppOpMode(OPSTR_CAMERA, MODE_ALLOWED, true)
+        transaction.rollback()
+
+        assertThat(uidModes[OPSTR_CAMERA]).isEqualTo(MODE_ERRORED)
+        assertThat(packageModes[OPSTR_CAMERA]).isEqualTo(MODE_IGNORED)
+    }
+
+    @Test
+    fun rollbackOfUidModeUnsetsUidModeThatWasNotSet() {
+        packageModes[OPSTR_CAMERA] = MODE_IGNORED
+        val transaction = RoleChangeTransaction(PKG_NAME, context)
+
+        transaction.setAppOpMode(OPSTR_CAMERA, MODE_ERRORED, true)
+        transaction.rollback()
+
+        // The raw mode was the package mode, which must not end up as the UID mode
+        assertThat(uidModes).doesNotContainKey(OPSTR_CAMERA)
+        assertThat(packageModes[OPSTR_CAMERA]).isEqualTo(MODE_IGNORED)
+    }
+}